@@ -0,0 +1,222 @@
+package com.tongfangpc.board.whiteboard.input;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Debug;
+import android.view.MotionEvent;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.tongfangpc.board.whiteboard.config.PenStyle;
+import com.tongfangpc.board.whiteboard.config.PenStyleRegistry;
+import com.tongfangpc.board.whiteboard.render.DirtyRegion;
+import com.tongfangpc.board.whiteboard.render.LiveStroke;
+import com.tongfangpc.board.whiteboard.render.LiveStrokeLayer;
+import com.tongfangpc.board.whiteboard.render.LiveStrokes;
+import com.tongfangpc.board.whiteboard.render.RenderScheduler;
+import com.tongfangpc.board.whiteboard.render.Viewport;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * 书写热路径在设备上的内存分配测试：AllocationFreeMoveTest在本地JVM上构造不了MotionEvent，
+ * 这里用打包了历史采样的真实MotionEvent，经过MotionSampler.collect、命令队列、
+ * 渲染线程的LiveStrokes(WhiteboardView的commandConsumer对笔画命令的处理)和LiveStrokeLayer，
+ * 按本帧的脏区域把正在书写的一笔画到Canvas上；预热之后统计当前线程分配的对象数，稳定状态下应当为0
+ */
+@RunWith(AndroidJUnit4.class)
+public class AllocationFreeMoveInstrumentedTest {
+
+    /*
+    每个MOVE事件打包的采样数量，包括历史采样和当前采样
+     */
+    static final int SAMPLES_PER_EVENT = 4;
+
+    static final int EVENT_COUNT = 1000;
+
+    /*
+    立即执行帧回调的时钟，帧回调对象由RenderScheduler预先创建
+     */
+    static class DirectClock implements RenderScheduler.FrameClock {
+        @Override
+        public void postFrameCallback(Runnable frame) {
+            frame.run();
+        }
+
+        @Override
+        public void removeFrameCallback(Runnable frame) {
+        }
+    }
+
+    /*
+    渲染线程一侧：执行笔画命令，取走本帧的脏区域，像renderFrame一样只在脏区域内重画正在书写的一笔
+     */
+    static class RenderSide implements Runnable, LiveStrokes.Factory<LiveStroke> {
+        final StrokeCommandQueue queue;
+        final DirtyRegion dirtyRegion = new DirtyRegion();
+        final DirtyRegion frameDirtyRegion = new DirtyRegion();
+        final LiveStrokeLayer layer = new LiveStrokeLayer();
+        final LiveStrokes<LiveStroke> liveStrokes;
+        final Bitmap bitmap = Bitmap.createBitmap(512, 512, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        final Paint paint = new Paint();
+        final RectF clip = new RectF();
+        int frames;
+
+        RenderSide(StrokeCommandQueue queue, PenStyleRegistry styleRegistry) {
+            this.queue = queue;
+            liveStrokes = new LiveStrokes<>(1, this, styleRegistry, new Viewport(), dirtyRegion, 2);
+            paint.setAntiAlias(true);
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeCap(Paint.Cap.ROUND);
+            paint.setStrokeJoin(Paint.Join.ROUND);
+        }
+
+        @Override
+        public LiveStroke create() {
+            return new LiveStroke(layer);
+        }
+
+        @Override
+        public void run() {
+            queue.drain(liveStrokes);
+            dirtyRegion.drainTo(frameDirtyRegion);
+            if (frameDirtyRegion.isEmpty()) {
+                return;
+            }
+            LiveStroke stroke = liveStrokes.activeSlot(0);
+            //视口没有缩放和平移，屏幕坐标就是世界坐标
+            clip.set(frameDirtyRegion.getLeft(), frameDirtyRegion.getTop(),
+                    frameDirtyRegion.getRight(), frameDirtyRegion.getBottom());
+            canvas.save();
+            canvas.clipRect(clip);
+            if (stroke != null) {
+                paint.setColor(stroke.getStyle().getColor());
+                paint.setStrokeWidth(stroke.getStrokeWidth());
+                layer.draw(canvas, paint, clip, stroke.getStrokeWidth() / 2);
+            }
+            canvas.restore();
+            frames++;
+        }
+    }
+
+    StrokeCommandQueue queue;
+    PenStyle style;
+    StrokeRecorder recorder;
+    RenderSide renderSide;
+    RenderScheduler scheduler;
+
+    /*
+    预先创建的MOVE事件，创建MotionEvent本身会分配，不计入统计
+     */
+    MotionEvent[] events;
+
+    /*
+    检查分配计数是否可用时分配的对象
+     */
+    Object probe;
+
+    @Before
+    public void setUp() {
+        queue = new StrokeCommandQueue();
+        recorder = new StrokeRecorder(new SampleFilter(), queue);
+        PenStyleRegistry styleRegistry = new PenStyleRegistry();
+        style = styleRegistry.intern(0xff000000, 5);
+        renderSide = new RenderSide(queue, styleRegistry);
+        scheduler = new RenderScheduler(renderSide);
+        DirectClock clock = new DirectClock();
+        scheduler.attach(clock, clock);
+
+        events = new MotionEvent[EVENT_COUNT];
+        for (int event = 0; event < EVENT_COUNT; event++) {
+            MotionEvent motionEvent = null;
+            for (int i = 0; i < SAMPLES_PER_EVENT; i++) {
+                float x = event * 16 + i * 4;
+                float y = event * 8 + i * 2;
+                long time = (event * SAMPLES_PER_EVENT + i + 1) * 2;
+                if (motionEvent == null) {
+                    motionEvent = MotionEvent.obtain(0, time, MotionEvent.ACTION_MOVE, x, y, 0);
+                } else {
+                    motionEvent.addBatch(time, x, y, 1, 1, 0);
+                }
+            }
+            events[event] = motionEvent;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (MotionEvent event : events) {
+            event.recycle();
+        }
+        renderSide.bitmap.recycle();
+    }
+
+    void down() {
+        recorder.begin(0, 0, 0, 1, style.getId());
+        scheduler.requestRender();
+    }
+
+    /*
+    一次MOVE事件，与WhiteboardView.onTouchEvent一致：读取打包的采样，过滤后写入队列，请求渲染，渲染线程画出一帧
+     */
+    void move(MotionEvent event) {
+        if (MotionSampler.collect(event, recorder) > 0) {
+            scheduler.requestRender();
+        }
+    }
+
+    void up() {
+        recorder.finish();
+        queue.offerCommand(StrokeCommandQueue.OP_END, 0, 0, 0, 0, 0);
+        scheduler.requestRender();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void moveEvents_allocateNothingOnceWarmedUp() {
+        //预热：让采样数组和分段的Path扩容到足够大，并让JIT完成编译
+        for (int stroke = 0; stroke < 20; stroke++) {
+            down();
+            for (MotionEvent event : events) {
+                move(event);
+            }
+            up();
+        }
+
+        Debug.startAllocCounting();
+        try {
+            //部分运行时不支持分配计数，此时跳过
+            Debug.resetThreadAllocCount();
+            probe = new Object[16];
+            Assume.assumeTrue(Debug.getThreadAllocCount() > 0);
+
+            down();
+            int framesBefore = renderSide.frames;
+            Debug.resetThreadAllocCount();
+            for (MotionEvent event : events) {
+                move(event);
+            }
+            int allocated = Debug.getThreadAllocCount();
+
+            assertEquals(EVENT_COUNT * SAMPLES_PER_EVENT, recorder.getBuilder().getPointCount());
+            LiveStroke stroke = renderSide.liveStrokes.activeSlot(0);
+            assertNotNull(stroke);
+            assertEquals(EVENT_COUNT * SAMPLES_PER_EVENT, stroke.getBuilder().getPointCount());
+            assertEquals(EVENT_COUNT, renderSide.frames - framesBefore);
+            assertEquals("objects allocated by " + EVENT_COUNT + " MOVE events", 0, allocated);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        up();
+        assertNull(renderSide.liveStrokes.activeSlot(0));
+    }
+}
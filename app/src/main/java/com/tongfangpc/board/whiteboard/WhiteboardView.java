@@ -1,21 +1,34 @@
 package com.tongfangpc.board.whiteboard;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PathMeasure;
 import android.graphics.PointF;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -25,21 +38,78 @@ import android.view.SurfaceView;
 import androidx.annotation.NonNull;
 
 import com.tongfangpc.board.whiteboard.actions.Action;
+import com.tongfangpc.board.whiteboard.actions.EraseAction;
+import com.tongfangpc.board.whiteboard.actions.LazyPathAction;
 import com.tongfangpc.board.whiteboard.actions.PathAction;
+import com.tongfangpc.board.whiteboard.cache.BitmapKeyframeCache;
+import com.tongfangpc.board.whiteboard.cache.KeyframeCache;
+import com.tongfangpc.board.whiteboard.cache.ResumeCache;
+import com.tongfangpc.board.whiteboard.config.BackgroundConfig;
 import com.tongfangpc.board.whiteboard.config.PenConfig;
+import com.tongfangpc.board.whiteboard.config.PenPaintCache;
+import com.tongfangpc.board.whiteboard.config.PenStyle;
+import com.tongfangpc.board.whiteboard.config.PenStyleRegistry;
+import com.tongfangpc.board.whiteboard.export.BoardExporter;
+import com.tongfangpc.board.whiteboard.export.ExportOptions;
+import com.tongfangpc.board.whiteboard.export.ExportSnapshot;
+import com.tongfangpc.board.whiteboard.history.ActionHistory;
+import com.tongfangpc.board.whiteboard.index.IntArray;
+import com.tongfangpc.board.whiteboard.index.SpatialIndex;
+import com.tongfangpc.board.whiteboard.metrics.BoardMetrics;
+import com.tongfangpc.board.whiteboard.input.MotionSampler;
+import com.tongfangpc.board.whiteboard.input.SampleFilter;
+import com.tongfangpc.board.whiteboard.input.StrokeCommandQueue;
+import com.tongfangpc.board.whiteboard.input.StrokeRecorder;
+import com.tongfangpc.board.whiteboard.render.BackgroundLayer;
+import com.tongfangpc.board.whiteboard.render.ChoreographerFrameClock;
+import com.tongfangpc.board.whiteboard.render.DirtyRegion;
+import com.tongfangpc.board.whiteboard.render.HandlerFrameClock;
+import com.tongfangpc.board.whiteboard.render.IntervalFrameClock;
+import com.tongfangpc.board.whiteboard.render.LiveStroke;
+import com.tongfangpc.board.whiteboard.render.LiveStrokeLayer;
+import com.tongfangpc.board.whiteboard.render.LiveStrokes;
+import com.tongfangpc.board.whiteboard.render.ParallelRasterizer;
+import com.tongfangpc.board.whiteboard.render.RenderScheduler;
+import com.tongfangpc.board.whiteboard.render.RenderStats;
+import com.tongfangpc.board.whiteboard.render.Viewport;
+import com.tongfangpc.board.whiteboard.session.SessionController;
+import com.tongfangpc.board.whiteboard.session.SessionJournal;
+import com.tongfangpc.board.whiteboard.session.SessionReader;
+import com.tongfangpc.board.whiteboard.session.SessionSnapshot;
+import com.tongfangpc.board.whiteboard.session.SessionWriter;
+import com.tongfangpc.board.whiteboard.stroke.InkOutline;
+import com.tongfangpc.board.whiteboard.stroke.LinearStrokePredictor;
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+import com.tongfangpc.board.whiteboard.stroke.StrokeBuilder;
+import com.tongfangpc.board.whiteboard.stroke.StrokePredictor;
+import com.tongfangpc.board.whiteboard.stroke.StrokeSimplifier;
+import com.tongfangpc.board.whiteboard.tile.BaseLayer;
+import com.tongfangpc.board.whiteboard.tile.BoundsLog;
+import com.tongfangpc.board.whiteboard.tile.TileGrid;
+import com.tongfangpc.board.whiteboard.tile.TiledBoard;
 
 /*
 白班画图视图View，实现基本的笔画、橡皮擦、上一步、下一步等操作；
 WhiteboardView的更新没有放在主线程，而通过HandlerThread进行更新，通过绘画线程更新，防止绘画计算量大而卡顿主线程。
+UI线程只负责采集输入、维护历史记录，并把笔画命令写入无锁的StrokeCommandQueue，
+缓冲区bitmap、bufferCanvas和正在书写的Path只在渲染线程上读写，两个线程之间没有数据竞争。
 WhiteboardView的绘图更新，采用了缓冲区策略，在内存中开辟大小一致的Bitmap，同步渲染历史记录，
-在每个更新渲染函数render中，只做核心两件事：
-1、将包含历史绘图记录的缓冲区bitmap贴到显示区
-2、将最新的一次更新绘制到显示区
+在每个更新渲染函数render中，按层次依次合成：
+1、背景层(BackgroundLayer)：纯色、网格和底图有自己的栅格，只在背景配置或视口变化时重画
+2、将包含历史绘图记录的缓冲区bitmap贴到显示区，缓冲区是透明的，只包含笔迹，undo/redo重放时不会重画背景
+3、将最新的一次更新绘制到显示区
 这样大大提高了运算的效率，不用每次更新都从头画到尾；
+开启分块模式(setTiledCanvasEnabled)之后，缓冲区换成按需栅格化的方块(TiledBoard)，画板可以超出一屏滚动，
+并且可以双指缩放和平移：手势过程中缩放显示已有的方块，手势结束后在后台按新的比例重新栅格化。
  */
 public class WhiteboardView extends SurfaceView implements SurfaceHolder.Callback, Renderable {
     static String TAG = WhiteboardView.class.getSimpleName();
 
+    /*
+    书写和渲染的热路径上的调试日志开关，关闭时不会拼接日志字符串
+     */
+    static final boolean DEBUG_LOG = false;
+
     /*
     该类从外部接收渲染的通知信号，并将渲染的通知发送给HandlerThread，
     使得HandlerThread在子线程对surfaceview进行更新
@@ -74,6 +144,21 @@ public class WhiteboardView extends SurfaceView implements SurfaceHolder.Callbac
      */
     RenderThreadHandler renderThreadHandler;
 
+    /*
+    渲染请求调度，默认把一帧之内的多次请求合并为一次渲染
+     */
+    final RenderScheduler renderScheduler = new RenderScheduler(new Runnable() {
+        @Override
+        public void run() {
+            render();
+        }
+    });
+
+    /*
+    帧对齐模式下的帧间隔，0表示跟随vsync(Choreographer)，大于0时使用固定间隔的时钟
+     */
+    long frameIntervalMillis = 0;
+
 
     SurfaceHolder surfaceHolder;
 
@@ -88,180 +173,2074 @@ public class WhiteboardView extends SurfaceView implements SurfaceHolder.Callbac
     Canvas bufferCanvas;
 
     /*
-    所有的行为轨迹集合列表
+    所有的行为轨迹集合，内部维护nextDoIndex：
+    永远指向下一个当前可写笔画(Path)在行为轨迹集合中的下一个合法可写入的位置索引，
+    为undo和redo操作提供计算依据
+     */
+    ActionHistory<Action> historicActions;
+
+    /*
+    缓冲区的关键帧缓存，undo、redo和surface重建时从最近的关键帧恢复，只重绘其后的少量行为
+     */
+    BitmapKeyframeCache keyframeCache;
+
+    /*
+    关键帧缓存在缓冲区上的操作实现
+     */
+    final KeyframeCache.Replayer<Bitmap> bufferReplayer = new KeyframeCache.Replayer<Bitmap>() {
+        @Override
+        public void clear() {
+            bitmapBuffer.eraseColor(Color.TRANSPARENT);
+            rebuildBase.draw(bufferCanvas, bufferWorld);
+        }
+
+        @Override
+        public void restore(Bitmap frame) {
+            bufferCanvas.drawBitmap(frame, 0, 0, copyPaint);
+        }
+
+        @Override
+        public void replay(int index) {
+            Action action;
+            synchronized (historicActions) {
+                //重建命令入队之后历史记录可能又被截断或者压缩，越界的部分由之后的命令处理
+                if (index < historicActions.getBase() || index >= historicActions.size()) {
+                    return;
+                }
+                action = historicActions.get(index);
+            }
+            action.draw(bufferCanvas);
+        }
+
+        @Override
+        public Bitmap capture() {
+            return BitmapKeyframeCache.snapshot(bitmapBuffer);
+        }
+
+        @Override
+        public long frameBytes() {
+            Bitmap buffer = bitmapBuffer;
+            return buffer != null ? buffer.getByteCount() : 0;
+        }
+    };
+
+    /*
+    从关键帧起需要重放的行为不少于它时，改为在多个线程上按条带并行重建整个缓冲区
+     */
+    static final int PARALLEL_REBUILD_MIN_ACTIONS = 64;
+
+    /*
+    并行重建使用的线程数，不大于1时总是从关键帧顺序重放
+     */
+    volatile int rebuildThreadCount = ParallelRasterizer.defaultThreadCount();
+
+    /*
+    并行重建的线程池和条带分配，第一次使用时在渲染线程上创建，surface销毁时结束
+     */
+    ParallelRasterizer<RebuildBand> parallelRasterizer;
+
+    /*
+    超出undo范围、已经从历史记录中释放的行为合成的底层栅格；
+    在UI线程和渲染线程上持有historicActions的锁与历史记录一起替换，读取方在同一把锁内取得与历史记录一致的Snapshot
+     */
+    final BaseLayer baseLayer = new BaseLayer();
+
+    /*
+    渲染线程上一次重建使用的底层栅格，在取得重建的目标时一起取得，条带的工作线程也读取它
+     */
+    BaseLayer.Snapshot rebuildBase = baseLayer.getSnapshot();
+
+    /*
+    位图模式下缓冲区对应的世界坐标范围，世界坐标与屏幕坐标一致
+     */
+    final RectF bufferWorld = new RectF();
+
+    /*
+    一次并行重建要画的行为，在锁内按历史顺序收集，条带中记录的是它们在这里的位置
+     */
+    final ArrayList<Action> rebuildActions = new ArrayList<>();
+
+    /*
+    并行重建的一个条带：条带大小的Bitmap、画在它上面的Canvas和它对应的世界坐标范围，在多次重建之间复用
+     */
+    static final class RebuildBand {
+        final Bitmap bitmap;
+        final Canvas canvas;
+        final RectF world;
+
+        RebuildBand(int width, int height) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(bitmap);
+            world = new RectF();
+        }
+    }
+
+    /*
+    并行重建的条带：工作线程上各自画到一个条带，渲染线程再依次贴到缓冲区
+     */
+    final ParallelRasterizer.Painter<RebuildBand> bandPainter = new ParallelRasterizer.Painter<RebuildBand>() {
+        @Override
+        public RebuildBand createBand(int width, int height) {
+            return new RebuildBand(width, height);
+        }
+
+        @Override
+        public void paint(RebuildBand band, int top, IntArray items) {
+            Bitmap bitmap = band.bitmap;
+            Canvas canvas = band.canvas;
+            bitmap.eraseColor(Color.TRANSPARENT);
+            canvas.save();
+            canvas.translate(0, -top);
+            band.world.set(0, top, bitmap.getWidth(), top + bitmap.getHeight());
+            rebuildBase.draw(canvas, band.world);
+            for (int i = 0, count = items.size(); i < count; i++) {
+                rebuildActions.get(items.get(i)).draw(canvas);
+            }
+            canvas.restore();
+        }
+
+        @Override
+        public void compose(RebuildBand band, int top) {
+            bufferCanvas.drawBitmap(band.bitmap, 0, top, copyPaint);
+        }
+
+        @Override
+        public void recycle(RebuildBand band) {
+            band.bitmap.recycle();
+        }
+    };
+
+    /*
+    UI线程到渲染线程的笔画命令队列
+     */
+    StrokeCommandQueue commandQueue;
+
+    /*
+    渲染线程消费命令的实现
+     */
+    final StrokeCommandQueue.Consumer commandConsumer = new StrokeCommandQueue.Consumer() {
+        @Override
+        public void onCommand(int op, int arg, float x, float y, long time, float pressure) {
+            applyCommand(op, arg, x, y, time, pressure);
+        }
+    };
+
+    /*
+    同时书写的最多笔画数，多指书写时每根手指占用一个槽位
+     */
+    public static final int MAX_POINTERS = 10;
+
+    /*
+    渲染线程上每个槽位正在书写的一笔，执行笔画命令；
+    低延迟书写模式(liveStrokes.isLowLatency)：输入事件不经批处理立即送达，采样点到达后不等vsync立即渲染，
+    正在书写的一笔分段绘制，末端画出一小段预测的尾巴，已提交的栅格在笔画结束之前保持不变
+     */
+    LiveStrokes<RenderSlot> liveStrokes;
+
+    /*
+    预测的时长(毫秒)，大致等于输入到上屏的延迟
+     */
+    volatile float predictionHorizonMillis = DEFAULT_PREDICTION_HORIZON;
+
+    public static final float DEFAULT_PREDICTION_HORIZON = 16;
+
+    /*
+    预测的尾巴最长的屏幕像素，避免急停时画出过长的一段
+     */
+    static final float MAX_PREDICTION_PX = 48;
+
+    /*
+    低延迟模式下书写期间推迟换上后台栅格化的方块，笔画结束后再换上
+     */
+    boolean tileInstallDeferred;
+
+    /*
+    渲染线程上脏区域对应的世界坐标范围
+     */
+    final RectF frameWorldClip = new RectF();
+
+    /*
+    UI线程过滤并收集当前笔画的原始采样点，写入命令队列，笔画结束时生成紧凑的Stroke存入历史记录
+     */
+    StrokeRecorder strokeRecorder;
+
+    /*
+    是否开启多指书写：每根手指各自书写一笔，用于多人同时在大屏上书写；开启后不再响应双指缩放
+     */
+    boolean multiTouchInk;
+
+    /*
+    多指书写时每个槽位的StrokeRecorder，槽位0就是strokeRecorder，其它的第一次使用时创建
+     */
+    final StrokeRecorder[] strokeRecorders = new StrokeRecorder[MAX_POINTERS];
+
+    /*
+    多指书写时每个槽位上正在书写的指针id，-1表示空闲
+     */
+    final int[] slotPointerIds = new int[MAX_POINTERS];
+
+    /*
+    当前的触摸序列是否按多指书写处理，在ACTION_DOWN时确定
+     */
+    boolean multiTouchGesture;
+
+    /*
+    输入采样的过滤阈值，新创建的StrokeRecorder使用
+     */
+    float inputMinDistance = SampleFilter.DEFAULT_MIN_DISTANCE;
+    long inputMaxIdleMillis = SampleFilter.DEFAULT_MAX_IDLE_MILLIS;
+
+    /*
+    笔画提交前的简化，去掉在误差范围内冗余的采样点
+     */
+    final StrokeSimplifier strokeSimplifier = new StrokeSimplifier();
+
+    /*
+    是否让历史记录中的笔画缓存绘制用的Path，开启后重绘更快，但每一笔都会常驻一个Path对象
+     */
+    boolean cacheStrokePaths = false;
+
+    /*
+    两次render之间累积的脏区域，只在渲染线程上读写
+     */
+    final DirtyRegion dirtyRegion = new DirtyRegion();
+
+    /*
+    渲染线程本帧使用的脏区域和锁定区域，复用以避免每帧分配
+     */
+    final DirtyRegion frameDirtyRegion = new DirtyRegion();
+    final Rect dirtyRect = new Rect();
+
+    /*
+    每帧贴图的像素统计
+     */
+    final RenderStats renderStats = new RenderStats();
+
+    /*
+    运行指标：输入延迟、渲染耗时、命令积压、重建耗时和Bitmap内存
+     */
+    final BoardMetrics metrics = new BoardMetrics();
+
+    /*
+    surface重建之后需要重放历史记录恢复画面，渲染线程下一次重建的耗时计入恢复；
+    在surfaceCreated中设置，由渲染线程清除
+     */
+    boolean resumeReplayPending;
+
+    /*
+    定期采集指标的周期(毫秒)和接收快照的回调，只在UI线程上访问
+     */
+    long metricsIntervalMillis;
+    BoardMetrics.Listener metricsListener;
+
+    /*
+    在UI线程上定期采集一次指标快照，输出到日志并交给回调，之后开始新的统计周期
+     */
+    final Runnable metricsDump = new Runnable() {
+        @Override
+        public void run() {
+            BoardMetrics.Snapshot snapshot = metrics.snapshot(true);
+            Log.i(TAG, "metrics " + snapshot);
+            if (metricsListener != null) {
+                metricsListener.onMetrics(snapshot);
+            }
+            if (metricsIntervalMillis > 0) {
+                postDelayed(this, metricsIntervalMillis);
+            }
+        }
+    };
+
+    /*
+    surface销毁期间保留的已提交笔画栅格
+     */
+    final ResumeCache resumeCache = new ResumeCache();
+
+    /*
+    把保留的栅格写盘的线程，第一次trimMemory时创建，之后的写盘都在它上面按顺序进行；只在UI线程上访问
+     */
+    ExecutorService spillExecutor;
+
+    final Runnable spillTask = new Runnable() {
+        @Override
+        public void run() {
+            resumeCache.spill();
+        }
+    };
+
+    /*
+    surfaceCreated的时间，第一帧上屏之后清零
+     */
+    volatile long resumeStartNanos;
+
+    /*
+    本次恢复画面的方式
+     */
+    volatile int resumeSource;
+
+    /*
+    渲染线程在处理命令之前先从磁盘恢复栅格，值为恢复失败时重放的目标索引，-1表示不需要
+     */
+    volatile int pendingDiskRestore = -1;
+
+    /*
+    是否使用分块的无限画布，在下一次surface创建时生效
+     */
+    boolean tiledCanvasEnabled;
+
+    /*
+    分块模式下替代bitmapBuffer的已提交笔画栅格，为null表示不是分块模式；
+    在surfaceCreated中创建，之后只在渲染线程上使用，surface销毁期间方块仍然保留
+     */
+    TiledBoard tiledBoard;
+
+    /*
+    UI线程上的视口：屏幕左上角对应的世界坐标和缩放比例，只在分块模式下不是原点和1倍
+     */
+    final Viewport viewport = new Viewport();
+
+    /*
+    渲染线程上的视口，由OP_VIEWPORT命令同步
+     */
+    final Viewport renderViewport = new Viewport();
+
+    /*
+    渲染线程上世界坐标到屏幕坐标的变换，绘制当前笔画时使用
+     */
+    final Matrix renderMatrix = new Matrix();
+
+    /*
+    渲染线程上当前比例对应的方块级别
+     */
+    int renderLevel;
+
+    /*
+    渲染线程上是否处于缩放、平移手势中，手势中只缩放显示已有的方块，不请求重新栅格化
+     */
+    boolean renderGesturing;
+
+    /*
+    UI线程上的手势状态：strokeActive表示当前触摸正在书写，gestureActive表示正在双指缩放、平移，
+    gestureFocus和gestureSpan是上一次的手指中心和手指间距
+     */
+    boolean strokeActive;
+    boolean gestureActive;
+    float gestureFocusX;
+    float gestureFocusY;
+    float gestureSpan;
+
+    /*
+    渲染线程已经画进栅格的行为数量，即历史记录中[0, renderTarget)的行为
+     */
+    int renderTarget;
+
+    /*
+    分块模式下每个历史索引上画进方块的行为的范围，undo、redo时据此让方块失效
+     */
+    final BoundsLog boundsLog = new BoundsLog();
+
+    /*
+    渲染线程计算失效范围时复用的对象
+     */
+    final RectF actionBounds = new RectF();
+    final float[] invalidBounds = new float[4];
+
+    /*
+    当前surface的尺寸
+     */
+    int surfaceWidth;
+    int surfaceHeight;
+
+    /*
+    历史记录中行为范围的空间索引，索引号与历史记录一致；
+    在UI线程上持有historicActions的锁维护，其它线程也在同一把锁内查询
+     */
+    final SpatialIndex spatialIndex = new SpatialIndex();
+
+    /*
+    通过空间索引找出与区域相交、并且在[0, target)生效时仍然可见的行为，按历史顺序绘制：
+    查询在锁内进行，绘制在锁外进行；每个实例的临时容器只能在一个线程上使用
+     */
+    final class VisibleActionSource implements TiledBoard.Source, EraseAction.Redrawer {
+        final IntArray indices = new IntArray();
+        final ArrayList<Action> visible = new ArrayList<>();
+
+        @Override
+        public boolean intersects(RectF world, int target) {
+            synchronized (historicActions) {
+                if (baseLayer.getSnapshot().intersects(world)) {
+                    return true;
+                }
+                indices.clear();
+                spatialIndex.query(world.left, world.top, world.right, world.bottom, indices);
+                int count = Math.min(target, historicActions.size());
+                for (int i = 0; i < indices.size(); i++) {
+                    int index = indices.get(i);
+                    if (index >= count) {
+                        break;
+                    }
+                    if (historicActions.get(index).isVisibleAt(target)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void draw(Canvas canvas, RectF world, int target, float scale) {
+            BaseLayer.Snapshot base;
+            synchronized (historicActions) {
+                base = baseLayer.getSnapshot();
+                indices.clear();
+                spatialIndex.query(world.left, world.top, world.right, world.bottom, indices);
+                int count = Math.min(target, historicActions.size());
+                for (int i = 0; i < indices.size(); i++) {
+                    int index = indices.get(i);
+                    if (index >= count) {
+                        break;
+                    }
+                    Action action = historicActions.get(index);
+                    if (action.isVisibleAt(target)) {
+                        visible.add(action);
+                    }
+                }
+            }
+            base.draw(canvas, world);
+            for (int i = 0, count = visible.size(); i < count; i++) {
+                visible.get(i).draw(canvas, scale);
+            }
+            visible.clear();
+        }
+
+        @Override
+        public void redraw(Canvas canvas, RectF region, int target, float scale) {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            draw(canvas, region, target, scale);
+        }
+    }
+
+    /*
+    方块缓存没有命中时，后台栅格化线程通过它从历史记录中找出与方块相交的行为
+     */
+    final VisibleActionSource tileSource = new VisibleActionSource();
+
+    /*
+    渲染线程上重绘被擦除的区域时使用，也是橡皮擦行为的Redrawer
+     */
+    final VisibleActionSource renderSource = new VisibleActionSource();
+
+    /*
+    是否处于橡皮擦模式：触摸不再书写，而是擦掉碰到的整条笔画
+     */
+    boolean eraserMode;
+
+    /*
+    橡皮擦的半径，屏幕像素
+     */
+    float eraserRadius = 16;
+
+    /*
+    当前擦除手势的橡皮擦行为，第一次擦中笔画时创建，手指抬起时提交到历史记录；
+    在UI线程上持有historicActions的锁修改，渲染线程压缩历史记录时在同一把锁内读取
+     */
+    EraseAction pendingErase;
+
+    /*
+    会话的保存、打开和自动保存，以historicActions为锁
+     */
+    SessionController<Action> session;
+
+    /*
+    是否把超出undo范围的行为压缩进底层栅格，由setUndoHorizon开启；只在持有historicActions的锁时访问
+     */
+    boolean historyCompaction;
+
+    /*
+    每次至少压缩的行为数量，摊薄复制和合成方块的开销
+     */
+    static final int COMPACTION_BATCH = 32;
+
+    /*
+    已经请求压缩到的索引，避免重复发送压缩命令；只在持有historicActions的锁时访问
+     */
+    int requestedCompactionBase;
+
+    /*
+    历史记录被整体替换的次数，替换之前发出的压缩命令作废；只在持有historicActions的锁时访问
+     */
+    int historyVersion;
+
+    /*
+    渲染线程上一次压缩要合成的行为，在锁内收集，在锁外合成
+     */
+    final ArrayList<Action> compactActions = new ArrayList<>();
+
+    /*
+    上一个橡皮擦位置(世界坐标)，快速移动时在两点之间按半径步进，不会漏掉中间的笔画
+     */
+    float lastEraseX;
+    float lastEraseY;
+
+    /*
+    UI线程上命中测试和提交行为时复用的对象
+     */
+    final IntArray eraserCandidates = new IntArray();
+    final RectF commitBounds = new RectF();
+
+    /*
+    后台栅格化的方块完成之后请求渲染，在下一帧换上
+     */
+    final Runnable tileReadyCallback = new Runnable() {
+        @Override
+        public void run() {
+            doRender();
+        }
+    };
+
+    /*
+    脏区域在笔宽之外额外扩展的像素，覆盖抗锯齿的边缘
+     */
+    static final float DIRTY_INSET = 2;
+
+    /*
+    缓冲区贴图到画面上使用的画笔
+     */
+    Paint bitmapPaint;
+
+    /*
+    当前的滑动手势的坐标
+     */
+    PointF motionPoint = new PointF();
+
+    /*
+    存储当前画笔的配置
+     */
+    PenConfig penConfig;
+
+    /*
+    画笔样式的注册表，笔画和OP_PEN命令只引用其中的样式
+     */
+    PenStyleRegistry styleRegistry;
+
+    /*
+    每个画笔样式缓存一个Paint，历史笔画和当前笔画共用
+     */
+    PenPaintCache paintCache;
+
+
+    boolean isSurfaceAvailable;
+
+    int moveCount = 0;
+
+    long motionTime = 0;
+
+    int strokeFragmentWidth = 20;
+    /*
+    当前的背景配置，在UI线程上替换，渲染线程在每帧开始时换上
+     */
+    volatile BackgroundConfig backgroundConfig = BackgroundConfig.DEFAULT;
+
+    /*
+    背景层的栅格，只在渲染线程上使用
+     */
+    final BackgroundLayer backgroundLayer = new BackgroundLayer();
+
+    /*
+    UI线程的Handler，其它线程上要发送的命令经它转到UI线程
+     */
+    final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+    /*
+    导出使用的后台线程，第一次导出时创建，视图移除之后已经提交的导出继续完成
+     */
+    BoardExporter exporter;
+
+    /*
+    把透明的条带和关键帧原样拷贝到缓冲区，不与缓冲区原有的内容混合
+     */
+    Paint copyPaint;
+
+    public WhiteboardView(Context context) {
+        super(context);
+        initWhiteboardView(context);
+    }
+
+    public WhiteboardView(Context context, AttributeSet attributeSet) {
+        super(context, attributeSet);
+        initWhiteboardView(context);
+    }
+
+    /*
+    初始化基本变量和组件
+     */
+    public void initWhiteboardView(Context context) {
+        styleRegistry = new PenStyleRegistry();
+        paintCache = new PenPaintCache();
+        //恢复用户上次使用的画笔，第一次使用时是红色12像素
+        penConfig = new PenConfig(context, styleRegistry, Color.RED, 12);
+        liveStrokes = new LiveStrokes<>(MAX_POINTERS, new LiveStrokes.Factory<RenderSlot>() {
+            @Override
+            public RenderSlot create() {
+                return new RenderSlot();
+            }
+        }, styleRegistry, renderViewport, dirtyRegion, DIRTY_INSET);
+        liveStrokes.setPenStyle(penConfig.getStyle());
+        liveStrokes.setPredictorFactory(LinearStrokePredictor.FACTORY);
+        liveStrokes.setListener(new LiveStrokes.Listener<RenderSlot>() {
+            @Override
+            public void onCommitted(RenderSlot slot, int committedCount) {
+                commitLiveStroke(committedCount);
+            }
+        });
+        bitmapPaint = new Paint();
+        copyPaint = new Paint();
+        copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+
+        historicActions = new ActionHistory<>();
+        session = new SessionController<>(historicActions, styleRegistry, new SessionHost());
+        session.setWriteListener(new SessionJournal.WriteListener() {
+            @Override
+            public void onSnapshotWritten(long generation) {
+            }
+
+            @Override
+            public void onWriteFailed(IOException e) {
+                //下一次提交时会重新拍快照
+                Log.w(TAG, "autosave write failed", e);
+            }
+        });
+        keyframeCache = new BitmapKeyframeCache();
+        commandQueue = new StrokeCommandQueue();
+        strokeRecorder = new StrokeRecorder(new SampleFilter(), commandQueue);
+        strokeRecorders[0] = strokeRecorder;
+        Arrays.fill(slotPointerIds, -1);
+        //被截断的行为不放回对象池：渲染线程、方块栅格化和并行重建的线程可能还在锁外绘制它们
+        historicActions.setRemovalListener(new ActionHistory.RemovalListener<Action>() {
+            @Override
+            public void onRemoved(Action action) {
+                if (action instanceof EraseAction) {
+                    //恢复被它擦掉、仍然留在历史记录中的笔画
+                    ((EraseAction) action).restoreTargets();
+                }
+            }
+        });
+
+        surfaceHolder = this.getHolder();
+        surfaceHolder.addCallback(this);
+
+        setFocusable(true);
+        setFocusableInTouchMode(true);
+        setKeepScreenOn(true);
+    }
+
+
+    /*
+    在UI线程上处理触摸事件：采集采样点并写入命令队列，不直接修改Path和缓冲区；
+    MOVE的处理过程不分配内存，调试日志只在DEBUG_LOG打开时才拼接；
+    分块模式下第二根手指按下时放弃当前笔画，转为双指缩放、平移，直到全部手指抬起
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        int sampleCount;
+
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            multiTouchGesture = multiTouchInk && !eraserMode;
+        }
+        if (multiTouchGesture) {
+            onMultiTouchEvent(event);
+            return true;
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                if (eraserMode) {
+                    strokeActive = true;
+                    gestureActive = false;
+                    beginErase(event);
+                    break;
+                }
+                /*记录笔画的开始点，通知渲染线程以当前画笔开始新的一笔*/
+                motionPoint.set(viewport.toWorldX(event.getX()), viewport.toWorldY(event.getY()));
+                strokeRecorder.begin(event.getX(), event.getY(), event.getEventTime(), event.getPressure(),
+                        penConfig.getStyle().getId());
+                strokeActive = true;
+                gestureActive = false;
+                if (liveStrokes.isLowLatency()) {
+                    //之后的MOVE不再按帧批处理，每个采样点到达就分发
+                    requestUnbufferedDispatch(event);
+                }
+                requestInkRender();
+                moveCount = 0;
+                motionTime = event.getEventTime();
+                break;
+
+            case MotionEvent.ACTION_POINTER_DOWN:
+                if (tiledBoard == null) {
+                    break;
+                }
+                if (strokeActive) {
+                    if (eraserMode) {
+                        //已经擦掉的笔画保留为一步擦除
+                        finishErase();
+                    } else {
+                        strokeRecorder.cancel();
+                    }
+                    strokeActive = false;
+                    doRender();
+                }
+                gestureActive = true;
+                updateGestureAnchor(event, -1);
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                if (gestureActive) {
+                    onGestureMove(event);
+                    break;
+                }
+                if (!strokeActive) {
+                    break;
+                }
+                if (eraserMode) {
+                    eraseAlong(event);
+                    break;
+                }
+                //读取本次事件打包的全部历史采样，过滤后一次性追加到笔画中，只请求一次渲染
+                sampleCount = MotionSampler.collect(event, strokeRecorder);
+                if (sampleCount > 0) {
+                    onSamplesAppended(strokeRecorder, sampleCount, "onTouchEvent.MOVE");
+                    requestInkRender();
+                }
+                break;
+
+            case MotionEvent.ACTION_POINTER_UP:
+                if (!gestureActive) {
+                    break;
+                }
+                if (event.getPointerCount() > 2) {
+                    updateGestureAnchor(event, event.getActionIndex());
+                } else {
+                    //只剩一根手指，手势结束，按最终的比例重新栅格化；剩下的手指不再书写
+                    publishViewport(false);
+                }
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                if (DEBUG_LOG) {
+                    Log.d(TAG, "onTouchEvent.ACTION_CANCEL");
+                }
+            case MotionEvent.ACTION_UP:
+                if (gestureActive) {
+                    gestureActive = false;
+                    if (event.getActionMasked() == MotionEvent.ACTION_CANCEL) {
+                        publishViewport(false);
+                    }
+                    break;
+                }
+                if (!strokeActive) {
+                    break;
+                }
+                strokeActive = false;
+                if (eraserMode) {
+                    eraseTo(viewport.toWorldX(event.getX()), viewport.toWorldY(event.getY()));
+                    finishErase();
+                    break;
+                }
+                sampleCount = MotionSampler.finish(event, strokeRecorder);
+                if (sampleCount > 0) {
+                    onSamplesAppended(strokeRecorder, sampleCount, "onTouchEvent.ACTION_UP");
+                }
+                commitStroke(strokeRecorder);
+                break;
+        }
+        return true;
+    }
+
+    /*
+    多指书写：每根手指按下时占用一个空闲的槽位开始一笔，抬起时单独提交，互不影响；
+    槽位用完之后按下的手指被忽略。MOVE中一次读取全部手指的采样，只请求一次渲染
+     */
+    void onMultiTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN:
+                beginPointerStroke(event, event.getActionIndex());
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                boolean appended = false;
+                for (int slot = 0; slot < MAX_POINTERS; slot++) {
+                    if (slotPointerIds[slot] < 0) {
+                        continue;
+                    }
+                    int pointerIndex = event.findPointerIndex(slotPointerIds[slot]);
+                    if (pointerIndex < 0) {
+                        continue;
+                    }
+                    int sampleCount = MotionSampler.collect(event, pointerIndex, strokeRecorders[slot]);
+                    if (sampleCount > 0) {
+                        onSamplesAppended(strokeRecorders[slot], sampleCount, "onMultiTouchEvent.MOVE");
+                        appended = true;
+                    }
+                }
+                if (appended) {
+                    requestInkRender();
+                }
+                break;
+
+            case MotionEvent.ACTION_POINTER_UP:
+            case MotionEvent.ACTION_UP:
+                int pointerIndex = event.getActionIndex();
+                int slot = slotOfPointer(event.getPointerId(pointerIndex));
+                if (slot >= 0) {
+                    MotionSampler.finish(event, pointerIndex, strokeRecorders[slot]);
+                    slotPointerIds[slot] = -1;
+                    commitStroke(strokeRecorders[slot]);
+                }
+                if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+                    //最后一根手指抬起，正常情况下已经没有进行中的笔画
+                    cancelPointerStrokes();
+                    multiTouchGesture = false;
+                }
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                cancelPointerStrokes();
+                multiTouchGesture = false;
+                break;
+        }
+    }
+
+    /*
+    第pointerIndex个手指按下，在空闲的槽位上开始一笔
+     */
+    void beginPointerStroke(MotionEvent event, int pointerIndex) {
+        int slot = slotOfPointer(-1);
+        if (slot < 0) {
+            return;
+        }
+        StrokeRecorder recorder = strokeRecorders[slot];
+        if (recorder == null) {
+            recorder = new StrokeRecorder(new SampleFilter(inputMinDistance, inputMaxIdleMillis), commandQueue, slot);
+            strokeRecorders[slot] = recorder;
+        }
+        recorder.setTransform(viewport.getOriginX(), viewport.getOriginY(), viewport.getScale());
+        recorder.begin(event.getX(pointerIndex), event.getY(pointerIndex), event.getEventTime(),
+                event.getPressure(pointerIndex), penConfig.getStyle().getId());
+        slotPointerIds[slot] = event.getPointerId(pointerIndex);
+        if (liveStrokes.isLowLatency()) {
+            requestUnbufferedDispatch(event);
+        }
+        requestInkRender();
+    }
+
+    /*
+    返回指针pointerId所在的槽位，pointerId为-1时返回第一个空闲的槽位，没有时返回-1
+     */
+    int slotOfPointer(int pointerId) {
+        for (int slot = 0; slot < MAX_POINTERS; slot++) {
+            if (slotPointerIds[slot] == pointerId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /*
+    放弃所有进行中的多指笔画
+     */
+    void cancelPointerStrokes() {
+        boolean cancelled = false;
+        for (int slot = 0; slot < MAX_POINTERS; slot++) {
+            if (slotPointerIds[slot] >= 0) {
+                strokeRecorders[slot].cancel();
+                slotPointerIds[slot] = -1;
+                cancelled = true;
+            }
+        }
+        if (cancelled) {
+            doRender();
+        }
+    }
+
+    /*
+    笔画结束：简化之后加入历史记录，doindex向后移动；
+    如果切入点在历史轨迹的某个中间点上，说明用户之前做过undo操作，doIndex之后的无效动作会被一次性截断并回收。
+    截断、追加、空间索引和自动保存的日志在同一次持锁中完成，多指同时书写时各笔依次完整地提交
+     */
+    void commitStroke(StrokeRecorder recorder) {
+        //屏幕上已经画出的是原始采样点，简化的误差按书写时的屏幕像素控制
+        Stroke stroke = strokeSimplifier.simplify(recorder.finish(), viewport.getScale());
+        PenStyle style = styleRegistry.get(recorder.getStyleId());
+        int committedCount;
+        synchronized (historicActions) {
+            committedCount = commitAction(new PathAction(stroke, style, paintCache, cacheStrokePaths));
+            session.onCommitted(committedCount - 1);
+            requestCompactionIfNeeded();
+        }
+        //通知渲染线程把提交的笔画画入缓冲区，代替书写时画出的轨迹
+        recorder.end(committedCount);
+        doRender();
+    }
+
+    /*
+    提交一个行为：截断redo尾部之后追加到历史记录，并把它的范围登记到空间索引，
+    返回提交之后有效行为的数量；调用方需要持有historicActions的锁
+     */
+    int commitAction(Action action) {
+        spatialIndex.truncate(historicActions.getNextDoIndex());
+        int index = historicActions.commit(action);
+        if (action instanceof EraseAction) {
+            //橡皮擦行为只影响画面，不能被擦中，也不需要在局部重绘时查到
+            ((EraseAction) action).setIndex(index);
+        } else if (action.getBounds(commitBounds)) {
+            spatialIndex.add(index, commitBounds.left, commitBounds.top, commitBounds.right, commitBounds.bottom);
+        } else {
+            spatialIndex.addUnbounded(index);
+        }
+        return historicActions.getNextDoIndex();
+    }
+
+    /*
+    压缩的位置超出已经请求的位置COMPACTION_BATCH个行为时，请求渲染线程压缩到undo的下限；
+    调用方需要持有historicActions的锁
+     */
+    void requestCompactionIfNeeded() {
+        if (!historyCompaction) {
+            return;
+        }
+        int floor = historicActions.getUndoFloor();
+        if (floor - Math.max(historicActions.getBase(), requestedCompactionBase) < COMPACTION_BATCH) {
+            return;
+        }
+        requestedCompactionBase = floor;
+        commandQueue.offerCommand(StrokeCommandQueue.OP_COMPACT, floor, 0, 0, historyVersion, 0);
+    }
+
+    /*
+    橡皮擦落下：擦掉落点处的笔画
+     */
+    void beginErase(MotionEvent event) {
+        pendingErase = null;
+        lastEraseX = viewport.toWorldX(event.getX());
+        lastEraseY = viewport.toWorldY(event.getY());
+        eraseAt(lastEraseX, lastEraseY);
+    }
+
+    /*
+    橡皮擦移动：依次处理本次事件打包的全部历史采样
+     */
+    void eraseAlong(MotionEvent event) {
+        for (int i = 0, count = event.getHistorySize(); i < count; i++) {
+            eraseTo(viewport.toWorldX(event.getHistoricalX(i)), viewport.toWorldY(event.getHistoricalY(i)));
+        }
+        eraseTo(viewport.toWorldX(event.getX()), viewport.toWorldY(event.getY()));
+    }
+
+    /*
+    从上一个橡皮擦位置移动到(x, y)，两点之间按半径步进，每一步做一次命中测试
+     */
+    void eraseTo(float x, float y) {
+        float radius = eraserRadius / viewport.getScale();
+        float distance = (float) Math.hypot(x - lastEraseX, y - lastEraseY);
+        int steps = Math.max(1, (int) Math.ceil(distance / radius));
+        boolean erased = false;
+        for (int i = 1; i <= steps; i++) {
+            float t = (float) i / steps;
+            erased |= eraseAt(lastEraseX + (x - lastEraseX) * t, lastEraseY + (y - lastEraseY) * t);
+        }
+        lastEraseX = x;
+        lastEraseY = y;
+        if (erased) {
+            doRender();
+        }
+    }
+
+    /*
+    命中测试：通过空间索引只检查橡皮擦附近的笔画，擦中的笔画加入当前的橡皮擦行为，
+    并通知渲染线程立即从画面上去掉；返回是否擦中了笔画
+     */
+    boolean eraseAt(float x, float y) {
+        float radius = eraserRadius / viewport.getScale();
+        boolean erased = false;
+        synchronized (historicActions) {
+            int target = historicActions.getNextDoIndex();
+            eraserCandidates.clear();
+            spatialIndex.query(x - radius, y - radius, x + radius, y + radius, eraserCandidates);
+            for (int i = 0; i < eraserCandidates.size(); i++) {
+                int index = eraserCandidates.get(i);
+                if (index >= target) {
+                    break;
+                }
+                Action action = historicActions.get(index);
+                EraseAction eraser = action.getErasedBy();
+                if (eraser != null && (eraser == pendingErase || eraser.getIndex() < target)) {
+                    //已经被擦掉
+                    continue;
+                }
+                if (!action.hitTest(x, y, radius) || !action.getBounds(commitBounds)) {
+                    continue;
+                }
+                if (pendingErase == null) {
+                    //第一次擦中笔画时截断redo尾部，之后提交的橡皮擦行为的索引就是target
+                    spatialIndex.truncate(target);
+                    historicActions.truncate(target);
+                    pendingErase = new EraseAction(target, renderSource);
+                }
+                pendingErase.add(action, index, commitBounds);
+                commandQueue.offerCommand(StrokeCommandQueue.OP_ERASE, index, 0, 0, 0, 0);
+                erased = true;
+            }
+        }
+        return erased;
+    }
+
+    /*
+    擦除手势结束，擦中过笔画时把橡皮擦行为提交到历史记录
+     */
+    void finishErase() {
+        int committedCount;
+        synchronized (historicActions) {
+            //在锁内清除，渲染线程压缩时总能在pendingErase或者历史记录中看到这次擦除的目标
+            EraseAction eraseAction = pendingErase;
+            pendingErase = null;
+            if (eraseAction == null) {
+                return;
+            }
+            committedCount = commitAction(eraseAction);
+            session.onCommitted(committedCount - 1);
+            requestCompactionIfNeeded();
+        }
+        commandQueue.offerCommand(StrokeCommandQueue.OP_ACTION, committedCount, 0, 0, 0, 0);
+        doRender();
+    }
+
+    /*
+    记录手指的中心和平均间距作为之后移动的参照，skipIndex是正在抬起的手指，-1表示没有
+     */
+    void updateGestureAnchor(MotionEvent event, int skipIndex) {
+        int count = event.getPointerCount();
+        int used = 0;
+        float sumX = 0;
+        float sumY = 0;
+        for (int i = 0; i < count; i++) {
+            if (i != skipIndex) {
+                sumX += event.getX(i);
+                sumY += event.getY(i);
+                used++;
+            }
+        }
+        if (used == 0) {
+            return;
+        }
+        gestureFocusX = sumX / used;
+        gestureFocusY = sumY / used;
+        float span = 0;
+        for (int i = 0; i < count; i++) {
+            if (i != skipIndex) {
+                span += (float) Math.hypot(event.getX(i) - gestureFocusX, event.getY(i) - gestureFocusY);
+            }
+        }
+        gestureSpan = span / used;
+    }
+
+    /*
+    双指移动：内容跟随手指中心平移，再以手指中心为不动点按间距的变化缩放
+     */
+    void onGestureMove(MotionEvent event) {
+        float lastFocusX = gestureFocusX;
+        float lastFocusY = gestureFocusY;
+        float lastSpan = gestureSpan;
+        updateGestureAnchor(event, -1);
+        viewport.panBy(gestureFocusX - lastFocusX, gestureFocusY - lastFocusY);
+        if (lastSpan > 0 && gestureSpan > 0) {
+            viewport.zoomAt(gestureFocusX, gestureFocusY, gestureSpan / lastSpan);
+        }
+        publishViewport(true);
+    }
+
+    /*
+    一批采样点追加到笔画之后，更新最近的手势坐标和时间
+     */
+    void onSamplesAppended(StrokeRecorder recorder, int sampleCount, String eventName) {
+        StrokeBuilder builder = recorder.getBuilder();
+        float lastX = builder.getLastX();
+        float lastY = builder.getLastY();
+        long lastTime = recorder.getLastTime();
+        if (DEBUG_LOG) {
+            float distance = (float) Math.hypot(lastY - motionPoint.y, lastX - motionPoint.x);
+            long timeSpan = lastTime - motionTime;
+            Log.d(TAG, eventName + ": samples=" + sampleCount + ",distance=" + distance + ",timespan=" + timeSpan + ",velocity=" + distance / timeSpan);
+        }
+        motionPoint.set(lastX, lastY);
+        motionTime = lastTime;
+        moveCount += sampleCount;
+    }
+
+
+    /*
+    render方法是最基本的单元渲染函数，由HandlerTread在子线程进行异步调用,包括如下环节：
+    1、处理命令队列中积累的全部命令，更新当前笔画和缓冲区；取走累积的脏区域，只锁定这块区域获取canvas，没有脏区域则不渲染
+    2、将包含了之前所有的历史步骤的缓冲区bitmap中对应的区域，先渲染出来，之所以要先渲染bitmap，是因为
+    bitmap包含了本次轨迹渲染之前所有的历史记录，如果通过list去遍历效率较低，直接将包含历史
+    记录的缓冲区拷贝到显示区，可以节省计算资源。
+    3、渲染最新的一笔轨迹，超出脏区域的部分会被canvas裁剪掉
+    4、释放canvas，并统计本帧贴图的像素数量
+     */
+    @Override
+    public void render() {
+        long startNanos = System.nanoTime();
+        if (renderFrame()) {
+            metrics.recordRenderDuration(System.nanoTime() - startNanos);
+            metrics.recordBitmapBytes(bitmapBytesInUse());
+        }
+    }
+
+    /*
+    处理积压的命令并把脏区域贴到屏幕上，没有可用的缓冲区或方块时返回false
+     */
+    boolean renderFrame() {
+        Bitmap buffer = bitmapBuffer;
+        TiledBoard board = tiledBoard;
+        if (buffer == null && board == null) {
+            return false;
+        }
+        if (pendingDiskRestore >= 0) {
+            //必须在surface销毁期间积压的命令之前恢复，否则积压的命令会被旧的栅格覆盖
+            restoreFromDisk(pendingDiskRestore);
+            pendingDiskRestore = -1;
+        }
+        if (board != null) {
+            if (liveStrokes.isLowLatencyStrokeActive()) {
+                //书写期间整屏贴图会拖慢笔迹，等笔画结束
+                tileInstallDeferred = true;
+            } else if (board.installResults()) {
+                //后台栅格化的方块已经换上，需要整屏重新贴图
+                dirtyRegion.markFull();
+            }
+        }
+        metrics.recordQueueDepth(commandQueue.size());
+        commandQueue.drain(commandConsumer);
+        if (commandQueue.clearOverflow()) {
+            //有命令因为队列已满而丢失，以历史记录为准整体重建
+            recoverFromOverflow();
+        }
+        if (tileInstallDeferred && liveStrokes.getActiveCount() == 0) {
+            tileInstallDeferred = false;
+            doRender();
+        }
+        updatePredictions();
+        //背景配置或者视口变化之后重画背景层，手势结束之后再按新的视口解码底图
+        if (backgroundLayer.setConfig(backgroundConfig) | backgroundLayer.update(renderViewport, !renderGesturing)) {
+            dirtyRegion.markFull();
+        }
+        dirtyRegion.drainTo(frameDirtyRegion);
+        frameDirtyRegion.clampTo(surfaceWidth, surfaceHeight);
+        if (frameDirtyRegion.isEmpty()) {
+            return true;
+        }
+        dirtyRect.set(frameDirtyRegion.getLeft(), frameDirtyRegion.getTop(), frameDirtyRegion.getRight(), frameDirtyRegion.getBottom());
+        //lockCanvas可能会把dirtyRect扩大，之后以扩大后的区域为准
+        Canvas canvas = surfaceHolder.lockCanvas(dirtyRect);
+        if (canvas != null) {
+            if (DEBUG_LOG) {
+                Log.d(TAG, "render()");
+            }
+            backgroundLayer.draw(canvas, dirtyRect);
+            if (board != null) {
+                //分块模式：在背景之上贴上脏区域覆盖到的方块，再按视口变换画出最新的一笔
+                board.draw(canvas, dirtyRect, renderViewport, renderLevel, renderTarget, !renderGesturing, bitmapPaint);
+                canvas.save();
+                canvas.concat(renderMatrix);
+                drawLiveStrokes(canvas);
+                canvas.restore();
+            } else {
+                canvas.drawBitmap(buffer, dirtyRect, dirtyRect, bitmapPaint);
+                drawLiveStrokes(canvas);
+            }
+            surfaceHolder.unlockCanvasAndPost(canvas);
+            long inputTime = liveStrokes.takeInputTime();
+            if (inputTime >= 0) {
+                metrics.recordInputLatency((SystemClock.uptimeMillis() - inputTime) * 1000000L);
+            }
+            renderStats.onFrame((long) dirtyRect.width() * dirtyRect.height(), frameDirtyRegion.isFull());
+            if (resumeStartNanos != 0) {
+                renderStats.onResumed(System.nanoTime() - resumeStartNanos, resumeSource);
+                resumeStartNanos = 0;
+            }
+        }
+        return true;
+    }
+
+    /*
+    缓冲区、关键帧和已缓存的方块占用的内存，只在渲染线程上调用
+     */
+    long bitmapBytesInUse() {
+        long bytes = keyframeCache.getCurrentBytes();
+        Bitmap buffer = bitmapBuffer;
+        if (buffer != null) {
+            bytes += buffer.getByteCount();
+        }
+        if (tiledBoard != null) {
+            bytes += tiledBoard.getCache().getCurrentBytes();
+        }
+        return bytes + baseLayer.getSnapshot().getByteCount() + backgroundLayer.getByteCount();
+    }
+
+    /*
+    渲染线程上一个槽位正在书写的一笔：在LiveStroke之外加上绘制用的画笔和预测的尾巴
+     */
+    final class RenderSlot extends LiveStroke {
+        final LiveStrokeLayer layer;
+
+        Paint paint;
+
+        /*
+        预测的采样点、预测的尾巴和它的范围(世界坐标)，尾巴每帧重新生成，上一帧的范围需要重绘
+         */
+        final float[] predictedSamples = new float[StrokePredictor.MAX_POINTS * Stroke.STRIDE];
+        final Path predictedPath = new Path();
+        final Paint predictionPaint = new Paint();
+        final RectF predictionBounds = new RectF();
+        boolean predictionVisible;
+
+        RenderSlot() {
+            this(new LiveStrokeLayer());
+        }
+
+        RenderSlot(LiveStrokeLayer layer) {
+            super(layer);
+            this.layer = layer;
+            predictionPaint.setAntiAlias(true);
+            predictionPaint.setStyle(Paint.Style.STROKE);
+            predictionPaint.setStrokeCap(Paint.Cap.ROUND);
+            predictionPaint.setStrokeJoin(Paint.Join.ROUND);
+        }
+
+        @Override
+        protected void onBegin(PenStyle style) {
+            paint = paintCache.get(style);
+        }
+
+        /*
+        画出与clip(世界坐标)相交的部分，以及预测的尾巴
+         */
+        void draw(Canvas canvas, RectF clip) {
+            layer.draw(canvas, paint, clip, getStrokeWidth() / 2);
+            if (predictionVisible) {
+                canvas.drawPath(predictedPath, predictionPaint);
+            }
+        }
+
+        /*
+        重新生成预测的尾巴：上一帧的尾巴所在的区域需要重绘，新的尾巴从真实笔迹的终点接到预测的位置
+         */
+        void updatePrediction() {
+            clearPrediction();
+            StrokeBuilder builder = getBuilder();
+            StrokePredictor predictor = getPredictor();
+            int pointCount = builder.getPointCount();
+            if (predictor == null || pointCount == 0) {
+                return;
+            }
+            float scale = renderViewport.getScale();
+            int count = predictor.predict(predictionHorizonMillis, MAX_PREDICTION_PX / scale, predictedSamples);
+            if (count == 0) {
+                return;
+            }
+            float lastX = builder.getLastX();
+            float lastY = builder.getLastY();
+            float width;
+            if (isInk()) {
+                //轮廓已经覆盖到最后一个采样点，尾巴沿用它的笔宽
+                InkOutline inkOutline = getInkOutline();
+                width = inkOutline.getRadius(inkOutline.getPointCount() - 1) * 2;
+                predictedPath.moveTo(lastX, lastY);
+            } else {
+                //曲线只画到最后两个采样点的中点
+                width = getStrokeWidth();
+                if (pointCount > 1) {
+                    predictedPath.moveTo((builder.getX(pointCount - 2) + lastX) / 2, (builder.getY(pointCount - 2) + lastY) / 2);
+                    predictedPath.lineTo(lastX, lastY);
+                } else {
+                    predictedPath.moveTo(lastX, lastY);
+                }
+            }
+            predictionBounds.set(lastX, lastY, lastX, lastY);
+            for (int i = 0; i < count; i++) {
+                float x = predictedSamples[i * Stroke.STRIDE + Stroke.X];
+                float y = predictedSamples[i * Stroke.STRIDE + Stroke.Y];
+                predictedPath.lineTo(x, y);
+                predictionBounds.union(x, y);
+            }
+            predictionPaint.setColor(paint.getColor());
+            predictionPaint.setStrokeWidth(width);
+            predictionBounds.inset(-width / 2, -width / 2);
+            invalidateWorldRect(predictionBounds);
+            predictionVisible = true;
+        }
+
+        /*
+        去掉预测的尾巴，它覆盖过的区域需要重绘
+         */
+        void clearPrediction() {
+            if (!predictionVisible) {
+                return;
+            }
+            predictedPath.rewind();
+            predictionVisible = false;
+            invalidateWorldRect(predictionBounds);
+        }
+
+        @Override
+        protected void onReset() {
+            clearPrediction();
+        }
+    }
+
+    /*
+    一次画出所有正在书写的笔画中与本帧锁定区域相交的部分
+     */
+    void drawLiveStrokes(Canvas canvas) {
+        if (liveStrokes.getActiveCount() == 0) {
+            return;
+        }
+        frameWorldClip.set(renderViewport.toWorldX(dirtyRect.left), renderViewport.toWorldY(dirtyRect.top),
+                renderViewport.toWorldX(dirtyRect.right), renderViewport.toWorldY(dirtyRect.bottom));
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            RenderSlot slot = liveStrokes.activeSlot(i);
+            if (slot != null) {
+                slot.draw(canvas, frameWorldClip);
+            }
+        }
+    }
+
+    /*
+    为所有正在书写的笔画重新生成预测的尾巴
+     */
+    void updatePredictions() {
+        for (int i = 0; i < MAX_POINTERS && liveStrokes.getActiveCount() > 0; i++) {
+            RenderSlot slot = liveStrokes.activeSlot(i);
+            if (slot != null) {
+                slot.updatePrediction();
+            }
+        }
+    }
+
+    /*
+    在渲染线程上执行一条命令，笔画命令交给liveStrokes
+     */
+    void applyCommand(int op, int arg, float x, float y, long time, float pressure) {
+        switch (op) {
+            case StrokeCommandQueue.OP_REBUILD:
+                long replayStart = System.nanoTime();
+                int previousTarget = renderTarget;
+                if (tiledBoard != null) {
+                    rebuildTiles(arg);
+                } else {
+                    rebuildBuffer(arg);
+                }
+                recordReplay(previousTarget, renderTarget, System.nanoTime() - replayStart);
+                break;
+
+            case StrokeCommandQueue.OP_VIEWPORT:
+                applyViewport(x, y, pressure, arg != 0);
+                break;
+
+            case StrokeCommandQueue.OP_ACTION:
+                applyCommittedAction(arg);
+                break;
+
+            case StrokeCommandQueue.OP_ERASE:
+                previewErase(arg);
+                break;
+
+            case StrokeCommandQueue.OP_RESET:
+                resetRendering(arg);
+                break;
+
+            case StrokeCommandQueue.OP_COMPACT:
+                compactHistory(arg, time);
+                break;
+
+            default:
+                liveStrokes.apply(op, arg, x, y, time, pressure);
+                break;
+        }
+    }
+
+    /*
+    OP_END：槽位上的一笔已经提交为历史记录的第committedCount - 1个行为，把提交的行为画入缓冲区或者方块；
+    历史记录中的是简化之后的笔画，与书写时画出的原始采样点略有不同，它覆盖的区域需要重新贴图
+     */
+    void commitLiveStroke(int committedCount) {
+        Action action = null;
+        synchronized (historicActions) {
+            //提交之后历史记录又被截断或者替换时不画，由之后的命令处理
+            if (committedCount <= historicActions.size() && committedCount > historicActions.getBase()) {
+                action = historicActions.get(committedCount - 1);
+            }
+        }
+        if (action != null) {
+            if (tiledBoard != null) {
+                commitActionToTiles(action, committedCount);
+            } else if (bufferCanvas != null) {
+                action.draw(bufferCanvas);
+            }
+            if (action.getBounds(actionBounds)) {
+                invalidateWorldRect(actionBounds);
+            } else {
+                dirtyRegion.markFull();
+            }
+        }
+        if (tiledBoard == null && bufferCanvas != null) {
+            //doIndex之后的关键帧已经失效，如果刚好到达间隔点则拍摄新的关键帧
+            keyframeCache.onCommitted(committedCount, bufferReplayer);
+        }
+        renderTarget = committedCount;
+    }
+
+    /*
+    把刚提交的非笔画行为画进缓冲区或者已经缓存的方块，只重绘它覆盖的区域
+     */
+    void applyCommittedAction(int committedCount) {
+        Action action;
+        synchronized (historicActions) {
+            if (committedCount > historicActions.size() || committedCount <= historicActions.getBase()) {
+                //提交之后历史记录又被截断或者替换，由之后的命令处理
+                return;
+            }
+            action = historicActions.get(committedCount - 1);
+        }
+        boolean bounded = action.getBounds(actionBounds);
+        if (tiledBoard != null) {
+            if (bounded) {
+                tiledBoard.redraw(actionBounds, committedCount, renderSource);
+                boundsLog.record(committedCount - 1, actionBounds.left, actionBounds.top, actionBounds.right, actionBounds.bottom);
+            } else {
+                tiledBoard.clear();
+            }
+        } else if (bufferCanvas != null) {
+            action.draw(bufferCanvas);
+            keyframeCache.onCommitted(committedCount, bufferReplayer);
+        }
+        renderTarget = committedCount;
+        if (bounded) {
+            invalidateWorldRect(actionBounds);
+        } else {
+            dirtyRegion.markFull();
+        }
+    }
+
+    /*
+    橡皮擦手势中擦中了第index笔：以擦除之后的状态重绘它覆盖的区域
+     */
+    void previewErase(int index) {
+        int target;
+        synchronized (historicActions) {
+            if (index < historicActions.getBase() || index >= historicActions.size()) {
+                return;
+            }
+            Action action = historicActions.get(index);
+            EraseAction eraser = action.getErasedBy();
+            if (eraser == null || !action.getBounds(actionBounds)) {
+                return;
+            }
+            target = eraser.getIndex() + 1;
+        }
+        if (tiledBoard != null) {
+            tiledBoard.redraw(actionBounds, target, renderSource);
+        } else if (bufferCanvas != null) {
+            bufferCanvas.save();
+            bufferCanvas.clipRect(actionBounds);
+            renderSource.redraw(bufferCanvas, actionBounds, target, 1);
+            bufferCanvas.restore();
+        }
+        invalidateWorldRect(actionBounds);
+    }
+
+    /*
+    把世界坐标的区域换算到屏幕上加入脏区域
+     */
+    void invalidateWorldRect(RectF world) {
+        dirtyRegion.union(renderViewport.toScreenX(world.left), renderViewport.toScreenY(world.top),
+                renderViewport.toScreenX(world.right), renderViewport.toScreenY(world.bottom), DIRTY_INSET);
+    }
+
+    /*
+    在渲染线程上更新视口，并确定之后使用的方块级别
+     */
+    void applyViewport(float originX, float originY, float scale, boolean gesturing) {
+        renderViewport.set(originX, originY, scale);
+        getViewMatrix(renderViewport, renderMatrix);
+        renderLevel = TileGrid.levelFor(renderViewport.getScale());
+        renderGesturing = gesturing;
+        if (tiledBoard != null) {
+            tiledBoard.setWantedLevel(renderLevel);
+        }
+        dirtyRegion.markFull();
+    }
+
+    /*
+    恢复到target之前最近的关键帧，再重绘关键帧到target之间的轨迹记录，并标记整屏重绘；
+    需要重放的行为较多时(surface重建、跨度较大的undo)改为并行重建
+     */
+    void rebuildBuffer(int target) {
+        if (bufferCanvas == null) {
+            return;
+        }
+        synchronized (historicActions) {
+            target = Math.max(Math.min(target, historicActions.size()), historicActions.getBase());
+            rebuildBase = baseLayer.getSnapshot();
+        }
+        keyframeCache.setBaseIndex(rebuildBase.getBaseIndex());
+        if (target - keyframeCache.floorIndex(target) >= PARALLEL_REBUILD_MIN_ACTIONS && rebuildInParallel(target)) {
+            //并行重建不经过中间的间隔点，只在target刚好落在间隔点上时拍摄关键帧
+            if (keyframeCache.isKeyframeIndex(target) && !keyframeCache.contains(target)) {
+                keyframeCache.capture(target, bufferReplayer);
+            }
+        } else {
+            keyframeCache.rebuild(target, bufferReplayer);
+        }
+        renderTarget = target;
+        dirtyRegion.markFull();
+    }
+
+    /*
+    把缓冲区按条带在多个线程上重建为[0, target)的结果，线程数不大于1时返回false；
+    被擦掉的笔画和橡皮擦行为本身都不需要画，剩下的行为按范围分给条带，条带内保持历史顺序；
+    已经压缩的部分由rebuildBase先画到整个缓冲区，有行为的条带再各自画一遍底层栅格
+     */
+    boolean rebuildInParallel(int target) {
+        int threads = rebuildThreadCount;
+        if (threads <= 1) {
+            return false;
+        }
+        if (parallelRasterizer == null || parallelRasterizer.getThreadCount() != threads) {
+            if (parallelRasterizer != null) {
+                parallelRasterizer.release(bandPainter);
+                parallelRasterizer.shutdown();
+            }
+            parallelRasterizer = new ParallelRasterizer<>(threads);
+        }
+        parallelRasterizer.begin(bitmapBuffer.getWidth(), bitmapBuffer.getHeight());
+        synchronized (historicActions) {
+            rebuildBase = baseLayer.getSnapshot();
+            for (int i = historicActions.getBase(); i < target; i++) {
+                Action action = historicActions.get(i);
+                if (action instanceof EraseAction || !action.isVisibleAt(target)) {
+                    continue;
+                }
+                int item = rebuildActions.size();
+                rebuildActions.add(action);
+                if (action.getBounds(actionBounds)) {
+                    parallelRasterizer.add(item, actionBounds.top, actionBounds.bottom);
+                } else {
+                    parallelRasterizer.addToAll(item);
+                }
+            }
+        }
+        bitmapBuffer.eraseColor(Color.TRANSPARENT);
+        rebuildBase.draw(bufferCanvas, bufferWorld);
+        try {
+            parallelRasterizer.rasterize(bandPainter);
+        } finally {
+            rebuildActions.clear();
+        }
+        return true;
+    }
+
+    /*
+    分块模式下把刚提交的一笔画进已经缓存的方块，并记录它的范围
+     */
+    void commitActionToTiles(Action action, int committedCount) {
+        if (action.getBounds(actionBounds)) {
+            tiledBoard.drawCommitted(action, actionBounds);
+            boundsLog.record(committedCount - 1, actionBounds.left, actionBounds.top, actionBounds.right, actionBounds.bottom);
+        } else {
+            tiledBoard.clear();
+        }
+    }
+
+    /*
+    分块模式下的undo、redo：[renderTarget, target)或[target, renderTarget)之间的行为发生了变化，
+    让它们覆盖过的方块失效，之后需要时从历史记录重新栅格化；
+    变化的行为既包括之前画进方块的(记录在boundsLog中)，也包括历史记录中当前的
+     */
+    void rebuildTiles(int target) {
+        BoundsLog.setEmpty(invalidBounds);
+        boolean unknown = false;
+        synchronized (historicActions) {
+            target = Math.min(target, historicActions.size());
+            int from = Math.min(renderTarget, target);
+            int to = Math.max(renderTarget, target);
+            for (int i = from; i < to; i++) {
+                boundsLog.unionInto(i, invalidBounds);
+                if (i < historicActions.getBase() || i >= historicActions.size()) {
+                    continue;
+                }
+                if (historicActions.get(i).getBounds(actionBounds)) {
+                    boundsLog.record(i, actionBounds.left, actionBounds.top, actionBounds.right, actionBounds.bottom);
+                    boundsLog.unionInto(i, invalidBounds);
+                } else {
+                    unknown = true;
+                }
+            }
+        }
+        if (unknown) {
+            tiledBoard.clear();
+        } else if (!BoundsLog.isEmpty(invalidBounds)) {
+            tiledBoard.invalidate(invalidBounds[0], invalidBounds[1], invalidBounds[2], invalidBounds[3]);
+        }
+        renderTarget = target;
+        dirtyRegion.markFull();
+    }
+
+    /*
+    分块模式下按历史记录重新记录全部行为的范围，并丢弃所有方块
+     */
+    void resetTiles(int target) {
+        tiledBoard.clear();
+        boundsLog.clear();
+        synchronized (historicActions) {
+            target = Math.min(target, historicActions.size());
+            boundsLog.discardBefore(historicActions.getBase());
+            for (int i = historicActions.getBase(); i < target; i++) {
+                if (historicActions.get(i).getBounds(actionBounds)) {
+                    boundsLog.record(i, actionBounds.left, actionBounds.top, actionBounds.right, actionBounds.bottom);
+                }
+            }
+        }
+        renderTarget = target;
+        dirtyRegion.markFull();
+    }
+
+    /*
+    在渲染线程上把磁盘上的栅格贴回缓冲区，失败时按历史记录重建
+     */
+    void restoreFromDisk(int target) {
+        if (bufferCanvas == null) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        if (resumeCache.restoreInto(bufferCanvas, bitmapBuffer.getWidth(), bitmapBuffer.getHeight())) {
+            dirtyRegion.markFull();
+        } else {
+            resumeSource = RenderStats.RESUME_REPLAY;
+            rebuildBuffer(target);
+        }
+        metrics.recordResumeReplay(System.nanoTime() - startNanos);
+    }
+
+    /*
+    按重建前后的位置把OP_REBUILD的耗时计入undo、redo或surface重建后的恢复
+     */
+    void recordReplay(int previousTarget, int target, long nanos) {
+        if (resumeReplayPending) {
+            resumeReplayPending = false;
+            metrics.recordResumeReplay(nanos);
+        } else if (target < previousTarget) {
+            metrics.recordUndoReplay(nanos);
+        } else if (target > previousTarget) {
+            metrics.recordRedoReplay(nanos);
+        }
+    }
+
+    /*
+    命令丢失之后，当前笔画已经不完整，丢弃它并按历史记录重建缓冲区
+     */
+    void recoverFromOverflow() {
+        int target;
+        synchronized (historicActions) {
+            target = historicActions.getNextDoIndex();
+        }
+        resetRendering(target);
+    }
+
+    /*
+    丢弃当前笔画、关键帧和方块，按历史记录[0, target)重建
+     */
+    void resetRendering(int target) {
+        keyframeCache.clear();
+        liveStrokes.clear();
+        if (tiledBoard != null) {
+            resetTiles(target);
+        } else {
+            rebuildBuffer(target);
+        }
+    }
+
+    /*
+    把历史记录中[base, newBase)的行为合成到底层栅格，再从历史记录和空间索引中释放，version是发出命令时的historyVersion。
+    被之后的橡皮擦(包括redo尾部和正在进行的擦除手势)引用的行为要留给橡皮擦，压缩停在最早的引用之前；
+    合成在锁外进行，期间历史记录可能被替换，释放之前重新检查。
+    压缩之后画面不变，缓冲区、关键帧和已经缓存的方块都不需要重建
+     */
+    void compactHistory(int newBase, long version) {
+        BaseLayer.Snapshot from;
+        synchronized (historicActions) {
+            if (version != historyVersion) {
+                return;
+            }
+            newBase = Math.min(newBase, historicActions.getUndoFloor());
+            for (int i = newBase, size = historicActions.size(); i < size; i++) {
+                Action action = historicActions.get(i);
+                if (action instanceof EraseAction) {
+                    newBase = Math.min(newBase, firstTargetIndex((EraseAction) action));
+                }
+            }
+            if (pendingErase != null) {
+                newBase = Math.min(newBase, firstTargetIndex(pendingErase));
+            }
+            from = baseLayer.getSnapshot();
+            if (newBase <= historicActions.getBase()) {
+                return;
+            }
+            for (int i = historicActions.getBase(); i < newBase; i++) {
+                Action action = historicActions.get(i);
+                if (!(action instanceof EraseAction) && action.isVisibleAt(newBase)) {
+                    compactActions.add(action);
+                }
+            }
+        }
+        BaseLayer.Snapshot next;
+        try {
+            next = baseLayer.flatten(from, newBase, compactActions);
+        } finally {
+            compactActions.clear();
+        }
+        synchronized (historicActions) {
+            if (version != historyVersion || baseLayer.getSnapshot() != from) {
+                return;
+            }
+            historicActions.compact(newBase);
+            spatialIndex.compact(newBase);
+            baseLayer.publish(next);
+        }
+        rebuildBase = next;
+        keyframeCache.setBaseIndex(newBase);
+        boundsLog.discardBefore(newBase);
+    }
+
+    /*
+    橡皮擦行为擦除的最早一笔的索引
+     */
+    static int firstTargetIndex(EraseAction eraseAction) {
+        int first = Integer.MAX_VALUE;
+        for (int i = 0, count = eraseAction.getTargetCount(); i < count; i++) {
+            first = Math.min(first, eraseAction.getTargetIndex(i));
+        }
+        return first;
+    }
+
+    /*
+    通知渲染线程按当前的nextDoIndex重建缓冲区
+     */
+    void requestRebuild(int target) {
+        commandQueue.offerCommand(StrokeCommandQueue.OP_REBUILD, target, 0, 0, 0, 0);
+        doRender();
+    }
+
+    /*
+    命令队列只有UI线程一个生产者，可以在任意线程上调用的公开方法通过它发送命令
+     */
+    static boolean isUiThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    /*
+    请求渲染线程按当前的nextDoIndex重建(OP_REBUILD)或者重置(OP_RESET)：在其它线程上调用时转到UI线程发送，
+    发送时才在锁内读取nextDoIndex，不会与这期间UI线程提交的笔画错序
+     */
+    void requestTargetCommand(final int op) {
+        if (!isUiThread()) {
+            uiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    requestTargetCommand(op);
+                }
+            });
+            return;
+        }
+        synchronized (historicActions) {
+            commandQueue.offerCommand(op, historicActions.getNextDoIndex(), 0, 0, 0, 0);
+        }
+        doRender();
+    }
+
+    /*
+    返回每帧贴图的像素统计
+     */
+    public RenderStats getRenderStats() {
+        return renderStats;
+    }
+
+    /*
+    返回运行指标，可以随时读取快照
+     */
+    public BoardMetrics getMetrics() {
+        return metrics;
+    }
+
+    /*
+    每隔intervalMillis毫秒采集一次指标快照，输出到日志并交给listener，之后开始新的统计周期；
+    intervalMillis为0时停止，listener可以为null；只能在UI线程上调用
+     */
+    public void setMetricsListener(BoardMetrics.Listener listener, long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("intervalMillis must not be negative: " + intervalMillis);
+        }
+        metricsListener = listener;
+        metricsIntervalMillis = intervalMillis;
+        removeCallbacks(metricsDump);
+        if (intervalMillis > 0) {
+            postDelayed(metricsDump, intervalMillis);
+        }
+    }
+
+    /*
+    render的触发函数包装，由renderScheduler决定立即渲染还是合并到下一帧
+     */
+    public void doRender() {
+        renderScheduler.requestRender();
+    }
+
+    /*
+    书写时请求渲染，低延迟模式下不等下一个vsync
+     */
+    void requestInkRender() {
+        if (liveStrokes.isLowLatency()) {
+            renderScheduler.requestUrgentRender();
+        } else {
+            doRender();
+        }
+    }
+
+    /*
+    设置渲染模式：IMMEDIATE每次请求都渲染，FRAME_ALIGNED每帧最多渲染一次
+     */
+    public void setRenderMode(RenderScheduler.Mode mode) {
+        renderScheduler.setMode(mode);
+    }
+
+    /*
+    设置帧对齐模式下的帧间隔，0表示跟随vsync，在下一次surface创建时生效
+     */
+    public void setFrameIntervalMillis(long frameIntervalMillis) {
+        this.frameIntervalMillis = frameIntervalMillis;
+    }
+
+    /*
+    返回渲染调度的统计，包括合并与丢弃的请求数量
+     */
+    public RenderScheduler getRenderScheduler() {
+        return renderScheduler;
+    }
+
+    /*
+    开启或关闭低延迟书写模式，从下一笔开始生效
+     */
+    public void setLowLatencyInk(boolean enabled) {
+        liveStrokes.setLowLatency(enabled);
+    }
+
+    public boolean isLowLatencyInk() {
+        return liveStrokes.isLowLatency();
+    }
+
+    /*
+    替换低延迟模式下的运动预测：渲染线程通过factory为每个书写槽位创建一个实例，为null时不画预测的尾巴；从下一笔开始生效
+     */
+    public void setStrokePredictorFactory(StrokePredictor.Factory factory) {
+        liveStrokes.setPredictorFactory(factory);
+    }
+
+    public StrokePredictor.Factory getStrokePredictorFactory() {
+        return liveStrokes.getPredictorFactory();
+    }
+
+    /*
+    开启或关闭多指书写，从下一次触摸开始生效：每根手指各自书写一笔，最多MAX_POINTERS笔同时进行，
+    用于多人同时在大屏上书写；开启后双指不再缩放、平移画板，橡皮擦模式下仍然只跟随第一根手指
+     */
+    public void setMultiTouchInk(boolean enabled) {
+        multiTouchInk = enabled;
+    }
+
+    public boolean isMultiTouchInk() {
+        return multiTouchInk;
+    }
+
+    /*
+    设置预测的时长(毫秒)，可以按设备实测的输入到上屏的延迟调整
      */
-    List<Action> historicActions;
+    public void setPredictionHorizonMillis(float horizonMillis) {
+        if (!(horizonMillis >= 0)) {
+            throw new IllegalArgumentException("horizonMillis must not be negative: " + horizonMillis);
+        }
+        predictionHorizonMillis = horizonMillis;
+    }
+
+    public float getPredictionHorizonMillis() {
+        return predictionHorizonMillis;
+    }
 
     /*
-    永远指向下一个当前可写笔画(Path)在行为轨迹集合中的下一个合法可写入的位置索引
-    该字段为undo和redo操作提供计算依据
+    设置重建缓冲区时使用的线程数，默认取处理器数量(最多8个)，设为1时总是从关键帧顺序重放；
+    在下一次重建时生效
      */
-    int nextDoIndex = 0;
+    public void setRebuildThreadCount(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        rebuildThreadCount = threadCount;
+    }
+
+    public int getRebuildThreadCount() {
+        return rebuildThreadCount;
+    }
 
     /*
-    当前最新的一个滑动轨迹记录
+    返回笔画提交时的简化阶段，可以调整误差、关闭简化或者设置统计压缩比的回调
      */
-    Path latestStrokePath;
+    public StrokeSimplifier getStrokeSimplifier() {
+        return strokeSimplifier;
+    }
 
     /*
-    当前的画笔
+    设置是否使用分块的无限画布，在下一次surface创建时生效：
+    分块模式下画板可以通过scrollBoardTo向任意方向滚动，只有画过笔画的方块占用内存
      */
-    Paint currentPaint;
-
+    public void setTiledCanvasEnabled(boolean enabled) {
+        tiledCanvasEnabled = enabled;
+    }
 
-    Paint pointPaint;
+    public boolean isTiledCanvasEnabled() {
+        return tiledCanvasEnabled;
+    }
 
     /*
-    当前的滑动手势的坐标
+    滚动画板，使屏幕左上角对应世界坐标(x, y)，只在分块模式下有效
      */
-    PointF motionPoint = new PointF();
+    public void scrollBoardTo(float x, float y) {
+        if (tiledBoard == null) {
+            return;
+        }
+        viewport.set(x, y, viewport.getScale());
+        publishViewport(false);
+    }
 
     /*
-    存储当前画笔的配置
+    按屏幕像素滚动画板
      */
-    PenConfig penConfig;
-
-
-    boolean isSurfaceAvailable;
+    public void scrollBoardBy(float dx, float dy) {
+        if (tiledBoard == null) {
+            return;
+        }
+        viewport.panBy(-dx, -dy);
+        publishViewport(false);
+    }
 
-    int moveCount = 0;
+    public float getBoardScrollX() {
+        return viewport.getOriginX();
+    }
 
-    long motionTime = 0;
+    public float getBoardScrollY() {
+        return viewport.getOriginY();
+    }
 
-    int strokeFragmentWidth = 20;
     /*
-    当前的背景颜色
+    以屏幕上的(focusX, focusY)为中心把画板缩放到scale倍，范围是[Viewport.MIN_SCALE, Viewport.MAX_SCALE]，
+    只在分块模式下有效
      */
-    int backgroundColorId;
-
-    public WhiteboardView(Context context) {
-        super(context);
-        initWhiteboardView(context);
+    public void setBoardScale(float scale, float focusX, float focusY) {
+        if (tiledBoard == null) {
+            return;
+        }
+        viewport.zoomAt(focusX, focusY, scale / viewport.getScale());
+        publishViewport(false);
     }
 
-    public WhiteboardView(Context context, AttributeSet attributeSet) {
-        super(context, attributeSet);
-        initWhiteboardView(context);
+    public float getBoardScale() {
+        return viewport.getScale();
     }
 
     /*
-    初始化基本变量和组件
+    返回当前世界坐标到屏幕坐标的变换，可以用来把画板上的内容和其它视图对齐
      */
-    public void initWhiteboardView(Context context) {
-        currentPaint = new Paint();
-        pointPaint = new Paint();
-        pointPaint.setStyle(Paint.Style.STROKE);
-        pointPaint.setStrokeCap(Paint.Cap.ROUND);
-        pointPaint.setStrokeWidth(18);
-        pointPaint.setColor(Color.BLUE);
-        penConfig = new PenConfig(context);
-        penConfig.setColor(Color.RED).setStokeWidth(12);
-        penConfig.modify(currentPaint);
-
-        backgroundColorId = Color.WHITE;
-
-        historicActions = new LinkedList<>();
-        latestStrokePath = new Path();
-
-        surfaceHolder = this.getHolder();
-        surfaceHolder.addCallback(this);
-
-        setFocusable(true);
-        setFocusableInTouchMode(true);
-        setKeepScreenOn(true);
+    public Matrix getViewMatrix(Matrix out) {
+        return getViewMatrix(viewport, out);
     }
 
+    static Matrix getViewMatrix(Viewport viewport, Matrix out) {
+        out.setScale(viewport.getScale(), viewport.getScale());
+        out.preTranslate(-viewport.getOriginX(), -viewport.getOriginY());
+        return out;
+    }
 
-    @Override
-    public synchronized boolean onTouchEvent(MotionEvent event) {
-        int touchCount = event.getPointerCount();
-        float distanceToLatestPoint = 0;
-
-        switch (event.getAction()) {
-            case MotionEvent.ACTION_DOWN:
-                /*清空最新的一笔路径容器，并记录笔画的开始点*/
-                latestStrokePath.reset();
-                motionPoint.set(event.getX(), event.getY());
-                latestStrokePath.moveTo(motionPoint.x, motionPoint.y);
-                latestStrokePath.quadTo(motionPoint.x, motionPoint.y, motionPoint.x, motionPoint.y);
-                doRender();
-                moveCount = 0;
-                motionTime = System.currentTimeMillis();
-                break;
-
-            case MotionEvent.ACTION_MOVE:
-                distanceToLatestPoint  = (float)Math.hypot(event.getY() - motionPoint.y, event.getX() - motionPoint.x);
-                if (distanceToLatestPoint > penConfig.getStokeWidth() * 2) {
-                    long currentMotionTime = System.currentTimeMillis();
-                    long strokeTimeSpan = Math.abs(currentMotionTime - motionTime);
-                    float velocity = distanceToLatestPoint / strokeTimeSpan;
-                    Log.d(TAG, "onTouchEvent.MOVE:" + "distance=" + distanceToLatestPoint + ",timespan=" + strokeTimeSpan + ",velocity="  + velocity);
-                    motionTime = currentMotionTime;
-                    latestStrokePath.quadTo(motionPoint.x, motionPoint.y, (event.getX() + motionPoint.x) / 2, (event.getY() + motionPoint.y) / 2);
-                    //latestStrokePath.quadTo(motionPoint.x, motionPoint.y, event.getX(), event.getY());
-                    bufferCanvas.drawPoint(event.getX(), event.getY(), pointPaint);
-                    motionPoint.set(event.getX(), event.getY());
-                    doRender();
-                }
-                break;
+    /*
+    把UI线程上的视口同步给笔画记录和渲染线程，之后的触摸坐标按视口换算为世界坐标；
+    gesturing为true时渲染线程只缩放显示已有的方块
+     */
+    void publishViewport(boolean gesturing) {
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            if (strokeRecorders[i] != null) {
+                strokeRecorders[i].setTransform(viewport.getOriginX(), viewport.getOriginY(), viewport.getScale());
+            }
+        }
+        commandQueue.offerCommand(StrokeCommandQueue.OP_VIEWPORT, gesturing ? 1 : 0,
+                viewport.getOriginX(), viewport.getOriginY(), 0, viewport.getScale());
+        doRender();
+    }
 
-            case MotionEvent.ACTION_CANCEL:
-                Log.d(TAG, "onTouchEvent.ACTION_CANCEL");
-            case MotionEvent.ACTION_UP:
-                distanceToLatestPoint  = (float)Math.hypot(event.getY() - motionPoint.y, event.getX() - motionPoint.x);
-                long currentMotionTime = System.currentTimeMillis();
-                float velocity = distanceToLatestPoint / (currentMotionTime - motionTime);
-                Log.d(TAG, "onTouchEvent.ACTION_UP: distance=" + distanceToLatestPoint + ",timespan=" + (currentMotionTime - motionTime) + ",velocity=" + velocity);
-                //如果切入点在历史轨迹的某个中间点上，说明用户之前做过undo操作， 那么要把doIndex之后的无效动作删掉
-                if (canRedo()) {
-                    while (nextDoIndex > 0 && historicActions.size() > nextDoIndex) {
-                        historicActions.remove(historicActions.size() - 1);
-                    }
-                }
-                if(distanceToLatestPoint > 0) {
-                    latestStrokePath.quadTo(motionPoint.x, motionPoint.y, (event.getX() + motionPoint.x) / 2, (event.getY() + motionPoint.y) / 2);
-                    bufferCanvas.drawPoint(event.getX(), event.getY(), pointPaint);
-                    doRender();
-                }
-                //当前轨迹加入历史记录
-                historicActions.add(new PathAction(latestStrokePath, penConfig));
-                //当前轨迹画入缓冲区
-                bufferCanvas.drawPath(latestStrokePath, currentPaint);
-                //历史记录doindex向后移动
-                ++nextDoIndex;
-                break;
+    /*
+    设置背景：纯色、网格，或者按区域解码的图片、PDF页面作为底图；只能在UI线程上调用。
+    背景是独立的一层，之后的undo/redo重放和擦除都不会重画背景，也不会重新解码底图
+     */
+    public void setBackground(BackgroundConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
         }
-        return true;
+        backgroundConfig = config;
+        doRender();
     }
 
+    public BackgroundConfig getBackground() {
+        return backgroundConfig;
+    }
 
     /*
-    render方法是最基本的单元渲染函数，由HandlerTread在子线程进行异步调用,包括如下环节：
-    1、获取canvas
-    2、将包含了之前所有的历史步骤的缓冲区bitmap，先渲染出来，之所以要先渲染bitmap，是因为
-    bitmap包含了本次轨迹渲染之前所有的历史记录，如果通过list去遍历效率较低，直接将包含历史
-    记录的缓冲区拷贝到显示区，可以节省计算资源。
-    3、渲染最新的一笔轨迹
-    4、释放canvas
+    设置surface销毁期间保留的栅格写盘使用的文件，例如context.getCacheDir()下的一个文件；
+    不设置时只保留在内存中
      */
-    @Override
-    public void render() {
-        Canvas canvas = surfaceHolder.lockCanvas();
-        if (canvas != null) {
-            Log.d(TAG, "render()");
-            canvas.drawBitmap(bitmapBuffer, 0, 0, currentPaint);
-            canvas.drawPath(latestStrokePath, currentPaint);
-            surfaceHolder.unlockCanvasAndPost(canvas);
-        }
+    public void setResumeSpillFile(File spillFile) {
+        resumeCache.setSpillFile(spillFile);
     }
 
     /*
-    render的触发函数包装
+    由Activity的onTrimMemory转发：应用进入后台并且内存紧张时，把保留的栅格写入磁盘并释放内存
      */
-    public void doRender() {
-        if (isSurfaceAvailable && renderThreadHandler != null) {
-            renderThreadHandler.sendEmptyMessage(0);
+    public void trimMemory(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return;
+        }
+        if (tiledBoard != null && !isSurfaceAvailable) {
+            //渲染线程已经退出，方块随时可以从历史记录重新栅格化，直接释放
+            tiledBoard.clear();
+            return;
+        }
+        if (!resumeCache.hasRetained()) {
+            return;
+        }
+        if (spillExecutor == null) {
+            spillExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ResumeSpill");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         }
+        spillExecutor.execute(spillTask);
     }
 
 
@@ -272,23 +2251,98 @@ public class WhiteboardView extends SurfaceView implements SurfaceHolder.Callbac
      */
     @Override
     public void surfaceCreated(SurfaceHolder surfaceHolder) {
+        resumeStartNanos = System.nanoTime();
         renderThread = new HandlerThread("RenderThread");
         renderThread.start();
-        if (bitmapBuffer == null) {
-            bitmapBuffer = Bitmap.createBitmap(this.getWidth(), this.getHeight(), Bitmap.Config.ARGB_8888);
-            bufferCanvas = new Canvas(bitmapBuffer);
-            bufferCanvas.drawColor(backgroundColorId);
+        surfaceWidth = this.getWidth();
+        surfaceHeight = this.getHeight();
+        resumeSource = RenderStats.RESUME_REPLAY;
+        //渲染线程还没有开始处理命令，这里可以安全地切换模式
+        if (tiledCanvasEnabled) {
+            enterTiledMode();
+        } else if (tiledBoard != null) {
+            leaveTiledMode();
         }
-        //如果路径不为空，说明当前是因为Activity窗体被resume回来的，那么要把缓冲区中的历史轨迹要走一遍s
-        if (historicActions.size() > 0 && nextDoIndex > 0) {
-            for (int i = 0, j = historicActions.size(); i < j && i < nextDoIndex; i++) {
-                historicActions.get(i).draw(bufferCanvas);
+        if (tiledBoard == null && bitmapBuffer == null) {
+            //优先复用surface销毁时保留下来的缓冲区
+            bitmapBuffer = resumeCache.takeRetained(this.getWidth(), this.getHeight());
+            if (bitmapBuffer != null) {
+                resumeSource = RenderStats.RESUME_MEMORY;
+                bufferCanvas = new Canvas(bitmapBuffer);
+            } else {
+                bitmapBuffer = Bitmap.createBitmap(this.getWidth(), this.getHeight(), Bitmap.Config.ARGB_8888);
+                bufferCanvas = new Canvas(bitmapBuffer);
+                if (resumeCache.hasSpill()) {
+                    resumeSource = RenderStats.RESUME_DISK;
+                }
             }
         }
+        //尺寸变化后，之前的关键帧不能再用；渲染线程还没有开始处理命令，这里可以安全地访问
+        if (bitmapBuffer != null) {
+            bufferWorld.set(0, 0, bitmapBuffer.getWidth(), bitmapBuffer.getHeight());
+            keyframeCache.validateSize(bitmapBuffer.getWidth(), bitmapBuffer.getHeight());
+        }
+        backgroundLayer.setSize(surfaceWidth, surfaceHeight);
         renderThreadHandler = new RenderThreadHandler(renderThread.getLooper(), this);
+        renderScheduler.attach(new HandlerFrameClock(renderThreadHandler),
+                frameIntervalMillis > 0 ? new IntervalFrameClock(renderThreadHandler, frameIntervalMillis) : new ChoreographerFrameClock(renderThreadHandler));
         isSurfaceAvailable = true;
-        //doRender调用一次，主要是为了将初始化画面更新到白板上；
-        doRender();
+        int target;
+        synchronized (historicActions) {
+            target = historicActions.getNextDoIndex();
+        }
+        if (resumeSource == RenderStats.RESUME_MEMORY) {
+            //缓冲区或方块原样保留，surface销毁期间积压的命令会在它的基础上继续执行，只需要整屏贴图一次
+            dirtyRegion.markFull();
+            doRender();
+        } else if (resumeSource == RenderStats.RESUME_DISK) {
+            pendingDiskRestore = target;
+            doRender();
+        } else {
+            //没有保留的栅格，要让渲染线程把历史轨迹要走一遍，
+            //有关键帧时从最近的关键帧开始；重建同时会标记整屏重绘，将初始化画面更新到白板上
+            resumeReplayPending = true;
+            requestRebuild(target);
+        }
+    }
+
+
+    /*
+    切换到分块模式：整屏的缓冲区和关键帧不再使用，方块在之后的渲染中按需栅格化；
+    已经存在的方块说明是从后台恢复的，直接复用
+     */
+    void enterTiledMode() {
+        if (tiledBoard != null) {
+            resumeSource = RenderStats.RESUME_MEMORY;
+            return;
+        }
+        if (bitmapBuffer != null) {
+            bitmapBuffer.recycle();
+            bitmapBuffer = null;
+            bufferCanvas = null;
+        }
+        resumeCache.clear();
+        keyframeCache.clear();
+        tiledBoard = new TiledBoard(tileSource, tileReadyCallback);
+        tiledBoard.setWantedLevel(renderLevel);
+        boundsLog.clear();
+        renderTarget = 0;
+    }
+
+    /*
+    回到一整屏的缓冲区，视口复位到原点
+     */
+    void leaveTiledMode() {
+        tiledBoard.release();
+        tiledBoard = null;
+        boundsLog.clear();
+        viewport.reset();
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            if (strokeRecorders[i] != null) {
+                strokeRecorders[i].setTransform(0, 0, 1);
+            }
+        }
+        applyViewport(0, 0, 1, false);
     }
 
 
@@ -306,16 +2360,55 @@ public class WhiteboardView extends SurfaceView implements SurfaceHolder.Callbac
     @Override
     public void surfaceDestroyed(SurfaceHolder surfaceHolder) {
         isSurfaceAvailable = false;
+        //撤销等待中的帧，之后的渲染请求会被丢弃
+        renderScheduler.detach();
         //清空消息队列
         renderThreadHandler.removeCallbacksAndMessages(null);
-        //线程退出
-        renderThread.quit();
-        bitmapBuffer.recycle();
+        //线程退出，等待正在进行的渲染结束之后再回收缓冲区，队列中未处理的命令留给下一个渲染线程
+        renderThread.quitSafely();
+        try {
+            renderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (parallelRasterizer != null) {
+            //渲染线程已经结束，条带可以在这里回收
+            parallelRasterizer.release(bandPainter);
+            parallelRasterizer.shutdown();
+            parallelRasterizer = null;
+        }
+        //背景随时可以按配置重画，不保留
+        backgroundLayer.release();
+        //缓冲区交给resumeCache保留，surface重建时直接复用，不再重放历史记录
+        resumeCache.retain(bitmapBuffer);
         renderThread = null;
         renderThreadHandler = null;
         bitmapBuffer = null;
+        bufferCanvas = null;
+    }
+
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (metricsIntervalMillis > 0) {
+            removeCallbacks(metricsDump);
+            postDelayed(metricsDump, metricsIntervalMillis);
+        }
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(metricsDump);
+        //视图不再显示，保留的栅格没有用了
+        resumeCache.clear();
+        if (tiledBoard != null && !isSurfaceAvailable) {
+            //结束后台栅格化线程，重新显示时按历史记录重新栅格化
+            tiledBoard.release();
+            tiledBoard = null;
+        }
+    }
 
     @Override
     protected void finalize() throws Throwable {
@@ -335,18 +2428,19 @@ public class WhiteboardView extends SurfaceView implements SurfaceHolder.Callbac
     /*
     根据当前的行为轨迹集合来返回是否可以进行取消一步操作
      */
-    public synchronized boolean canUndo() {
-        if (nextDoIndex <= 0 || historicActions.size() <= 0) {
-            return false;
+    public boolean canUndo() {
+        synchronized (historicActions) {
+            return historicActions.canUndo();
         }
-        return true;
     }
 
     /*
     根据当前的行为轨迹集合来判断返回是否可以进行重做一步操作
      */
-    public synchronized boolean canRedo() {
-        return nextDoIndex < historicActions.size();
+    public boolean canRedo() {
+        synchronized (historicActions) {
+            return historicActions.canRedo();
+        }
     }
 
     /*
@@ -355,61 +2449,348 @@ public class WhiteboardView extends SurfaceView implements SurfaceHolder.Callbac
     并不会立即将后面被取消的操作记录删除，因为用户可能继续redo进行恢复;
     删除的时机放在用户写画的onTouchUp事件中进行判定和处理，
     如果canRedo，说明用户之前使用undo回退到了轨迹集合中间某个点，
-    那个点之后有废弃不用的行为轨迹在集合中，那么就把nextDoIndex指向以及其后的行为轨迹都删除
+    那个点之后有废弃不用的行为轨迹在集合中，那么就把nextDoIndex指向以及其后的行为轨迹一次性截断；
+    如果设置了undo深度上限，超出上限的步骤不能再被取消；
+    可以在任意线程上调用，重建的命令总是在UI线程上发送
     返回：取消操作是否成功
      */
-    public synchronized boolean undo() {
-        if (canUndo() == false) {
-            return false;
-        }
-        //只是把索引向前移动一步，保证记录还在，用户可以继续redo
-        --nextDoIndex;
-        //清屏
-        bufferCanvas.drawColor(backgroundColorId);
-        //根据0索引到新索引点nextDoIndex之间的轨迹记录，进行重绘
-        for (int i = 0; i < nextDoIndex; i++) {
-            historicActions.get(i).draw(bufferCanvas);
+    public boolean undo() {
+        synchronized (historicActions) {
+            //只是把索引向前移动一步，保证记录还在，用户可以继续redo
+            if (historicActions.undo() == false) {
+                return false;
+            }
+            session.onCursorMoved();
         }
-        //将最新一条临时轨迹清空，否则他会随着doRender被更新到画面上
-        latestStrokePath.reset();
-        doRender();
+        //由渲染线程恢复到nextDoIndex之前最近的关键帧，再重绘关键帧到nextDoIndex之间的轨迹记录
+        requestTargetCommand(StrokeCommandQueue.OP_REBUILD);
         return true;
     }
 
 
     /*
-    在当前行为轨迹集合中，进行重做一步操作
+    在当前行为轨迹集合中，进行重做一步操作，可以在任意线程上调用
     返回：重做操作是否成功
      */
-    public synchronized boolean redo() {
-        if (canRedo() == false) {
-            return false;
-        }
-        //只是把索引向后移动一步
-        ++nextDoIndex;
-        bufferCanvas.drawColor(backgroundColorId);
-        //根据0索引到新索引点nextDoIndex之间的轨迹记录，进行重绘
-        for (int i = 0; i < nextDoIndex; i++) {
-            historicActions.get(i).draw(bufferCanvas);
+    public boolean redo() {
+        synchronized (historicActions) {
+            //只是把索引向后移动一步
+            if (historicActions.redo() == false) {
+                return false;
+            }
+            session.onCursorMoved();
         }
-        //将最新一条临时轨迹清空，否则他会随着doRender被更新到画面上
-        latestStrokePath.reset();
-        doRender();
+        //由渲染线程恢复到nextDoIndex之前最近的关键帧，再重绘关键帧到nextDoIndex之间的轨迹记录
+        requestTargetCommand(StrokeCommandQueue.OP_REBUILD);
         return true;
     }
 
+    /*
+    把当前生效的历史记录[0, nextDoIndex)保存为会话文件，已经压缩的部分保存为底层栅格的方块：持锁期间只拍快照，
+    编码和写盘在锁外进行，比较耗时，应当在后台线程调用；先写入临时文件再改名，失败时不会破坏已有的文件
+     */
+    public void saveSession(File file) throws IOException {
+        SessionSnapshot snapshot;
+        synchronized (historicActions) {
+            snapshot = session.capture();
+        }
+        SessionWriter writer = new SessionWriter();
+        snapshot.writeTo(writer);
+        writer.writeTo(file);
+    }
+
+    /*
+    打开会话文件，替换当前的历史记录：只读取样式表和索引表建立历史记录与空间索引，
+    笔画的采样点在第一次绘制时才从映射的文件中解码；
+    涉及文件的映射和读取，可以在后台线程调用，重置渲染的命令在UI线程上发送
+     */
+    public void openSession(File file) throws IOException {
+        SessionReader reader = SessionReader.open(file);
+        List<Action> actions = session.load(reader);
+        BaseLayer.Snapshot base = baseLayer.load(reader);
+        synchronized (historicActions) {
+            replaceHistory(actions, base);
+            session.onHistoryReplaced();
+        }
+        requestTargetCommand(StrokeCommandQueue.OP_RESET);
+    }
+
+    /*
+    用actions和它们之前的底层栅格base替换整个历史记录，之前发出的压缩命令作废；
+    调用方需要持有historicActions的锁，之后需要发送OP_RESET
+     */
+    void replaceHistory(List<Action> actions, BaseLayer.Snapshot base) {
+        pendingErase = null;
+        historyVersion++;
+        requestedCompactionBase = 0;
+        historicActions.clear();
+        spatialIndex.clear();
+        baseLayer.publish(base);
+        for (int i = 0, count = actions.size(); i < count; i++) {
+            commitAction(actions.get(i));
+        }
+    }
+
+    /*
+    开启崩溃安全的自动保存：directory中已经有自动保存的快照和日志时，先用它们替换当前的历史记录；
+    之后每次提交行为和undo/redo都追加到日志，由后台线程批量写盘，调用线程不等待磁盘；
+    打开和回放日志涉及文件读写，可以在后台线程调用，重置渲染的命令在UI线程上发送
+     */
+    public void enableAutosave(File directory) throws IOException {
+        session.enableAutosave(directory);
+        requestTargetCommand(StrokeCommandQueue.OP_RESET);
+    }
+
+    /*
+    会话的保存、打开和自动保存使用的行为描述和创建
+     */
+    class SessionHost implements SessionController.Host<Action> {
+
+        @Override
+        public void describe(Action action, SessionController.ActionRecord record) {
+            boolean bounded = action.getBounds(commitBounds);
+            if (action instanceof EraseAction) {
+                EraseAction eraseAction = (EraseAction) action;
+                record.setErase(commitBounds.left, commitBounds.top, commitBounds.right, commitBounds.bottom);
+                for (int i = 0, count = eraseAction.getTargetCount(); i < count; i++) {
+                    record.addTarget(eraseAction.getTargetIndex(i));
+                }
+            } else if (bounded && action instanceof PathAction) {
+                PathAction pathAction = (PathAction) action;
+                SessionReader source = action instanceof LazyPathAction ? ((LazyPathAction) action).getSource() : null;
+                if (source != null) {
+                    record.setStroke(source, ((LazyPathAction) action).getRecordIndex(), pathAction.getStyle(),
+                            commitBounds.left, commitBounds.top, commitBounds.right, commitBounds.bottom);
+                } else if (pathAction.getStroke() != null) {
+                    record.setStroke(pathAction.getStroke(), pathAction.getStyle(),
+                            commitBounds.left, commitBounds.top, commitBounds.right, commitBounds.bottom);
+                }
+            }
+        }
+
+        @Override
+        public Action createStroke(Stroke stroke, PenStyle style) {
+            return new PathAction(stroke, style, paintCache, cacheStrokePaths);
+        }
+
+        @Override
+        public Action createStroke(SessionReader source, int recordIndex, PenStyle style) {
+            return new LazyPathAction(source, recordIndex, style, paintCache);
+        }
+
+        @Override
+        public Action createErase(int index) {
+            return new EraseAction(index, renderSource);
+        }
+
+        /*
+        打开会话和回放日志可能在不同的线程上进行，范围使用临时对象
+         */
+        @Override
+        public boolean addEraseTarget(Action erase, Action target, int targetIndex) {
+            RectF bounds = new RectF();
+            if (!(target instanceof PathAction) || !target.getBounds(bounds)) {
+                return false;
+            }
+            ((EraseAction) erase).add(target, targetIndex, bounds);
+            return true;
+        }
+
+        @Override
+        public void commit(Action action) {
+            commitAction(action);
+        }
+
+        @Override
+        public void restore(List<Action> actions, SessionReader snapshot) throws IOException {
+            BaseLayer.Snapshot base = snapshot != null ? baseLayer.load(snapshot) : baseLayer.empty();
+            synchronized (historicActions) {
+                replaceHistory(actions, base);
+            }
+        }
+
+        @Override
+        public void captureBase(SessionSnapshot snapshot) {
+            baseLayer.getSnapshot().addTo(snapshot);
+        }
+    }
+
+    /*
+    等待已经追加的日志全部写入磁盘，例如在Activity的onPause中调用；后台写盘失败过时抛出
+     */
+    public void flushAutosave() throws IOException {
+        session.flushAutosave();
+    }
+
+    /*
+    写完剩余的日志之后关闭自动保存
+     */
+    public void disableAutosave() throws IOException {
+        session.disableAutosave();
+    }
+
+    /*
+    设置undo的最大步数，0表示不限制
+     */
+    public void setMaxUndoDepth(int maxUndoDepth) {
+        synchronized (historicActions) {
+            historicActions.setMaxUndoDepth(maxUndoDepth);
+        }
+    }
+
+    /*
+    设置undo的范围并开启历史记录的压缩：超出horizon步的行为不能再undo，
+    每积累COMPACTION_BATCH个之后由渲染线程合成到底层栅格，并从历史记录和空间索引中释放，
+    长时间书写时内存和重建的开销只与horizon和书写的面积有关；horizon为0时不限制undo，也不再压缩。
+    已经合成的笔画是底层栅格的一部分，不能再被橡皮擦单独擦掉
+     */
+    public void setUndoHorizon(int horizon) {
+        synchronized (historicActions) {
+            historicActions.setMaxUndoDepth(horizon);
+            historyCompaction = horizon > 0;
+        }
+        requestCompaction.run();
+    }
+
+    /*
+    在UI线程上检查是否需要压缩，由可以在任意线程上调用的方法转到UI线程执行
+     */
+    final Runnable requestCompaction = new Runnable() {
+        @Override
+        public void run() {
+            if (!isUiThread()) {
+                uiHandler.post(this);
+                return;
+            }
+            synchronized (historicActions) {
+                requestCompactionIfNeeded();
+            }
+            doRender();
+        }
+    };
+
+    /*
+    设置底层栅格的方块写盘的目录，之后每次压缩改动的方块以PNG写入其中，可以用于导出；为null时不写盘
+     */
+    public void setBaseLayerExportDirectory(File directory) {
+        baseLayer.setExportDirectory(directory);
+    }
+
+    /*
+    把当前生效的画面导出到file，格式、范围和分辨率由options指定，只能在UI线程上调用。
+    持锁期间只记下笔画的引用，之后的生成和编码都在后台线程上逐块进行，书写、undo和擦除不影响正在进行的导出；
+    listener在UI线程上回调，返回的Task可以取消导出
+     */
+    public BoardExporter.Task export(File file, ExportOptions options, BoardExporter.Listener listener) {
+        ExportSnapshot snapshot;
+        synchronized (historicActions) {
+            snapshot = captureExport();
+        }
+        if (exporter == null) {
+            exporter = new BoardExporter(uiHandler);
+        }
+        return exporter.export(snapshot, options, file, listener);
+    }
+
+    /*
+    按绘制的顺序记下[base, nextDoIndex)中可见的笔画，还没有解码的笔画只记下会话文件中的位置；
+    没有内容时导出当前可见的范围。只在持有historicActions的锁时调用
+     */
+    ExportSnapshot captureExport() {
+        RectF visible = new RectF(viewport.getOriginX(), viewport.getOriginY(),
+                viewport.toWorldX(getWidth()), viewport.toWorldY(getHeight()));
+        ExportSnapshot snapshot = new ExportSnapshot(baseLayer.getSnapshot(), backgroundConfig, paintCache, visible);
+        int target = historicActions.getNextDoIndex();
+        for (int i = historicActions.getBase(); i < target; i++) {
+            Action action = historicActions.get(i);
+            if (!(action instanceof PathAction) || !action.isVisibleAt(target)) {
+                continue;
+            }
+            PathAction pathAction = (PathAction) action;
+            PenStyle style = pathAction.getStyle();
+            if (style == null) {
+                continue;
+            }
+            SessionReader source = action instanceof LazyPathAction ? ((LazyPathAction) action).getSource() : null;
+            if (source != null) {
+                snapshot.addStroke(source, ((LazyPathAction) action).getRecordIndex(), style);
+            } else {
+                Stroke stroke = pathAction.getStroke();
+                if (stroke != null) {
+                    snapshot.addStroke(stroke, style);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /*
+    设置输入采样的过滤阈值：与上一个点的距离不小于minDistance像素，
+    或者停顿超过maxIdleMillis毫秒并且有移动时，采样点才会被加入笔画
+     */
+    public void setInputFilter(float minDistance, long maxIdleMillis) {
+        inputMinDistance = minDistance;
+        inputMaxIdleMillis = maxIdleMillis;
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            if (strokeRecorders[i] != null) {
+                strokeRecorders[i].getFilter().setThresholds(minDistance, maxIdleMillis);
+            }
+        }
+    }
+
+    /*
+    设置历史笔画是否缓存绘制用的Path，只对之后提交的笔画生效
+     */
+    public void setStrokePathCacheEnabled(boolean enabled) {
+        cacheStrokePaths = enabled;
+    }
+
+    /*
+    画笔的设置在下一笔开始时通过OP_PEN命令同步给渲染线程
+     */
     public void setPenStrokerWidth(float width) {
         penConfig.setStokeWidth(width);
-        penConfig.modify(currentPaint);
     }
 
     public float getPenStrokeWidth() {
         return penConfig.getStokeWidth();
     }
 
+    /*
+    设置橡皮擦模式：开启后触摸擦掉碰到的整条笔画，每次擦除手势是一步可以undo的操作
+     */
+    public void setEraserMode(boolean eraserMode) {
+        this.eraserMode = eraserMode;
+    }
+
+    public boolean isEraserMode() {
+        return eraserMode;
+    }
+
+    /*
+    设置橡皮擦的半径，单位是屏幕像素
+     */
+    public void setEraserRadius(float radius) {
+        eraserRadius = Math.max(1, radius);
+    }
+
+    public float getEraserRadius() {
+        return eraserRadius;
+    }
+
     public void setPenColor(int color) {
         penConfig.setColor(color);
-        penConfig.modify(currentPaint);
+    }
+
+    /*
+    切换可变笔宽的墨水笔：笔宽随压力和书写速度变化
+     */
+    public void setVariableWidthInk(boolean variableWidth) {
+        penConfig.setVariableWidth(variableWidth);
+    }
+
+    public boolean isVariableWidthInk() {
+        return penConfig.isVariableWidth();
     }
 
     public int getPenColor() {
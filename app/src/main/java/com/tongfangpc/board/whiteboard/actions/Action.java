@@ -2,12 +2,55 @@ package com.tongfangpc.board.whiteboard.actions;
 
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.RectF;
 
 public abstract class Action {
     static Paint actionPen;
     static {
         actionPen = new Paint();
     }
+
+    /*
+    擦除了该行为的橡皮擦行为，null表示没有被擦除；
+    在UI线程上持有历史记录的锁修改，其它线程也应当在同一把锁内读取
+     */
+    EraseAction erasedBy;
+
     public abstract void reset();
     public abstract void draw(Canvas canvas);
+
+    /*
+    按scale倍缩放之后的显示效果绘制，缩小时可以简化或者跳过屏幕上看不清的细节，
+    canvas上已经设置好了缩放，默认与draw(canvas)相同
+     */
+    public void draw(Canvas canvas, float scale) {
+        draw(canvas);
+    }
+
+    /*
+    把行为绘制时可能影响到的范围写入out，返回false表示范围未知，调用方应当按整个画布处理
+     */
+    public boolean getBounds(RectF out) {
+        return false;
+    }
+
+    /*
+    以(x, y)为圆心、radius为半径的橡皮擦是否碰到该行为，默认不能被橡皮擦擦除
+     */
+    public boolean hitTest(float x, float y, float radius) {
+        return false;
+    }
+
+    public EraseAction getErasedBy() {
+        return erasedBy;
+    }
+
+    /*
+    历史记录中[0, target)的行为生效时，该行为是否仍然可见：
+    擦除它的橡皮擦行为的索引不小于target，说明擦除还没有生效
+     */
+    public boolean isVisibleAt(int target) {
+        EraseAction eraser = erasedBy;
+        return eraser == null || eraser.index >= target;
+    }
 }
@@ -0,0 +1,44 @@
+package com.tongfangpc.board.whiteboard.actions;
+
+import android.graphics.Path;
+
+import com.tongfangpc.board.whiteboard.stroke.PathSink;
+
+/*
+将Stroke输出的曲线写入android.graphics.Path
+ */
+public class AndroidPathSink implements PathSink {
+    Path path;
+
+    public AndroidPathSink(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public void setPath(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public void moveTo(float x, float y) {
+        path.moveTo(x, y);
+    }
+
+    @Override
+    public void quadTo(float x1, float y1, float x2, float y2) {
+        path.quadTo(x1, y1, x2, y2);
+    }
+
+    @Override
+    public void lineTo(float x, float y) {
+        path.lineTo(x, y);
+    }
+
+    @Override
+    public void close() {
+        path.close();
+    }
+}
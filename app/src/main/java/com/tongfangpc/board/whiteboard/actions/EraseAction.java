@@ -0,0 +1,132 @@
+package com.tongfangpc.board.whiteboard.actions;
+
+import android.graphics.Canvas;
+import android.graphics.RectF;
+
+import com.tongfangpc.board.whiteboard.index.IntArray;
+
+import java.util.ArrayList;
+
+/*
+橡皮擦行为：一次擦除手势擦掉的笔画作为一个行为提交到历史记录，可以像笔画一样undo、redo。
+被擦掉的笔画仍然留在历史记录中，只通过erasedBy标记；绘制橡皮擦行为时，
+把被擦掉的笔画覆盖的区域重新画一遍：先填背景，再画区域内在它之后仍然可见的笔画。
+这样从关键帧重放历史记录时不需要特殊处理，橡皮擦行为之后的画面总是正确的
+ */
+public class EraseAction extends Action {
+
+    /*
+    重绘被擦除区域的实现，由视图提供：填充背景，再按索引顺序画出区域内在[0, target)生效时可见的行为
+     */
+    public interface Redrawer {
+        void redraw(Canvas canvas, RectF region, int target, float scale);
+    }
+
+    final Redrawer redrawer;
+
+    /*
+    在历史记录中的索引
+     */
+    int index;
+
+    final ArrayList<Action> targets = new ArrayList<>();
+
+    /*
+    被擦掉的笔画在历史记录中的索引，与targets一一对应，保存会话和记录日志时使用
+     */
+    final IntArray targetIndices = new IntArray();
+
+    /*
+    被擦掉的笔画的范围的并集(世界坐标)
+     */
+    final RectF region = new RectF();
+
+    public EraseAction(int index, Redrawer redrawer) {
+        this.index = index;
+        this.redrawer = redrawer;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /*
+    提交到历史记录之后以实际的索引为准
+     */
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    /*
+    擦掉历史记录中targetIndex位置的target，bounds为它的范围；调用方需要持有历史记录的锁
+     */
+    public void add(Action target, int targetIndex, RectF bounds) {
+        target.erasedBy = this;
+        if (targets.isEmpty()) {
+            region.set(bounds);
+        } else {
+            region.union(bounds);
+        }
+        targets.add(target);
+        targetIndices.add(targetIndex);
+    }
+
+    public int getTargetCount() {
+        return targets.size();
+    }
+
+    public Action getTarget(int i) {
+        return targets.get(i);
+    }
+
+    public int getTargetIndex(int i) {
+        return targetIndices.get(i);
+    }
+
+    public boolean isEmpty() {
+        return targets.isEmpty();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        draw(canvas, 1);
+    }
+
+    @Override
+    public void draw(Canvas canvas, float scale) {
+        if (targets.isEmpty()) {
+            return;
+        }
+        canvas.save();
+        canvas.clipRect(region);
+        redrawer.redraw(canvas, region, index + 1, scale);
+        canvas.restore();
+    }
+
+    @Override
+    public boolean getBounds(RectF out) {
+        out.set(region);
+        return !targets.isEmpty();
+    }
+
+    /*
+    从历史记录中截断时调用，恢复仍然由它标记的笔画；自身的数据保持不变，其它线程可能还在绘制之前取到的它。
+    调用方需要持有历史记录的锁
+     */
+    public void restoreTargets() {
+        for (int i = 0, count = targets.size(); i < count; i++) {
+            Action target = targets.get(i);
+            if (target.erasedBy == this) {
+                target.erasedBy = null;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        restoreTargets();
+        targets.clear();
+        targetIndices.clear();
+        region.setEmpty();
+    }
+}
@@ -0,0 +1,88 @@
+package com.tongfangpc.board.whiteboard.actions;
+
+import android.graphics.RectF;
+import android.util.Log;
+
+import com.tongfangpc.board.whiteboard.config.PenPaintCache;
+import com.tongfangpc.board.whiteboard.config.PenStyle;
+import com.tongfangpc.board.whiteboard.session.SessionReader;
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+
+import java.io.IOException;
+
+/*
+从会话文件打开的笔画：范围直接取自文件的索引表，采样点在第一次绘制或命中测试时才从映射的文件中解码，
+打开文件时不需要解码任何笔画。解码之后的Stroke保留下来，之后与普通的PathAction相同
+ */
+public class LazyPathAction extends PathAction {
+    static final String TAG = LazyPathAction.class.getSimpleName();
+
+    SessionReader reader;
+
+    final int recordIndex;
+
+    final float left;
+    final float top;
+    final float right;
+    final float bottom;
+
+    public LazyPathAction(SessionReader reader, int recordIndex, PenStyle style, PenPaintCache paintCache) {
+        super(null, style, paintCache);
+        this.reader = reader;
+        this.recordIndex = recordIndex;
+        left = reader.getLeft(recordIndex);
+        top = reader.getTop(recordIndex);
+        right = reader.getRight(recordIndex);
+        bottom = reader.getBottom(recordIndex);
+    }
+
+    /*
+    还没有解码时返回采样点所在的会话文件，已经解码或者已经回收时返回null
+     */
+    public SessionReader getSource() {
+        return stroke == null ? reader : null;
+    }
+
+    public int getRecordIndex() {
+        return recordIndex;
+    }
+
+    /*
+    可能在多个线程上同时解码，结果相同，只保留其中一份
+     */
+    @Override
+    Stroke loadStroke() {
+        Stroke current = stroke;
+        SessionReader source = reader;
+        if (current != null || source == null) {
+            return current;
+        }
+        try {
+            current = source.readStroke(recordIndex);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "failed to decode stroke " + recordIndex, e);
+            reader = null;
+            return null;
+        }
+        stroke = current;
+        return current;
+    }
+
+    /*
+    范围取自索引表，不触发解码
+     */
+    @Override
+    public boolean getBounds(RectF out) {
+        if (style == null) {
+            return false;
+        }
+        out.set(left, top, right, bottom);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        reader = null;
+    }
+}
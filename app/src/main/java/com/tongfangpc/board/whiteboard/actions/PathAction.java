@@ -3,35 +3,220 @@ package com.tongfangpc.board.whiteboard.actions;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.RectF;
 
-import com.tongfangpc.board.whiteboard.config.PenConfig;
+import com.tongfangpc.board.whiteboard.config.PenPaintCache;
+import com.tongfangpc.board.whiteboard.config.PenStyle;
+import com.tongfangpc.board.whiteboard.stroke.InkOutline;
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
 
+/*
+笔画行为：只保存紧凑的采样数据Stroke，绘制时才按需生成Path；
+默认不缓存Path以节省内存，同一个线程上所有不缓存的PathAction共用一个临时Path，
+开启cachePath之后，第一次绘制生成的Path会被保留下来，以内存换取重绘速度；
+画笔只引用不可变的PenStyle，绘制时直接使用该样式缓存的Paint；
+可变笔宽的笔画绘制填充的轮廓，轮廓的几何数据在第一次使用时计算并一直保留，重放时不再重新计算
+ */
 public class PathAction extends Action {
-    Path penPath;
-    PenConfig penConfig;
+    /*
+    不缓存Path时使用的临时Path，每个线程一份：渲染线程、方块栅格化线程和并行重建的工作线程可以同时绘制
+     */
+    static final ThreadLocal<AndroidPathSink> scratchSinks = new ThreadLocal<AndroidPathSink>() {
+        @Override
+        protected AndroidPathSink initialValue() {
+            return new AndroidPathSink(new Path());
+        }
+    };
+
+    /*
+    缩小显示时，屏幕上相邻两个采样点的最小距离(像素)，更近的点被省略
+     */
+    static final float LOD_MIN_DISTANCE = 2f;
+
+    /*
+    缩小显示时，屏幕上宽和高都小于这个尺寸(像素)的笔画直接跳过
+     */
+    static final float LOD_MIN_SIZE = 1f;
+
+    final PenPaintCache paintCache;
+
+    Stroke stroke;
+    PenStyle style;
+    boolean cachePath;
+
+    /*
+    缓存的Path，可能在多个线程上同时生成，结果相同，只保留其中一份
+     */
+    volatile Path cachedPath;
+
+    /*
+    可变笔宽的轮廓，可能在渲染线程和栅格化线程上同时计算，结果相同，只保留其中一份
+     */
+    volatile InkOutline outline;
+
+    public void set(Stroke stroke, PenStyle style) {
+        this.stroke = stroke;
+        this.style = style;
+        this.cachedPath = null;
+        this.outline = null;
+    }
+
+    public PathAction(Stroke stroke, PenStyle style, PenPaintCache paintCache) {
+        this(stroke, style, paintCache, false);
+    }
 
-    public void set(Path path, PenConfig penConfig) {
-        this.penPath = new Path(path);
-        this.penConfig = new PenConfig(penConfig);
+    public PathAction(Stroke stroke, PenStyle style, PenPaintCache paintCache, boolean cachePath) {
+        this.paintCache = paintCache;
+        this.cachePath = cachePath;
+        this.set(stroke, style);
     }
-    public PathAction(Path path, PenConfig penConfig) {
-        this.set(path, penConfig);
+
+    public Stroke getStroke() {
+        return loadStroke();
+    }
+
+    /*
+    返回绘制使用的采样数据，子类可以在第一次使用时才加载
+     */
+    Stroke loadStroke() {
+        return stroke;
     }
 
-    public void updatePathTo(float posX, float posY) {
+    public PenStyle getStyle() {
+        return style;
+    }
 
+    public void setCachePath(boolean cachePath) {
+        this.cachePath = cachePath;
+        if (!cachePath) {
+            cachedPath = null;
+        }
     }
 
+    /*
+    返回可变笔宽的轮廓，第一次调用时由采样点计算
+     */
+    InkOutline obtainOutline(Stroke stroke, PenStyle style) {
+        InkOutline current = outline;
+        if (current == null) {
+            current = InkOutline.of(stroke, style.getWidth());
+            outline = current;
+        }
+        return current;
+    }
+
+    /*
+    返回可用于绘制的Path，没有开启缓存时返回的是当前线程的临时Path，只在本次绘制中有效
+     */
+    Path obtainPath(Stroke stroke, PenStyle style) {
+        Path cached = cachedPath;
+        if (cached != null) {
+            return cached;
+        }
+        AndroidPathSink sink = scratchSinks.get();
+        Path scratch = sink.getPath();
+        Path path = cachePath ? new Path() : scratch;
+        path.rewind();
+        sink.setPath(path);
+        if (style.isVariableWidth()) {
+            obtainOutline(stroke, style).emit(sink);
+        } else {
+            stroke.emitPath(sink);
+        }
+        sink.setPath(scratch);
+        if (cachePath) {
+            cachedPath = path;
+        }
+        return path;
+    }
+
+    /*
+    其它线程可能同时reset或者set，这里只读取一次stroke和style，保证一次绘制使用的是同一份数据
+     */
     @Override
     public void draw(Canvas canvas) {
-        penConfig.modify(actionPen);
-        canvas.drawPath(penPath, actionPen);
+        Stroke current = loadStroke();
+        PenStyle currentStyle = style;
+        if (current == null || currentStyle == null) {
+            return;
+        }
+        Paint paint = paintCache.get(currentStyle);
+        canvas.drawPath(obtainPath(current, currentStyle), paint);
     }
 
+    /*
+    缩小显示时按屏幕上的距离简化采样点，缩小到看不清的笔画直接跳过，简化的Path不缓存；
+    可变笔宽的笔画直接使用保存的轮廓
+     */
     @Override
-    public void reset() {
-        if(penPath != null) {
-            penPath.reset();
+    public void draw(Canvas canvas, float scale) {
+        if (scale >= 1) {
+            draw(canvas);
+            return;
+        }
+        Stroke current = loadStroke();
+        PenStyle currentStyle = style;
+        if (current == null || currentStyle == null) {
+            return;
+        }
+        float width = currentStyle.getWidth();
+        if ((current.getRight() - current.getLeft() + width) * scale < LOD_MIN_SIZE
+                && (current.getBottom() - current.getTop() + width) * scale < LOD_MIN_SIZE) {
+            return;
         }
+        if (currentStyle.isVariableWidth()) {
+            draw(canvas);
+            return;
+        }
+        Paint paint = paintCache.get(currentStyle);
+        AndroidPathSink sink = scratchSinks.get();
+        Path scratch = sink.getPath();
+        scratch.rewind();
+        current.emitPath(sink, LOD_MIN_DISTANCE / scale);
+        canvas.drawPath(scratch, paint);
+    }
+
+    /*
+    笔画到采样点折线的最大距离：固定笔宽是半个笔宽，可变笔宽是轮廓的最大半径
+     */
+    static float halfWidth(PenStyle style) {
+        return style.isVariableWidth() ? InkOutline.maxRadius(style.getWidth()) : style.getWidth() / 2;
+    }
+
+    /*
+    采样点的外接矩形按半个笔宽向外扩展，quadTo的曲线不会超出采样点的凸包
+     */
+    @Override
+    public boolean getBounds(RectF out) {
+        Stroke current = loadStroke();
+        PenStyle currentStyle = style;
+        if (current == null || currentStyle == null) {
+            return false;
+        }
+        float inset = halfWidth(currentStyle) + 1;
+        out.set(current.getLeft() - inset, current.getTop() - inset, current.getRight() + inset, current.getBottom() + inset);
+        return true;
+    }
+
+    /*
+    橡皮擦的半径加上半个笔宽，碰到采样点折线即视为擦中
+     */
+    @Override
+    public boolean hitTest(float x, float y, float radius) {
+        Stroke current = loadStroke();
+        PenStyle currentStyle = style;
+        if (current == null || currentStyle == null) {
+            return false;
+        }
+        return current.intersectsCircle(x, y, radius + halfWidth(currentStyle));
+    }
+
+    @Override
+    public void reset() {
+        erasedBy = null;
+        stroke = null;
+        style = null;
+        cachedPath = null;
+        outline = null;
     }
 }
@@ -0,0 +1,60 @@
+package com.tongfangpc.board.whiteboard.cache;
+
+import android.graphics.Bitmap;
+
+/*
+以Bitmap作为关键帧的缓存实现，被淘汰的关键帧会立即recycle
+ */
+public class BitmapKeyframeCache extends KeyframeCache<Bitmap> {
+
+    /*
+    默认每20个行为保存一个关键帧
+     */
+    public static final int DEFAULT_INTERVAL = 20;
+
+    public BitmapKeyframeCache(int interval, long maxBytes) {
+        super(interval, maxBytes);
+    }
+
+    /*
+    使用默认间隔，内存预算取应用最大可用堆内存的1/8
+     */
+    public BitmapKeyframeCache() {
+        this(DEFAULT_INTERVAL, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /*
+    拷贝一份缓冲区作为关键帧
+     */
+    public static Bitmap snapshot(Bitmap buffer) {
+        if (buffer == null || buffer.isRecycled()) {
+            return null;
+        }
+        return buffer.copy(Bitmap.Config.ARGB_8888, false);
+    }
+
+    /*
+    缓冲区尺寸发生变化后，已有的关键帧全部失效
+     */
+    public void validateSize(int width, int height) {
+        Integer index = framesByIndex.isEmpty() ? null : framesByIndex.firstKey();
+        if (index != null) {
+            Bitmap frame = framesByIndex.get(index);
+            if (frame.getWidth() != width || frame.getHeight() != height) {
+                clear();
+            }
+        }
+    }
+
+    @Override
+    protected int sizeOf(Bitmap frame) {
+        return frame.getByteCount();
+    }
+
+    @Override
+    protected void onRemoved(Bitmap frame) {
+        if (!frame.isRecycled()) {
+            frame.recycle();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.tongfangpc.board.whiteboard.cache;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+surface销毁期间保留已提交笔画的栅格，surface重建时直接复用，不再重放历史记录：
+1、默认把缓冲区本身保留在内存中，恢复时零拷贝
+2、设置了spillFile之后，内存紧张时可以调用spill把缓冲区无损压缩写入磁盘并释放内存，
+   恢复时由渲染线程解码一次贴回缓冲区
+保留、写盘、恢复可能发生在不同的线程上，状态都由同一把锁保护；
+写盘时的PNG压缩比较耗时，在锁外进行，期间取回缓冲区的线程不会被阻塞，取回即放弃这次写盘
+ */
+public class ResumeCache {
+
+    static final String TAG = ResumeCache.class.getSimpleName();
+
+    /*
+    保留在内存中的缓冲区
+     */
+    Bitmap retained;
+
+    /*
+    写入磁盘的栅格的文件，null表示不写盘
+     */
+    File spillFile;
+
+    /*
+    spillFile中是否有有效的栅格
+     */
+    boolean spilled;
+
+    int spilledWidth;
+
+    int spilledHeight;
+
+    /*
+    正在锁外压缩的缓冲区，以及压缩期间它是否被要求回收(由压缩的线程在结束后回收)
+     */
+    Bitmap spilling;
+
+    boolean recycleSpilling;
+
+    public synchronized void setSpillFile(File spillFile) {
+        discardSpill();
+        this.spillFile = spillFile;
+    }
+
+    /*
+    保留surface销毁时的缓冲区，之前保留的内容全部作废
+     */
+    public synchronized void retain(Bitmap buffer) {
+        clear();
+        retained = buffer;
+    }
+
+    /*
+    取回内存中保留的缓冲区，尺寸不一致时回收并返回null
+     */
+    public synchronized Bitmap takeRetained(int width, int height) {
+        Bitmap bitmap = retained;
+        retained = null;
+        if (bitmap == null || bitmap.isRecycled()) {
+            return null;
+        }
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            recycle(bitmap);
+            return null;
+        }
+        //内存中的内容比磁盘上的新
+        discardSpill();
+        return bitmap;
+    }
+
+    /*
+    把内存中保留的缓冲区写入磁盘并释放内存，返回是否写入成功：
+    在锁内取得缓冲区，在锁外压缩到临时文件，再回到锁内确认它仍然是保留的缓冲区之后改名并回收；
+    写入失败、或者压缩期间缓冲区被取回、替换时，内容仍然在内存中(或者已经交给了调用方)
+     */
+    public boolean spill() {
+        Bitmap bitmap;
+        File file;
+        synchronized (this) {
+            bitmap = retained;
+            file = spillFile;
+            if (bitmap == null || bitmap.isRecycled() || file == null || spilling != null) {
+                return false;
+            }
+            spilling = bitmap;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        boolean written = false;
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            written = bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.w(TAG, "spill failed: " + file, e);
+        } finally {
+            closeQuietly(out);
+        }
+        synchronized (this) {
+            spilling = null;
+            if (recycleSpilling) {
+                recycleSpilling = false;
+                bitmap.recycle();
+            }
+            if (!written || bitmap != retained || file != spillFile || !temp.renameTo(file)) {
+                temp.delete();
+                return false;
+            }
+            spilled = true;
+            spilledWidth = bitmap.getWidth();
+            spilledHeight = bitmap.getHeight();
+            bitmap.recycle();
+            retained = null;
+            return true;
+        }
+    }
+
+    public synchronized boolean hasRetained() {
+        return retained != null;
+    }
+
+    public synchronized boolean hasSpill() {
+        return spilled;
+    }
+
+    /*
+    把磁盘上的栅格解码后贴到canvas上，尺寸不一致或解码失败时返回false，由调用方重放历史记录；
+    不论成功与否，磁盘上的文件都会被删除
+     */
+    public synchronized boolean restoreInto(Canvas canvas, int width, int height) {
+        if (!spilled) {
+            return false;
+        }
+        boolean restored = false;
+        if (spilledWidth == width && spilledHeight == height) {
+            Bitmap decoded = BitmapFactory.decodeFile(spillFile.getPath());
+            if (decoded != null) {
+                canvas.drawBitmap(decoded, 0, 0, null);
+                decoded.recycle();
+                restored = true;
+            }
+        }
+        discardSpill();
+        return restored;
+    }
+
+    /*
+    释放内存中和磁盘上保留的全部内容
+     */
+    public synchronized void clear() {
+        if (retained != null && !retained.isRecycled()) {
+            recycle(retained);
+        }
+        retained = null;
+        discardSpill();
+    }
+
+    /*
+    回收不再保留的缓冲区；正在锁外压缩时推迟到压缩结束，调用方需要持有锁
+     */
+    void recycle(Bitmap bitmap) {
+        if (bitmap == spilling) {
+            recycleSpilling = true;
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    void discardSpill() {
+        if (spilled && spillFile != null && !spillFile.delete()) {
+            Log.w(TAG, "failed to delete " + spillFile);
+        }
+        spilled = false;
+    }
+
+    static void closeQuietly(OutputStream out) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -1,4 +1,172 @@
 package com.tongfangpc.board.whiteboard.config;
 
-class BackgroundConfig {
+import android.graphics.Color;
+
+import java.io.File;
+
+/*
+不可变的背景配置，由纯色、可选的网格和可选的底图(图片或者PDF的一页)叠加而成：
+1、颜色总是不透明的，透明度被忽略，背景之上的笔迹层是透明的
+2、网格和底图都在世界坐标中，随画板平移和缩放；分块模式之外世界坐标与屏幕坐标一致
+3、修改时返回新的实例，可以在任意线程上创建，交给WhiteboardView.setBackground之后由渲染线程使用
+ */
+public final class BackgroundConfig {
+
+    /*
+    底图不是PDF时的页码
+     */
+    public static final int NO_PAGE = -1;
+
+    public static final BackgroundConfig DEFAULT = solid(Color.WHITE);
+
+    final int color;
+
+    /*
+    网格的间距(世界坐标)，0表示没有网格
+     */
+    final float gridSpacing;
+
+    final int gridColor;
+
+    /*
+    底图文件，null表示没有底图；pdfPage为NO_PAGE时按图片解码，否则是PDF中的页码
+     */
+    final File imageFile;
+
+    final int pdfPage;
+
+    /*
+    底图左上角的世界坐标，以及底图的一个像素(PDF的一个点)对应的世界坐标长度
+     */
+    final float imageLeft;
+
+    final float imageTop;
+
+    final float imageScale;
+
+    BackgroundConfig(int color, float gridSpacing, int gridColor, File imageFile, int pdfPage,
+                     float imageLeft, float imageTop, float imageScale) {
+        this.color = color | 0xff000000;
+        this.gridSpacing = gridSpacing;
+        this.gridColor = gridColor;
+        this.imageFile = imageFile;
+        this.pdfPage = pdfPage;
+        this.imageLeft = imageLeft;
+        this.imageTop = imageTop;
+        this.imageScale = imageScale;
+    }
+
+    public static BackgroundConfig solid(int color) {
+        return new BackgroundConfig(color, 0, 0, null, NO_PAGE, 0, 0, 1);
+    }
+
+    /*
+    换成另一种颜色，网格和底图不变
+     */
+    public BackgroundConfig withColor(int color) {
+        return new BackgroundConfig(color, gridSpacing, gridColor, imageFile, pdfPage, imageLeft, imageTop, imageScale);
+    }
+
+    /*
+    加上间距为spacing的网格线，spacing为0时去掉网格
+     */
+    public BackgroundConfig withGrid(float spacing, int color) {
+        if (spacing < 0) {
+            throw new IllegalArgumentException("spacing must not be negative: " + spacing);
+        }
+        return new BackgroundConfig(this.color, spacing, color, imageFile, pdfPage, imageLeft, imageTop, imageScale);
+    }
+
+    /*
+    以图片文件作为底图，左上角放在世界坐标(left, top)，一个像素对应scale的世界坐标长度；
+    图片按显示的比例分区域解码，不会整张载入内存
+     */
+    public BackgroundConfig withImage(File file, float left, float top, float scale) {
+        return withSource(file, NO_PAGE, left, top, scale);
+    }
+
+    /*
+    以PDF文件的第page页(从0开始)作为底图，一个点(1/72英寸)对应scale的世界坐标长度
+     */
+    public BackgroundConfig withPdfPage(File file, int page, float left, float top, float scale) {
+        if (page < 0) {
+            throw new IllegalArgumentException("page must not be negative: " + page);
+        }
+        return withSource(file, page, left, top, scale);
+    }
+
+    /*
+    去掉底图
+     */
+    public BackgroundConfig withoutImage() {
+        return new BackgroundConfig(color, gridSpacing, gridColor, null, NO_PAGE, 0, 0, 1);
+    }
+
+    BackgroundConfig withSource(File file, int page, float left, float top, float scale) {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("scale must be positive: " + scale);
+        }
+        return new BackgroundConfig(color, gridSpacing, gridColor, file, page, left, top, scale);
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public float getGridSpacing() {
+        return gridSpacing;
+    }
+
+    public int getGridColor() {
+        return gridColor;
+    }
+
+    public boolean hasGrid() {
+        return gridSpacing > 0;
+    }
+
+    public File getImageFile() {
+        return imageFile;
+    }
+
+    public int getPdfPage() {
+        return pdfPage;
+    }
+
+    public boolean hasImage() {
+        return imageFile != null;
+    }
+
+    public boolean isPdf() {
+        return imageFile != null && pdfPage != NO_PAGE;
+    }
+
+    public float getImageLeft() {
+        return imageLeft;
+    }
+
+    public float getImageTop() {
+        return imageTop;
+    }
+
+    public float getImageScale() {
+        return imageScale;
+    }
+
+    /*
+    两个配置的底图是否来自同一个文件的同一页，是的话已经打开的解码器和解码的区域可以继续使用
+     */
+    public boolean hasSameSource(BackgroundConfig other) {
+        return other != null && pdfPage == other.pdfPage
+                && (imageFile == null ? other.imageFile == null : imageFile.equals(other.imageFile));
+    }
+
+    @Override
+    public String toString() {
+        return "BackgroundConfig{color=#" + Integer.toHexString(color) + ", gridSpacing=" + gridSpacing
+                + ", image=" + imageFile + (pdfPage != NO_PAGE ? "#" + pdfPage : "") + "}";
+    }
 }
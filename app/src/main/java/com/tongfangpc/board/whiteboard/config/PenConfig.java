@@ -3,38 +3,94 @@ package com.tongfangpc.board.whiteboard.config;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Color;
-import android.graphics.Paint;
+import android.os.Handler;
+import android.os.HandlerThread;
 
 import java.lang.ref.WeakReference;
 
 
+/*
+当前画笔的配置，只在UI线程上修改：
+1、创建时读取上次保存的配置，没有保存过时使用调用方给出的默认值，默认值本身不会被保存
+2、对应的不可变样式通过getStyle从注册表中取得，配置不变时一直是同一个实例
+3、只有颜色或笔宽真正改变时才保存，并且合并一段时间内的多次修改，在后台线程上写入SharedPreferences
+ */
 public class PenConfig {
-    private float stokeWidth;
-    private int color;
+
+    /*
+    连续修改画笔时，最后一次修改之后等待多久再保存
+     */
+    static final long PERSIST_DELAY_MILLIS = 500;
+
+    static HandlerThread persistThread;
+
+    static Handler persistHandler;
+
+    private volatile float stokeWidth;
+    private volatile int color;
+    private volatile boolean variableWidth;
     WeakReference<Context> contextWeakReference;
 
+    final PenStyleRegistry styleRegistry;
+
+    /*
+    当前配置对应的样式，配置修改之后置空，下次使用时重新从注册表中取得
+     */
+    PenStyle style;
+
+    final Runnable persistTask = new Runnable() {
+        @Override
+        public void run() {
+            SharedPreferences.Editor editor = getEditor();
+            if (editor != null) {
+                editor.putInt("COLOR", color).putFloat("STROKE_WIDTH", stokeWidth)
+                        .putBoolean("VARIABLE_WIDTH", variableWidth).apply();
+            }
+        }
+    };
+
     public PenConfig(Context context) {
-        contextWeakReference = new WeakReference<>(context);
-        loadDefaultConfig();
+        this(context, new PenStyleRegistry());
     }
 
-    public PenConfig(PenConfig penConfig) {
-        this(penConfig.contextWeakReference.get());
-        this.setColor(penConfig.getColor());
-        this.setStokeWidth(penConfig.getStokeWidth());
+    public PenConfig(Context context, PenStyleRegistry styleRegistry) {
+        this(context, styleRegistry, Color.BLACK, 10);
     }
 
+    /*
+    读取上次保存的配置，没有保存过的项使用defaultColor和defaultWidth
+     */
+    public PenConfig(Context context, PenStyleRegistry styleRegistry, int defaultColor, float defaultWidth) {
+        contextWeakReference = new WeakReference<>(context);
+        this.styleRegistry = styleRegistry;
+        loadConfig(defaultColor, defaultWidth);
+    }
 
-    private void loadDefaultConfig() {
-        stokeWidth = 10;
-        color = Color.BLACK;
+    /*
+    拷贝一份配置，共用同一个样式注册表，拷贝本身不会写入SharedPreferences
+     */
+    public PenConfig(PenConfig penConfig) {
+        contextWeakReference = penConfig.contextWeakReference;
+        styleRegistry = penConfig.styleRegistry;
+        this.color = penConfig.getColor();
+        this.stokeWidth = penConfig.getStokeWidth();
+        this.variableWidth = penConfig.isVariableWidth();
     }
-    private void loadConfig() {
-        loadDefaultConfig();
+
+    /*
+    直接设置字段，不经过setter，不会触发保存
+     */
+    private void loadConfig(int defaultColor, float defaultWidth) {
+        stokeWidth = defaultWidth;
+        color = defaultColor;
+        variableWidth = false;
         SharedPreferences sp = getReferences();
         if(sp != null) {
-            stokeWidth = sp.getFloat("STROKE_WIDTH", 10);
-            color = sp.getInt("COLOR", Color.BLACK);
+            float width = sp.getFloat("STROKE_WIDTH", defaultWidth);
+            //损坏的笔宽不能进入样式注册表
+            stokeWidth = width >= 0 && !Float.isInfinite(width) ? width : defaultWidth;
+            color = sp.getInt("COLOR", defaultColor);
+            variableWidth = sp.getBoolean("VARIABLE_WIDTH", false);
         }
     }
 
@@ -47,24 +103,76 @@ public class PenConfig {
         return color;
     }
 
+    public boolean isVariableWidth() {
+        return variableWidth;
+    }
+
+    public PenStyleRegistry getStyleRegistry() {
+        return styleRegistry;
+    }
+
+    /*
+    返回当前配置对应的不可变样式
+     */
+    public PenStyle getStyle() {
+        PenStyle current = style;
+        if (current == null) {
+            current = styleRegistry.intern(color, stokeWidth, variableWidth);
+            style = current;
+        }
+        return current;
+    }
+
     public PenConfig setColor(int color) {
-        this.color = color;
-        getEditor().putInt("COLOR", color).apply();
+        if (this.color != color) {
+            this.color = color;
+            style = null;
+            schedulePersist();
+        }
         return this;
     }
 
 
+    /*
+    切换可变笔宽的墨水笔，之后的笔画按压力和速度改变笔宽
+     */
+    public PenConfig setVariableWidth(boolean variableWidth) {
+        if (this.variableWidth != variableWidth) {
+            this.variableWidth = variableWidth;
+            style = null;
+            schedulePersist();
+        }
+        return this;
+    }
+
     public PenConfig setStokeWidth(float stokeWidth) {
-        this.stokeWidth = stokeWidth;
-        getEditor().putFloat("STROKE_WIDTH", stokeWidth).apply();
+        if (this.stokeWidth != stokeWidth) {
+            this.stokeWidth = stokeWidth;
+            style = null;
+            schedulePersist();
+        }
         return this;
     }
 
-    public void modify(Paint paint) {
-        paint.setColor(color);
-        paint.setStrokeWidth(stokeWidth);
-        paint.setStyle(Paint.Style.STROKE);
-        paint.setStrokeCap(Paint.Cap.ROUND);
+    /*
+    取消还没有执行的保存，重新计时
+     */
+    void schedulePersist() {
+        Handler handler = getPersistHandler();
+        handler.removeCallbacks(persistTask);
+        handler.postDelayed(persistTask, PERSIST_DELAY_MILLIS);
+    }
+
+    /*
+    所有画笔配置共用一个后台线程保存
+     */
+    static synchronized Handler getPersistHandler() {
+        if (persistHandler == null) {
+            persistThread = new HandlerThread("PenConfigPersist");
+            persistThread.start();
+            persistHandler = new Handler(persistThread.getLooper());
+        }
+        return persistHandler;
     }
 
     public SharedPreferences getReferences() {
@@ -0,0 +1,46 @@
+package com.tongfangpc.board.whiteboard.config;
+
+import android.graphics.Paint;
+
+import java.util.Arrays;
+
+/*
+每个画笔样式对应一个配置好的Paint，第一次使用时创建，之后一直复用；
+绘制历史笔画时不再逐笔修改共用的Paint
+ */
+public class PenPaintCache {
+
+    /*
+    替换数组时整体发布，命中时不需要加锁，并行重建的多个工作线程可以同时读取
+     */
+    volatile Paint[] paints = new Paint[16];
+
+    public Paint get(PenStyle style) {
+        int id = style.getId();
+        Paint[] current = paints;
+        Paint paint = id < current.length ? current[id] : null;
+        return paint != null ? paint : create(style);
+    }
+
+    synchronized Paint create(PenStyle style) {
+        int id = style.getId();
+        Paint[] next = paints;
+        if (id < next.length && next[id] != null) {
+            return next[id];
+        }
+        next = Arrays.copyOf(next, Math.max(id + 1, next.length * (id < next.length ? 1 : 2)));
+        Paint paint = new Paint();
+        paint.setColor(style.getColor());
+        if (style.isVariableWidth()) {
+            //可变笔宽的笔画绘制的是填充的轮廓
+            paint.setStyle(Paint.Style.FILL);
+        } else {
+            paint.setStrokeWidth(style.getWidth());
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeCap(Paint.Cap.ROUND);
+        }
+        next[id] = paint;
+        paints = next;
+        return paint;
+    }
+}
@@ -0,0 +1,493 @@
+package com.tongfangpc.board.whiteboard.export;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.graphics.pdf.PdfDocument;
+import android.os.Handler;
+import android.util.Log;
+
+import com.tongfangpc.board.whiteboard.actions.PathAction;
+import com.tongfangpc.board.whiteboard.config.BackgroundConfig;
+import com.tongfangpc.board.whiteboard.config.PenStyle;
+import com.tongfangpc.board.whiteboard.render.BackgroundImage;
+import com.tongfangpc.board.whiteboard.render.BackgroundLayer;
+import com.tongfangpc.board.whiteboard.stroke.InkOutline;
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+import com.tongfangpc.board.whiteboard.tile.BaseLayer;
+import com.tongfangpc.board.whiteboard.tile.TileGrid;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+导出画板：在后台线程上按目标分辨率逐块生成，边生成边写入编码器，不会在内存中生成整张大图。
+1、PNG：按BAND_PIXELS划分成整行宽度的条带，每个条带画好之后逐行交给PngStreamWriter压缩写出，
+   内存只有一个条带的Bitmap和一行像素，与图片的高度无关，导出8K(7680x4320)约占4MB
+2、PDF：内容按页面的尺寸分成多页，笔画以矢量记录，底层栅格和底图按页面的2倍密度嵌入
+3、SVG：笔画由采样数据直接生成矢量路径，底层栅格的方块以PNG嵌入，底图引用原文件
+任务按提交的顺序在同一个线程上进行，可以随时取消，在条带、页或者一批笔画之间生效；
+进度和结果通过Listener在callbackHandler的线程上回调。先写入临时文件，完成之后再改名，失败或者取消时删除
+ */
+public class BoardExporter {
+
+    static final String TAG = BoardExporter.class.getSimpleName();
+
+    /*
+    PNG一个条带的最大像素数，条带的Bitmap占BAND_PIXELS * 4字节
+     */
+    static final int BAND_PIXELS = 1 << 20;
+
+    /*
+    导出的宽和高的上限(像素或者点)
+     */
+    static final int MAX_DIMENSION = 1 << 16;
+
+    /*
+    PDF中位图相对页面的点的解码密度，2倍约为144dpi
+     */
+    static final float PDF_RASTER_DENSITY = 2;
+
+    /*
+    SVG每写出这么多笔画检查一次取消并报告进度
+     */
+    static final int SVG_PROGRESS_STEP = 256;
+
+    public interface Listener {
+        /*
+        完成了total中的done个条带、页或者元素
+         */
+        void onProgress(int done, int total);
+
+        void onFinished(File file);
+
+        void onFailed(Exception e);
+
+        void onCancelled();
+    }
+
+    /*
+    一次导出，由export返回，调用方用它取消导出
+     */
+    public static final class Task {
+        final ExportSnapshot snapshot;
+        final ExportOptions options;
+        final File file;
+        final Listener listener;
+
+        /*
+        导出的世界坐标范围、倍数和目标尺寸，在提交时确定
+         */
+        final RectF region;
+        final float scale;
+        final int width;
+        final int height;
+
+        volatile boolean cancelled;
+        volatile boolean done;
+
+        Task(ExportSnapshot snapshot, ExportOptions options, File file, Listener listener) {
+            this.snapshot = snapshot;
+            this.options = options;
+            this.file = file;
+            this.listener = listener;
+            region = snapshot.resolveRegion(options);
+            scale = options.resolveScale(region.width());
+            width = outputSize(region.width(), scale);
+            height = outputSize(region.height(), scale);
+        }
+
+        /*
+        取消导出，已经写出的部分被删除，之后回调onCancelled；已经结束的导出不受影响
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+
+    final Handler callbackHandler;
+
+    final ExecutorService executor;
+
+    /*
+    以下只在导出线程上使用
+     */
+    final RectF bounds = new RectF();
+    final RectF tileRect = new RectF();
+
+    /*
+    callbackHandler为null时直接在导出线程上回调
+     */
+    public BoardExporter(Handler callbackHandler) {
+        this.callbackHandler = callbackHandler;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BoardExporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /*
+    提交一次导出，把snapshot按options写入file；导出的尺寸超出MAX_DIMENSION时抛出IllegalArgumentException
+     */
+    public Task export(ExportSnapshot snapshot, ExportOptions options, File file, Listener listener) {
+        final Task task = new Task(snapshot, options, file, listener);
+        if (task.width > MAX_DIMENSION || task.height > MAX_DIMENSION) {
+            throw new IllegalArgumentException("export size " + task.width + "x" + task.height + " exceeds " + MAX_DIMENSION);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runTask(task);
+            }
+        });
+        return task;
+    }
+
+    /*
+    不再接受新的导出，已经提交的导出完成之后结束线程
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    void runTask(final Task task) {
+        if (task.cancelled) {
+            finish(task, null, null);
+            return;
+        }
+        File temp = new File(task.file.getPath() + ".part");
+        BackgroundLayer background = null;
+        if (task.options.hasBackground()) {
+            background = new BackgroundLayer();
+            background.setConfig(task.snapshot.getBackground());
+        }
+        try {
+            boolean completed;
+            switch (task.options.getFormat()) {
+                case PNG:
+                    completed = writePng(task, background, temp);
+                    break;
+                case PDF:
+                    completed = writePdf(task, background, temp);
+                    break;
+                default:
+                    completed = writeSvg(task, temp);
+                    break;
+            }
+            if (completed) {
+                if (!temp.renameTo(task.file) && !(task.file.delete() && temp.renameTo(task.file))) {
+                    throw new IOException("failed to rename " + temp + " to " + task.file);
+                }
+                finish(task, task.file, null);
+            } else {
+                deleteQuietly(temp);
+                finish(task, null, null);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "failed to export " + task.file, e);
+            deleteQuietly(temp);
+            finish(task, null, e);
+        } finally {
+            if (background != null) {
+                background.release();
+            }
+        }
+    }
+
+    boolean writePng(Task task, BackgroundLayer background, File temp) throws IOException {
+        int width = task.width;
+        int height = task.height;
+        int bandRows = bandRows(width, height);
+        int bands = (height + bandRows - 1) / bandRows;
+        RectF region = task.region;
+        float scale = task.scale;
+        Bitmap band = Bitmap.createBitmap(width, bandRows, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(band);
+        RectF bandWorld = new RectF();
+        int[] row = new int[width];
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+        PngStreamWriter writer = null;
+        try {
+            //不导出背景时保留透明度
+            writer = new PngStreamWriter(out, width, height, background == null);
+            for (int i = 0; i < bands; i++) {
+                if (task.cancelled) {
+                    return false;
+                }
+                int top = i * bandRows;
+                int rows = Math.min(bandRows, height - top);
+                bandWorld.set(region.left, region.top + top / scale, region.right, region.top + (top + rows) / scale);
+                band.eraseColor(Color.TRANSPARENT);
+                canvas.save();
+                canvas.translate(0, -top);
+                canvas.scale(scale, scale);
+                canvas.translate(-region.left, -region.top);
+                drawContent(canvas, bandWorld, scale, task.snapshot, background);
+                canvas.restore();
+                for (int y = 0; y < rows; y++) {
+                    band.getPixels(row, 0, width, 0, y, width, 1);
+                    writer.writeRow(row, 0);
+                }
+                progress(task, i + 1, bands);
+            }
+            writer.finish();
+            return true;
+        } finally {
+            if (writer != null) {
+                writer.abort();
+            }
+            band.recycle();
+            out.close();
+        }
+    }
+
+    boolean writePdf(Task task, BackgroundLayer background, File temp) throws IOException {
+        int pageWidth = task.options.getPageWidth();
+        int pageHeight = task.options.getPageHeight();
+        int columns = (task.width + pageWidth - 1) / pageWidth;
+        int rows = (task.height + pageHeight - 1) / pageHeight;
+        int total = columns * rows;
+        RectF region = task.region;
+        float scale = task.scale;
+        float pageWorldWidth = pageWidth / scale;
+        float pageWorldHeight = pageHeight / scale;
+        RectF pageWorld = new RectF();
+        PdfDocument document = new PdfDocument();
+        try {
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    if (task.cancelled) {
+                        return false;
+                    }
+                    int number = r * columns + c + 1;
+                    PdfDocument.Page page = document.startPage(new PdfDocument.PageInfo.Builder(pageWidth, pageHeight, number).create());
+                    pageWorld.set(region.left + c * pageWorldWidth, region.top + r * pageWorldHeight,
+                            Math.min(region.right, region.left + (c + 1) * pageWorldWidth),
+                            Math.min(region.bottom, region.top + (r + 1) * pageWorldHeight));
+                    Canvas canvas = page.getCanvas();
+                    canvas.save();
+                    //最后一行和一列的页面只画到导出范围为止，其余部分空白
+                    canvas.clipRect(0, 0, pageWorld.width() * scale, pageWorld.height() * scale);
+                    canvas.scale(scale, scale);
+                    canvas.translate(-pageWorld.left, -pageWorld.top);
+                    drawContent(canvas, pageWorld, scale * PDF_RASTER_DENSITY, task.snapshot, background);
+                    canvas.restore();
+                    document.finishPage(page);
+                    progress(task, number, total);
+                }
+            }
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+            try {
+                document.writeTo(out);
+            } finally {
+                out.close();
+            }
+            return true;
+        } finally {
+            document.close();
+        }
+    }
+
+    /*
+    canvas已经变换到世界坐标，依次画出world范围内的背景、底层栅格和笔画；scale决定底图的解码倍数和笔画的简化程度
+     */
+    void drawContent(Canvas canvas, RectF world, float scale, ExportSnapshot snapshot, BackgroundLayer background) {
+        if (background != null) {
+            background.paint(canvas, world, scale, true);
+        }
+        snapshot.getBase().draw(canvas, world);
+        List<PathAction> actions = snapshot.getActions();
+        for (int i = 0; i < actions.size(); i++) {
+            PathAction action = actions.get(i);
+            if (action.getBounds(bounds) && RectF.intersects(bounds, world)) {
+                action.draw(canvas, scale);
+            }
+        }
+    }
+
+    boolean writeSvg(Task task, File temp) throws IOException {
+        ExportSnapshot snapshot = task.snapshot;
+        RectF region = task.region;
+        BaseLayer.Snapshot base = snapshot.getBase();
+        Map<Long, Bitmap> tiles = base.getTiles();
+        List<PathAction> actions = snapshot.getActions();
+        int total = tiles.size() + actions.size();
+        int done = 0;
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+        try {
+            SvgWriter svg = new SvgWriter(out);
+            svg.begin(region.left, region.top, region.width(), region.height(), task.width, task.height);
+            if (task.options.hasBackground()) {
+                writeSvgBackground(svg, snapshot.getBackground(), region);
+            }
+            int tileSize = base.getTileSize();
+            for (Map.Entry<Long, Bitmap> entry : tiles.entrySet()) {
+                if (task.cancelled) {
+                    return false;
+                }
+                long key = entry.getKey();
+                float left = (float) TileGrid.tileX(key) * tileSize;
+                float top = (float) TileGrid.tileY(key) * tileSize;
+                tileRect.set(left, top, left + tileSize, top + tileSize);
+                if (RectF.intersects(tileRect, region)) {
+                    svg.image(left, top, tileSize, tileSize, BaseLayer.encodePng(entry.getValue()));
+                }
+                progress(task, ++done, total);
+            }
+            for (int i = 0; i < actions.size(); i++) {
+                if (i % SVG_PROGRESS_STEP == 0) {
+                    if (task.cancelled) {
+                        return false;
+                    }
+                    progress(task, done + i, total);
+                }
+                PathAction action = actions.get(i);
+                PenStyle style = action.getStyle();
+                if (!action.getBounds(bounds) || !RectF.intersects(bounds, region)) {
+                    continue;
+                }
+                Stroke stroke = action.getStroke();
+                if (stroke == null || style == null) {
+                    continue;
+                }
+                if (style.isVariableWidth()) {
+                    InkOutline.of(stroke, style.getWidth()).emit(svg.getPathSink());
+                    svg.fillPath(style.getColor());
+                } else {
+                    stroke.emitPath(svg.getPathSink());
+                    svg.strokePath(style.getColor(), style.getWidth());
+                }
+            }
+            svg.end();
+            progress(task, total, total);
+            return true;
+        } finally {
+            out.close();
+        }
+    }
+
+    /*
+    背景色和网格直接写出；图片底图引用原文件，不重新编码，PDF的页面没有对应的图片格式，不导出
+     */
+    void writeSvgBackground(SvgWriter svg, BackgroundConfig config, RectF region) throws IOException {
+        svg.fillRect(region.left, region.top, region.width(), region.height(), config.getColor());
+        if (config.hasImage()) {
+            if (config.isPdf()) {
+                Log.w(TAG, "PDF page background is not exported to SVG: " + config);
+            } else {
+                writeSvgImage(svg, config);
+            }
+        }
+        if (config.hasGrid()) {
+            svg.gridRect(region.left, region.top, region.width(), region.height(), config.getGridSpacing(), config.getGridColor());
+        }
+    }
+
+    void writeSvgImage(SvgWriter svg, BackgroundConfig config) throws IOException {
+        BackgroundImage image;
+        try {
+            //只读取图片的尺寸，不解码像素
+            image = BackgroundImage.open(config);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "failed to open " + config.getImageFile(), e);
+            return;
+        }
+        try {
+            float scale = config.getImageScale();
+            svg.image(config.getImageLeft(), config.getImageTop(), image.getWidth() * scale, image.getHeight() * scale,
+                    config.getImageFile().toURI().toString());
+        } finally {
+            image.close();
+        }
+    }
+
+    void progress(final Task task, final int done, final int total) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (!task.cancelled) {
+                    task.listener.onProgress(done, total);
+                }
+            }
+        });
+    }
+
+    /*
+    file不为null表示完成，error不为null表示失败，都为null表示已经取消
+     */
+    void finish(final Task task, final File file, final Exception error) {
+        task.done = true;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (file != null) {
+                    task.listener.onFinished(file);
+                } else if (error != null) {
+                    task.listener.onFailed(error);
+                } else {
+                    task.listener.onCancelled();
+                }
+            }
+        });
+    }
+
+    void post(Runnable runnable) {
+        if (callbackHandler != null) {
+            callbackHandler.post(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "failed to delete " + file);
+        }
+    }
+
+    /*
+    世界坐标长度size按scale倍导出的尺寸，至少1
+     */
+    static int outputSize(float size, float scale) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.ceil(size * scale - 0.001)));
+    }
+
+    /*
+    宽度为width的条带的行数：不超过BAND_PIXELS个像素，至少1行，不超过图片的高度
+     */
+    static int bandRows(int width, int height) {
+        return Math.max(1, Math.min(height, BAND_PIXELS / width));
+    }
+}
@@ -0,0 +1,180 @@
+package com.tongfangpc.board.whiteboard.export;
+
+import android.graphics.RectF;
+
+/*
+不可变的导出参数：格式、导出的世界坐标范围和目标分辨率，修改时返回新的实例。
+分辨率以scale(目标单位/世界坐标单位)表示，PNG和SVG的目标单位是像素，PDF的是点(1/72英寸)；
+指定了targetWidth时按导出范围的宽度换算scale。两者都没有指定时PNG和SVG按1倍导出，PDF缩放到一页的宽度
+ */
+public final class ExportOptions {
+
+    public enum Format {
+        PNG, PDF, SVG
+    }
+
+    /*
+    A4纸的尺寸(点)
+     */
+    public static final int A4_WIDTH = 595;
+    public static final int A4_HEIGHT = 842;
+
+    final Format format;
+
+    /*
+    导出的世界坐标范围，null表示所有的笔迹和底层栅格的范围，四周再留出margin
+     */
+    final RectF region;
+
+    final float margin;
+
+    final float scale;
+
+    final int targetWidth;
+
+    /*
+    PDF每一页的尺寸(点)，内容超出一页时按行和列分成多页
+     */
+    final int pageWidth;
+
+    final int pageHeight;
+
+    /*
+    是否导出背景，不导出时PNG是透明的，PDF和SVG只有笔迹
+     */
+    final boolean background;
+
+    ExportOptions(Format format, RectF region, float margin, float scale, int targetWidth,
+                  int pageWidth, int pageHeight, boolean background) {
+        this.format = format;
+        this.region = region;
+        this.margin = margin;
+        this.scale = scale;
+        this.targetWidth = targetWidth;
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.background = background;
+    }
+
+    public static ExportOptions of(Format format) {
+        if (format == null) {
+            throw new IllegalArgumentException("format must not be null");
+        }
+        return new ExportOptions(format, null, 0, 0, 0, A4_WIDTH, A4_HEIGHT, true);
+    }
+
+    public static ExportOptions png() {
+        return of(Format.PNG);
+    }
+
+    public static ExportOptions pdf() {
+        return of(Format.PDF);
+    }
+
+    public static ExportOptions svg() {
+        return of(Format.SVG);
+    }
+
+    /*
+    只导出世界坐标范围region，null表示导出全部内容
+     */
+    public ExportOptions withRegion(RectF region) {
+        if (region != null && !(region.width() > 0 && region.height() > 0)) {
+            throw new IllegalArgumentException("region must not be empty: " + region);
+        }
+        return new ExportOptions(format, region != null ? new RectF(region) : null, margin, scale, targetWidth,
+                pageWidth, pageHeight, background);
+    }
+
+    /*
+    导出全部内容时四周留白的宽度(世界坐标)
+     */
+    public ExportOptions withMargin(float margin) {
+        if (!(margin >= 0)) {
+            throw new IllegalArgumentException("margin must not be negative: " + margin);
+        }
+        return new ExportOptions(format, region, margin, scale, targetWidth, pageWidth, pageHeight, background);
+    }
+
+    /*
+    按scale倍导出，例如在2倍屏上导出与屏幕一致的清晰度；会清除targetWidth
+     */
+    public ExportOptions withScale(float scale) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("scale must be positive: " + scale);
+        }
+        return new ExportOptions(format, region, margin, scale, 0, pageWidth, pageHeight, background);
+    }
+
+    /*
+    按导出的宽度(像素，PDF为点)换算倍数，例如7680导出8K的图片；会清除scale
+     */
+    public ExportOptions withTargetWidth(int targetWidth) {
+        if (targetWidth <= 0) {
+            throw new IllegalArgumentException("targetWidth must be positive: " + targetWidth);
+        }
+        return new ExportOptions(format, region, margin, 0, targetWidth, pageWidth, pageHeight, background);
+    }
+
+    public ExportOptions withPageSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid page size " + width + "x" + height);
+        }
+        return new ExportOptions(format, region, margin, scale, targetWidth, width, height, background);
+    }
+
+    public ExportOptions withBackground(boolean background) {
+        return new ExportOptions(format, region, margin, scale, targetWidth, pageWidth, pageHeight, background);
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public RectF getRegion() {
+        return region != null ? new RectF(region) : null;
+    }
+
+    public float getMargin() {
+        return margin;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    public int getPageWidth() {
+        return pageWidth;
+    }
+
+    public int getPageHeight() {
+        return pageHeight;
+    }
+
+    public boolean hasBackground() {
+        return background;
+    }
+
+    /*
+    宽度为regionWidth(世界坐标)的范围实际使用的倍数
+     */
+    public float resolveScale(float regionWidth) {
+        if (targetWidth > 0) {
+            return targetWidth / regionWidth;
+        }
+        if (scale > 0) {
+            return scale;
+        }
+        return format == Format.PDF ? pageWidth / regionWidth : 1;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportOptions{format=" + format + ", region=" + region + ", margin=" + margin + ", scale=" + scale
+                + ", targetWidth=" + targetWidth + ", page=" + pageWidth + "x" + pageHeight + ", background=" + background + "}";
+    }
+}
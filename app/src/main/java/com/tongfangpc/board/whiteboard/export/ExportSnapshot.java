@@ -0,0 +1,110 @@
+package com.tongfangpc.board.whiteboard.export;
+
+import android.graphics.RectF;
+
+import com.tongfangpc.board.whiteboard.actions.LazyPathAction;
+import com.tongfangpc.board.whiteboard.actions.PathAction;
+import com.tongfangpc.board.whiteboard.config.BackgroundConfig;
+import com.tongfangpc.board.whiteboard.config.PenPaintCache;
+import com.tongfangpc.board.whiteboard.config.PenStyle;
+import com.tongfangpc.board.whiteboard.session.SessionReader;
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+import com.tongfangpc.board.whiteboard.tile.BaseLayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+导出时画板内容的快照：在UI线程上持有历史记录的锁时创建，按绘制的顺序保存当前生效的笔画、压缩的底层栅格和背景配置。
+笔画的采样数据和Snapshot都是不可变的，快照为每一笔创建自己的PathAction，不引用历史记录中会被截断或者擦除的行为，
+之后的书写、undo和擦除都不影响正在进行的导出；还没有解码的笔画在导出线程上从会话文件解码
+ */
+public final class ExportSnapshot {
+
+    final BaseLayer.Snapshot base;
+
+    final BackgroundConfig background;
+
+    final ArrayList<PathAction> actions = new ArrayList<>();
+
+    /*
+    笔画和底层栅格的范围，没有内容时为空
+     */
+    final RectF contentBounds = new RectF();
+    boolean hasContent;
+
+    /*
+    没有内容时导出的范围，一般是当前可见的世界坐标范围
+     */
+    final RectF defaultBounds;
+
+    final PenPaintCache paintCache;
+
+    final RectF bounds = new RectF();
+
+    public ExportSnapshot(BaseLayer.Snapshot base, BackgroundConfig background, PenPaintCache paintCache, RectF defaultBounds) {
+        this.base = base;
+        this.background = background;
+        this.paintCache = paintCache;
+        this.defaultBounds = new RectF(defaultBounds);
+        if (base.getBounds(bounds)) {
+            include(bounds);
+        }
+    }
+
+    public void addStroke(Stroke stroke, PenStyle style) {
+        add(new PathAction(stroke, style, paintCache));
+    }
+
+    /*
+    还没有解码的笔画，导出时才从source中读取
+     */
+    public void addStroke(SessionReader source, int recordIndex, PenStyle style) {
+        add(new LazyPathAction(source, recordIndex, style, paintCache));
+    }
+
+    void add(PathAction action) {
+        if (action.getBounds(bounds)) {
+            actions.add(action);
+            include(bounds);
+        }
+    }
+
+    void include(RectF rect) {
+        if (hasContent) {
+            contentBounds.union(rect);
+        } else {
+            contentBounds.set(rect);
+            hasContent = true;
+        }
+    }
+
+    public int getStrokeCount() {
+        return actions.size();
+    }
+
+    public List<PathAction> getActions() {
+        return actions;
+    }
+
+    public BaseLayer.Snapshot getBase() {
+        return base;
+    }
+
+    public BackgroundConfig getBackground() {
+        return background;
+    }
+
+    /*
+    按options确定导出的世界坐标范围
+     */
+    public RectF resolveRegion(ExportOptions options) {
+        RectF region = options.getRegion();
+        if (region != null) {
+            return region;
+        }
+        region = new RectF(hasContent ? contentBounds : defaultBounds);
+        region.inset(-options.getMargin(), -options.getMargin());
+        return region;
+    }
+}
@@ -0,0 +1,53 @@
+package com.tongfangpc.board.whiteboard.input;
+
+import android.view.MotionEvent;
+
+/*
+从MotionEvent中读取采样点：ACTION_MOVE中Android会把两帧之间的多个采样打包在历史记录里，
+这里按时间顺序读取全部历史采样和当前采样交给StrokeRecorder过滤，
+每个事件只向笔画追加一次
+ */
+public class MotionSampler {
+
+    private MotionSampler() {
+    }
+
+    /*
+    ACTION_MOVE：读取所有历史采样和当前采样，返回被接受的采样数量
+     */
+    public static int collect(MotionEvent event, StrokeRecorder recorder) {
+        return collect(event, 0, recorder);
+    }
+
+    /*
+    多指书写时读取第pointerIndex个指针的采样
+     */
+    public static int collect(MotionEvent event, int pointerIndex, StrokeRecorder recorder) {
+        offerHistory(event, pointerIndex, recorder);
+        recorder.offer(event.getX(pointerIndex), event.getY(pointerIndex), event.getEventTime(), event.getPressure(pointerIndex));
+        return recorder.flush();
+    }
+
+    /*
+    ACTION_UP/ACTION_CANCEL：历史采样照常过滤，最后的抬笔点只要有移动就保留
+     */
+    public static int finish(MotionEvent event, StrokeRecorder recorder) {
+        return finish(event, 0, recorder);
+    }
+
+    /*
+    ACTION_POINTER_UP：第pointerIndex个指针抬起
+     */
+    public static int finish(MotionEvent event, int pointerIndex, StrokeRecorder recorder) {
+        offerHistory(event, pointerIndex, recorder);
+        recorder.offerFinal(event.getX(pointerIndex), event.getY(pointerIndex), event.getEventTime(), event.getPressure(pointerIndex));
+        return recorder.flush();
+    }
+
+    static void offerHistory(MotionEvent event, int pointerIndex, StrokeRecorder recorder) {
+        for (int i = 0, j = event.getHistorySize(); i < j; i++) {
+            recorder.offer(event.getHistoricalX(pointerIndex, i), event.getHistoricalY(pointerIndex, i),
+                    event.getHistoricalEventTime(i), event.getHistoricalPressure(pointerIndex, i));
+        }
+    }
+}
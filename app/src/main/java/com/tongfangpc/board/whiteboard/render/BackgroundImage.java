@@ -0,0 +1,140 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.pdf.PdfRenderer;
+import android.os.ParcelFileDescriptor;
+
+import com.tongfangpc.board.whiteboard.config.BackgroundConfig;
+
+import java.io.IOException;
+
+/*
+背景的底图，按区域和降采样倍数解码，不会整张载入内存：
+图片使用BitmapRegionDecoder，PDF的一页使用PdfRenderer只渲染需要的区域。
+坐标是底图的像素(PDF的点)，只在渲染线程上使用
+ */
+public abstract class BackgroundImage {
+
+    public abstract int getWidth();
+
+    public abstract int getHeight();
+
+    /*
+    解码region范围，每个方向每sampleSize个像素取一个，失败时返回null
+     */
+    public abstract Bitmap decodeRegion(Rect region, int sampleSize);
+
+    public abstract void close();
+
+    /*
+    打开配置中的底图，没有底图时返回null
+     */
+    public static BackgroundImage open(BackgroundConfig config) throws IOException {
+        if (!config.hasImage()) {
+            return null;
+        }
+        if (config.isPdf()) {
+            return new PdfPageImage(ParcelFileDescriptor.open(config.getImageFile(), ParcelFileDescriptor.MODE_READ_ONLY),
+                    config.getPdfPage());
+        }
+        return new RegionDecoderImage(BitmapRegionDecoder.newInstance(config.getImageFile().getPath(), false));
+    }
+
+    static final class RegionDecoderImage extends BackgroundImage {
+        final BitmapRegionDecoder decoder;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+
+        RegionDecoderImage(BitmapRegionDecoder decoder) throws IOException {
+            if (decoder == null) {
+                throw new IOException("unsupported image");
+            }
+            this.decoder = decoder;
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        }
+
+        @Override
+        public int getWidth() {
+            return decoder.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return decoder.getHeight();
+        }
+
+        @Override
+        public Bitmap decodeRegion(Rect region, int sampleSize) {
+            options.inSampleSize = sampleSize;
+            return decoder.decodeRegion(region, options);
+        }
+
+        @Override
+        public void close() {
+            decoder.recycle();
+        }
+    }
+
+    static final class PdfPageImage extends BackgroundImage {
+        final ParcelFileDescriptor descriptor;
+        final PdfRenderer renderer;
+        final PdfRenderer.Page page;
+        final Matrix matrix = new Matrix();
+
+        PdfPageImage(ParcelFileDescriptor descriptor, int pageIndex) throws IOException {
+            this.descriptor = descriptor;
+            PdfRenderer renderer = null;
+            try {
+                renderer = new PdfRenderer(descriptor);
+                if (pageIndex >= renderer.getPageCount()) {
+                    throw new IOException("page " + pageIndex + " out of " + renderer.getPageCount());
+                }
+                page = renderer.openPage(pageIndex);
+            } catch (IOException | RuntimeException e) {
+                if (renderer != null) {
+                    renderer.close();
+                }
+                descriptor.close();
+                throw e;
+            }
+            this.renderer = renderer;
+        }
+
+        @Override
+        public int getWidth() {
+            return page.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return page.getHeight();
+        }
+
+        @Override
+        public Bitmap decodeRegion(Rect region, int sampleSize) {
+            int width = Math.max(1, (region.width() + sampleSize - 1) / sampleSize);
+            int height = Math.max(1, (region.height() + sampleSize - 1) / sampleSize);
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            //PDF的页面没有画到的地方是透明的，按纸张处理为白色
+            bitmap.eraseColor(Color.WHITE);
+            matrix.setTranslate(-region.left, -region.top);
+            matrix.postScale(1f / sampleSize, 1f / sampleSize);
+            page.render(bitmap, null, matrix, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+            return bitmap;
+        }
+
+        @Override
+        public void close() {
+            page.close();
+            renderer.close();
+            try {
+                descriptor.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
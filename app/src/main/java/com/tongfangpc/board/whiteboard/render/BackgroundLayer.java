@@ -0,0 +1,277 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+import com.tongfangpc.board.whiteboard.config.BackgroundConfig;
+
+import java.io.IOException;
+
+/*
+背景层：纯色、底图和网格按当前视口合成到一整屏的栅格上，每帧只把脏区域贴到屏幕上，之后再叠加透明的笔迹层和正在书写的笔画。
+1、栅格只在配置、尺寸或者视口变化时重画，笔迹层的undo/redo重放和擦除都不会触及背景
+2、底图按显示比例选择降采样倍数，只解码可见的区域并缓存，视口在已解码的范围和倍数之内变化时不再解码
+3、手势进行中不解码，先缩放显示已经解码的部分，手势结束之后再按新的视口解码
+只在渲染线程上使用
+ */
+public class BackgroundLayer {
+
+    static final String TAG = BackgroundLayer.class.getSimpleName();
+
+    /*
+    网格线在屏幕上的最小间距(像素)，缩小显示时间距加倍，避免画出过密的网格
+     */
+    static final float MIN_GRID_PX = 8;
+
+    BackgroundConfig config = BackgroundConfig.DEFAULT;
+
+    /*
+    已经打开的底图，打开失败时imageFailed为true，同一个来源不再重试
+     */
+    BackgroundImage image;
+    boolean imageFailed;
+
+    /*
+    一整屏的栅格，以及它对应的视口；rasterExact表示底图已经按这个视口完整解码
+     */
+    Bitmap raster;
+    final Canvas rasterCanvas = new Canvas();
+    boolean rasterValid;
+    boolean rasterExact;
+    float rasterOriginX;
+    float rasterOriginY;
+    float rasterScale;
+
+    /*
+    底图上一次解码的区域(底图像素)、降采样倍数和结果
+     */
+    Bitmap decoded;
+    final Rect decodedRegion = new Rect();
+    int decodedSample;
+
+    final Paint imagePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    final Paint gridPaint = new Paint();
+    final RectF screenWorld = new RectF();
+    final Rect wanted = new Rect();
+    final RectF imageRect = new RectF();
+
+    public BackgroundConfig getConfig() {
+        return config;
+    }
+
+    /*
+    换上新的配置，返回是否需要重新贴图；底图的来源不变时继续使用已经打开的解码器和解码的区域
+     */
+    public boolean setConfig(BackgroundConfig config) {
+        if (config == this.config) {
+            return false;
+        }
+        if (!config.hasSameSource(this.config)) {
+            closeImage();
+        }
+        this.config = config;
+        rasterValid = false;
+        return true;
+    }
+
+    /*
+    surface的尺寸变化时调用，重新分配栅格
+     */
+    public void setSize(int width, int height) {
+        if (raster != null && raster.getWidth() == width && raster.getHeight() == height) {
+            return;
+        }
+        releaseRaster();
+        if (width > 0 && height > 0) {
+            raster = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    /*
+    按viewport准备栅格，allowDecode为false时(手势进行中)不解码底图；返回栅格是否被重画，重画之后需要整屏贴图
+     */
+    public boolean update(Viewport viewport, boolean allowDecode) {
+        if (raster == null) {
+            return false;
+        }
+        boolean moved = viewport.getOriginX() != rasterOriginX || viewport.getOriginY() != rasterOriginY
+                || viewport.getScale() != rasterScale;
+        if (rasterValid && !moved && (rasterExact || !allowDecode)) {
+            return false;
+        }
+        rasterOriginX = viewport.getOriginX();
+        rasterOriginY = viewport.getOriginY();
+        rasterScale = viewport.getScale();
+        screenWorld.set(rasterOriginX, rasterOriginY,
+                viewport.toWorldX(raster.getWidth()), viewport.toWorldY(raster.getHeight()));
+        rasterCanvas.setBitmap(raster);
+        rasterCanvas.save();
+        rasterCanvas.scale(rasterScale, rasterScale);
+        rasterCanvas.translate(-rasterOriginX, -rasterOriginY);
+        rasterExact = paint(rasterCanvas, screenWorld, rasterScale, allowDecode);
+        rasterCanvas.restore();
+        rasterCanvas.setBitmap(null);
+        rasterValid = true;
+        return true;
+    }
+
+    /*
+    把栅格上screenDirty的部分贴到canvas上，还没有栅格时只填充背景色
+     */
+    public void draw(Canvas canvas, Rect screenDirty) {
+        if (raster == null || !rasterValid) {
+            canvas.drawColor(config.getColor());
+            return;
+        }
+        canvas.drawBitmap(raster, screenDirty, screenDirty, null);
+    }
+
+    /*
+    把世界坐标范围world内的背景画到canvas上，canvas已经变换到世界坐标，scale是世界坐标到目标像素的倍数；
+    返回底图是否按这个倍数完整地画出，没有底图时总是true
+     */
+    public boolean paint(Canvas canvas, RectF world, float scale, boolean allowDecode) {
+        canvas.drawColor(config.getColor());
+        boolean exact = paintImage(canvas, world, scale, allowDecode);
+        paintGrid(canvas, world, scale);
+        return exact;
+    }
+
+    boolean paintImage(Canvas canvas, RectF world, float scale, boolean allowDecode) {
+        BackgroundImage image = openImage();
+        if (image == null) {
+            return true;
+        }
+        float imageScale = config.getImageScale();
+        float imageLeft = config.getImageLeft();
+        float imageTop = config.getImageTop();
+        wanted.set(Math.max(0, (int) Math.floor((world.left - imageLeft) / imageScale)),
+                Math.max(0, (int) Math.floor((world.top - imageTop) / imageScale)),
+                Math.min(image.getWidth(), (int) Math.ceil((world.right - imageLeft) / imageScale)),
+                Math.min(image.getHeight(), (int) Math.ceil((world.bottom - imageTop) / imageScale)));
+        if (wanted.left >= wanted.right || wanted.top >= wanted.bottom) {
+            return true;
+        }
+        int sample = sampleSizeFor(scale * imageScale);
+        boolean exact = decoded != null && decodedSample == sample && decodedRegion.contains(wanted);
+        if (!exact && allowDecode) {
+            Bitmap bitmap = image.decodeRegion(wanted, sample);
+            if (bitmap != null) {
+                recycleDecoded();
+                decoded = bitmap;
+                decodedRegion.set(wanted);
+                decodedSample = sample;
+            } else {
+                Log.w(TAG, "failed to decode " + wanted + " of " + config.getImageFile());
+            }
+            //解码失败时不再重试，保持当前的显示
+            exact = true;
+        }
+        if (decoded != null) {
+            imageRect.set(imageLeft + decodedRegion.left * imageScale, imageTop + decodedRegion.top * imageScale,
+                    imageLeft + decodedRegion.right * imageScale, imageTop + decodedRegion.bottom * imageScale);
+            canvas.drawBitmap(decoded, null, imageRect, imagePaint);
+        }
+        return exact;
+    }
+
+    void paintGrid(Canvas canvas, RectF world, float scale) {
+        if (!config.hasGrid()) {
+            return;
+        }
+        float spacing = gridStep(config.getGridSpacing(), scale);
+        gridPaint.setColor(config.getGridColor());
+        //宽度为0的线在任何缩放下都是1个像素
+        gridPaint.setStrokeWidth(0);
+        for (long i = (long) Math.ceil(world.left / spacing); i * spacing <= world.right; i++) {
+            canvas.drawLine(i * spacing, world.top, i * spacing, world.bottom, gridPaint);
+        }
+        for (long i = (long) Math.ceil(world.top / spacing); i * spacing <= world.bottom; i++) {
+            canvas.drawLine(world.left, i * spacing, world.right, i * spacing, gridPaint);
+        }
+    }
+
+    BackgroundImage openImage() {
+        if (image == null && !imageFailed && config.hasImage()) {
+            try {
+                image = BackgroundImage.open(config);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "failed to open " + config.getImageFile(), e);
+                imageFailed = true;
+            }
+        }
+        return image;
+    }
+
+    /*
+    底图的一个像素在目标上占pixelScale个像素时使用的降采样倍数：取对数上最接近的2的幂，
+    解码出的像素在每个方向上是目标的0.7到1.4倍，缩小显示时不会解码出远多于屏幕的像素
+     */
+    static int sampleSizeFor(float pixelScale) {
+        float ratio = 1 / pixelScale;
+        int sample = 1;
+        while (sample < (1 << 16) && ratio >= sample * 1.4142f) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /*
+    在scale倍显示时网格实际使用的间距：屏幕上小于MIN_GRID_PX时加倍
+     */
+    static float gridStep(float spacing, float scale) {
+        while (spacing * scale < MIN_GRID_PX) {
+            spacing *= 2;
+        }
+        return spacing;
+    }
+
+    /*
+    栅格和解码的底图占用的内存
+     */
+    public long getByteCount() {
+        long bytes = raster != null ? raster.getByteCount() : 0;
+        if (decoded != null) {
+            bytes += decoded.getByteCount();
+        }
+        return bytes;
+    }
+
+    /*
+    surface销毁时调用，释放栅格和解码的底图，配置保留，之后使用时重新打开
+     */
+    public void release() {
+        releaseRaster();
+        closeImage();
+    }
+
+    void releaseRaster() {
+        if (raster != null) {
+            raster.recycle();
+            raster = null;
+        }
+        rasterValid = false;
+    }
+
+    void closeImage() {
+        recycleDecoded();
+        if (image != null) {
+            image.close();
+            image = null;
+        }
+        imageFailed = false;
+        rasterValid = false;
+    }
+
+    void recycleDecoded() {
+        if (decoded != null) {
+            decoded.recycle();
+            decoded = null;
+        }
+        decodedSample = 0;
+    }
+}
@@ -0,0 +1,64 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import android.os.Handler;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+以vsync为节拍的时钟：Choreographer是按线程区分的，
+所以先post到渲染线程，在渲染线程上取得它的Choreographer并注册帧回调，
+帧回调也就在渲染线程上执行；撤销同样post到渲染线程，从它的Choreographer上注销
+ */
+public class ChoreographerFrameClock implements RenderScheduler.FrameClock, Choreographer.FrameCallback, Runnable {
+    final Handler handler;
+
+    /*
+    等待下一个vsync执行的帧，执行时取走，同一帧不会因为重复注册而执行两次
+     */
+    final AtomicReference<Runnable> pendingFrame = new AtomicReference<>();
+
+    /*
+    在渲染线程上注销帧回调
+     */
+    final Runnable unregister = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().removeFrameCallback(ChoreographerFrameClock.this);
+        }
+    };
+
+    public ChoreographerFrameClock(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void postFrameCallback(Runnable frame) {
+        pendingFrame.set(frame);
+        handler.post(this);
+    }
+
+    @Override
+    public void removeFrameCallback(Runnable frame) {
+        pendingFrame.set(null);
+        handler.removeCallbacks(this);
+        //可能在任意线程上调用，已经注册的帧回调只能在渲染线程上注销
+        handler.post(unregister);
+    }
+
+    /*
+    在渲染线程上注册帧回调
+     */
+    @Override
+    public void run() {
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        Runnable frame = pendingFrame.getAndSet(null);
+        if (frame != null) {
+            frame.run();
+        }
+    }
+}
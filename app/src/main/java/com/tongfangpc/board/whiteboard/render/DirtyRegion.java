@@ -0,0 +1,108 @@
+package com.tongfangpc.board.whiteboard.render;
+
+/*
+两次渲染之间累积的脏区域(整数像素坐标，右下边界不含)，
+render时只锁定并重绘这块区域；undo、redo、surface重建等需要整屏重绘的情况用markFull标记
+ */
+public class DirtyRegion {
+    int left;
+    int top;
+    int right;
+    int bottom;
+
+    boolean full;
+
+    public DirtyRegion() {
+        clear();
+    }
+
+    public void clear() {
+        left = top = Integer.MAX_VALUE;
+        right = bottom = Integer.MIN_VALUE;
+        full = false;
+    }
+
+    /*
+    标记为整屏重绘
+     */
+    public void markFull() {
+        full = true;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public boolean isEmpty() {
+        return !full && (left >= right || top >= bottom);
+    }
+
+    /*
+    合并一个浮点坐标的矩形，向外取整并扩展inset个像素
+     */
+    public void union(float l, float t, float r, float b, float inset) {
+        left = Math.min(left, (int) Math.floor(l - inset));
+        top = Math.min(top, (int) Math.floor(t - inset));
+        right = Math.max(right, (int) Math.ceil(r + inset));
+        bottom = Math.max(bottom, (int) Math.ceil(b + inset));
+    }
+
+    /*
+    合并一个点周围radius范围的区域
+     */
+    public void unionPoint(float x, float y, float radius) {
+        union(x, y, x, y, radius);
+    }
+
+    /*
+    把区域限制在[0, width) x [0, height)之内，标记了整屏时直接设为整屏
+     */
+    public void clampTo(int width, int height) {
+        if (full) {
+            left = 0;
+            top = 0;
+            right = width;
+            bottom = height;
+            return;
+        }
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, width);
+        bottom = Math.min(bottom, height);
+    }
+
+    /*
+    拷贝到target并清空自身，用于渲染线程取走累积的脏区域
+     */
+    public void drainTo(DirtyRegion target) {
+        target.left = left;
+        target.top = top;
+        target.right = right;
+        target.bottom = bottom;
+        target.full = full;
+        clear();
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    public long area() {
+        if (left >= right || top >= bottom) {
+            return 0;
+        }
+        return (long) (right - left) * (bottom - top);
+    }
+}
@@ -0,0 +1,24 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import android.os.Handler;
+
+/*
+立即投递的时钟：直接post到渲染线程的Handler
+ */
+public class HandlerFrameClock implements RenderScheduler.FrameClock {
+    final Handler handler;
+
+    public HandlerFrameClock(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void postFrameCallback(Runnable frame) {
+        handler.post(frame);
+    }
+
+    @Override
+    public void removeFrameCallback(Runnable frame) {
+        handler.removeCallbacks(frame);
+    }
+}
@@ -0,0 +1,32 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/*
+固定间隔的时钟：把帧对齐到uptime的整数倍间隔上，用于没有vsync或者需要限制帧率的场景
+ */
+public class IntervalFrameClock implements RenderScheduler.FrameClock {
+    final Handler handler;
+
+    final long frameIntervalMillis;
+
+    public IntervalFrameClock(Handler handler, long frameIntervalMillis) {
+        if (frameIntervalMillis <= 0) {
+            throw new IllegalArgumentException("frameIntervalMillis must be positive: " + frameIntervalMillis);
+        }
+        this.handler = handler;
+        this.frameIntervalMillis = frameIntervalMillis;
+    }
+
+    @Override
+    public void postFrameCallback(Runnable frame) {
+        long now = SystemClock.uptimeMillis();
+        handler.postDelayed(frame, frameIntervalMillis - now % frameIntervalMillis);
+    }
+
+    @Override
+    public void removeFrameCallback(Runnable frame) {
+        handler.removeCallbacks(frame);
+    }
+}
@@ -0,0 +1,197 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import com.tongfangpc.board.whiteboard.config.PenStyle;
+import com.tongfangpc.board.whiteboard.stroke.InkOutline;
+import com.tongfangpc.board.whiteboard.stroke.PathSink;
+import com.tongfangpc.board.whiteboard.stroke.StrokeBuilder;
+import com.tongfangpc.board.whiteboard.stroke.StrokePredictor;
+
+/*
+渲染线程上一个槽位正在书写的一笔：根据命令重建的采样点、增量输出到Sink的曲线和可变笔宽的轮廓，
+以及低延迟模式下的运动预测。只在渲染线程上使用，绘制由Sink的平台实现(LiveStrokeLayer)负责
+ */
+public class LiveStroke {
+
+    /*
+    接收增量曲线的输出，在PathSink之外还需要知道笔画的开始、每个采样点的结束和清空
+     */
+    public interface Sink extends PathSink {
+        /*
+        开始新的一笔，chunked表示是否分段
+         */
+        void begin(boolean chunked);
+
+        /*
+        一个采样点的曲线已经输出
+         */
+        void endSample();
+
+        void reset();
+    }
+
+    final Sink sink;
+    final StrokeBuilder builder = new StrokeBuilder();
+    final InkOutline inkOutline = new InkOutline();
+
+    /*
+    笔画的范围(世界坐标)
+     */
+    float left;
+    float top;
+    float right;
+    float bottom;
+
+    PenStyle style;
+    boolean ink;
+    float inkWidth;
+
+    /*
+    笔宽，可变笔宽时取最大的笔宽，用于计算脏区域
+     */
+    float strokeWidth;
+
+    /*
+    笔画开始时取得的低延迟模式，整笔之内不变
+     */
+    boolean lowLatency;
+
+    /*
+    槽位的运动预测和创建它的工厂，工厂被替换时重新创建
+     */
+    StrokePredictor predictor;
+    StrokePredictor.Factory predictorFactory;
+
+    public LiveStroke(Sink sink) {
+        this.sink = sink;
+    }
+
+    public boolean isActive() {
+        return !builder.isEmpty();
+    }
+
+    void begin(PenStyle style, boolean lowLatency, StrokePredictor.Factory factory,
+               float x, float y, long time, float pressure) {
+        this.style = style;
+        ink = style.isVariableWidth();
+        inkWidth = style.getWidth();
+        strokeWidth = ink ? InkOutline.maxRadius(inkWidth) * 2 : inkWidth;
+        this.lowLatency = lowLatency;
+        if (!lowLatency) {
+            factory = null;
+        }
+        if (factory != predictorFactory) {
+            predictorFactory = factory;
+            predictor = factory != null ? factory.create() : null;
+        }
+        if (predictor != null) {
+            predictor.reset();
+        }
+        onBegin(style);
+        //带透明度的颜色在分段的接缝处会混合两次
+        sink.begin(lowLatency && style.getColor() >>> 24 == 0xff);
+        builder.begin(x, y, time, pressure);
+        if (ink) {
+            inkOutline.begin(inkWidth);
+        }
+        left = right = x;
+        top = bottom = y;
+        append(x, y, pressure);
+    }
+
+    void add(float x, float y, long time, float pressure) {
+        builder.add(x, y, time, pressure);
+        left = Math.min(left, x);
+        top = Math.min(top, y);
+        right = Math.max(right, x);
+        bottom = Math.max(bottom, y);
+        append(x, y, pressure);
+    }
+
+    /*
+    输出最后一个采样点新增的曲线：普通笔以上一个点为控制点quadTo到两点的中点，
+    可变笔宽只追加新的一段四边形和圆，已经输出的部分不变
+     */
+    void append(float x, float y, float pressure) {
+        float time = builder.getLastTime();
+        if (ink) {
+            inkOutline.add(x, y, time, pressure);
+            inkOutline.emitLast(sink);
+        } else {
+            builder.emitLastSegment(sink);
+        }
+        sink.endSample();
+        if (predictor != null) {
+            predictor.add(x, y, time, pressure);
+        }
+    }
+
+    /*
+    笔画开始之前调用，子类据此准备画笔等平台对象
+     */
+    protected void onBegin(PenStyle style) {
+    }
+
+    /*
+    笔画结束或者被放弃之后调用，子类据此清理平台对象
+     */
+    protected void onReset() {
+    }
+
+    public void reset() {
+        sink.reset();
+        builder.reset();
+        inkOutline.reset();
+        onReset();
+    }
+
+    public Sink getSink() {
+        return sink;
+    }
+
+    public StrokeBuilder getBuilder() {
+        return builder;
+    }
+
+    public InkOutline getInkOutline() {
+        return inkOutline;
+    }
+
+    public PenStyle getStyle() {
+        return style;
+    }
+
+    public boolean isInk() {
+        return ink;
+    }
+
+    public float getStrokeWidth() {
+        return strokeWidth;
+    }
+
+    public boolean isLowLatency() {
+        return lowLatency;
+    }
+
+    /*
+    运动预测，没有开启低延迟模式或者没有工厂时为null
+     */
+    public StrokePredictor getPredictor() {
+        return predictor;
+    }
+
+    public float getLeft() {
+        return left;
+    }
+
+    public float getTop() {
+        return top;
+    }
+
+    public float getRight() {
+        return right;
+    }
+
+    public float getBottom() {
+        return bottom;
+    }
+}
@@ -0,0 +1,142 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+
+/*
+正在书写的一笔，只在渲染线程上使用。
+分段模式下曲线每满CHUNK_SAMPLES个采样点就封存为一段，并记录这一段的范围：
+每帧只有与脏区域相交的几段(通常只有末尾的一段)需要重新栅格化，
+不会因为笔画越写越长而让每帧的绘制越来越慢；已提交的栅格在笔画结束之前保持不变。
+分段在接缝处会有重叠，带透明度的颜色会在接缝处混合两次，这种情况下不分段
+ */
+public class LiveStrokeLayer implements LiveStroke.Sink {
+
+    static final int CHUNK_SAMPLES = 32;
+
+    /*
+    已经封存的各段和它们的范围，对象在笔画之间复用
+     */
+    final ArrayList<Path> chunks = new ArrayList<>();
+    final ArrayList<RectF> chunkBounds = new ArrayList<>();
+    int chunkCount;
+
+    /*
+    末尾正在追加的一段
+     */
+    Path current = new Path();
+    RectF currentBounds = new RectF();
+    boolean currentEmpty = true;
+    int currentSamples;
+
+    /*
+    上一次输出的终点，封存之后新的一段从这里继续
+     */
+    float lastX;
+    float lastY;
+
+    boolean chunked;
+
+    /*
+    开始新的一笔，chunked表示是否分段
+     */
+    public void begin(boolean chunked) {
+        reset();
+        this.chunked = chunked;
+    }
+
+    public void reset() {
+        for (int i = 0; i < chunkCount; i++) {
+            chunks.get(i).rewind();
+        }
+        chunkCount = 0;
+        current.rewind();
+        currentEmpty = true;
+        currentSamples = 0;
+    }
+
+    public boolean isEmpty() {
+        return chunkCount == 0 && currentEmpty;
+    }
+
+    @Override
+    public void moveTo(float x, float y) {
+        current.moveTo(x, y);
+        include(x, y);
+    }
+
+    @Override
+    public void quadTo(float x1, float y1, float x2, float y2) {
+        current.quadTo(x1, y1, x2, y2);
+        include(x1, y1);
+        include(x2, y2);
+    }
+
+    @Override
+    public void lineTo(float x, float y) {
+        current.lineTo(x, y);
+        include(x, y);
+    }
+
+    @Override
+    public void close() {
+        current.close();
+    }
+
+    void include(float x, float y) {
+        if (currentEmpty) {
+            currentBounds.set(x, y, x, y);
+            currentEmpty = false;
+        } else {
+            currentBounds.union(x, y);
+        }
+        lastX = x;
+        lastY = y;
+    }
+
+    /*
+    一个采样点的曲线已经输出，分段模式下够数时封存末尾的一段
+     */
+    public void endSample() {
+        if (!chunked || ++currentSamples < CHUNK_SAMPLES) {
+            return;
+        }
+        if (chunkCount == chunks.size()) {
+            chunks.add(new Path());
+            chunkBounds.add(new RectF());
+        }
+        //与末尾的一段交换对象，封存的一段不再修改
+        Path sealed = current;
+        current = chunks.get(chunkCount);
+        chunks.set(chunkCount, sealed);
+        RectF sealedBounds = currentBounds;
+        currentBounds = chunkBounds.get(chunkCount);
+        chunkBounds.set(chunkCount, sealedBounds);
+        chunkCount++;
+        current.rewind();
+        currentSamples = 0;
+        current.moveTo(lastX, lastY);
+        currentBounds.set(lastX, lastY, lastX, lastY);
+        currentEmpty = false;
+    }
+
+    /*
+    画出与clip(世界坐标)相交的各段，inset是曲线到笔画边缘的距离
+     */
+    public void draw(Canvas canvas, Paint paint, RectF clip, float inset) {
+        for (int i = 0; i < chunkCount; i++) {
+            RectF bounds = chunkBounds.get(i);
+            if (bounds.left - inset <= clip.right && bounds.right + inset >= clip.left
+                    && bounds.top - inset <= clip.bottom && bounds.bottom + inset >= clip.top) {
+                canvas.drawPath(chunks.get(i), paint);
+            }
+        }
+        if (!currentEmpty) {
+            canvas.drawPath(current, paint);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import com.tongfangpc.board.whiteboard.config.PenStyle;
+import com.tongfangpc.board.whiteboard.config.PenStyleRegistry;
+import com.tongfangpc.board.whiteboard.input.StrokeCommandQueue;
+import com.tongfangpc.board.whiteboard.stroke.StrokeBuilder;
+import com.tongfangpc.board.whiteboard.stroke.StrokePredictor;
+
+/*
+渲染线程上所有槽位正在书写的笔画：执行OP_PEN、OP_BEGIN、OP_POINT、OP_END、OP_CANCEL五种笔画命令，
+在槽位上重建采样点并增量输出曲线，把新增曲线覆盖的屏幕区域加入脏区域。
+多指书写时每根手指占用一个槽位，槽位第一次使用时由Factory创建；只在渲染线程上使用
+ */
+public class LiveStrokes<S extends LiveStroke> implements StrokeCommandQueue.Consumer {
+
+    public interface Factory<S> {
+        S create();
+    }
+
+    /*
+    OP_END命令到达：stroke是槽位上刚结束的一笔(命令丢失时为null)，committedCount是提交之后的历史记录长度；
+    回调返回之后槽位被清空
+     */
+    public interface Listener<S> {
+        void onCommitted(S stroke, int committedCount);
+    }
+
+    final Object[] slots;
+    final Factory<S> factory;
+    final PenStyleRegistry styleRegistry;
+    final Viewport viewport;
+    final DirtyRegion dirtyRegion;
+
+    /*
+    脏区域在笔宽之外额外扩展的屏幕像素，覆盖抗锯齿的边缘
+     */
+    final float dirtyInset;
+
+    Listener<S> listener;
+
+    /*
+    正在书写的槽位数量
+     */
+    int activeCount;
+
+    /*
+    OP_PEN命令设置的画笔样式，之后开始的笔画使用
+     */
+    PenStyle penStyle;
+
+    /*
+    低延迟模式和运动预测的工厂，可以在任意线程上设置，之后开始的笔画生效
+     */
+    volatile boolean lowLatency;
+    volatile StrokePredictor.Factory predictorFactory;
+
+    /*
+    上一次takeInputTime之后第一个到达的采样点的时间，没有时为-1
+     */
+    long inputTime = -1;
+
+    public LiveStrokes(int slotCount, Factory<S> factory, PenStyleRegistry styleRegistry,
+                       Viewport viewport, DirtyRegion dirtyRegion, float dirtyInset) {
+        slots = new Object[slotCount];
+        this.factory = factory;
+        this.styleRegistry = styleRegistry;
+        this.viewport = viewport;
+        this.dirtyRegion = dirtyRegion;
+        this.dirtyInset = dirtyInset;
+    }
+
+    public void setListener(Listener<S> listener) {
+        this.listener = listener;
+    }
+
+    public void setPenStyle(PenStyle style) {
+        penStyle = style;
+    }
+
+    public void setLowLatency(boolean lowLatency) {
+        this.lowLatency = lowLatency;
+    }
+
+    public boolean isLowLatency() {
+        return lowLatency;
+    }
+
+    public void setPredictorFactory(StrokePredictor.Factory factory) {
+        predictorFactory = factory;
+    }
+
+    public StrokePredictor.Factory getPredictorFactory() {
+        return predictorFactory;
+    }
+
+    @Override
+    public void onCommand(int op, int arg, float x, float y, long time, float pressure) {
+        apply(op, arg, x, y, time, pressure);
+    }
+
+    /*
+    执行一条命令，不是笔画命令时返回false
+     */
+    public boolean apply(int op, int arg, float x, float y, long time, float pressure) {
+        S stroke;
+        switch (op) {
+            case StrokeCommandQueue.OP_PEN:
+                penStyle = styleRegistry.get(arg);
+                return true;
+
+            case StrokeCommandQueue.OP_BEGIN:
+                stroke = slot(arg);
+                if (stroke == null) {
+                    return true;
+                }
+                if (stroke.isActive()) {
+                    //之前的一笔没有收到结束命令(命令丢失时)，直接丢弃
+                    end(stroke);
+                }
+                activeCount++;
+                stroke.begin(penStyle, lowLatency, predictorFactory, x, y, time, pressure);
+                invalidateLatestSegment(stroke);
+                onInput(time);
+                return true;
+
+            case StrokeCommandQueue.OP_POINT:
+                stroke = activeSlot(arg);
+                if (stroke == null) {
+                    return true;
+                }
+                stroke.add(x, y, time, pressure);
+                invalidateLatestSegment(stroke);
+                onInput(time);
+                return true;
+
+            case StrokeCommandQueue.OP_END:
+                stroke = activeSlot((int) time);
+                if (listener != null) {
+                    listener.onCommitted(stroke, arg);
+                }
+                if (stroke != null) {
+                    end(stroke);
+                }
+                return true;
+
+            case StrokeCommandQueue.OP_CANCEL:
+                //放弃当前笔画，它画出的部分需要重新贴图
+                stroke = activeSlot(arg);
+                if (stroke == null) {
+                    return true;
+                }
+                float inset = stroke.strokeWidth / 2;
+                dirtyRegion.union(viewport.toScreenX(stroke.left - inset), viewport.toScreenY(stroke.top - inset),
+                        viewport.toScreenX(stroke.right + inset), viewport.toScreenY(stroke.bottom + inset), dirtyInset);
+                end(stroke);
+                return true;
+        }
+        return false;
+    }
+
+    void onInput(long time) {
+        if (inputTime < 0) {
+            inputTime = time;
+        }
+    }
+
+    /*
+    返回并清除上一次调用之后第一个到达的采样点的时间，没有时返回-1
+     */
+    public long takeInputTime() {
+        long time = inputTime;
+        inputTime = -1;
+        return time;
+    }
+
+    /*
+    将最新一段曲线所在的区域加入脏区域：
+    最新一段quadTo曲线的起点、控制点和终点都在最后三个采样点的凸包内，按笔宽向外扩展即可
+     */
+    void invalidateLatestSegment(S stroke) {
+        StrokeBuilder builder = stroke.builder;
+        int pointCount = builder.getPointCount();
+        float inset = stroke.strokeWidth / 2 * viewport.getScale() + dirtyInset;
+        for (int i = Math.max(0, pointCount - 3); i < pointCount; i++) {
+            dirtyRegion.unionPoint(viewport.toScreenX(builder.getX(i)), viewport.toScreenY(builder.getY(i)), inset);
+        }
+    }
+
+    /*
+    槽位上的笔画结束或者被放弃
+     */
+    void end(S stroke) {
+        stroke.reset();
+        activeCount--;
+    }
+
+    /*
+    返回槽位index上的笔画对象，槽位超出范围时返回null
+     */
+    @SuppressWarnings("unchecked")
+    S slot(int index) {
+        if (index < 0 || index >= slots.length) {
+            return null;
+        }
+        S stroke = (S) slots[index];
+        if (stroke == null) {
+            stroke = factory.create();
+            slots[index] = stroke;
+        }
+        return stroke;
+    }
+
+    /*
+    返回槽位index上正在书写的一笔，没有时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public S activeSlot(int index) {
+        if (index < 0 || index >= slots.length) {
+            return null;
+        }
+        S stroke = (S) slots[index];
+        return stroke != null && stroke.isActive() ? stroke : null;
+    }
+
+    public int getSlotCount() {
+        return slots.length;
+    }
+
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    /*
+    是否有低延迟模式下正在书写的笔画
+     */
+    public boolean isLowLatencyStrokeActive() {
+        for (int i = 0; i < slots.length && activeCount > 0; i++) {
+            LiveStroke stroke = (LiveStroke) slots[i];
+            if (stroke != null && stroke.lowLatency && stroke.isActive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    清空所有正在书写的笔画
+     */
+    public void clear() {
+        for (Object stroke : slots) {
+            if (stroke != null) {
+                ((LiveStroke) stroke).reset();
+            }
+        }
+        activeCount = 0;
+    }
+}
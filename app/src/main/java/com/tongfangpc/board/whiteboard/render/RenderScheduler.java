@@ -0,0 +1,183 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+渲染请求的调度器，决定一次渲染请求什么时候在渲染线程上执行：
+1、IMMEDIATE：每个请求都立即投递一次渲染，与原来每个触摸事件sendEmptyMessage一次的行为一致
+2、FRAME_ALIGNED：一帧之内的多个请求合并为一次渲染，在帧时钟(通常是Choreographer的vsync)到来时执行，
+   快速书写时不会在渲染线程堆积多余的整帧重绘，减少笔迹的延迟
+请求可以来自任意线程，渲染任务只在帧时钟所在的渲染线程上执行
+ */
+public class RenderScheduler {
+
+    /*
+    帧时钟，负责在合适的时机于渲染线程调用frame
+     */
+    public interface FrameClock {
+        void postFrameCallback(Runnable frame);
+
+        void removeFrameCallback(Runnable frame);
+    }
+
+    public enum Mode {
+        IMMEDIATE,
+        FRAME_ALIGNED
+    }
+
+    final Runnable renderTask;
+
+    final Runnable frameTask = new Runnable() {
+        @Override
+        public void run() {
+            doFrame();
+        }
+    };
+
+    volatile Mode mode = Mode.FRAME_ALIGNED;
+
+    /*
+    立即模式下使用的时钟，一般直接post到渲染线程
+     */
+    volatile FrameClock immediateClock;
+
+    /*
+    帧对齐模式下使用的时钟
+     */
+    volatile FrameClock frameClock;
+
+    /*
+    是否已经有一帧在等待执行，新的请求会被合并进去
+     */
+    final AtomicBoolean framePending = new AtomicBoolean();
+
+    final AtomicLong requestedCount = new AtomicLong();
+    final AtomicLong mergedCount = new AtomicLong();
+    final AtomicLong droppedCount = new AtomicLong();
+    final AtomicLong renderedCount = new AtomicLong();
+
+    public RenderScheduler(Runnable renderTask) {
+        this.renderTask = renderTask;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /*
+    渲染线程可用时挂接时钟，之后的请求才会被执行
+     */
+    public void attach(FrameClock immediateClock, FrameClock frameClock) {
+        this.immediateClock = immediateClock;
+        this.frameClock = frameClock;
+        framePending.set(false);
+    }
+
+    /*
+    渲染线程退出前调用，撤销等待中的帧，之后的请求会被丢弃
+     */
+    public void detach() {
+        FrameClock clock = frameClock;
+        if (clock != null) {
+            clock.removeFrameCallback(frameTask);
+        }
+        clock = immediateClock;
+        if (clock != null) {
+            clock.removeFrameCallback(frameTask);
+        }
+        immediateClock = null;
+        frameClock = null;
+        framePending.set(false);
+    }
+
+    /*
+    请求一次渲染
+    返回：请求是否被执行或者合并，渲染线程不可用时返回false
+     */
+    public boolean requestRender() {
+        requestedCount.incrementAndGet();
+        Mode currentMode = mode;
+        FrameClock clock = currentMode == Mode.IMMEDIATE ? immediateClock : frameClock;
+        if (clock == null) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        if (currentMode == Mode.IMMEDIATE) {
+            clock.postFrameCallback(frameTask);
+            return true;
+        }
+        if (!framePending.compareAndSet(false, true)) {
+            mergedCount.incrementAndGet();
+            return true;
+        }
+        clock.postFrameCallback(frameTask);
+        return true;
+    }
+
+    /*
+    请求尽快渲染一次，用于低延迟书写：不论当前的模式，没有等待中的帧时立即投递，不等下一个vsync；
+    已经有帧在等待时合并进去
+    返回：请求是否被执行或者合并，渲染线程不可用时返回false
+     */
+    public boolean requestUrgentRender() {
+        requestedCount.incrementAndGet();
+        FrameClock clock = immediateClock;
+        if (clock == null) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        if (!framePending.compareAndSet(false, true)) {
+            mergedCount.incrementAndGet();
+            return true;
+        }
+        clock.postFrameCallback(frameTask);
+        return true;
+    }
+
+    /*
+    在渲染线程上执行一帧；先清除等待标记，渲染过程中新来的请求会排到下一帧
+     */
+    void doFrame() {
+        framePending.set(false);
+        renderedCount.incrementAndGet();
+        renderTask.run();
+    }
+
+    public boolean isFramePending() {
+        return framePending.get();
+    }
+
+    public long getRequestedCount() {
+        return requestedCount.get();
+    }
+
+    /*
+    被合并到已等待的帧中的请求数量
+     */
+    public long getMergedCount() {
+        return mergedCount.get();
+    }
+
+    /*
+    渲染线程不可用而被丢弃的请求数量
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getRenderedCount() {
+        return renderedCount.get();
+    }
+
+    public void resetCounters() {
+        requestedCount.set(0);
+        mergedCount.set(0);
+        droppedCount.set(0);
+        renderedCount.set(0);
+    }
+}
@@ -0,0 +1,102 @@
+package com.tongfangpc.board.whiteboard.render;
+
+/*
+渲染统计：记录每一帧贴到屏幕上的像素数量，用于评估局部重绘的效果；
+以及surface重建之后，从surfaceCreated到第一帧上屏的恢复耗时；
+只由渲染线程写入，其它线程读取到的是近似值
+ */
+public class RenderStats {
+
+    /*
+    恢复画面的方式：内存中保留的缓冲区、磁盘上的栅格、重放历史记录
+     */
+    public static final int RESUME_MEMORY = 1;
+    public static final int RESUME_DISK = 2;
+    public static final int RESUME_REPLAY = 3;
+
+    volatile long frameCount;
+    volatile long fullFrameCount;
+    volatile long lastFramePixels;
+    volatile long totalPixels;
+
+    volatile long resumeCount;
+    volatile long lastResumeNanos;
+    volatile long maxResumeNanos;
+    volatile int lastResumeSource;
+
+    public void onFrame(long pixels, boolean full) {
+        lastFramePixels = pixels;
+        totalPixels += pixels;
+        frameCount++;
+        if (full) {
+            fullFrameCount++;
+        }
+    }
+
+    /*
+    surface重建之后第一帧上屏时调用，nanos为从surfaceCreated开始的耗时
+     */
+    public void onResumed(long nanos, int source) {
+        lastResumeNanos = nanos;
+        lastResumeSource = source;
+        maxResumeNanos = Math.max(maxResumeNanos, nanos);
+        resumeCount++;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /*
+    整屏重绘的帧数
+     */
+    public long getFullFrameCount() {
+        return fullFrameCount;
+    }
+
+    /*
+    最近一帧贴到屏幕上的像素数量
+     */
+    public long getLastFramePixels() {
+        return lastFramePixels;
+    }
+
+    public long getTotalPixels() {
+        return totalPixels;
+    }
+
+    public long getAveragePixelsPerFrame() {
+        long frames = frameCount;
+        return frames == 0 ? 0 : totalPixels / frames;
+    }
+
+    public long getResumeCount() {
+        return resumeCount;
+    }
+
+    public long getLastResumeNanos() {
+        return lastResumeNanos;
+    }
+
+    public long getMaxResumeNanos() {
+        return maxResumeNanos;
+    }
+
+    /*
+    最近一次恢复的方式，RESUME_MEMORY、RESUME_DISK或RESUME_REPLAY，没有恢复过时为0
+     */
+    public int getLastResumeSource() {
+        return lastResumeSource;
+    }
+
+    public void reset() {
+        frameCount = 0;
+        fullFrameCount = 0;
+        lastFramePixels = 0;
+        totalPixels = 0;
+        resumeCount = 0;
+        lastResumeNanos = 0;
+        maxResumeNanos = 0;
+        lastResumeSource = 0;
+    }
+}
@@ -0,0 +1,88 @@
+package com.tongfangpc.board.whiteboard.render;
+
+/*
+画板的视图变换：屏幕坐标 = (世界坐标 - 原点) * scale，
+原点(originX, originY)是屏幕左上角对应的世界坐标；
+双指缩放时以手指中心为不动点，平移以屏幕像素为单位
+ */
+public class Viewport {
+
+    public static final float MIN_SCALE = 0.125f;
+    public static final float MAX_SCALE = 8f;
+
+    float originX;
+    float originY;
+    float scale = 1;
+
+    public float getOriginX() {
+        return originX;
+    }
+
+    public float getOriginY() {
+        return originY;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public void set(float originX, float originY, float scale) {
+        this.originX = originX;
+        this.originY = originY;
+        this.scale = clampScale(scale);
+    }
+
+    public void set(Viewport other) {
+        set(other.originX, other.originY, other.scale);
+    }
+
+    public void reset() {
+        set(0, 0, 1);
+    }
+
+    public float toWorldX(float screenX) {
+        return screenX / scale + originX;
+    }
+
+    public float toWorldY(float screenY) {
+        return screenY / scale + originY;
+    }
+
+    public float toScreenX(float worldX) {
+        return (worldX - originX) * scale;
+    }
+
+    public float toScreenY(float worldY) {
+        return (worldY - originY) * scale;
+    }
+
+    /*
+    内容跟随手指移动(dx, dy)个屏幕像素
+     */
+    public void panBy(float dx, float dy) {
+        originX -= dx / scale;
+        originY -= dy / scale;
+    }
+
+    /*
+    以屏幕上的(focusX, focusY)为中心缩放factor倍，中心点下的世界坐标保持不变；
+    返回实际的缩放倍数(受比例范围限制)
+     */
+    public float zoomAt(float focusX, float focusY, float factor) {
+        float worldX = toWorldX(focusX);
+        float worldY = toWorldY(focusY);
+        float newScale = clampScale(scale * factor);
+        float applied = newScale / scale;
+        scale = newScale;
+        originX = worldX - focusX / scale;
+        originY = worldY - focusY / scale;
+        return applied;
+    }
+
+    static float clampScale(float scale) {
+        if (!(scale > 0)) {
+            return 1;
+        }
+        return Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale));
+    }
+}
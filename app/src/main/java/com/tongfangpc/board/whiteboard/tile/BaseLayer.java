@@ -0,0 +1,447 @@
+package com.tongfangpc.board.whiteboard.tile;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.Log;
+
+import com.tongfangpc.board.whiteboard.actions.Action;
+import com.tongfangpc.board.whiteboard.session.SessionReader;
+import com.tongfangpc.board.whiteboard.session.SessionSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+历史记录压缩之后的底层栅格：超出undo范围的行为按世界坐标1倍合成到方块上，之后从历史记录中释放。
+方块是透明的，只包含笔迹，绘制时叠加在背景之上、历史记录中的行为之下；
+只有画过笔迹的方块才分配Bitmap，占用的内存随书写的面积增长，与书写的时长无关。
+每次合成生成新的不可变的Snapshot，改动的方块复制之后再画，旧的Bitmap不回收，
+其它线程取到的Snapshot可以在锁外继续绘制。
+设置了导出目录之后，改动的方块由单独的线程以PNG写入目录，文件名为base_<tx>_<ty>.png
+ */
+public class BaseLayer {
+
+    static final String TAG = BaseLayer.class.getSimpleName();
+
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    /*
+    缩放绘制时对方块做双线性过滤，只读，各线程共用
+     */
+    static final Paint TILE_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /*
+    底层栅格某一时刻的内容：历史记录中[0, baseIndex)的行为合成的方块，创建之后不再修改
+     */
+    public static final class Snapshot {
+        final int tileSize;
+        final int baseIndex;
+        final Map<Long, Bitmap> tiles;
+
+        /*
+        相对上一个Snapshot改动过的方块，用于增量写盘
+         */
+        final long[] changed;
+
+        Snapshot(int tileSize, int baseIndex, Map<Long, Bitmap> tiles, long[] changed) {
+            this.tileSize = tileSize;
+            this.baseIndex = baseIndex;
+            this.tiles = tiles;
+            this.changed = changed;
+        }
+
+        public int getTileSize() {
+            return tileSize;
+        }
+
+        public int getBaseIndex() {
+            return baseIndex;
+        }
+
+        public int getTileCount() {
+            return tiles.size();
+        }
+
+        public boolean isEmpty() {
+            return tiles.isEmpty();
+        }
+
+        public long getByteCount() {
+            return (long) tiles.size() * tileSize * tileSize * 4;
+        }
+
+        /*
+        只读的方块，键由TileGrid.key(0, tx, ty)生成，方块左上角的世界坐标是(tx * tileSize, ty * tileSize)
+         */
+        public Map<Long, Bitmap> getTiles() {
+            return Collections.unmodifiableMap(tiles);
+        }
+
+        /*
+        所有方块覆盖的世界坐标范围，没有方块时返回false
+         */
+        public boolean getBounds(RectF out) {
+            if (tiles.isEmpty()) {
+                return false;
+            }
+            int left = Integer.MAX_VALUE;
+            int top = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE;
+            int bottom = Integer.MIN_VALUE;
+            for (long key : tiles.keySet()) {
+                left = Math.min(left, TileGrid.tileX(key));
+                top = Math.min(top, TileGrid.tileY(key));
+                right = Math.max(right, TileGrid.tileX(key));
+                bottom = Math.max(bottom, TileGrid.tileY(key));
+            }
+            out.set((float) left * tileSize, (float) top * tileSize,
+                    (float) (right + 1) * tileSize, (float) (bottom + 1) * tileSize);
+            return true;
+        }
+
+        /*
+        世界坐标范围world内是否有底层的笔迹
+         */
+        public boolean intersects(RectF world) {
+            if (tiles.isEmpty()) {
+                return false;
+            }
+            int left = TileGrid.tileIndex(world.left, tileSize);
+            int top = TileGrid.tileIndex(world.top, tileSize);
+            int right = TileGrid.lastTileIndex(world.right, tileSize);
+            int bottom = TileGrid.lastTileIndex(world.bottom, tileSize);
+            if ((long) (right - left + 1) * (bottom - top + 1) > tiles.size()) {
+                for (long key : tiles.keySet()) {
+                    if (contains(key, left, top, right, bottom)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            for (int ty = top; ty <= bottom; ty++) {
+                for (int tx = left; tx <= right; tx++) {
+                    if (tiles.containsKey(TileGrid.key(0, tx, ty))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /*
+        把世界坐标范围world内的方块画到canvas上，canvas上已经设置好了世界坐标到目标的变换
+         */
+        public void draw(Canvas canvas, RectF world) {
+            if (tiles.isEmpty()) {
+                return;
+            }
+            int left = TileGrid.tileIndex(world.left, tileSize);
+            int top = TileGrid.tileIndex(world.top, tileSize);
+            int right = TileGrid.lastTileIndex(world.right, tileSize);
+            int bottom = TileGrid.lastTileIndex(world.bottom, tileSize);
+            //范围比方块的数量大时(缩小显示或者整体重建)遍历方块，否则遍历范围
+            if ((long) (right - left + 1) * (bottom - top + 1) > tiles.size()) {
+                for (Map.Entry<Long, Bitmap> entry : tiles.entrySet()) {
+                    long key = entry.getKey();
+                    if (contains(key, left, top, right, bottom)) {
+                        drawTile(canvas, TileGrid.tileX(key), TileGrid.tileY(key), entry.getValue());
+                    }
+                }
+                return;
+            }
+            for (int ty = top; ty <= bottom; ty++) {
+                for (int tx = left; tx <= right; tx++) {
+                    Bitmap bitmap = tiles.get(TileGrid.key(0, tx, ty));
+                    if (bitmap != null) {
+                        drawTile(canvas, tx, ty, bitmap);
+                    }
+                }
+            }
+        }
+
+        void drawTile(Canvas canvas, int tx, int ty, Bitmap bitmap) {
+            canvas.drawBitmap(bitmap, (float) tx * tileSize, (float) ty * tileSize, TILE_PAINT);
+        }
+
+        /*
+        把方块加入会话的快照，在写盘的线程上编码成PNG
+         */
+        public void addTo(SessionSnapshot snapshot) {
+            for (Map.Entry<Long, Bitmap> entry : tiles.entrySet()) {
+                long key = entry.getKey();
+                final Bitmap bitmap = entry.getValue();
+                snapshot.addBaseTile(tileSize, TileGrid.tileX(key), TileGrid.tileY(key), new SessionSnapshot.TileImage() {
+                    @Override
+                    public byte[] encode() throws IOException {
+                        return encodePng(bitmap);
+                    }
+                });
+            }
+        }
+
+        static boolean contains(long key, int left, int top, int right, int bottom) {
+            int tx = TileGrid.tileX(key);
+            int ty = TileGrid.tileY(key);
+            return tx >= left && tx <= right && ty >= top && ty <= bottom;
+        }
+    }
+
+    final int tileSize;
+
+    /*
+    当前的底层栅格，由调用方在持有历史记录的锁时与历史记录一起替换
+     */
+    volatile Snapshot current;
+
+    /*
+    以下只在合成的线程(渲染线程)上使用
+     */
+    final Canvas canvas = new Canvas();
+    final RectF bounds = new RectF();
+    final HashMap<Long, ArrayList<Action>> tileActions = new HashMap<>();
+
+    /*
+    方块写盘的目录，null表示不写盘；写盘都在exportExecutor上按提交的顺序进行
+     */
+    volatile File exportDirectory;
+    ExecutorService exportExecutor;
+
+    public BaseLayer() {
+        this(DEFAULT_TILE_SIZE);
+    }
+
+    public BaseLayer(int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        current = empty();
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /*
+    没有任何行为合成的底层栅格
+     */
+    public Snapshot empty() {
+        return new Snapshot(tileSize, 0, Collections.<Long, Bitmap>emptyMap(), new long[0]);
+    }
+
+    public Snapshot getSnapshot() {
+        return current;
+    }
+
+    /*
+    替换当前的底层栅格，基于current合成的Snapshot只写盘改动的方块，否则重写整个目录
+     */
+    public void publish(Snapshot snapshot) {
+        Snapshot previous = current;
+        current = snapshot;
+        File directory = exportDirectory;
+        if (directory != null) {
+            boolean incremental = snapshot.baseIndex > previous.baseIndex && snapshot.tileSize == previous.tileSize;
+            export(directory, snapshot, incremental);
+        }
+    }
+
+    /*
+    把actions按顺序合成到from之上，返回压缩到newBase的新Snapshot，不修改from；
+    actions应当是[from.baseIndex, newBase)中在newBase时仍然可见的行为，范围未知的行为无法分块，被跳过
+     */
+    public Snapshot flatten(Snapshot from, int newBase, List<Action> actions) {
+        int size = from.tileSize;
+        try {
+            for (int i = 0; i < actions.size(); i++) {
+                Action action = actions.get(i);
+                if (!action.getBounds(bounds)) {
+                    continue;
+                }
+                int left = TileGrid.tileIndex(bounds.left, size);
+                int top = TileGrid.tileIndex(bounds.top, size);
+                int right = TileGrid.lastTileIndex(bounds.right, size);
+                int bottom = TileGrid.lastTileIndex(bounds.bottom, size);
+                for (int ty = top; ty <= bottom; ty++) {
+                    for (int tx = left; tx <= right; tx++) {
+                        long key = TileGrid.key(0, tx, ty);
+                        ArrayList<Action> list = tileActions.get(key);
+                        if (list == null) {
+                            list = new ArrayList<>();
+                            tileActions.put(key, list);
+                        }
+                        list.add(action);
+                    }
+                }
+            }
+            HashMap<Long, Bitmap> tiles = new HashMap<>(from.tiles);
+            long[] changed = new long[tileActions.size()];
+            int count = 0;
+            for (Map.Entry<Long, ArrayList<Action>> entry : tileActions.entrySet()) {
+                long key = entry.getKey();
+                Bitmap previous = from.tiles.get(key);
+                //新建的Bitmap是全透明的
+                Bitmap bitmap = previous != null
+                        ? previous.copy(Bitmap.Config.ARGB_8888, true)
+                        : Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+                canvas.setBitmap(bitmap);
+                canvas.save();
+                canvas.translate(-(float) TileGrid.tileX(key) * size, -(float) TileGrid.tileY(key) * size);
+                ArrayList<Action> list = entry.getValue();
+                for (int i = 0; i < list.size(); i++) {
+                    list.get(i).draw(canvas);
+                }
+                canvas.restore();
+                canvas.setBitmap(null);
+                tiles.put(key, bitmap);
+                changed[count++] = key;
+            }
+            return new Snapshot(size, newBase, tiles, changed);
+        } finally {
+            tileActions.clear();
+        }
+    }
+
+    /*
+    从会话文件中读取底层栅格，对应会话中的第一个行为之前的内容，baseIndex为0
+     */
+    public Snapshot load(SessionReader reader) throws IOException {
+        int count = reader.getBaseTileCount();
+        if (count == 0) {
+            return empty();
+        }
+        int size = reader.getBaseTileSize();
+        HashMap<Long, Bitmap> tiles = new HashMap<>(count * 2);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        for (int i = 0; i < count; i++) {
+            byte[] image = reader.readBaseTileImage(i);
+            Bitmap bitmap = BitmapFactory.decodeByteArray(image, 0, image.length, options);
+            if (bitmap == null || bitmap.getWidth() != size || bitmap.getHeight() != size) {
+                throw new IOException("invalid base tile " + i);
+            }
+            tiles.put(TileGrid.key(0, reader.getBaseTileX(i), reader.getBaseTileY(i)), bitmap);
+        }
+        return new Snapshot(size, 0, tiles, new long[0]);
+    }
+
+    /*
+    设置方块写盘的目录，设置时写入当前的全部方块，之后每次publish写入改动的方块；
+    directory为null时停止写盘，已经写入的文件保留
+     */
+    public void setExportDirectory(File directory) {
+        exportDirectory = directory;
+        if (directory != null) {
+            export(directory, current, false);
+        }
+    }
+
+    public File getExportDirectory() {
+        return exportDirectory;
+    }
+
+    /*
+    方块(tx, ty)写盘的文件
+     */
+    public static File tileFile(File directory, int tileX, int tileY) {
+        return new File(directory, "base_" + tileX + "_" + tileY + ".png");
+    }
+
+    synchronized void export(final File directory, final Snapshot snapshot, final boolean incremental) {
+        if (exportExecutor == null) {
+            exportExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BaseLayerWriter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        exportExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    Log.w(TAG, "failed to create " + directory);
+                    return;
+                }
+                if (incremental) {
+                    for (long key : snapshot.changed) {
+                        writeTile(directory, key, snapshot.tiles.get(key));
+                    }
+                    return;
+                }
+                deleteTiles(directory);
+                for (Map.Entry<Long, Bitmap> entry : snapshot.tiles.entrySet()) {
+                    writeTile(directory, entry.getKey(), entry.getValue());
+                }
+            }
+        });
+    }
+
+    static void writeTile(File directory, long key, Bitmap bitmap) {
+        File file = tileFile(directory, TileGrid.tileX(key), TileGrid.tileY(key));
+        File temp = new File(directory, file.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                throw new IOException("compress failed");
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write " + file, e);
+            temp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    static void deleteTiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith("base_") && name.endsWith(".png") && !file.delete()) {
+                Log.w(TAG, "failed to delete " + file);
+            }
+        }
+    }
+
+    public static byte[] encodePng(Bitmap bitmap) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+            throw new IOException("compress failed");
+        }
+        return out.toByteArray();
+    }
+
+    static void closeQuietly(OutputStream out) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.tongfangpc.board.whiteboard.tile;
+
+import java.util.Arrays;
+
+/*
+渲染线程记录的"每个历史索引上实际画进方块的行为的范围"(世界坐标，left, top, right, bottom)。
+undo之后再提交新的一笔，历史记录中的旧行为会被替换，渲染线程处理积压的重建命令时
+已经读不到旧行为，只能依靠这里的记录让旧行为覆盖过的方块失效；
+历史记录被压缩之后，discardBefore丢掉被压缩的行为的记录，存储只占用[base, size)
+ */
+public class BoundsLog {
+
+    static final int STRIDE = 4;
+
+    /*
+    从索引base开始存放
+     */
+    float[] bounds = new float[64 * STRIDE];
+
+    /*
+    已记录的最大索引+1
+     */
+    int size;
+
+    /*
+    被丢弃的索引数量
+     */
+    int base;
+
+    public int size() {
+        return size;
+    }
+
+    /*
+    记录index位置的行为范围，覆盖之前的记录
+     */
+    public void record(int index, float left, float top, float right, float bottom) {
+        if (index < base) {
+            return;
+        }
+        if ((index - base + 1) * STRIDE > bounds.length) {
+            bounds = Arrays.copyOf(bounds, Math.max((index - base + 1) * STRIDE, bounds.length * 2));
+        }
+        if (index >= size) {
+            //中间跳过的索引标记为没有记录
+            markUnknown(size, index);
+            size = index + 1;
+        }
+        int offset = (index - base) * STRIDE;
+        bounds[offset] = left;
+        bounds[offset + 1] = top;
+        bounds[offset + 2] = right;
+        bounds[offset + 3] = bottom;
+    }
+
+    /*
+    把index位置记录的范围合并到out(left, top, right, bottom)中，没有记录时返回false
+     */
+    public boolean unionInto(int index, float[] out) {
+        if (index < base || index >= size) {
+            return false;
+        }
+        int offset = (index - base) * STRIDE;
+        if (bounds[offset] > bounds[offset + 2]) {
+            return false;
+        }
+        out[0] = Math.min(out[0], bounds[offset]);
+        out[1] = Math.min(out[1], bounds[offset + 1]);
+        out[2] = Math.max(out[2], bounds[offset + 2]);
+        out[3] = Math.max(out[3], bounds[offset + 3]);
+        return true;
+    }
+
+    /*
+    丢掉newBase之前的记录，之后的索引不变
+     */
+    public void discardBefore(int newBase) {
+        if (newBase <= base) {
+            return;
+        }
+        int kept = Math.max(0, size - newBase);
+        System.arraycopy(bounds, (Math.min(newBase, size) - base) * STRIDE, bounds, 0, kept * STRIDE);
+        base = newBase;
+        size = Math.max(size, newBase);
+    }
+
+    public void clear() {
+        size = 0;
+        base = 0;
+    }
+
+    void markUnknown(int from, int to) {
+        for (int i = from; i < to; i++) {
+            bounds[(i - base) * STRIDE] = Float.POSITIVE_INFINITY;
+            bounds[(i - base) * STRIDE + 2] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    /*
+    初始化一个可以被unionInto合并的空范围
+     */
+    public static void setEmpty(float[] out) {
+        out[0] = out[1] = Float.POSITIVE_INFINITY;
+        out[2] = out[3] = Float.NEGATIVE_INFINITY;
+    }
+
+    public static boolean isEmpty(float[] rect) {
+        return rect[0] > rect[2] || rect[1] > rect[3];
+    }
+}
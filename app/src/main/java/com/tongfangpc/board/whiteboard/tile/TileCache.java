@@ -0,0 +1,148 @@
+package com.tongfangpc.board.whiteboard.tile;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+分块画布的方块缓存：键为TileGrid.key打包的级别和方块坐标，按最近最少使用(LRU)的顺序淘汰，
+所有方块占用的内存不超过maxBytes。方块的内容可以随时从历史记录重新栅格化，淘汰不会丢失数据。
+该类不依赖具体的方块类型，Bitmap相关的实现见TiledBoard
+ */
+public abstract class TileCache<T> {
+
+    final long maxBytes;
+
+    long currentBytes;
+
+    final LinkedHashMap<Long, T> tiles = new LinkedHashMap<>(64, 0.75f, true);
+
+    public TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /*
+    返回方块占用的字节数，方块的内容变化之后调用resize更新
+     */
+    protected abstract int sizeOf(T tile);
+
+    /*
+    方块被淘汰或者失效时回调，子类在此释放资源
+     */
+    protected void onRemoved(T tile) {
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public int size() {
+        return tiles.size();
+    }
+
+    public boolean contains(long key) {
+        return tiles.containsKey(key);
+    }
+
+    /*
+    读取方块并更新LRU顺序，不存在时返回null
+     */
+    public T get(long key) {
+        return tiles.get(key);
+    }
+
+    /*
+    放入方块，超出预算时淘汰最久没有使用的方块，刚放入的方块不参与淘汰
+     */
+    public void put(long key, T tile) {
+        T previous = tiles.put(key, tile);
+        if (previous != null) {
+            currentBytes -= sizeOf(previous);
+            if (previous != tile) {
+                onRemoved(previous);
+            }
+        }
+        currentBytes += sizeOf(tile);
+        trimToBudget(key);
+    }
+
+    /*
+    方块的内容变化导致占用的内存变化时调用，oldSize为变化之前的大小
+     */
+    public void resize(long key, int oldSize) {
+        T tile = tiles.get(key);
+        if (tile != null) {
+            currentBytes += sizeOf(tile) - oldSize;
+            trimToBudget(key);
+        }
+    }
+
+    public void remove(long key) {
+        T tile = tiles.remove(key);
+        if (tile != null) {
+            currentBytes -= sizeOf(tile);
+            onRemoved(tile);
+        }
+    }
+
+    /*
+    让级别level中方块坐标在[left, right] x [top, bottom]范围内的方块全部失效
+     */
+    public void invalidate(int level, int left, int top, int right, int bottom) {
+        if (left > right || top > bottom) {
+            return;
+        }
+        long area = ((long) right - left + 1) * ((long) bottom - top + 1);
+        if (area <= tiles.size()) {
+            for (int ty = top; ty <= bottom; ty++) {
+                for (int tx = left; tx <= right; tx++) {
+                    remove(TileGrid.key(level, tx, ty));
+                }
+            }
+            return;
+        }
+        //范围比缓存大时遍历缓存
+        Iterator<Map.Entry<Long, T>> iterator = tiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, T> entry = iterator.next();
+            long key = entry.getKey();
+            if (TileGrid.level(key) != level) {
+                continue;
+            }
+            int tx = TileGrid.tileX(key);
+            int ty = TileGrid.tileY(key);
+            if (tx >= left && tx <= right && ty >= top && ty <= bottom) {
+                iterator.remove();
+                currentBytes -= sizeOf(entry.getValue());
+                onRemoved(entry.getValue());
+            }
+        }
+    }
+
+    public void clear() {
+        Iterator<T> iterator = tiles.values().iterator();
+        while (iterator.hasNext()) {
+            T tile = iterator.next();
+            iterator.remove();
+            onRemoved(tile);
+        }
+        currentBytes = 0;
+    }
+
+    void trimToBudget(long keepKey) {
+        Iterator<Map.Entry<Long, T>> iterator = tiles.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Long, T> eldest = iterator.next();
+            if (eldest.getKey() == keepKey) {
+                continue;
+            }
+            iterator.remove();
+            currentBytes -= sizeOf(eldest.getValue());
+            onRemoved(eldest.getValue());
+        }
+    }
+}
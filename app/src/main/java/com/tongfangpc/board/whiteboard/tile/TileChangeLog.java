@@ -0,0 +1,77 @@
+package com.tongfangpc.board.whiteboard.tile;
+
+/*
+方块内容变化的记录：每次变化分配一个递增的版本号，并记下变化的世界坐标范围。
+后台栅格化一个方块需要一段时间，结果交回时用changedSince判断期间方块覆盖的区域有没有变化，
+有变化的结果直接丢弃。只保留最近capacity次变化，更早的版本一律视为已经变化
+ */
+public class TileChangeLog {
+
+    static final int DEFAULT_CAPACITY = 64;
+
+    final int capacity;
+
+    /*
+    按版本号取模存放的变化范围
+     */
+    final float[] lefts;
+    final float[] tops;
+    final float[] rights;
+    final float[] bottoms;
+
+    /*
+    当前版本号，即已经记录的变化次数
+     */
+    long version;
+
+    public TileChangeLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TileChangeLog(int capacity) {
+        this.capacity = capacity;
+        lefts = new float[capacity];
+        tops = new float[capacity];
+        rights = new float[capacity];
+        bottoms = new float[capacity];
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /*
+    记录一次变化，返回新的版本号
+     */
+    public long record(float left, float top, float right, float bottom) {
+        int index = (int) (version % capacity);
+        lefts[index] = left;
+        tops[index] = top;
+        rights[index] = right;
+        bottoms[index] = bottom;
+        return ++version;
+    }
+
+    /*
+    记录一次覆盖整个画布的变化
+     */
+    public long recordAll() {
+        return record(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+    }
+
+    /*
+    版本since之后，区域[left, right) x [top, bottom)是否发生过变化
+     */
+    public boolean changedSince(long since, float left, float top, float right, float bottom) {
+        if (version - since > capacity) {
+            return true;
+        }
+        for (long v = since; v < version; v++) {
+            int index = (int) (v % capacity);
+            if (lefts[index] < right && left < rights[index] && tops[index] < bottom && top < bottoms[index]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,75 @@
+package com.tongfangpc.board.whiteboard.tile;
+
+/*
+分块画布的坐标计算：世界坐标按方块划分，方块坐标(tx, ty)可以是负数；
+不同的缩放级别level各有一套方块，级别level的方块按2^level倍栅格化，
+一个方块覆盖的世界坐标范围是tileSize / 2^level。
+级别和方块坐标打包成一个long作为缓存的键：最高8位是级别，其后各28位是tx、ty
+ */
+public final class TileGrid {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    /*
+    缩放级别的范围，对应1/8到8倍
+     */
+    public static final int MIN_LEVEL = -3;
+    public static final int MAX_LEVEL = 3;
+
+    static final long COORDINATE_MASK = (1L << 28) - 1;
+
+    private TileGrid() {
+    }
+
+    public static long key(int level, int tileX, int tileY) {
+        return ((long) (level & 0xff) << 56) | ((tileX & COORDINATE_MASK) << 28) | (tileY & COORDINATE_MASK);
+    }
+
+    public static int level(long key) {
+        return (byte) (key >>> 56);
+    }
+
+    public static int tileX(long key) {
+        return (int) (key << 8 >> 36);
+    }
+
+    public static int tileY(long key) {
+        return (int) (key << 36 >> 36);
+    }
+
+    /*
+    显示比例对应的缩放级别：取最接近的2的幂
+     */
+    public static int levelFor(float scale) {
+        int level = Math.round((float) (Math.log(scale) / Math.log(2)));
+        return Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+    }
+
+    /*
+    级别level的方块栅格化的倍数
+     */
+    public static float levelScale(int level) {
+        return Math.scalb(1f, level);
+    }
+
+    /*
+    级别level的一个方块覆盖的世界坐标范围
+     */
+    public static float worldTileSize(int tileSize, int level) {
+        return tileSize / levelScale(level);
+    }
+
+    /*
+    世界坐标所在的方块坐标，向负无穷取整
+     */
+    public static int tileIndex(float coordinate, float worldTileSize) {
+        return (int) Math.floor(coordinate / worldTileSize);
+    }
+
+    /*
+    右、下边界(不含)所在的最后一个方块坐标
+     */
+    public static int lastTileIndex(float exclusiveEnd, float worldTileSize) {
+        return (int) Math.ceil(exclusiveEnd / worldTileSize) - 1;
+    }
+}
@@ -0,0 +1,413 @@
+package com.tongfangpc.board.whiteboard.tile;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.tongfangpc.board.whiteboard.actions.Action;
+import com.tongfangpc.board.whiteboard.render.Viewport;
+
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+分块的已提交笔画栅格，替代一整屏大小的缓冲区，画板可以超出一屏向任意方向滚动和缩放：
+1、世界坐标按方块划分，每个缩放级别各有一套方块，只有被笔画覆盖到的方块才会分配Bitmap；
+   方块是透明的，只包含笔迹，调用方先画好背景层再叠加方块
+2、方块放在有内存预算的LRU缓存中，缓存没有命中时交给后台线程从历史记录重新栅格化，
+   完成之前先用其它级别已经缓存的方块缩放显示，完成之后在下一帧换上
+3、新提交的笔画只画进已经缓存的方块，不在缓存中的方块之后栅格化时会从历史记录中包含这一笔
+除了后台栅格化本身，其余方法只在渲染线程上使用
+ */
+public class TiledBoard {
+
+    /*
+    重新栅格化方块时，由调用方提供的历史记录访问，只在后台栅格化线程上调用
+     */
+    public interface Source {
+        /*
+        历史记录[0, target)中是否有行为与世界坐标的区域相交
+         */
+        boolean intersects(RectF world, int target);
+
+        /*
+        把历史记录[0, target)中与区域相交的行为依次画到canvas上，canvas已经变换到世界坐标，
+        scale为栅格化的倍数，屏幕上过小的行为可以简化或者跳过
+         */
+        void draw(Canvas canvas, RectF world, int target, float scale);
+    }
+
+    /*
+    一个方块，bitmap为null表示方块内没有笔画
+     */
+    static final class Tile {
+        Bitmap bitmap;
+    }
+
+    /*
+    一次后台栅格化：请求时记录版本号，结果交回时据此判断是否已经过期
+     */
+    final class Job implements Runnable {
+        final long key;
+        final long version;
+        final int target;
+        final RectF world = new RectF();
+        Bitmap bitmap;
+        boolean cancelled;
+
+        Job(long key, long version, int target) {
+            this.key = key;
+            this.version = version;
+            this.target = target;
+            int level = TileGrid.level(key);
+            float size = TileGrid.worldTileSize(tileSize, level);
+            world.set(TileGrid.tileX(key) * size, TileGrid.tileY(key) * size,
+                    (TileGrid.tileX(key) + 1) * size, (TileGrid.tileY(key) + 1) * size);
+        }
+
+        @Override
+        public void run() {
+            int level = TileGrid.level(key);
+            if (level != wantedLevel) {
+                //缩放级别已经变化，不再需要
+                cancelled = true;
+            } else if (source.intersects(world, target)) {
+                float scale = TileGrid.levelScale(level);
+                bitmap = createTileBitmap();
+                workerCanvas.setBitmap(bitmap);
+                workerCanvas.save();
+                workerCanvas.scale(scale, scale);
+                workerCanvas.translate(-world.left, -world.top);
+                source.draw(workerCanvas, world, target, scale);
+                workerCanvas.restore();
+                workerCanvas.setBitmap(null);
+            }
+            results.offer(this);
+            onTileReady.run();
+        }
+    }
+
+    /*
+    没有分配Bitmap的方块在缓存中的估算开销
+     */
+    static final int EMPTY_TILE_BYTES = 64;
+
+    /*
+    当前级别有方块没有命中时，用来顶替显示的相邻级别的范围
+     */
+    static final int FALLBACK_LEVELS = 2;
+
+    final int tileSize;
+
+    final TileCache<Tile> cache;
+
+    final TileChangeLog changeLog = new TileChangeLog();
+
+    final Source source;
+
+    /*
+    有方块栅格化完成时回调，一般用来请求渲染，在后台线程上调用
+     */
+    final Runnable onTileReady;
+
+    /*
+    当前需要的缩放级别，后台线程跳过其它级别的请求
+     */
+    volatile int wantedLevel;
+
+    final HandlerThread workerThread;
+
+    final Handler workerHandler;
+
+    /*
+    已经请求但还没有交回的方块
+     */
+    final HashSet<Long> pendingKeys = new HashSet<>();
+
+    final ConcurrentLinkedQueue<Job> results = new ConcurrentLinkedQueue<>();
+
+    /*
+    后台线程栅格化使用的画布
+     */
+    final Canvas workerCanvas = new Canvas();
+
+    /*
+    渲染线程向方块中绘制时复用的画布和区域
+     */
+    final Canvas tileCanvas = new Canvas();
+    final RectF tileRect = new RectF();
+    final RectF worldRect = new RectF();
+    final RectF fallbackRect = new RectF();
+
+    public TiledBoard(int tileSize, long maxBytes, Source source, Runnable onTileReady) {
+        this.tileSize = tileSize;
+        this.source = source;
+        this.onTileReady = onTileReady;
+        cache = new TileCache<Tile>(maxBytes) {
+            @Override
+            protected int sizeOf(Tile tile) {
+                return tile.bitmap == null ? EMPTY_TILE_BYTES : tile.bitmap.getByteCount();
+            }
+
+            @Override
+            protected void onRemoved(Tile tile) {
+                if (tile.bitmap != null && !tile.bitmap.isRecycled()) {
+                    tile.bitmap.recycle();
+                }
+                tile.bitmap = null;
+            }
+        };
+        workerThread = new HandlerThread("TileRasterizer");
+        workerThread.start();
+        workerHandler = new Handler(workerThread.getLooper());
+    }
+
+    /*
+    使用默认的方块大小，内存预算取应用最大可用堆内存的1/8
+     */
+    public TiledBoard(Source source, Runnable onTileReady) {
+        this(TileGrid.DEFAULT_TILE_SIZE, Runtime.getRuntime().maxMemory() / 8, source, onTileReady);
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public TileCache<?> getCache() {
+        return cache;
+    }
+
+    /*
+    设置当前需要的缩放级别，其它级别还没有开始的请求会被跳过
+     */
+    public void setWantedLevel(int level) {
+        wantedLevel = level;
+    }
+
+    /*
+    把后台栅格化完成的方块放进缓存，期间区域发生过变化的结果直接丢弃，之后会重新请求；
+    应当在处理新的命令之前调用，这样之后的命令会继续作用在刚放进缓存的方块上；
+    返回true表示有结果交回，需要重新贴图(丢弃的方块也在重新贴图时再次请求)
+     */
+    public boolean installResults() {
+        boolean changed = false;
+        Job job;
+        while ((job = results.poll()) != null) {
+            pendingKeys.remove(job.key);
+            changed = true;
+            if (job.cancelled) {
+                continue;
+            }
+            Tile tile = new Tile();
+            tile.bitmap = job.bitmap;
+            if (changeLog.changedSince(job.version, job.world.left, job.world.top, job.world.right, job.world.bottom)) {
+                if (tile.bitmap != null) {
+                    tile.bitmap.recycle();
+                }
+                continue;
+            }
+            cache.put(job.key, tile);
+        }
+        return changed;
+    }
+
+    /*
+    把屏幕上screenDirty区域的笔迹叠加到canvas上，canvas应当已经被裁剪到screenDirty并且画好了背景：
+    优先使用level级别的方块，没有命中的方块请求后台栅格化(requestMissing为true时)，
+    并用相邻级别中能完整覆盖它的一级缩放顶替；方块是透明的，同一块区域只画一个级别，不会叠出两层笔迹
+     */
+    public void draw(Canvas canvas, Rect screenDirty, Viewport viewport, int level, int target,
+                     boolean requestMissing, Paint paint) {
+        worldRect.set(viewport.toWorldX(screenDirty.left), viewport.toWorldY(screenDirty.top),
+                viewport.toWorldX(screenDirty.right), viewport.toWorldY(screenDirty.bottom));
+        float size = TileGrid.worldTileSize(tileSize, level);
+        for (int ty = TileGrid.tileIndex(worldRect.top, size), bottom = TileGrid.lastTileIndex(worldRect.bottom, size); ty <= bottom; ty++) {
+            for (int tx = TileGrid.tileIndex(worldRect.left, size), right = TileGrid.lastTileIndex(worldRect.right, size); tx <= right; tx++) {
+                long key = TileGrid.key(level, tx, ty);
+                Tile tile = cache.get(key);
+                if (tile != null) {
+                    if (tile.bitmap != null) {
+                        drawTile(canvas, tile.bitmap, tx * size, ty * size, size, viewport, paint);
+                    }
+                    continue;
+                }
+                if (requestMissing) {
+                    request(key, target);
+                }
+                fallbackRect.set(tx * size, ty * size, (tx + 1) * size, (ty + 1) * size);
+                drawFallback(canvas, level, viewport, paint);
+            }
+        }
+    }
+
+    /*
+    用相邻级别的方块顶替fallbackRect范围内没有命中的方块：按先细后粗、由近及远的顺序，
+    取第一个完整缓存了这块范围的级别；都不完整时只显示背景，等待栅格化完成
+     */
+    void drawFallback(Canvas canvas, int level, Viewport viewport, Paint paint) {
+        for (int d = 1; d <= FALLBACK_LEVELS; d++) {
+            if (drawLevelIfCached(canvas, level + d, viewport, paint) || drawLevelIfCached(canvas, level - d, viewport, paint)) {
+                return;
+            }
+        }
+    }
+
+    /*
+    fallbackRect覆盖的level级别方块都已经缓存时画出它们并返回true
+     */
+    boolean drawLevelIfCached(Canvas canvas, int level, Viewport viewport, Paint paint) {
+        if (level < TileGrid.MIN_LEVEL || level > TileGrid.MAX_LEVEL) {
+            return false;
+        }
+        float size = TileGrid.worldTileSize(tileSize, level);
+        int left = TileGrid.tileIndex(fallbackRect.left, size);
+        int top = TileGrid.tileIndex(fallbackRect.top, size);
+        int right = TileGrid.lastTileIndex(fallbackRect.right, size);
+        int bottom = TileGrid.lastTileIndex(fallbackRect.bottom, size);
+        for (int ty = top; ty <= bottom; ty++) {
+            for (int tx = left; tx <= right; tx++) {
+                if (!cache.contains(TileGrid.key(level, tx, ty))) {
+                    return false;
+                }
+            }
+        }
+        //较粗级别的方块比顶替的范围大，只画这块范围
+        canvas.save();
+        canvas.clipRect(viewport.toScreenX(fallbackRect.left), viewport.toScreenY(fallbackRect.top),
+                viewport.toScreenX(fallbackRect.right), viewport.toScreenY(fallbackRect.bottom));
+        for (int ty = top; ty <= bottom; ty++) {
+            for (int tx = left; tx <= right; tx++) {
+                Tile tile = cache.get(TileGrid.key(level, tx, ty));
+                if (tile.bitmap != null) {
+                    drawTile(canvas, tile.bitmap, tx * size, ty * size, size, viewport, paint);
+                }
+            }
+        }
+        canvas.restore();
+        return true;
+    }
+
+    void drawTile(Canvas canvas, Bitmap bitmap, float worldLeft, float worldTop, float size, Viewport viewport, Paint paint) {
+        tileRect.set(viewport.toScreenX(worldLeft), viewport.toScreenY(worldTop),
+                viewport.toScreenX(worldLeft + size), viewport.toScreenY(worldTop + size));
+        canvas.drawBitmap(bitmap, null, tileRect, paint);
+    }
+
+    void request(long key, int target) {
+        if (!pendingKeys.add(key)) {
+            return;
+        }
+        workerHandler.post(new Job(key, changeLog.getVersion(), target));
+    }
+
+    /*
+    把刚提交的行为画进与world相交并且已经缓存的方块(所有级别)，world是行为的范围
+     */
+    public void drawCommitted(Action action, RectF world) {
+        changeLog.record(world.left, world.top, world.right, world.bottom);
+        for (int level = TileGrid.MIN_LEVEL; level <= TileGrid.MAX_LEVEL; level++) {
+            float size = TileGrid.worldTileSize(tileSize, level);
+            float scale = TileGrid.levelScale(level);
+            for (int ty = TileGrid.tileIndex(world.top, size), bottom = TileGrid.lastTileIndex(world.bottom, size); ty <= bottom; ty++) {
+                for (int tx = TileGrid.tileIndex(world.left, size), right = TileGrid.lastTileIndex(world.right, size); tx <= right; tx++) {
+                    long key = TileGrid.key(level, tx, ty);
+                    Tile tile = cache.get(key);
+                    if (tile == null) {
+                        continue;
+                    }
+                    if (tile.bitmap == null) {
+                        tile.bitmap = createTileBitmap();
+                        cache.resize(key, EMPTY_TILE_BYTES);
+                    }
+                    tileCanvas.setBitmap(tile.bitmap);
+                    tileCanvas.save();
+                    tileCanvas.scale(scale, scale);
+                    tileCanvas.translate(-tx * size, -ty * size);
+                    action.draw(tileCanvas);
+                    tileCanvas.restore();
+                    tileCanvas.setBitmap(null);
+                }
+            }
+        }
+    }
+
+    /*
+    重新绘制已经缓存的方块(所有级别)中与world相交的部分：清除为透明，再由source画出[0, target)中的行为，
+    用于橡皮擦这类需要从画面上去掉内容的修改，source在渲染线程上调用
+     */
+    public void redraw(RectF world, int target, Source source) {
+        changeLog.record(world.left, world.top, world.right, world.bottom);
+        for (int level = TileGrid.MIN_LEVEL; level <= TileGrid.MAX_LEVEL; level++) {
+            float size = TileGrid.worldTileSize(tileSize, level);
+            float scale = TileGrid.levelScale(level);
+            for (int ty = TileGrid.tileIndex(world.top, size), bottom = TileGrid.lastTileIndex(world.bottom, size); ty <= bottom; ty++) {
+                for (int tx = TileGrid.tileIndex(world.left, size), right = TileGrid.lastTileIndex(world.right, size); tx <= right; tx++) {
+                    Tile tile = cache.get(TileGrid.key(level, tx, ty));
+                    if (tile == null || tile.bitmap == null) {
+                        //没有内容的方块不需要擦除
+                        continue;
+                    }
+                    tileCanvas.setBitmap(tile.bitmap);
+                    tileCanvas.save();
+                    tileCanvas.scale(scale, scale);
+                    tileCanvas.translate(-tx * size, -ty * size);
+                    tileCanvas.clipRect(world);
+                    tileCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+                    source.draw(tileCanvas, world, target, scale);
+                    tileCanvas.restore();
+                    tileCanvas.setBitmap(null);
+                }
+            }
+        }
+    }
+
+    /*
+    让与world相交的方块(所有级别)失效，之后需要时从历史记录重新栅格化
+     */
+    public void invalidate(float left, float top, float right, float bottom) {
+        changeLog.record(left, top, right, bottom);
+        for (int level = TileGrid.MIN_LEVEL; level <= TileGrid.MAX_LEVEL; level++) {
+            float size = TileGrid.worldTileSize(tileSize, level);
+            cache.invalidate(level, TileGrid.tileIndex(left, size), TileGrid.tileIndex(top, size),
+                    TileGrid.lastTileIndex(right, size), TileGrid.lastTileIndex(bottom, size));
+        }
+    }
+
+    public void clear() {
+        changeLog.recordAll();
+        cache.clear();
+    }
+
+    /*
+    不再使用时调用，结束后台线程并释放所有方块
+     */
+    public void release() {
+        workerHandler.removeCallbacksAndMessages(null);
+        workerThread.quitSafely();
+        try {
+            workerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        clear();
+        Job job;
+        while ((job = results.poll()) != null) {
+            if (job.bitmap != null) {
+                job.bitmap.recycle();
+            }
+        }
+        pendingKeys.clear();
+    }
+
+    /*
+    新建的Bitmap是全透明的
+     */
+    Bitmap createTileBitmap() {
+        return Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
+    }
+}
@@ -0,0 +1,46 @@
+package com.tongfangpc.board.whiteboard.export;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 导出尺寸、条带划分和倍数换算的本地单元测试
+ */
+public class BoardExporterTest {
+
+    @Test
+    public void outputSize_roundsUp() {
+        assertEquals(1920, BoardExporter.outputSize(1920, 1));
+        assertEquals(7680, BoardExporter.outputSize(1920, 4));
+        assertEquals(11, BoardExporter.outputSize(10.2f, 1));
+        assertEquals(1, BoardExporter.outputSize(0.01f, 1));
+        //浮点误差不多出一个像素
+        assertEquals(7680, BoardExporter.outputSize(1920, 7680 / 1920.0001f * 1.00000001f));
+    }
+
+    @Test
+    public void bandRows_boundsMemory() {
+        //8K宽的条带不超过BAND_PIXELS个像素
+        int rows = BoardExporter.bandRows(7680, 4320);
+        assertTrue(rows > 0);
+        assertTrue((long) rows * 7680 <= BoardExporter.BAND_PIXELS);
+        assertEquals(100, BoardExporter.bandRows(100, 100));
+        assertEquals(1, BoardExporter.bandRows(BoardExporter.BAND_PIXELS * 2, 10));
+    }
+
+    @Test
+    public void resolveScale_defaultsPerFormat() {
+        assertEquals(1f, ExportOptions.png().resolveScale(1000), 0);
+        assertEquals(1f, ExportOptions.svg().resolveScale(1000), 0);
+        assertEquals(ExportOptions.A4_WIDTH / 1000f, ExportOptions.pdf().resolveScale(1000), 1e-6f);
+        assertEquals(2f, ExportOptions.pdf().withScale(2).resolveScale(1000), 0);
+        assertEquals(4f, ExportOptions.png().withScale(2).withTargetWidth(7680).resolveScale(1920), 0);
+        assertEquals(3f, ExportOptions.png().withTargetWidth(7680).withScale(3).resolveScale(1920), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void withScale_rejectsZero() {
+        ExportOptions.png().withScale(0);
+    }
+}
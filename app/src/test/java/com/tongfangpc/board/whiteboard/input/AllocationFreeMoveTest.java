@@ -0,0 +1,220 @@
+package com.tongfangpc.board.whiteboard.input;
+
+import com.tongfangpc.board.whiteboard.config.PenStyle;
+import com.tongfangpc.board.whiteboard.config.PenStyleRegistry;
+import com.tongfangpc.board.whiteboard.render.DirtyRegion;
+import com.tongfangpc.board.whiteboard.render.LiveStroke;
+import com.tongfangpc.board.whiteboard.render.LiveStrokes;
+import com.tongfangpc.board.whiteboard.render.RenderScheduler;
+import com.tongfangpc.board.whiteboard.render.Viewport;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * 书写热路径的内存分配测试：模拟一次MOVE事件在UI线程和渲染线程上的处理(渲染线程一侧是真实的LiveStrokes)，
+ * 预热之后统计当前线程分配的字节数，稳定状态下应当为0。
+ * 本地JVM上构造不了MotionEvent，采样直接交给StrokeRecorder，曲线输出到计数的Sink；
+ * MotionSampler和LiveStrokeLayer的绘制由设备上的AllocationFreeMoveInstrumentedTest覆盖
+ */
+public class AllocationFreeMoveTest {
+
+    /*
+    每个MOVE事件打包的采样数量，包括历史采样和当前采样
+     */
+    static final int SAMPLES_PER_EVENT = 4;
+
+    /*
+    立即执行帧回调的时钟，帧回调对象由RenderScheduler预先创建
+     */
+    static class DirectClock implements RenderScheduler.FrameClock {
+        @Override
+        public void postFrameCallback(Runnable frame) {
+            frame.run();
+        }
+
+        @Override
+        public void removeFrameCallback(Runnable frame) {
+        }
+    }
+
+    /*
+    只计数的曲线输出，代替平台的LiveStrokeLayer
+     */
+    static class CountingSink implements LiveStroke.Sink {
+        int samples;
+        int segments;
+
+        @Override
+        public void begin(boolean chunked) {
+            samples = 0;
+            segments = 0;
+        }
+
+        @Override
+        public void endSample() {
+            samples++;
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void moveTo(float x, float y) {
+            segments++;
+        }
+
+        @Override
+        public void quadTo(float x1, float y1, float x2, float y2) {
+            segments++;
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            segments++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /*
+    渲染线程一侧：由LiveStrokes执行笔画命令，再像renderFrame一样取走本帧的脏区域
+     */
+    static class RenderSide implements Runnable, LiveStrokes.Factory<LiveStroke>, LiveStrokes.Listener<LiveStroke> {
+        final StrokeCommandQueue queue;
+        final DirtyRegion dirtyRegion = new DirtyRegion();
+        final DirtyRegion frameDirtyRegion = new DirtyRegion();
+        final CountingSink sink = new CountingSink();
+        final LiveStrokes<LiveStroke> liveStrokes;
+        int committedStrokes;
+
+        RenderSide(StrokeCommandQueue queue, PenStyleRegistry styleRegistry) {
+            this.queue = queue;
+            liveStrokes = new LiveStrokes<>(1, this, styleRegistry, new Viewport(), dirtyRegion, 2);
+            liveStrokes.setListener(this);
+        }
+
+        @Override
+        public LiveStroke create() {
+            return new LiveStroke(sink);
+        }
+
+        @Override
+        public void onCommitted(LiveStroke stroke, int committedCount) {
+            if (stroke != null) {
+                committedStrokes++;
+            }
+        }
+
+        @Override
+        public void run() {
+            queue.drain(liveStrokes);
+            dirtyRegion.drainTo(frameDirtyRegion);
+        }
+    }
+
+    com.sun.management.ThreadMXBean threadBean;
+    StrokeCommandQueue queue;
+    PenStyle style;
+    StrokeRecorder recorder;
+    RenderSide renderSide;
+    RenderScheduler scheduler;
+    long eventTime;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        queue = new StrokeCommandQueue();
+        recorder = new StrokeRecorder(new SampleFilter(), queue);
+        PenStyleRegistry styleRegistry = new PenStyleRegistry();
+        style = styleRegistry.intern(0xff000000, 5);
+        renderSide = new RenderSide(queue, styleRegistry);
+        scheduler = new RenderScheduler(renderSide);
+        DirectClock clock = new DirectClock();
+        scheduler.attach(clock, clock);
+    }
+
+    void down(float x, float y) {
+        recorder.begin(x, y, eventTime, 1, style.getId());
+        scheduler.requestRender();
+    }
+
+    /*
+    一次MOVE事件：读取打包的采样，过滤后写入队列，请求渲染，渲染线程排空队列
+     */
+    void move(int event) {
+        for (int i = 0; i < SAMPLES_PER_EVENT; i++) {
+            eventTime += 2;
+            recorder.offer(event * 16 + i * 4, event * 8 + i * 2, eventTime, 1);
+        }
+        if (recorder.flush() > 0) {
+            scheduler.requestRender();
+        }
+    }
+
+    void up() {
+        recorder.finish();
+        queue.offerCommand(StrokeCommandQueue.OP_END, 0, 0, 0, 0, 0);
+        scheduler.requestRender();
+    }
+
+    long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void moveEvents_allocateNothingOnceWarmedUp() {
+        //预热：让采样数组扩容到足够大，并让JIT完成编译
+        for (int stroke = 0; stroke < 20; stroke++) {
+            down(0, 0);
+            for (int event = 0; event < 2000; event++) {
+                move(event);
+            }
+            up();
+        }
+
+        down(0, 0);
+        //getThreadAllocatedBytes本身第一次调用可能分配，先调用两次
+        allocatedBytes();
+        long before = allocatedBytes();
+        for (int event = 0; event < 1000; event++) {
+            move(event);
+        }
+        long allocated = allocatedBytes() - before;
+
+        //第一个采样与起点重合被过滤掉，加上起点正好是1000 * SAMPLES_PER_EVENT个
+        assertEquals(1000 * SAMPLES_PER_EVENT, recorder.getBuilder().getPointCount());
+        //渲染线程重建了同样的采样点，每个采样点都输出了曲线
+        LiveStroke stroke = renderSide.liveStrokes.activeSlot(0);
+        assertNotNull(stroke);
+        assertEquals(1000 * SAMPLES_PER_EVENT, stroke.getBuilder().getPointCount());
+        assertEquals(1000 * SAMPLES_PER_EVENT, renderSide.sink.samples);
+        //最后一帧的脏区域覆盖最后一个事件的采样点，而不是整条笔画
+        DirtyRegion frame = renderSide.frameDirtyRegion;
+        assertFalse(frame.isEmpty());
+        assertFalse(frame.isFull());
+        float lastX = 999 * 16 + (SAMPLES_PER_EVENT - 1) * 4;
+        float lastY = 999 * 8 + (SAMPLES_PER_EVENT - 1) * 2;
+        assertTrue(frame.getLeft() < lastX && lastX < frame.getRight());
+        assertTrue(frame.getTop() < lastY && lastY < frame.getBottom());
+        assertTrue(frame.getLeft() > 998 * 16);
+
+        up();
+        assertNull(renderSide.liveStrokes.activeSlot(0));
+        assertEquals(21, renderSide.committedStrokes);
+        assertEquals("bytes allocated by 1000 MOVE events", 0, allocated);
+    }
+}
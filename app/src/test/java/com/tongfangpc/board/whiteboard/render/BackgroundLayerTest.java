@@ -0,0 +1,36 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * BackgroundLayer中降采样倍数和网格间距计算的本地单元测试
+ */
+public class BackgroundLayerTest {
+
+    @Test
+    public void sampleSize_isNearestPowerOfTwo() {
+        assertEquals(1, BackgroundLayer.sampleSizeFor(8));
+        assertEquals(1, BackgroundLayer.sampleSizeFor(1));
+        assertEquals(1, BackgroundLayer.sampleSizeFor(0.75f));
+        assertEquals(2, BackgroundLayer.sampleSizeFor(0.6f));
+        assertEquals(2, BackgroundLayer.sampleSizeFor(0.5f));
+        assertEquals(4, BackgroundLayer.sampleSizeFor(0.25f));
+        assertEquals(8, BackgroundLayer.sampleSizeFor(0.1f));
+        for (float scale = 0.01f; scale < 2; scale *= 1.1f) {
+            //解码出的像素在每个方向上是目标的0.7到1.4倍
+            float density = 1 / (BackgroundLayer.sampleSizeFor(scale) * scale);
+            assertTrue(scale + ": " + density, density <= 1.4143f);
+            assertTrue(scale + ": " + density, scale >= 1 || density >= 0.7f);
+        }
+    }
+
+    @Test
+    public void gridStep_doublesUntilVisible() {
+        assertEquals(20f, BackgroundLayer.gridStep(20, 1), 0);
+        assertEquals(20f, BackgroundLayer.gridStep(20, 0.4f), 0);
+        assertEquals(40f, BackgroundLayer.gridStep(20, 0.25f), 0);
+        assertEquals(80f, BackgroundLayer.gridStep(20, 0.125f), 0);
+    }
+}
@@ -0,0 +1,67 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * DirtyRegion的本地单元测试
+ */
+public class DirtyRegionTest {
+
+    @Test
+    public void union_roundsOutAndInflates() {
+        DirtyRegion region = new DirtyRegion();
+        assertTrue(region.isEmpty());
+        region.unionPoint(10.5f, 20.5f, 5);
+        region.unionPoint(30.2f, 22f, 5);
+        assertEquals(5, region.getLeft());
+        assertEquals(15, region.getTop());
+        assertEquals(36, region.getRight());
+        assertEquals(27, region.getBottom());
+        assertEquals(31 * 12, region.area());
+    }
+
+    @Test
+    public void clampTo_limitsToSurface() {
+        DirtyRegion region = new DirtyRegion();
+        region.unionPoint(2, 2, 10);
+        region.clampTo(100, 50);
+        assertEquals(0, region.getLeft());
+        assertEquals(0, region.getTop());
+        assertEquals(12, region.getRight());
+        assertEquals(12, region.getBottom());
+    }
+
+    @Test
+    public void markFull_coversWholeSurface() {
+        DirtyRegion region = new DirtyRegion();
+        region.markFull();
+        assertFalse(region.isEmpty());
+        region.clampTo(3840, 2160);
+        assertEquals(3840L * 2160, region.area());
+    }
+
+    @Test
+    public void drainTo_movesAndClears() {
+        DirtyRegion pending = new DirtyRegion();
+        DirtyRegion frame = new DirtyRegion();
+        pending.unionPoint(100, 100, 3);
+        pending.drainTo(frame);
+        assertTrue(pending.isEmpty());
+        assertFalse(frame.isEmpty());
+        assertEquals(36, frame.area());
+    }
+
+    @Test
+    public void renderStats_tracksPixelsPerFrame() {
+        RenderStats stats = new RenderStats();
+        stats.onFrame(3840L * 2160, true);
+        stats.onFrame(100, false);
+        stats.onFrame(300, false);
+        assertEquals(3, stats.getFrameCount());
+        assertEquals(1, stats.getFullFrameCount());
+        assertEquals(300, stats.getLastFramePixels());
+        assertEquals((3840L * 2160 + 400) / 3, stats.getAveragePixelsPerFrame());
+    }
+}
@@ -0,0 +1,135 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.*;
+
+/**
+ * RenderScheduler的本地单元测试，用手动推进的时钟模拟渲染线程
+ */
+public class RenderSchedulerTest {
+
+    static class ManualClock implements RenderScheduler.FrameClock {
+        final ArrayDeque<Runnable> frames = new ArrayDeque<>();
+
+        @Override
+        public void postFrameCallback(Runnable frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void removeFrameCallback(Runnable frame) {
+            while (frames.remove(frame)) {
+            }
+        }
+
+        /*
+        执行所有已投递的帧
+         */
+        void tick() {
+            int count = frames.size();
+            for (int i = 0; i < count; i++) {
+                frames.poll().run();
+            }
+        }
+    }
+
+    int renderCount;
+    ManualClock immediateClock;
+    ManualClock frameClock;
+    RenderScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        renderCount = 0;
+        immediateClock = new ManualClock();
+        frameClock = new ManualClock();
+        scheduler = new RenderScheduler(new Runnable() {
+            @Override
+            public void run() {
+                renderCount++;
+            }
+        });
+        scheduler.attach(immediateClock, frameClock);
+    }
+
+    @Test
+    public void frameAligned_mergesRequestsWithinOneFrame() {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(scheduler.requestRender());
+        }
+        assertTrue(scheduler.isFramePending());
+        assertEquals(1, frameClock.frames.size());
+        frameClock.tick();
+        assertEquals(1, renderCount);
+        assertEquals(9, scheduler.getMergedCount());
+        assertEquals(10, scheduler.getRequestedCount());
+        assertFalse(scheduler.isFramePending());
+
+        scheduler.requestRender();
+        frameClock.tick();
+        assertEquals(2, renderCount);
+        assertEquals(2, scheduler.getRenderedCount());
+    }
+
+    @Test
+    public void requestDuringRender_goesToNextFrame() {
+        scheduler = new RenderScheduler(new Runnable() {
+            @Override
+            public void run() {
+                if (++renderCount == 1) {
+                    scheduler.requestRender();
+                }
+            }
+        });
+        scheduler.attach(immediateClock, frameClock);
+        scheduler.requestRender();
+        frameClock.tick();
+        assertEquals(1, renderCount);
+        assertEquals(1, frameClock.frames.size());
+        frameClock.tick();
+        assertEquals(2, renderCount);
+    }
+
+    @Test
+    public void immediate_rendersEveryRequest() {
+        scheduler.setMode(RenderScheduler.Mode.IMMEDIATE);
+        for (int i = 0; i < 5; i++) {
+            scheduler.requestRender();
+        }
+        assertEquals(0, frameClock.frames.size());
+        immediateClock.tick();
+        assertEquals(5, renderCount);
+        assertEquals(0, scheduler.getMergedCount());
+    }
+
+    @Test
+    public void urgent_skipsFrameClockAndMergesUntilRendered() {
+        assertTrue(scheduler.requestUrgentRender());
+        assertTrue(scheduler.requestUrgentRender());
+        scheduler.requestRender();
+        assertEquals(1, immediateClock.frames.size());
+        assertEquals(0, frameClock.frames.size());
+        assertEquals(2, scheduler.getMergedCount());
+        immediateClock.tick();
+        assertEquals(1, renderCount);
+        assertFalse(scheduler.isFramePending());
+
+        assertTrue(scheduler.requestUrgentRender());
+        immediateClock.tick();
+        assertEquals(2, renderCount);
+    }
+
+    @Test
+    public void detached_dropsRequestsAndCancelsPendingFrame() {
+        scheduler.requestRender();
+        scheduler.detach();
+        assertTrue(frameClock.frames.isEmpty());
+        assertFalse(scheduler.requestRender());
+        assertEquals(1, scheduler.getDroppedCount());
+        assertEquals(0, renderCount);
+    }
+}
@@ -0,0 +1,26 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * RenderStats的本地单元测试
+ */
+public class RenderStatsTest {
+
+    @Test
+    public void onResumed_tracksResumeTime() {
+        RenderStats stats = new RenderStats();
+        assertEquals(0, stats.getLastResumeSource());
+        stats.onResumed(80000000L, RenderStats.RESUME_REPLAY);
+        stats.onResumed(2000000L, RenderStats.RESUME_MEMORY);
+        assertEquals(2, stats.getResumeCount());
+        assertEquals(2000000L, stats.getLastResumeNanos());
+        assertEquals(80000000L, stats.getMaxResumeNanos());
+        assertEquals(RenderStats.RESUME_MEMORY, stats.getLastResumeSource());
+        stats.reset();
+        assertEquals(0, stats.getResumeCount());
+        assertEquals(0, stats.getLastResumeSource());
+    }
+}
@@ -0,0 +1,46 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Viewport的本地单元测试
+ */
+public class ViewportTest {
+
+    @Test
+    public void zoomAt_keepsFocusPointFixed() {
+        Viewport viewport = new Viewport();
+        viewport.set(100, 50, 1);
+        float worldX = viewport.toWorldX(300);
+        float worldY = viewport.toWorldY(200);
+        assertEquals(2f, viewport.zoomAt(300, 200, 2), 0);
+        assertEquals(2f, viewport.getScale(), 0);
+        assertEquals(300f, viewport.toScreenX(worldX), 1e-3f);
+        assertEquals(200f, viewport.toScreenY(worldY), 1e-3f);
+    }
+
+    @Test
+    public void zoomAt_clampsScale() {
+        Viewport viewport = new Viewport();
+        assertEquals(Viewport.MAX_SCALE, viewport.zoomAt(0, 0, 100), 0);
+        assertEquals(Viewport.MAX_SCALE, viewport.getScale(), 0);
+        assertEquals(1f, viewport.zoomAt(0, 0, 2), 0);
+        viewport.set(0, 0, 0);
+        assertEquals(1f, viewport.getScale(), 0);
+        viewport.set(0, 0, Float.NaN);
+        assertEquals(1f, viewport.getScale(), 0);
+    }
+
+    @Test
+    public void panBy_movesContentWithFinger() {
+        Viewport viewport = new Viewport();
+        viewport.set(0, 0, 2);
+        float screenX = viewport.toScreenX(40);
+        viewport.panBy(10, -6);
+        assertEquals(screenX + 10, viewport.toScreenX(40), 1e-3f);
+        assertEquals(-5f, viewport.getOriginX(), 0);
+        assertEquals(3f, viewport.getOriginY(), 0);
+    }
+}
@@ -0,0 +1,74 @@
+package com.tongfangpc.board.whiteboard.tile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * BoundsLog的本地单元测试
+ */
+public class BoundsLogTest {
+
+    @Test
+    public void unionInto_mergesRecordedBounds() {
+        BoundsLog log = new BoundsLog();
+        log.record(0, 0, 0, 10, 10);
+        log.record(1, 5, -5, 20, 8);
+        float[] rect = new float[4];
+        BoundsLog.setEmpty(rect);
+        assertTrue(BoundsLog.isEmpty(rect));
+        assertTrue(log.unionInto(0, rect));
+        assertTrue(log.unionInto(1, rect));
+        assertArrayEquals(new float[]{0, -5, 20, 10}, rect, 0);
+    }
+
+    @Test
+    public void skippedAndOutOfRangeIndices_areUnknown() {
+        BoundsLog log = new BoundsLog();
+        log.record(500, 1, 2, 3, 4);
+        assertEquals(501, log.size());
+        float[] rect = new float[4];
+        BoundsLog.setEmpty(rect);
+        assertFalse(log.unionInto(0, rect));
+        assertFalse(log.unionInto(499, rect));
+        assertFalse(log.unionInto(501, rect));
+        assertFalse(log.unionInto(-1, rect));
+        assertTrue(BoundsLog.isEmpty(rect));
+        assertTrue(log.unionInto(500, rect));
+        assertArrayEquals(new float[]{1, 2, 3, 4}, rect, 0);
+    }
+
+    @Test
+    public void record_overwritesPreviousStroke() {
+        BoundsLog log = new BoundsLog();
+        log.record(0, 0, 0, 1, 1);
+        log.record(0, 100, 100, 101, 101);
+        float[] rect = new float[4];
+        BoundsLog.setEmpty(rect);
+        log.unionInto(0, rect);
+        assertArrayEquals(new float[]{100, 100, 101, 101}, rect, 0);
+        log.clear();
+        assertFalse(log.unionInto(0, rect));
+    }
+
+    @Test
+    public void discardBefore_keepsLaterIndices() {
+        BoundsLog log = new BoundsLog();
+        for (int i = 0; i < 100; i++) {
+            log.record(i, i, 0, i + 1, 1);
+        }
+        log.discardBefore(90);
+        float[] rect = new float[4];
+        BoundsLog.setEmpty(rect);
+        assertFalse(log.unionInto(89, rect));
+        assertTrue(log.unionInto(95, rect));
+        assertArrayEquals(new float[]{95, 0, 96, 1}, rect, 0);
+        //被丢弃的索引不再记录，之后的索引照常追加
+        log.record(50, 0, 0, 1, 1);
+        assertFalse(log.unionInto(50, rect));
+        log.record(120, 7, 7, 8, 8);
+        assertEquals(121, log.size());
+        assertFalse(log.unionInto(110, rect));
+        assertTrue(log.unionInto(99, rect));
+    }
+}
@@ -0,0 +1,157 @@
+package com.tongfangpc.board.whiteboard.tile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * TileCache和TileGrid的本地单元测试，用int[]模拟方块，每个方块按100字节计算
+ */
+public class TileCacheTest {
+
+    static class IntTileCache extends TileCache<int[]> {
+        int removedCount;
+
+        IntTileCache(long maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected int sizeOf(int[] tile) {
+            return tile[0];
+        }
+
+        @Override
+        protected void onRemoved(int[] tile) {
+            removedCount++;
+        }
+    }
+
+    static long key(int tileX, int tileY) {
+        return TileGrid.key(0, tileX, tileY);
+    }
+
+    @Test
+    public void key_roundTripsLevelAndNegativeCoordinates() {
+        int[] values = {0, 1, -1, 12345, -12345, (1 << 27) - 1, -(1 << 27)};
+        for (int level = TileGrid.MIN_LEVEL; level <= TileGrid.MAX_LEVEL; level++) {
+            for (int x : values) {
+                for (int y : values) {
+                    long key = TileGrid.key(level, x, y);
+                    assertEquals(level, TileGrid.level(key));
+                    assertEquals(x, TileGrid.tileX(key));
+                    assertEquals(y, TileGrid.tileY(key));
+                }
+            }
+        }
+        assertTrue(TileGrid.key(1, 2, 3) != TileGrid.key(-1, 2, 3));
+    }
+
+    @Test
+    public void levelFor_roundsToNearestPowerOfTwo() {
+        assertEquals(0, TileGrid.levelFor(1));
+        assertEquals(0, TileGrid.levelFor(1.3f));
+        assertEquals(1, TileGrid.levelFor(1.6f));
+        assertEquals(-1, TileGrid.levelFor(0.5f));
+        assertEquals(TileGrid.MIN_LEVEL, TileGrid.levelFor(0.01f));
+        assertEquals(TileGrid.MAX_LEVEL, TileGrid.levelFor(100));
+        assertEquals(128f, TileGrid.worldTileSize(256, 1), 0);
+        assertEquals(1024f, TileGrid.worldTileSize(256, -2), 0);
+    }
+
+    @Test
+    public void tileIndex_floorsTowardNegativeInfinity() {
+        assertEquals(0, TileGrid.tileIndex(0, 256));
+        assertEquals(0, TileGrid.tileIndex(255.9f, 256));
+        assertEquals(1, TileGrid.tileIndex(256, 256));
+        assertEquals(-1, TileGrid.tileIndex(-0.5f, 256));
+        assertEquals(-2, TileGrid.tileIndex(-257, 256));
+        //右边界不含
+        assertEquals(0, TileGrid.lastTileIndex(256, 256));
+        assertEquals(1, TileGrid.lastTileIndex(256.5f, 256));
+        assertEquals(-1, TileGrid.lastTileIndex(0, 256));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedWithinBudget() {
+        IntTileCache cache = new IntTileCache(300);
+        cache.put(key(0, 0), new int[]{100});
+        cache.put(key(1, 0), new int[]{100});
+        cache.put(key(2, 0), new int[]{100});
+        cache.get(key(0, 0));
+        cache.put(key(3, 0), new int[]{100});
+        assertEquals(300, cache.getCurrentBytes());
+        assertTrue(cache.contains(key(0, 0)));
+        assertFalse(cache.contains(key(1, 0)));
+        assertEquals(1, cache.removedCount);
+    }
+
+    @Test
+    public void put_keepsNewTileEvenWhenOverBudget() {
+        IntTileCache cache = new IntTileCache(50);
+        cache.put(key(0, 0), new int[]{100});
+        assertTrue(cache.contains(key(0, 0)));
+        cache.put(key(0, 1), new int[]{100});
+        assertFalse(cache.contains(key(0, 0)));
+        assertTrue(cache.contains(key(0, 1)));
+        assertEquals(100, cache.getCurrentBytes());
+    }
+
+    @Test
+    public void resize_tracksGrownTiles() {
+        IntTileCache cache = new IntTileCache(250);
+        int[] a = {10};
+        cache.put(key(0, 0), a);
+        cache.put(key(1, 0), new int[]{100});
+        cache.put(key(2, 0), new int[]{100});
+        assertEquals(210, cache.getCurrentBytes());
+        //空方块分配了内容之后变大，超出预算时淘汰最久没有使用的
+        a[0] = 100;
+        cache.resize(key(0, 0), 10);
+        assertEquals(200, cache.getCurrentBytes());
+        assertTrue(cache.contains(key(0, 0)));
+        assertFalse(cache.contains(key(1, 0)));
+    }
+
+    @Test
+    public void invalidate_removesTilesInRange() {
+        IntTileCache cache = new IntTileCache(Long.MAX_VALUE);
+        for (int y = -3; y < 3; y++) {
+            for (int x = -3; x < 3; x++) {
+                cache.put(key(x, y), new int[]{1});
+            }
+        }
+        //范围小于缓存，逐个删除
+        cache.invalidate(0, -1, -1, 0, 0);
+        assertEquals(32, cache.size());
+        assertFalse(cache.contains(key(-1, 0)));
+        assertTrue(cache.contains(key(1, 0)));
+        //范围大于缓存，遍历缓存
+        cache.invalidate(0, -1000, 1, 1000, 1000);
+        assertEquals(20, cache.size());
+        assertFalse(cache.contains(key(2, 2)));
+        assertTrue(cache.contains(key(2, 0)));
+        assertEquals(20, cache.getCurrentBytes());
+        assertEquals(16, cache.removedCount);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getCurrentBytes());
+        assertEquals(36, cache.removedCount);
+    }
+
+    @Test
+    public void invalidate_keepsOtherLevels() {
+        IntTileCache cache = new IntTileCache(Long.MAX_VALUE);
+        for (int level = -1; level <= 1; level++) {
+            cache.put(TileGrid.key(level, 0, 0), new int[]{1});
+            cache.put(TileGrid.key(level, 5, 5), new int[]{1});
+        }
+        cache.invalidate(1, 0, 0, 0, 0);
+        cache.invalidate(-1, -1000, -1000, 1000, 1000);
+        assertEquals(3, cache.size());
+        assertTrue(cache.contains(TileGrid.key(0, 0, 0)));
+        assertTrue(cache.contains(TileGrid.key(0, 5, 5)));
+        assertTrue(cache.contains(TileGrid.key(1, 5, 5)));
+    }
+}
@@ -0,0 +1,46 @@
+package com.tongfangpc.board.whiteboard.tile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * TileChangeLog的本地单元测试
+ */
+public class TileChangeLogTest {
+
+    @Test
+    public void changedSince_onlyReportsIntersectingChanges() {
+        TileChangeLog log = new TileChangeLog(4);
+        long since = log.getVersion();
+        assertFalse(log.changedSince(since, 0, 0, 256, 256));
+        log.record(300, 300, 400, 400);
+        assertFalse(log.changedSince(since, 0, 0, 256, 256));
+        assertTrue(log.changedSince(since, 256, 256, 512, 512));
+        long afterFirst = log.record(-10, -10, 10, 10);
+        assertTrue(log.changedSince(since, 0, 0, 256, 256));
+        assertFalse(log.changedSince(afterFirst, 0, 0, 256, 256));
+        //右、下边界不含
+        assertFalse(log.changedSince(since, 10, 10, 20, 20));
+    }
+
+    @Test
+    public void changedSince_treatsOverwrittenVersionsAsChanged() {
+        TileChangeLog log = new TileChangeLog(4);
+        long since = log.getVersion();
+        for (int i = 0; i < 4; i++) {
+            log.record(1000, 1000, 1001, 1001);
+        }
+        assertFalse(log.changedSince(since, 0, 0, 256, 256));
+        log.record(1000, 1000, 1001, 1001);
+        assertTrue(log.changedSince(since, 0, 0, 256, 256));
+    }
+
+    @Test
+    public void recordAll_intersectsEverything() {
+        TileChangeLog log = new TileChangeLog();
+        long since = log.getVersion();
+        log.recordAll();
+        assertTrue(log.changedSince(since, -1e9f, 5e8f, -1e9f + 256, 5e8f + 256));
+    }
+}
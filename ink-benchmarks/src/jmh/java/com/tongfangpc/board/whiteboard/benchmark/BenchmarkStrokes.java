@@ -0,0 +1,33 @@
+package com.tongfangpc.board.whiteboard.benchmark;
+
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+import com.tongfangpc.board.whiteboard.stroke.StrokeBuilder;
+
+import java.util.Random;
+
+/*
+基准测试共用的合成笔迹：随机分布在画布上的随机游走，每8毫秒一个采样点
+ */
+final class BenchmarkStrokes {
+
+    private BenchmarkStrokes() {
+    }
+
+    static Stroke[] random(int count, int pointsPerStroke, float canvasSize, long seed) {
+        Random random = new Random(seed);
+        StrokeBuilder builder = new StrokeBuilder();
+        Stroke[] strokes = new Stroke[count];
+        for (int i = 0; i < count; i++) {
+            float x = random.nextFloat() * canvasSize;
+            float y = random.nextFloat() * canvasSize;
+            builder.begin(x, y, 0, 1);
+            for (int p = 1; p < pointsPerStroke; p++) {
+                x += random.nextFloat() * 10 - 5;
+                y += random.nextFloat() * 10 - 5;
+                builder.add(x, y, p * 8, 0.5f + random.nextFloat() * 0.5f);
+            }
+            strokes[i] = builder.build();
+        }
+        return strokes;
+    }
+}
@@ -0,0 +1,159 @@
+package com.tongfangpc.board.whiteboard.benchmark;
+
+import com.tongfangpc.board.whiteboard.cache.KeyframeCache;
+import com.tongfangpc.board.whiteboard.history.ActionHistory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.LinkedList;
+
+/*
+undo/redo的游标操作和重建：按索引从头访问一遍(undo/redo/surfaceCreated时的重绘)、历史记录的游标移动、
+undo之后提交新行为时截断redo尾部，以及KeyframeCache从最近的关键帧重放到目标索引；重放时只记录访问的行为，不做绘制
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class HistoryBenchmark {
+
+    /*
+    一次undo/redo跨越的步数
+     */
+    static final int STEPS = 10;
+
+    @Param({"10000", "100000"})
+    int actionCount;
+
+    ActionHistory<Object> history;
+
+    /*
+    原来的实现，作为按索引访问的对比
+     */
+    LinkedList<Object> linkedList;
+
+    KeyframeCache<int[]> keyframes;
+
+    /*
+    模拟的缓冲区：记录最后一个重放的行为
+     */
+    final int[] buffer = new int[1];
+
+    final KeyframeCache.Replayer<int[]> replayer = new KeyframeCache.Replayer<int[]>() {
+        @Override
+        public void clear() {
+            buffer[0] = -1;
+        }
+
+        @Override
+        public void restore(int[] frame) {
+            buffer[0] = frame[0];
+        }
+
+        @Override
+        public void replay(int index) {
+            if (history.get(index) != null) {
+                buffer[0] = index;
+            }
+        }
+
+        @Override
+        public int[] capture() {
+            return buffer.clone();
+        }
+
+        @Override
+        public long frameBytes() {
+            return buffer.length * 4;
+        }
+    };
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        history = new ActionHistory<>(actionCount);
+        for (int i = 0; i < actionCount; i++) {
+            history.commit(new Object());
+        }
+        linkedList = new LinkedList<>();
+        for (int i = 0; i < actionCount; i++) {
+            linkedList.add(history.get(i));
+        }
+        keyframes = new KeyframeCache<int[]>(20, Long.MAX_VALUE) {
+            @Override
+            protected int sizeOf(int[] frame) {
+                return frame.length * 4;
+            }
+        };
+        keyframes.rebuild(actionCount, replayer);
+    }
+
+    @Benchmark
+    public int replay() {
+        int visited = 0;
+        for (int i = 0; i < history.size(); i++) {
+            if (history.get(i) != null) {
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    /*
+    不使用ActionHistory的基准：LinkedList.get(i)每次都要从链表一端开始查找
+     */
+    @Benchmark
+    public int linkedListReplay() {
+        int visited = 0;
+        for (int i = 0; i < linkedList.size(); i++) {
+            if (linkedList.get(i) != null) {
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    @Benchmark
+    public int undoRedo() {
+        for (int i = 0; i < STEPS; i++) {
+            history.undo();
+        }
+        for (int i = 0; i < STEPS; i++) {
+            history.redo();
+        }
+        return history.getNextDoIndex();
+    }
+
+    /*
+    undo若干步之后提交新行为，redo尾部被截断，之后补回原来的数量
+     */
+    @Benchmark
+    public int undoThenCommit() {
+        for (int i = 0; i < STEPS; i++) {
+            history.undo();
+        }
+        for (int i = 0; i < STEPS; i++) {
+            history.commit(new Object());
+        }
+        return history.size();
+    }
+
+    /*
+    undo若干步之后按关键帧重建到新的游标位置
+     */
+    @Benchmark
+    public int undoAndRebuild() {
+        for (int i = 0; i < STEPS; i++) {
+            history.undo();
+        }
+        int replayed = keyframes.rebuild(history.getNextDoIndex(), replayer);
+        for (int i = 0; i < STEPS; i++) {
+            history.redo();
+        }
+        return replayed + keyframes.rebuild(history.getNextDoIndex(), replayer);
+    }
+}
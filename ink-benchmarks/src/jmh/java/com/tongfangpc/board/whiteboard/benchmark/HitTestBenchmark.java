@@ -0,0 +1,91 @@
+package com.tongfangpc.board.whiteboard.benchmark;
+
+import com.tongfangpc.board.whiteboard.index.IntArray;
+import com.tongfangpc.board.whiteboard.index.SpatialIndex;
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/*
+橡皮擦命中测试：与WhiteboardView一致，先用空间索引按范围筛选候选，再对候选做精确的折线距离测试；
+每次调用测试下一个探测点，笔画随机分布在8000x8000的画布上
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class HitTestBenchmark {
+
+    static final float RADIUS = 16;
+
+    static final int PROBE_COUNT = 4096;
+
+    @Param({"10000", "50000"})
+    int strokeCount;
+
+    Stroke[] strokes;
+
+    SpatialIndex index;
+
+    float[] probes;
+
+    int nextProbe;
+
+    final IntArray candidates = new IntArray();
+
+    @Setup
+    public void setUp() {
+        strokes = BenchmarkStrokes.random(strokeCount, 20, 8000, 42);
+        index = new SpatialIndex();
+        for (int i = 0; i < strokeCount; i++) {
+            Stroke stroke = strokes[i];
+            index.add(i, stroke.getLeft(), stroke.getTop(), stroke.getRight(), stroke.getBottom());
+        }
+        Random random = new Random(7);
+        probes = new float[PROBE_COUNT * 2];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = random.nextFloat() * 8000;
+        }
+    }
+
+    @Benchmark
+    public int indexedHitTest() {
+        int probe = nextProbe;
+        nextProbe = (probe + 2) % probes.length;
+        float x = probes[probe];
+        float y = probes[probe + 1];
+        candidates.clear();
+        index.query(x - RADIUS, y - RADIUS, x + RADIUS, y + RADIUS, candidates);
+        int hits = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (strokes[candidates.get(i)].intersectsCircle(x, y, RADIUS)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    /*
+    不使用空间索引的基准：逐笔检测
+     */
+    @Benchmark
+    public int linearHitTest() {
+        int probe = nextProbe;
+        nextProbe = (probe + 2) % probes.length;
+        float x = probes[probe];
+        float y = probes[probe + 1];
+        int hits = 0;
+        for (int i = 0; i < strokes.length; i++) {
+            if (strokes[i].intersectsCircle(x, y, RADIUS)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,148 @@
+package com.tongfangpc.board.whiteboard.benchmark;
+
+import com.tongfangpc.board.whiteboard.index.IntArray;
+import com.tongfangpc.board.whiteboard.render.ParallelRasterizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+并行重建：1920x1080的画布上重建5000条带半径的线段，比较不同线程数的耗时。
+用int数组上的软件栅格化代替Canvas，只衡量条带划分、分配和合成的并行效果；
+线程数超过处理器数量之后不再有收益
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelRasterizerBenchmark {
+
+    static final int WIDTH = 1920;
+
+    static final int HEIGHT = 1080;
+
+    static final int SHAPE_COUNT = 5_000;
+
+    static final float MAX_LENGTH = 200;
+
+    static final float MAX_RADIUS = 4;
+
+    @Param({"1", "2", "4", "8"})
+    int threadCount;
+
+    float[] x0;
+    float[] y0;
+    float[] x1;
+    float[] y1;
+    float[] radius;
+
+    ParallelRasterizer<int[]> rasterizer;
+
+    final int[] target = new int[WIDTH * HEIGHT];
+
+    /*
+    条带是WIDTH * rows的int数组，合成时拷贝到target
+     */
+    final ParallelRasterizer.Painter<int[]> painter = new ParallelRasterizer.Painter<int[]>() {
+        @Override
+        public int[] createBand(int width, int height) {
+            return new int[width * height];
+        }
+
+        @Override
+        public void paint(int[] band, int top, IntArray items) {
+            Arrays.fill(band, 0);
+            for (int i = 0; i < items.size(); i++) {
+                draw(items.get(i), band, top, band.length / WIDTH);
+            }
+        }
+
+        @Override
+        public void compose(int[] band, int top) {
+            System.arraycopy(band, 0, target, top * WIDTH, band.length);
+        }
+
+        @Override
+        public void recycle(int[] band) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        x0 = new float[SHAPE_COUNT];
+        y0 = new float[SHAPE_COUNT];
+        x1 = new float[SHAPE_COUNT];
+        y1 = new float[SHAPE_COUNT];
+        radius = new float[SHAPE_COUNT];
+        for (int i = 0; i < SHAPE_COUNT; i++) {
+            x0[i] = random.nextFloat() * WIDTH;
+            y0[i] = random.nextFloat() * HEIGHT;
+            x1[i] = x0[i] + (random.nextFloat() * 2 - 1) * MAX_LENGTH;
+            y1[i] = y0[i] + (random.nextFloat() * 2 - 1) * MAX_LENGTH;
+            radius[i] = 1 + random.nextFloat() * MAX_RADIUS;
+        }
+        rasterizer = new ParallelRasterizer<>(threadCount);
+    }
+
+    @TearDown
+    public void tearDown() {
+        rasterizer.release(painter);
+        rasterizer.shutdown();
+    }
+
+    @Benchmark
+    public int rebuild() {
+        rasterizer.begin(WIDTH, HEIGHT);
+        for (int i = 0; i < SHAPE_COUNT; i++) {
+            rasterizer.add(i, top(i), bottom(i));
+        }
+        rasterizer.rasterize(painter);
+        return target[target.length / 2];
+    }
+
+    float top(int i) {
+        return Math.min(y0[i], y1[i]) - radius[i];
+    }
+
+    float bottom(int i) {
+        return Math.max(y0[i], y1[i]) + radius[i];
+    }
+
+    /*
+    把第i条线段画到rows行、顶端位于top的条带上，只画条带范围内的部分
+     */
+    void draw(int i, int[] pixels, int top, int rows) {
+        float r = radius[i];
+        int left = Math.max(0, (int) Math.floor(Math.min(x0[i], x1[i]) - r));
+        int right = Math.min(WIDTH - 1, (int) Math.ceil(Math.max(x0[i], x1[i]) + r));
+        int first = Math.max(top, (int) Math.floor(top(i)));
+        int last = Math.min(top + rows - 1, (int) Math.ceil(bottom(i)));
+        float dx = x1[i] - x0[i];
+        float dy = y1[i] - y0[i];
+        float lengthSquared = dx * dx + dy * dy;
+        int color = i + 1;
+        for (int y = first; y <= last; y++) {
+            for (int x = left; x <= right; x++) {
+                float px = x + 0.5f - x0[i];
+                float py = y + 0.5f - y0[i];
+                float t = lengthSquared > 0 ? Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared)) : 0;
+                float ex = px - t * dx;
+                float ey = py - t * dy;
+                if (ex * ex + ey * ey <= r * r) {
+                    pixels[(y - top) * WIDTH + x] = color;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.tongfangpc.board.whiteboard.benchmark;
+
+import com.tongfangpc.board.whiteboard.session.SessionReader;
+import com.tongfangpc.board.whiteboard.session.SessionWriter;
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/*
+会话文件的编码和解码：编码写出全部笔画；打开只读取索引表；解码额外读出每一笔的采样点。
+除openFile通过内存映射打开临时文件之外，都在内存中进行，不包含磁盘IO
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionCodecBenchmark {
+
+    @Param({"2000", "20000"})
+    int strokeCount;
+
+    Stroke[] strokes;
+
+    byte[] encoded;
+
+    File file;
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @Setup
+    public void setUp() throws IOException {
+        strokes = BenchmarkStrokes.random(strokeCount, 40, 4000, 42);
+        encoded = encode();
+        file = File.createTempFile("session-benchmark", ".wb");
+        FileOutputStream fileOut = new FileOutputStream(file);
+        try {
+            fileOut.write(encoded);
+        } finally {
+            fileOut.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        for (int i = 0; i < strokes.length; i++) {
+            Stroke stroke = strokes[i];
+            writer.writeStroke(stroke, 0xff000000 | (i & 7), 4,
+                    stroke.getLeft() - 2, stroke.getTop() - 2, stroke.getRight() + 2, stroke.getBottom() + 2);
+        }
+        out.reset();
+        writer.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public float open() throws IOException {
+        SessionReader reader = new SessionReader(ByteBuffer.wrap(encoded));
+        float sum = 0;
+        for (int i = 0; i < reader.getActionCount(); i++) {
+            sum += reader.getLeft(i) + reader.getBottom(i);
+        }
+        return sum;
+    }
+
+    /*
+    与打开保存的会话一致：映射文件，读取样式表和索引表
+     */
+    @Benchmark
+    public float openFile() throws IOException {
+        SessionReader reader = SessionReader.open(file);
+        float sum = 0;
+        for (int i = 0; i < reader.getStyleCount(); i++) {
+            sum += reader.getStyleWidth(i);
+        }
+        for (int i = 0; i < reader.getActionCount(); i++) {
+            sum += reader.getType(i) + reader.getStyle(i) + reader.getLeft(i) + reader.getBottom(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float decode() throws IOException {
+        SessionReader reader = new SessionReader(ByteBuffer.wrap(encoded));
+        float sum = 0;
+        for (int i = 0; i < reader.getActionCount(); i++) {
+            sum += reader.readStroke(i).getRight();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,88 @@
+package com.tongfangpc.board.whiteboard.benchmark;
+
+import com.tongfangpc.board.whiteboard.input.SampleFilter;
+import com.tongfangpc.board.whiteboard.input.StrokeCommandQueue;
+import com.tongfangpc.board.whiteboard.input.StrokeRecorder;
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+import com.tongfangpc.board.whiteboard.stroke.StrokeSimplifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+书写一笔的完整输入路径：与WhiteboardView一致，每个MOVE事件打包4个采样，
+经过SampleFilter过滤、追加到StrokeBuilder、写入命令队列，抬笔时生成Stroke并简化；
+渲染线程一侧只消费命令，不做绘制
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class StrokeIngestionBenchmark {
+
+    static final int SAMPLES_PER_EVENT = 4;
+
+    @Param({"64", "512"})
+    int pointCount;
+
+    float[] xs;
+    float[] ys;
+
+    StrokeCommandQueue queue;
+
+    StrokeRecorder recorder;
+
+    StrokeSimplifier simplifier;
+
+    final StrokeCommandQueue.Consumer consumer = new StrokeCommandQueue.Consumer() {
+        @Override
+        public void onCommand(int op, int arg, float x, float y, long time, float pressure) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        Stroke trace = BenchmarkStrokes.random(1, pointCount, 2000, 42)[0];
+        xs = new float[pointCount];
+        ys = new float[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            //放大随机游走的步长，让大部分采样点通过距离过滤
+            xs[i] = trace.getX(i) * 2;
+            ys[i] = trace.getY(i) * 2;
+        }
+        queue = new StrokeCommandQueue();
+        recorder = new StrokeRecorder(new SampleFilter(), queue);
+        simplifier = new StrokeSimplifier();
+    }
+
+    @Benchmark
+    public Stroke recordAndSimplify() {
+        recorder.begin(xs[0], ys[0], 0, 1, 0);
+        for (int i = 1; i < pointCount; i++) {
+            recorder.offer(xs[i], ys[i], i * 8, 1);
+            if (i % SAMPLES_PER_EVENT == 0) {
+                recorder.flush();
+                queue.drain(consumer);
+            }
+        }
+        recorder.offerFinal(xs[pointCount - 1], ys[pointCount - 1], pointCount * 8, 1);
+        recorder.flush();
+        Stroke stroke = simplifier.simplify(recorder.finish(), 1);
+        recorder.end(1);
+        queue.drain(consumer);
+        return stroke;
+    }
+
+    @Benchmark
+    public void filterOnly(Blackhole blackhole) {
+        SampleFilter filter = recorder.getFilter();
+        filter.begin(xs[0], ys[0], 0);
+        for (int i = 1; i < pointCount; i++) {
+            blackhole.consume(filter.accept(xs[i], ys[i], i * 8));
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.tongfangpc.board.whiteboard.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+关键帧缓存：每隔interval个行为，保存一份缓冲区的栅格快照(关键帧)，
+关键帧的键是"该快照包含的行为数量"，即快照等价于从0重绘到该索引(不含)的结果。
+undo/redo时先恢复不超过目标索引的最近一个关键帧，再只重绘其后的少量行为，
+这样单次undo的代价只与interval相关，而与历史记录的总长度无关。
+缓存有内存预算，超出预算时按最近最少使用(LRU)的顺序淘汰关键帧。
+历史记录被压缩之后，[0, baseIndex)已经合成在底层栅格中，Replayer.clear负责画出它，
+重建从baseIndex开始，baseIndex之前的关键帧不再使用。
+该类不依赖具体的帧类型，Bitmap相关的实现见BitmapKeyframeCache。
+ */
+public abstract class KeyframeCache<F> {
+
+    /*
+    重建缓冲区时，由调用方提供的画布操作
+     */
+    public interface Replayer<F> {
+        /*
+        将缓冲区清空为初始状态：背景，以及被压缩的[0, baseIndex)合成的底层栅格
+         */
+        void clear();
+
+        /*
+        将关键帧恢复到缓冲区
+         */
+        void restore(F frame);
+
+        /*
+        在缓冲区上重绘历史记录中index位置的行为
+         */
+        void replay(int index);
+
+        /*
+        对当前缓冲区拍一份快照，返回null表示无法拍摄
+         */
+        F capture();
+
+        /*
+        拍摄一份快照将占用的字节数，拍摄之前据此判断是否超出预算
+         */
+        long frameBytes();
+    }
+
+    /*
+    相邻关键帧之间的行为数量
+     */
+    final int interval;
+
+    /*
+    所有关键帧占用内存的上限(字节)
+     */
+    final long maxBytes;
+
+    long currentBytes;
+
+    /*
+    历史记录被压缩掉的行为数量，重建不会早于它
+     */
+    int baseIndex;
+
+    /*
+    按索引排序，用于查找不超过目标索引的最近关键帧
+     */
+    protected final TreeMap<Integer, F> framesByIndex = new TreeMap<>();
+
+    /*
+    按访问顺序排列，用于LRU淘汰
+     */
+    final LinkedHashMap<Integer, F> framesByUsage = new LinkedHashMap<>(16, 0.75f, true);
+
+    public KeyframeCache(int interval, long maxBytes) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        }
+        this.interval = interval;
+        this.maxBytes = maxBytes;
+    }
+
+    /*
+    返回帧占用的字节数
+     */
+    protected abstract int sizeOf(F frame);
+
+    /*
+    帧被淘汰或者失效时回调，子类在此释放资源
+     */
+    protected void onRemoved(F frame) {
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public int size() {
+        return framesByIndex.size();
+    }
+
+    public int getBaseIndex() {
+        return baseIndex;
+    }
+
+    /*
+    历史记录被压缩到baseIndex之后调用，丢弃baseIndex之前的关键帧；
+    历史记录被整体替换时可以把baseIndex设回更小的值
+     */
+    public void setBaseIndex(int baseIndex) {
+        if (baseIndex < 0) {
+            throw new IllegalArgumentException("baseIndex must not be negative: " + baseIndex);
+        }
+        this.baseIndex = baseIndex;
+        while (!framesByIndex.isEmpty() && framesByIndex.firstKey() < baseIndex) {
+            remove(framesByIndex.firstKey());
+        }
+    }
+
+    public boolean contains(int index) {
+        return framesByIndex.containsKey(index);
+    }
+
+    /*
+    判断index是否落在关键帧的间隔点上
+     */
+    public boolean isKeyframeIndex(int index) {
+        return index > baseIndex && index % interval == 0;
+    }
+
+    /*
+    保存index位置的关键帧，如果该帧本身就超出预算，则直接丢弃
+     */
+    public void put(int index, F frame) {
+        if (frame == null) {
+            return;
+        }
+        int frameSize = sizeOf(frame);
+        if (frameSize > maxBytes) {
+            onRemoved(frame);
+            return;
+        }
+        remove(index);
+        framesByIndex.put(index, frame);
+        framesByUsage.put(index, frame);
+        currentBytes += frameSize;
+        trimToBudget(index);
+    }
+
+    /*
+    返回不超过target的最近关键帧的索引，没有可用关键帧时返回baseIndex
+     */
+    public int floorIndex(int target) {
+        Integer index = framesByIndex.floorKey(target);
+        return index == null ? baseIndex : Math.max(index, baseIndex);
+    }
+
+    public F get(int index) {
+        //通过framesByUsage读取，以便更新LRU顺序
+        return framesByUsage.get(index);
+    }
+
+    public void remove(int index) {
+        F frame = framesByIndex.remove(index);
+        if (frame != null) {
+            framesByUsage.remove(index);
+            currentBytes -= sizeOf(frame);
+            onRemoved(frame);
+        }
+    }
+
+    /*
+    让索引大于index的关键帧全部失效；
+    当index之后的历史记录被删除或者替换时调用
+     */
+    public void invalidateAfter(int index) {
+        while (!framesByIndex.isEmpty() && framesByIndex.lastKey() > index) {
+            remove(framesByIndex.lastKey());
+        }
+    }
+
+    public void clear() {
+        invalidateAfter(-1);
+    }
+
+    /*
+    新的行为被提交到历史记录后调用，actionCount为提交后有效行为的数量；
+    之后的旧关键帧不再有效，如果actionCount刚好落在间隔点上则拍摄关键帧
+     */
+    public void onCommitted(int actionCount, Replayer<F> replayer) {
+        invalidateAfter(actionCount - 1);
+        if (isKeyframeIndex(actionCount)) {
+            capture(actionCount, replayer);
+        }
+    }
+
+    /*
+    拍摄index位置的关键帧并保存；帧本身就超出预算时不拍摄，避免分配一份马上被丢弃的快照
+     */
+    public void capture(int index, Replayer<F> replayer) {
+        if (replayer.frameBytes() > maxBytes) {
+            return;
+        }
+        put(index, replayer.capture());
+    }
+
+    /*
+    将缓冲区重建为"从0重绘到target(不含)"的状态，
+    先恢复最近的关键帧，再重绘其后的行为，途经的间隔点如果缺少关键帧则顺便补拍；
+    没有关键帧时从底层栅格和baseIndex开始，target不会早于baseIndex；
+    返回实际重绘的行为数量
+     */
+    public int rebuild(int target, Replayer<F> replayer) {
+        target = Math.max(target, baseIndex);
+        int start = floorIndex(target);
+        F frame = start > baseIndex ? get(start) : null;
+        if (frame != null) {
+            replayer.restore(frame);
+        }
+        else {
+            start = baseIndex;
+            replayer.clear();
+        }
+        for (int i = start; i < target; i++) {
+            replayer.replay(i);
+            if (isKeyframeIndex(i + 1) && !contains(i + 1)) {
+                capture(i + 1, replayer);
+            }
+        }
+        return target - start;
+    }
+
+    /*
+    按LRU顺序淘汰关键帧，直到总内存不超过预算，刚放入的帧不参与淘汰
+     */
+    void trimToBudget(int keepIndex) {
+        Iterator<Map.Entry<Integer, F>> iterator = framesByUsage.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Integer, F> eldest = iterator.next();
+            if (eldest.getKey() == keepIndex) {
+                continue;
+            }
+            iterator.remove();
+            framesByIndex.remove(eldest.getKey());
+            currentBytes -= sizeOf(eldest.getValue());
+            onRemoved(eldest.getValue());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.tongfangpc.board.whiteboard.config;
+
+/*
+不可变的画笔样式：由PenStyleRegistry统一创建并去重，相同颜色和笔宽的笔画共享同一个实例，
+笔画只保存样式的引用(或id)，不再各自拷贝一份画笔配置
+ */
+public final class PenStyle {
+
+    final int id;
+
+    final int color;
+
+    final float width;
+
+    /*
+    可变笔宽的墨水笔：笔宽随压力和速度变化，绘制的是填充的轮廓，width是压力为1、静止时的笔宽
+     */
+    final boolean variableWidth;
+
+    PenStyle(int id, int color, float width, boolean variableWidth) {
+        this.id = id;
+        this.color = color;
+        this.width = width;
+        this.variableWidth = variableWidth;
+    }
+
+    /*
+    样式在注册表中的索引，从0开始连续分配
+     */
+    public int getId() {
+        return id;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public boolean isVariableWidth() {
+        return variableWidth;
+    }
+
+    @Override
+    public String toString() {
+        return "PenStyle{id=" + id + ", color=#" + Integer.toHexString(color) + ", width=" + width + ", variableWidth=" + variableWidth + "}";
+    }
+}
@@ -0,0 +1,58 @@
+package com.tongfangpc.board.whiteboard.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+画笔样式的注册表(享元)：intern按颜色、笔宽和是否可变笔宽去重，返回唯一的PenStyle，id连续分配。
+intern只在用户修改画笔之后调用，加锁即可；get在渲染线程上按id查找，
+读取的是写时复制的数组，不需要加锁
+ */
+public class PenStyleRegistry {
+
+    final Map<Long, PenStyle> stylesByKey = new HashMap<>();
+
+    volatile PenStyle[] styles = new PenStyle[0];
+
+    /*
+    返回与color、width相同的固定笔宽样式，不存在时创建一个新的
+     */
+    public PenStyle intern(int color, float width) {
+        return intern(color, width, false);
+    }
+
+    public synchronized PenStyle intern(int color, float width, boolean variableWidth) {
+        if (!(width >= 0) || Float.isInfinite(width)) {
+            throw new IllegalArgumentException("width=" + width);
+        }
+        //+0.0f和-0.0f视为同一个笔宽；笔宽非负，符号位用来区分可变笔宽
+        int widthBits = Float.floatToIntBits(width + 0.0f) | (variableWidth ? 0x80000000 : 0);
+        Long key = ((long) color << 32) | (widthBits & 0xffffffffL);
+        PenStyle style = stylesByKey.get(key);
+        if (style == null) {
+            PenStyle[] current = styles;
+            PenStyle[] next = new PenStyle[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            style = new PenStyle(current.length, color, width, variableWidth);
+            next[style.id] = style;
+            stylesByKey.put(key, style);
+            styles = next;
+        }
+        return style;
+    }
+
+    /*
+    按id查找样式，id无效时抛出IndexOutOfBoundsException
+     */
+    public PenStyle get(int id) {
+        PenStyle[] current = styles;
+        if (id < 0 || id >= current.length) {
+            throw new IndexOutOfBoundsException("id=" + id + ", size=" + current.length);
+        }
+        return current[id];
+    }
+
+    public int size() {
+        return styles.length;
+    }
+}
@@ -0,0 +1,215 @@
+package com.tongfangpc.board.whiteboard.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+逐行写出的PNG编码器：调用方按从上到下的顺序提交每一行的ARGB像素，压缩之后立即写入输出流，
+内存中只保留当前行和上一行，与图片的高度无关，用于导出超过内存容量的大图。
+每一行在None、Sub、Up三种过滤方式中选择差值绝对值之和最小的一种(PNG规范推荐的启发式)；
+不透明的图片按RGB写出，否则按RGBA写出，颜色值不做预乘
+ */
+public class PngStreamWriter {
+
+    static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    static final byte[] IEND = {'I', 'E', 'N', 'D'};
+
+    /*
+    一个IDAT块的最大数据长度
+     */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    static final int FILTER_NONE = 0;
+    static final int FILTER_SUB = 1;
+    static final int FILTER_UP = 2;
+
+    static final int COLOR_RGB = 2;
+    static final int COLOR_RGBA = 6;
+
+    final OutputStream out;
+
+    final int width;
+
+    final int height;
+
+    final int bytesPerPixel;
+
+    final Deflater deflater;
+
+    final CRC32 crc = new CRC32();
+
+    /*
+    当前行和上一行的原始字节，以及三种过滤方式的结果(第一个字节是过滤方式)
+     */
+    byte[] current;
+    byte[] previous;
+    final byte[][] filtered = new byte[3][];
+
+    final byte[] chunk = new byte[CHUNK_SIZE];
+    int chunkLength;
+
+    final byte[] header = new byte[8];
+
+    int rowsWritten;
+
+    public PngStreamWriter(OutputStream out, int width, int height, boolean alpha) throws IOException {
+        this(out, width, height, alpha, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public PngStreamWriter(OutputStream out, int width, int height, boolean alpha, int compressionLevel) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        bytesPerPixel = alpha ? 4 : 3;
+        int rowBytes = width * bytesPerPixel;
+        current = new byte[rowBytes];
+        previous = new byte[rowBytes];
+        for (int i = 0; i < filtered.length; i++) {
+            filtered[i] = new byte[rowBytes + 1];
+            filtered[i][0] = (byte) i;
+        }
+        deflater = new Deflater(compressionLevel);
+        out.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        //8位深度，不隔行
+        ihdr[8] = 8;
+        ihdr[9] = (byte) (alpha ? COLOR_RGBA : COLOR_RGB);
+        writeChunk(IHDR, ihdr, ihdr.length);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /*
+    写出下一行，argb从offset开始的width个像素是这一行，格式与Bitmap.getPixels相同
+     */
+    public void writeRow(int[] argb, int offset) throws IOException {
+        if (rowsWritten >= height) {
+            throw new IllegalStateException("all " + height + " rows have been written");
+        }
+        byte[] row = current;
+        for (int x = 0, i = 0; x < width; x++) {
+            int color = argb[offset + x];
+            row[i++] = (byte) (color >> 16);
+            row[i++] = (byte) (color >> 8);
+            row[i++] = (byte) color;
+            if (bytesPerPixel == 4) {
+                row[i++] = (byte) (color >>> 24);
+            }
+        }
+        byte[] best = filter(row, previous);
+        deflate(best, 0, best.length);
+        current = previous;
+        previous = row;
+        rowsWritten++;
+    }
+
+    /*
+    对一行做三种过滤，返回差值绝对值之和最小的一种
+     */
+    byte[] filter(byte[] row, byte[] above) {
+        byte[] none = filtered[FILTER_NONE];
+        byte[] sub = filtered[FILTER_SUB];
+        byte[] up = filtered[FILTER_UP];
+        long noneSum = 0;
+        long subSum = 0;
+        long upSum = 0;
+        for (int i = 0; i < row.length; i++) {
+            byte value = row[i];
+            byte left = i >= bytesPerPixel ? row[i - bytesPerPixel] : 0;
+            byte n = value;
+            byte s = (byte) (value - left);
+            byte u = (byte) (value - above[i]);
+            none[i + 1] = n;
+            sub[i + 1] = s;
+            up[i + 1] = u;
+            noneSum += Math.abs(n);
+            subSum += Math.abs(s);
+            upSum += Math.abs(u);
+        }
+        if (subSum <= noneSum && subSum <= upSum) {
+            return sub;
+        }
+        return upSum < noneSum ? up : none;
+    }
+
+    void deflate(byte[] data, int offset, int length) throws IOException {
+        deflater.setInput(data, offset, length);
+        while (!deflater.needsInput()) {
+            drain();
+        }
+    }
+
+    void drain() throws IOException {
+        chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+        if (chunkLength == CHUNK_SIZE) {
+            writeChunk(IDAT, chunk, chunkLength);
+            chunkLength = 0;
+        }
+    }
+
+    /*
+    所有的行都写出之后调用，写出剩余的压缩数据和结束块，不关闭输出流
+     */
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("wrote " + rowsWritten + " of " + height + " rows");
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            drain();
+        }
+        if (chunkLength > 0) {
+            writeChunk(IDAT, chunk, chunkLength);
+            chunkLength = 0;
+        }
+        writeChunk(IEND, chunk, 0);
+        out.flush();
+        deflater.end();
+    }
+
+    /*
+    放弃写出时调用，释放压缩器
+     */
+    public void abort() {
+        deflater.end();
+    }
+
+    void writeChunk(byte[] type, byte[] data, int length) throws IOException {
+        putInt(header, 0, length);
+        System.arraycopy(type, 0, header, 4, 4);
+        out.write(header, 0, 8);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(type, 0, 4);
+        crc.update(data, 0, length);
+        putInt(header, 0, (int) crc.getValue());
+        out.write(header, 0, 4);
+    }
+
+    static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,302 @@
+package com.tongfangpc.board.whiteboard.export;
+
+import com.tongfangpc.board.whiteboard.stroke.PathSink;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+逐个元素写出的SVG文档：元素生成之后直接写入Writer，不在内存中保留整个文档。
+1、viewBox是导出范围的世界坐标，笔画的坐标原样写出，保留两位小数
+2、固定笔宽的笔画是圆头的描边路径，可变笔宽的笔画是用非零环绕规则填充的轮廓，与屏幕上的绘制方式一致
+3、位图(压缩的底层栅格)以PNG的data URI嵌入，base64边编码边写出
+路径数据先收集到getPathSink()返回的PathSink中，再由strokePath或者fillPath写出，之后可以继续收集下一条
+ */
+public class SvgWriter {
+
+    static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    /*
+    base64每行的字符数，76是MIME的惯例，避免写出过长的行
+     */
+    static final int BASE64_LINE = 76;
+
+    final Writer out;
+
+    /*
+    当前路径的数据，以及上一个写出的命令，连续的相同命令省略命令字母
+     */
+    final StringBuilder path = new StringBuilder();
+    char lastCommand;
+
+    final StringBuilder line = new StringBuilder();
+
+    final PathSink pathSink = new PathSink() {
+        @Override
+        public void moveTo(float x, float y) {
+            command('M');
+            appendPoint(x, y);
+        }
+
+        @Override
+        public void quadTo(float x1, float y1, float x2, float y2) {
+            command('Q');
+            appendPoint(x1, y1);
+            path.append(' ');
+            appendPoint(x2, y2);
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            command('L');
+            appendPoint(x, y);
+        }
+
+        @Override
+        public void close() {
+            path.append('Z');
+            //Z之后的第一个点必须带上命令字母
+            lastCommand = 'Z';
+        }
+    };
+
+    public SvgWriter(Writer out) {
+        this.out = out;
+    }
+
+    /*
+    写出文档的开头，(left, top, width, height)是导出范围的世界坐标，pixelWidth和pixelHeight是显示的尺寸
+     */
+    public void begin(float left, float top, float width, float height, int pixelWidth, int pixelHeight) throws IOException {
+        line.setLength(0);
+        line.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        line.append("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"")
+                .append(pixelWidth).append("\" height=\"").append(pixelHeight).append("\" viewBox=\"");
+        appendNumber(line, left);
+        line.append(' ');
+        appendNumber(line, top);
+        line.append(' ');
+        appendNumber(line, width);
+        line.append(' ');
+        appendNumber(line, height);
+        line.append("\">\n");
+        flushLine();
+    }
+
+    /*
+    填充一个矩形，用于背景色
+     */
+    public void fillRect(float left, float top, float width, float height, int color) throws IOException {
+        line.append("<rect");
+        appendRect(left, top, width, height);
+        appendPaint("fill", color);
+        line.append("/>\n");
+        flushLine();
+    }
+
+    /*
+    在矩形范围内画间距为spacing的网格线，网格对齐世界坐标的原点；线宽不随缩放变化，与屏幕上的1像素网格一致
+     */
+    public void gridRect(float left, float top, float width, float height, float spacing, int color) throws IOException {
+        line.append("<defs><pattern id=\"grid\" patternUnits=\"userSpaceOnUse\" x=\"0\" y=\"0\" width=\"");
+        appendNumber(line, spacing);
+        line.append("\" height=\"");
+        appendNumber(line, spacing);
+        line.append("\"><path d=\"M");
+        appendNumber(line, spacing);
+        line.append(" 0H0V");
+        appendNumber(line, spacing);
+        line.append("\" fill=\"none\" stroke-width=\"1\" vector-effect=\"non-scaling-stroke\"");
+        appendPaint("stroke", color);
+        line.append("/></pattern></defs>\n<rect");
+        appendRect(left, top, width, height);
+        line.append(" fill=\"url(#grid)\"/>\n");
+        flushLine();
+    }
+
+    /*
+    引用外部的图片，href是URI，例如底图文件的file:地址
+     */
+    public void image(float left, float top, float width, float height, String href) throws IOException {
+        line.append("<image");
+        appendRect(left, top, width, height);
+        line.append(" preserveAspectRatio=\"none\" xlink:href=\"");
+        appendEscaped(line, href);
+        line.append("\"/>\n");
+        flushLine();
+    }
+
+    /*
+    嵌入一张PNG图片
+     */
+    public void image(float left, float top, float width, float height, byte[] png) throws IOException {
+        line.append("<image");
+        appendRect(left, top, width, height);
+        line.append(" preserveAspectRatio=\"none\" xlink:href=\"data:image/png;base64,");
+        flushLine();
+        writeBase64(png);
+        out.write("\"/>\n");
+    }
+
+    /*
+    收集路径数据的PathSink，交给Stroke.emitPath或者InkOutline.emit
+     */
+    public PathSink getPathSink() {
+        return pathSink;
+    }
+
+    /*
+    把收集的路径以圆头的描边写出，width是世界坐标的笔宽
+     */
+    public void strokePath(int color, float width) throws IOException {
+        if (path.length() == 0) {
+            return;
+        }
+        line.append("<path fill=\"none\" stroke-linecap=\"round\" stroke-linejoin=\"round\" stroke-width=\"");
+        appendNumber(line, width);
+        line.append('"');
+        appendPaint("stroke", color);
+        writePath();
+    }
+
+    /*
+    把收集的路径以非零环绕规则填充写出
+     */
+    public void fillPath(int color) throws IOException {
+        if (path.length() == 0) {
+            return;
+        }
+        line.append("<path");
+        appendPaint("fill", color);
+        writePath();
+    }
+
+    void writePath() throws IOException {
+        line.append(" d=\"");
+        flushLine();
+        out.append(path);
+        out.write("\"/>\n");
+        path.setLength(0);
+        lastCommand = 0;
+    }
+
+    /*
+    写出文档的结尾，不关闭Writer
+     */
+    public void end() throws IOException {
+        out.write("</svg>\n");
+        out.flush();
+    }
+
+    void command(char command) {
+        if (command != lastCommand) {
+            path.append(command);
+            lastCommand = command;
+        } else {
+            path.append(' ');
+        }
+    }
+
+    void appendPoint(float x, float y) {
+        appendNumber(path, x);
+        path.append(' ');
+        appendNumber(path, y);
+    }
+
+    void appendRect(float left, float top, float width, float height) {
+        line.append(" x=\"");
+        appendNumber(line, left);
+        line.append("\" y=\"");
+        appendNumber(line, top);
+        line.append("\" width=\"");
+        appendNumber(line, width);
+        line.append("\" height=\"");
+        appendNumber(line, height);
+        line.append('"');
+    }
+
+    /*
+    写出颜色属性，半透明时加上对应的opacity属性
+     */
+    void appendPaint(String attribute, int color) {
+        line.append(' ').append(attribute).append("=\"#");
+        for (int shift = 20; shift >= 0; shift -= 4) {
+            line.append(Character.forDigit((color >> shift) & 0xf, 16));
+        }
+        line.append('"');
+        int alpha = color >>> 24;
+        if (alpha != 0xff) {
+            line.append(' ').append(attribute).append("-opacity=\"");
+            appendNumber(line, alpha / 255f);
+            line.append('"');
+        }
+    }
+
+    void flushLine() throws IOException {
+        out.append(line);
+        line.setLength(0);
+    }
+
+    void writeBase64(byte[] data) throws IOException {
+        char[] chars = new char[BASE64_LINE + 1];
+        int count = 0;
+        for (int i = 0; i < data.length; i += 3) {
+            int remaining = data.length - i;
+            int bits = (data[i] & 0xff) << 16;
+            if (remaining > 1) {
+                bits |= (data[i + 1] & 0xff) << 8;
+            }
+            if (remaining > 2) {
+                bits |= data[i + 2] & 0xff;
+            }
+            chars[count++] = BASE64[bits >> 18];
+            chars[count++] = BASE64[(bits >> 12) & 0x3f];
+            chars[count++] = remaining > 1 ? BASE64[(bits >> 6) & 0x3f] : '=';
+            chars[count++] = remaining > 2 ? BASE64[bits & 0x3f] : '=';
+            if (count == BASE64_LINE) {
+                chars[count++] = '\n';
+                out.write(chars, 0, count);
+                count = 0;
+            }
+        }
+        out.write(chars, 0, count);
+    }
+
+    /*
+    按最多两位小数写出，去掉末尾的0，不使用String.format以免在大量坐标上分配对象
+     */
+    static void appendNumber(StringBuilder builder, float value) {
+        long hundredths = Math.round(value * 100.0);
+        if (hundredths < 0) {
+            builder.append('-');
+            hundredths = -hundredths;
+        }
+        builder.append(hundredths / 100);
+        int fraction = (int) (hundredths % 100);
+        if (fraction != 0) {
+            builder.append('.').append(fraction / 10);
+            if (fraction % 10 != 0) {
+                builder.append(fraction % 10);
+            }
+        }
+    }
+
+    static void appendEscaped(StringBuilder builder, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '"':
+                    builder.append("&quot;");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.tongfangpc.board.whiteboard.history;
+
+import java.util.Arrays;
+
+/*
+行为轨迹的历史记录存储，替代原来的LinkedList：
+1、使用连续的数组存储，get(i)是O(1)的，重绘时按索引遍历不再是O(n²)
+2、undo之后再提交新的行为，redo尾部一次性截断，而不是逐个remove
+3、内部维护nextDoIndex游标，提供undo/redo的计算依据
+4、可选的undo深度上限，超出上限的行为仍然保留用于重绘，但不能再被undo
+5、超出undo深度上限的行为可以被压缩(compact)：调用方把它们合成到底层栅格之后从集合中释放，
+   索引保持不变，[0, base)不再可以访问，存储只占用[base, size)
+ */
+public class ActionHistory<T> {
+
+    /*
+    行为被截断时的通知，用于撤销它对其它行为的影响(例如橡皮擦的标记)；
+    被截断的行为不能被复用：其它线程可能还在绘制之前取到的行为
+     */
+    public interface RemovalListener<T> {
+        void onRemoved(T action);
+    }
+
+    static final int DEFAULT_CAPACITY = 64;
+
+    /*
+    存储[base, size)的行为，actions[i - base]是索引i的行为
+     */
+    Object[] actions;
+
+    int size;
+
+    /*
+    已经被压缩释放的行为数量，即第一个仍然保存的行为的索引
+     */
+    int base;
+
+    /*
+    永远指向下一个当前可写行为在集合中的合法写入位置索引，
+    [0, nextDoIndex)是当前生效的行为，[nextDoIndex, size)是可以redo的行为
+     */
+    int nextDoIndex;
+
+    /*
+    undo的最大步数，0表示不限制
+     */
+    int maxUndoDepth;
+
+    /*
+    undo不能越过的下限索引，受maxUndoDepth控制
+     */
+    int undoFloor;
+
+    RemovalListener<T> removalListener;
+
+    public ActionHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ActionHistory(int initialCapacity) {
+        actions = new Object[Math.max(initialCapacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getBase() {
+        return base;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < base || index >= size) {
+            throw new IndexOutOfBoundsException("index=" + index + ", base=" + base + ", size=" + size);
+        }
+        return (T) actions[index - base];
+    }
+
+    public int getNextDoIndex() {
+        return nextDoIndex;
+    }
+
+    public int getMaxUndoDepth() {
+        return maxUndoDepth;
+    }
+
+    /*
+    设置undo的最大步数，0表示不限制
+     */
+    public void setMaxUndoDepth(int maxUndoDepth) {
+        if (maxUndoDepth < 0) {
+            throw new IllegalArgumentException("maxUndoDepth must not be negative: " + maxUndoDepth);
+        }
+        this.maxUndoDepth = maxUndoDepth;
+        updateUndoFloor();
+    }
+
+    public void setRemovalListener(RemovalListener<T> removalListener) {
+        this.removalListener = removalListener;
+    }
+
+    public int getUndoFloor() {
+        return undoFloor;
+    }
+
+    public boolean canUndo() {
+        return nextDoIndex > undoFloor;
+    }
+
+    public boolean canRedo() {
+        return nextDoIndex < size;
+    }
+
+    /*
+    将游标向前移动一步，记录仍然保留，用户可以继续redo
+    返回：取消操作是否成功
+     */
+    public boolean undo() {
+        return moveTo(nextDoIndex - 1);
+    }
+
+    /*
+    将游标向后移动一步
+    返回：重做操作是否成功
+     */
+    public boolean redo() {
+        return moveTo(nextDoIndex + 1);
+    }
+
+    /*
+    将游标移动到target，不能越过undo的下限和集合的末尾，移动不到时停在最近的位置；
+    回放日志中记录的游标时一次移动多步
+    返回：游标是否移动了
+     */
+    public boolean moveTo(int target) {
+        int index = Math.max(undoFloor, Math.min(target, size));
+        if (index == nextDoIndex) {
+            return false;
+        }
+        nextDoIndex = index;
+        return true;
+    }
+
+    /*
+    提交一个新的行为：如果游标在集合中间，说明之前做过undo，
+    先把游标之后的无效行为一次性截断，再追加新行为，游标后移
+    返回：新行为在集合中的索引
+     */
+    public int commit(T action) {
+        truncate(nextDoIndex);
+        ensureCapacity(size - base + 1);
+        actions[size - base] = action;
+        nextDoIndex = ++size;
+        updateUndoFloor();
+        return size - 1;
+    }
+
+    /*
+    将集合截断到newSize，一次性释放其后的所有引用，设置了removalListener时先逐个通知
+     */
+    @SuppressWarnings("unchecked")
+    public void truncate(int newSize) {
+        if (newSize < base || newSize > size) {
+            throw new IndexOutOfBoundsException("newSize=" + newSize + ", base=" + base + ", size=" + size);
+        }
+        if (newSize == size) {
+            return;
+        }
+        if (removalListener != null) {
+            for (int i = newSize; i < size; i++) {
+                removalListener.onRemoved((T) actions[i - base]);
+            }
+        }
+        Arrays.fill(actions, newSize - base, size - base, null);
+        size = newSize;
+        if (nextDoIndex > size) {
+            nextDoIndex = size;
+        }
+        if (undoFloor > size) {
+            undoFloor = size;
+        }
+    }
+
+    /*
+    释放[base, newBase)的行为，之后的行为索引不变；newBase不能超过undoFloor，被释放的行为不能再被undo。
+    被释放的行为已经合成到底层栅格，不通知removalListener
+     */
+    public void compact(int newBase) {
+        if (newBase < base || newBase > undoFloor) {
+            throw new IndexOutOfBoundsException("newBase=" + newBase + ", base=" + base + ", undoFloor=" + undoFloor);
+        }
+        int released = newBase - base;
+        if (released == 0) {
+            return;
+        }
+        int remaining = size - newBase;
+        System.arraycopy(actions, released, actions, 0, remaining);
+        Arrays.fill(actions, remaining, remaining + released, null);
+        base = newBase;
+        if (actions.length > DEFAULT_CAPACITY && remaining < actions.length / 4) {
+            //长时间书写之后只保留undo范围内的行为，收缩数组
+            actions = Arrays.copyOf(actions, Math.max(DEFAULT_CAPACITY, remaining * 2));
+        }
+    }
+
+    /*
+    清空全部行为，索引重新从0开始
+     */
+    public void clear() {
+        truncate(base);
+        base = 0;
+        size = 0;
+        nextDoIndex = 0;
+        undoFloor = 0;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > actions.length) {
+            actions = Arrays.copyOf(actions, Math.max(capacity, actions.length + (actions.length >> 1)));
+        }
+    }
+
+    void updateUndoFloor() {
+        if (maxUndoDepth > 0) {
+            undoFloor = Math.max(undoFloor, nextDoIndex - maxUndoDepth);
+        }
+    }
+}
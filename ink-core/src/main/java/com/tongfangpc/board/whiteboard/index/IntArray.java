@@ -0,0 +1,76 @@
+package com.tongfangpc.board.whiteboard.index;
+
+import java.util.Arrays;
+
+/*
+可增长的int列表，clear之后复用已分配的数组，查询结果的容器反复使用时不再分配内存
+ */
+public class IntArray {
+
+    int[] values;
+
+    int size;
+
+    public IntArray() {
+        this(16);
+    }
+
+    public IntArray(int initialCapacity) {
+        values = new int[Math.max(initialCapacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+        }
+        return values[index];
+    }
+
+    public int last() {
+        return get(size - 1);
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    public void removeLast() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("empty");
+        }
+        size--;
+    }
+
+    /*
+    去掉开头的count个元素，其余的依次前移
+     */
+    public void removeFirst(int count) {
+        if (count < 0 || count > size) {
+            throw new IndexOutOfBoundsException("count=" + count + ", size=" + size);
+        }
+        System.arraycopy(values, count, values, 0, size - count);
+        size -= count;
+    }
+
+    /*
+    对[from, size)范围内的元素升序排序
+     */
+    public void sort(int from) {
+        Arrays.sort(values, from, size);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,286 @@
+package com.tongfangpc.board.whiteboard.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/*
+历史记录中行为范围的均匀网格索引：世界坐标按cellSize划分为单元格，每个行为的索引号
+登记在它的范围覆盖到的所有单元格中，查询一块区域只需要访问区域覆盖到的单元格，
+橡皮擦的命中测试和局部重绘不再随笔画总数线性增长。
+索引号与历史记录的索引一致，只能在尾部追加，或者随历史记录一起从尾部截断，
+因此每个单元格中的索引号总是升序的，截断时逐个弹出即可；
+历史记录压缩之后，compact从每个单元格的开头去掉被释放的索引号，存储只占用[base, size)。
+覆盖的单元格过多(或者范围未知)的行为不登记到单元格，每次查询都会返回它们
+ */
+public class SpatialIndex {
+
+    public static final float DEFAULT_CELL_SIZE = 256;
+
+    /*
+    一个行为最多登记的单元格数量，超过时放入oversized
+     */
+    static final int MAX_CELLS_PER_ENTRY = 64;
+
+    static final int STRIDE = 4;
+
+    final float cellSize;
+
+    final HashMap<Long, IntArray> cells = new HashMap<>();
+
+    /*
+    不登记到单元格的行为，按索引号升序
+     */
+    final IntArray oversized = new IntArray();
+
+    /*
+    每个索引号的范围(left, top, right, bottom)，从索引号base开始存放，没有登记的索引left为NaN
+     */
+    float[] bounds = new float[64 * STRIDE];
+
+    /*
+    已登记的最大索引号+1
+     */
+    int size;
+
+    /*
+    被压缩掉的索引号数量，小于它的索引号不再登记
+     */
+    int base;
+
+    /*
+    查询时去重使用的标记，visited[i - base] == queryStamp表示本次查询已经访问过
+     */
+    int[] visited = new int[64];
+    int queryStamp;
+
+    public SpatialIndex() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public SpatialIndex(float cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCellCount() {
+        return cells.size();
+    }
+
+    public int getBase() {
+        return base;
+    }
+
+    /*
+    登记index位置的行为范围，index不能小于size，中间跳过的索引视为没有登记
+     */
+    public void add(int index, float left, float top, float right, float bottom) {
+        prepare(index);
+        int offset = (index - base) * STRIDE;
+        bounds[offset] = left;
+        bounds[offset + 1] = top;
+        bounds[offset + 2] = right;
+        bounds[offset + 3] = bottom;
+        int cellLeft = cellIndex(left);
+        int cellTop = cellIndex(top);
+        int cellRight = cellIndex(right);
+        int cellBottom = cellIndex(bottom);
+        if (((long) cellRight - cellLeft + 1) * ((long) cellBottom - cellTop + 1) > MAX_CELLS_PER_ENTRY) {
+            oversized.add(index);
+            return;
+        }
+        for (int cy = cellTop; cy <= cellBottom; cy++) {
+            for (int cx = cellLeft; cx <= cellRight; cx++) {
+                long key = key(cx, cy);
+                IntArray cell = cells.get(key);
+                if (cell == null) {
+                    cell = new IntArray(4);
+                    cells.put(key, cell);
+                }
+                cell.add(index);
+            }
+        }
+    }
+
+    /*
+    登记一个范围未知的行为，任何查询都会返回它
+     */
+    public void addUnbounded(int index) {
+        prepare(index);
+        int offset = (index - base) * STRIDE;
+        bounds[offset] = Float.NEGATIVE_INFINITY;
+        bounds[offset + 1] = Float.NEGATIVE_INFINITY;
+        bounds[offset + 2] = Float.POSITIVE_INFINITY;
+        bounds[offset + 3] = Float.POSITIVE_INFINITY;
+        oversized.add(index);
+    }
+
+    void prepare(int index) {
+        if (index < size) {
+            throw new IllegalArgumentException("index=" + index + " must not be less than size=" + size);
+        }
+        if ((index - base + 1) * STRIDE > bounds.length) {
+            bounds = Arrays.copyOf(bounds, Math.max((index - base + 1) * STRIDE, bounds.length * 2));
+        }
+        for (int i = Math.max(size, base); i <= index; i++) {
+            bounds[(i - base) * STRIDE] = Float.NaN;
+        }
+        size = index + 1;
+    }
+
+    /*
+    随历史记录一起截断到newSize，只访问被截断的行为登记过的单元格
+     */
+    public void truncate(int newSize) {
+        if (newSize >= size) {
+            return;
+        }
+        newSize = Math.max(newSize, base);
+        for (int index = size - 1; index >= newSize; index--) {
+            int offset = (index - base) * STRIDE;
+            if (Float.isNaN(bounds[offset])) {
+                continue;
+            }
+            if (!oversized.isEmpty() && oversized.last() == index) {
+                oversized.removeLast();
+                continue;
+            }
+            int cellLeft = cellIndex(bounds[offset]);
+            int cellTop = cellIndex(bounds[offset + 1]);
+            int cellRight = cellIndex(bounds[offset + 2]);
+            int cellBottom = cellIndex(bounds[offset + 3]);
+            for (int cy = cellTop; cy <= cellBottom; cy++) {
+                for (int cx = cellLeft; cx <= cellRight; cx++) {
+                    long key = key(cx, cy);
+                    IntArray cell = cells.get(key);
+                    if (cell == null || cell.isEmpty() || cell.last() != index) {
+                        continue;
+                    }
+                    cell.removeLast();
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+        size = newSize;
+    }
+
+    /*
+    随历史记录的压缩去掉小于newBase的索引号：每个单元格中的索引号是升序的，只需要去掉开头的一段
+     */
+    public void compact(int newBase) {
+        if (newBase <= base) {
+            return;
+        }
+        Iterator<IntArray> iterator = cells.values().iterator();
+        while (iterator.hasNext()) {
+            IntArray cell = iterator.next();
+            cell.removeFirst(countBelow(cell, newBase));
+            if (cell.isEmpty()) {
+                iterator.remove();
+            }
+        }
+        oversized.removeFirst(countBelow(oversized, newBase));
+        int kept = Math.max(0, size - newBase);
+        System.arraycopy(bounds, Math.min(newBase, size) * STRIDE - base * STRIDE, bounds, 0, kept * STRIDE);
+        base = newBase;
+        size = Math.max(size, newBase);
+        //去重标记按新的偏移重新开始
+        Arrays.fill(visited, 0);
+        queryStamp = 0;
+    }
+
+    static int countBelow(IntArray sorted, int limit) {
+        int count = 0;
+        while (count < sorted.size() && sorted.get(count) < limit) {
+            count++;
+        }
+        return count;
+    }
+
+    /*
+    清空全部登记，索引号重新从0开始
+     */
+    public void clear() {
+        cells.clear();
+        oversized.clear();
+        size = 0;
+        base = 0;
+    }
+
+    /*
+    把范围与区域[left, right] x [top, bottom]相交的行为的索引号按升序追加到out中，
+    返回追加的数量；区域覆盖的单元格比已有的单元格还多时直接遍历所有单元格
+     */
+    public int query(float left, float top, float right, float bottom, IntArray out) {
+        int start = out.size();
+        if (size == 0) {
+            return 0;
+        }
+        nextQueryStamp();
+        int cellLeft = cellIndex(left);
+        int cellTop = cellIndex(top);
+        int cellRight = cellIndex(right);
+        int cellBottom = cellIndex(bottom);
+        if (((long) cellRight - cellLeft + 1) * ((long) cellBottom - cellTop + 1) <= cells.size()) {
+            for (int cy = cellTop; cy <= cellBottom; cy++) {
+                for (int cx = cellLeft; cx <= cellRight; cx++) {
+                    IntArray cell = cells.get(key(cx, cy));
+                    if (cell != null) {
+                        collect(cell, left, top, right, bottom, out);
+                    }
+                }
+            }
+        } else {
+            Iterator<IntArray> iterator = cells.values().iterator();
+            while (iterator.hasNext()) {
+                collect(iterator.next(), left, top, right, bottom, out);
+            }
+        }
+        collect(oversized, left, top, right, bottom, out);
+        out.sort(start);
+        return out.size() - start;
+    }
+
+    void collect(IntArray candidates, float left, float top, float right, float bottom, IntArray out) {
+        for (int i = 0, count = candidates.size(); i < count; i++) {
+            int index = candidates.get(i);
+            int slot = index - base;
+            if (visited[slot] == queryStamp) {
+                continue;
+            }
+            visited[slot] = queryStamp;
+            int offset = slot * STRIDE;
+            if (bounds[offset] <= right && left <= bounds[offset + 2]
+                    && bounds[offset + 1] <= bottom && top <= bounds[offset + 3]) {
+                out.add(index);
+            }
+        }
+    }
+
+    void nextQueryStamp() {
+        if (visited.length < size - base) {
+            visited = new int[Math.max(size - base, visited.length * 2)];
+            queryStamp = 0;
+        }
+        if (++queryStamp == 0) {
+            Arrays.fill(visited, 0);
+            queryStamp = 1;
+        }
+    }
+
+    int cellIndex(float coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+}
@@ -0,0 +1,73 @@
+package com.tongfangpc.board.whiteboard.input;
+
+import java.util.Arrays;
+
+/*
+一次触摸事件中被接受的采样点，数组在事件之间复用
+ */
+public class SampleBatch {
+
+    static final int DEFAULT_CAPACITY = 32;
+
+    float[] xs;
+    float[] ys;
+    long[] times;
+    float[] pressures;
+
+    int size;
+
+    public SampleBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SampleBatch(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        xs = new float[capacity];
+        ys = new float[capacity];
+        times = new long[capacity];
+        pressures = new float[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(float x, float y, long eventTime, float pressure) {
+        if (size == xs.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            times = Arrays.copyOf(times, capacity);
+            pressures = Arrays.copyOf(pressures, capacity);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        times[size] = eventTime;
+        pressures[size] = pressure;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public float getX(int index) {
+        return xs[index];
+    }
+
+    public float getY(int index) {
+        return ys[index];
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public float getPressure(int index) {
+        return pressures[index];
+    }
+}
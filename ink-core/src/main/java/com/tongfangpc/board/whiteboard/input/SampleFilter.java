@@ -0,0 +1,111 @@
+package com.tongfangpc.board.whiteboard.input;
+
+/*
+输入采样点的过滤器，综合距离和时间两个条件：
+1、与上一个被接受的点距离不小于minDistance时接受
+2、距离不够但已经停顿了maxIdleMillis以上，并且确实有移动时也接受，避免慢速书写时丢掉细节
+其余的点被认为是抖动或者冗余采样，直接丢弃
+ */
+public class SampleFilter {
+
+    public static final float DEFAULT_MIN_DISTANCE = 3;
+
+    public static final long DEFAULT_MAX_IDLE_MILLIS = 24;
+
+    float minDistance;
+
+    float minDistanceSquared;
+
+    long maxIdleMillis;
+
+    float lastX;
+    float lastY;
+    long lastTime;
+    boolean hasLast;
+
+    public SampleFilter() {
+        this(DEFAULT_MIN_DISTANCE, DEFAULT_MAX_IDLE_MILLIS);
+    }
+
+    public SampleFilter(float minDistance, long maxIdleMillis) {
+        setThresholds(minDistance, maxIdleMillis);
+    }
+
+    public void setThresholds(float minDistance, long maxIdleMillis) {
+        if (minDistance < 0 || maxIdleMillis < 0) {
+            throw new IllegalArgumentException("minDistance=" + minDistance + ", maxIdleMillis=" + maxIdleMillis);
+        }
+        this.minDistance = minDistance;
+        this.minDistanceSquared = minDistance * minDistance;
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    public float getMinDistance() {
+        return minDistance;
+    }
+
+    public long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    /*
+    笔画开始，起点总是被接受
+     */
+    public void begin(float x, float y, long eventTime) {
+        lastX = x;
+        lastY = y;
+        lastTime = eventTime;
+        hasLast = true;
+    }
+
+    public void reset() {
+        hasLast = false;
+    }
+
+    /*
+    判断一个采样点是否被接受，被接受的点成为下一次判断的参照
+     */
+    public boolean accept(float x, float y, long eventTime) {
+        if (!hasLast) {
+            begin(x, y, eventTime);
+            return true;
+        }
+        float dx = x - lastX;
+        float dy = y - lastY;
+        float distanceSquared = dx * dx + dy * dy;
+        if (distanceSquared >= minDistanceSquared && distanceSquared > 0
+                || distanceSquared > 0 && eventTime - lastTime >= maxIdleMillis) {
+            lastX = x;
+            lastY = y;
+            lastTime = eventTime;
+            return true;
+        }
+        return false;
+    }
+
+    /*
+    笔画结束的点：只要有移动就接受，保证笔画终止在抬笔的位置
+     */
+    public boolean acceptFinal(float x, float y, long eventTime) {
+        if (hasLast && x == lastX && y == lastY) {
+            return false;
+        }
+        lastX = x;
+        lastY = y;
+        lastTime = eventTime;
+        hasLast = true;
+        return true;
+    }
+
+    public float getLastX() {
+        return lastX;
+    }
+
+    public float getLastY() {
+        return lastY;
+    }
+
+    public long getLastTime() {
+        return lastTime;
+    }
+}
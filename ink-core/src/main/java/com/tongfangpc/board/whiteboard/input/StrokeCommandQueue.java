@@ -0,0 +1,222 @@
+package com.tongfangpc.board.whiteboard.input;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+输入线程(UI线程)到渲染线程的单生产者/单消费者环形队列，传递笔画的命令：
+命令按列存放在预先分配的基本类型数组中，入队和出队都不分配内存，也不加锁，
+生产者写完一条命令后以release语义发布tail，消费者读完后以同样方式发布head。
+为了保证笔画的开始、结束和重建命令不会丢失，采样点命令不能占用最后reserve个空位；
+如果控制命令仍然放不下，队列记录溢出标记，由消费者根据历史记录整体重建画面
+ */
+public class StrokeCommandQueue {
+
+    /*
+    设置当前画笔：arg为画笔样式的id，之后开始的笔画使用
+     */
+    public static final int OP_PEN = 1;
+
+    /*
+    笔画开始：x、y、time、pressure为起点，arg为笔画的槽位；
+    多指书写时每根手指占用一个槽位，同时进行的笔画互不影响，单指书写时总是0
+     */
+    public static final int OP_BEGIN = 2;
+
+    /*
+    笔画的一个采样点，arg为笔画的槽位
+     */
+    public static final int OP_POINT = 3;
+
+    /*
+    笔画结束并已经提交到历史记录：arg为提交之后有效行为的数量，time为笔画的槽位
+     */
+    public static final int OP_END = 4;
+
+    /*
+    按历史记录重建缓冲区：arg为重建的目标索引(nextDoIndex)
+     */
+    public static final int OP_REBUILD = 5;
+
+    /*
+    移动或缩放视口：x、y为屏幕左上角对应的世界坐标，pressure为缩放比例，
+    arg为1表示手势还在进行中，此时只缩放显示已有的方块，不请求重新栅格化
+     */
+    public static final int OP_VIEWPORT = 6;
+
+    /*
+    放弃正在绘制的笔画，不提交到历史记录：arg为笔画的槽位
+     */
+    public static final int OP_CANCEL = 7;
+
+    /*
+    笔画以外的行为(例如橡皮擦)已经提交到历史记录：arg为提交之后有效行为的数量，行为是其中的最后一个
+     */
+    public static final int OP_ACTION = 8;
+
+    /*
+    橡皮擦手势中擦中了一笔，立即从画面上去掉：arg为该笔在历史记录中的索引
+     */
+    public static final int OP_ERASE = 9;
+
+    /*
+    历史记录被整体替换(例如打开了会话文件)：丢弃所有缓存的栅格，按历史记录重建，arg为重建的目标索引
+     */
+    public static final int OP_RESET = 10;
+
+    /*
+    把超出undo范围的行为压缩进底层栅格：arg为压缩到的索引，time为发出命令时历史记录的版本，
+    历史记录之后被整体替换时命令作废
+     */
+    public static final int OP_COMPACT = 11;
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    static final int CONTROL_RESERVE = 64;
+
+    /*
+    消费命令的回调，参数直接展开以避免分配对象
+     */
+    public interface Consumer {
+        void onCommand(int op, int arg, float x, float y, long time, float pressure);
+    }
+
+    final int capacity;
+    final int mask;
+
+    final int[] ops;
+    final int[] args;
+    final float[] xs;
+    final float[] ys;
+    final long[] times;
+    final float[] pressures;
+
+    /*
+    下一个要读取的位置，只由消费者写入
+     */
+    final AtomicLong head = new AtomicLong();
+
+    /*
+    下一个要写入的位置，只由生产者写入
+     */
+    final AtomicLong tail = new AtomicLong();
+
+    /*
+    生产者缓存的head，减少对共享变量的读取
+     */
+    long cachedHead;
+
+    final AtomicBoolean overflowed = new AtomicBoolean();
+
+    /*
+    因队列已满而丢弃的采样点数量，只由生产者写入
+     */
+    volatile long droppedPointCount;
+
+    public StrokeCommandQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /*
+    capacity会向上取整为2的幂
+     */
+    public StrokeCommandQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, CONTROL_RESERVE * 2) - 1) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        ops = new int[size];
+        args = new int[size];
+        xs = new float[size];
+        ys = new float[size];
+        times = new long[size];
+        pressures = new float[size];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /*
+    生产者：写入一个采样点，队列接近满时丢弃并返回false
+     */
+    public boolean offerPoint(float x, float y, long time, float pressure) {
+        return offerPoint(0, x, y, time, pressure);
+    }
+
+    /*
+    生产者：写入槽位slot上的笔画的一个采样点
+     */
+    public boolean offerPoint(int slot, float x, float y, long time, float pressure) {
+        if (offer(OP_POINT, slot, x, y, time, pressure, CONTROL_RESERVE)) {
+            return true;
+        }
+        droppedPointCount++;
+        return false;
+    }
+
+    /*
+    生产者：写入一个控制命令，放不下时记录溢出标记并返回false
+     */
+    public boolean offerCommand(int op, int arg, float x, float y, long time, float pressure) {
+        if (offer(op, arg, x, y, time, pressure, 0)) {
+            return true;
+        }
+        overflowed.set(true);
+        return false;
+    }
+
+    boolean offer(int op, int arg, float x, float y, long time, float pressure, int reserve) {
+        long currentTail = tail.get();
+        long limit = capacity - reserve;
+        if (currentTail - cachedHead >= limit) {
+            cachedHead = head.get();
+            if (currentTail - cachedHead >= limit) {
+                return false;
+            }
+        }
+        int index = (int) (currentTail & mask);
+        ops[index] = op;
+        args[index] = arg;
+        xs[index] = x;
+        ys[index] = y;
+        times[index] = time;
+        pressures[index] = pressure;
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /*
+    消费者：依次处理当前已发布的全部命令，返回处理的数量
+     */
+    public int drain(Consumer consumer) {
+        long currentHead = head.get();
+        long currentTail = tail.get();
+        int count = 0;
+        while (currentHead < currentTail) {
+            int index = (int) (currentHead & mask);
+            consumer.onCommand(ops[index], args[index], xs[index], ys[index], times[index], pressures[index]);
+            head.lazySet(++currentHead);
+            count++;
+        }
+        return count;
+    }
+
+    /*
+    消费者：读取并清除溢出标记
+     */
+    public boolean clearOverflow() {
+        return overflowed.getAndSet(false);
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public long getDroppedPointCount() {
+        return droppedPointCount;
+    }
+}
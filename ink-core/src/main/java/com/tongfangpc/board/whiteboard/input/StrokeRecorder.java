@@ -0,0 +1,146 @@
+package com.tongfangpc.board.whiteboard.input;
+
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+import com.tongfangpc.board.whiteboard.stroke.StrokeBuilder;
+
+/*
+UI线程一侧的笔画记录：过滤采样点，收集到StrokeBuilder中，并把命令写入渲染线程的队列。
+书写过程中(MOVE)使用的过滤器、批次和采样数组全部复用，预热之后不再分配内存
+ */
+public class StrokeRecorder {
+
+    final SampleFilter filter;
+
+    final SampleBatch batch = new SampleBatch();
+
+    final StrokeBuilder builder = new StrokeBuilder();
+
+    final StrokeCommandQueue commandQueue;
+
+    /*
+    笔画在命令中的槽位，多指书写时每根手指一个StrokeRecorder
+     */
+    final int slot;
+
+    /*
+    当前笔画的画笔样式
+     */
+    int styleId;
+
+    /*
+    屏幕坐标到世界坐标的变换：world = screen / scale + offset，offset即视口左上角的世界坐标
+     */
+    float offsetX;
+    float offsetY;
+    float scale = 1;
+
+    public StrokeRecorder(SampleFilter filter, StrokeCommandQueue commandQueue) {
+        this(filter, commandQueue, 0);
+    }
+
+    public StrokeRecorder(SampleFilter filter, StrokeCommandQueue commandQueue, int slot) {
+        this.filter = filter;
+        this.commandQueue = commandQueue;
+        this.slot = slot;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public int getStyleId() {
+        return styleId;
+    }
+
+    public SampleFilter getFilter() {
+        return filter;
+    }
+
+    public StrokeBuilder getBuilder() {
+        return builder;
+    }
+
+    /*
+    设置之后提供的屏幕坐标都按world = screen / scale + offset换算为世界坐标再记录，
+    过滤仍然按屏幕上的距离进行，不要在书写过程中修改
+     */
+    public void setTransform(float offsetX, float offsetY, float scale) {
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.scale = scale;
+    }
+
+    /*
+    笔画开始：通知渲染线程以styleId对应的画笔样式开始新的一笔
+     */
+    public void begin(float x, float y, long eventTime, float pressure, int styleId) {
+        batch.clear();
+        filter.begin(x, y, eventTime);
+        x = x / scale + offsetX;
+        y = y / scale + offsetY;
+        builder.begin(x, y, eventTime, pressure);
+        this.styleId = styleId;
+        commandQueue.offerCommand(StrokeCommandQueue.OP_PEN, styleId, 0, 0, 0, 0);
+        commandQueue.offerCommand(StrokeCommandQueue.OP_BEGIN, slot, x, y, eventTime, pressure);
+    }
+
+    /*
+    提供一个书写中的采样点，经过过滤后暂存在批次中
+     */
+    public void offer(float x, float y, long eventTime, float pressure) {
+        if (filter.accept(x, y, eventTime)) {
+            batch.add(x / scale + offsetX, y / scale + offsetY, eventTime, pressure);
+        }
+    }
+
+    /*
+    提供抬笔点，只要有移动就保留
+     */
+    public void offerFinal(float x, float y, long eventTime, float pressure) {
+        if (filter.acceptFinal(x, y, eventTime)) {
+            batch.add(x / scale + offsetX, y / scale + offsetY, eventTime, pressure);
+        }
+    }
+
+    /*
+    把暂存的采样点追加到笔画并写入命令队列，返回追加的数量
+     */
+    public int flush() {
+        int count = batch.size();
+        for (int i = 0; i < count; i++) {
+            builder.add(batch.getX(i), batch.getY(i), batch.getTime(i), batch.getPressure(i));
+            commandQueue.offerPoint(slot, batch.getX(i), batch.getY(i), batch.getTime(i), batch.getPressure(i));
+        }
+        batch.clear();
+        return count;
+    }
+
+    /*
+    笔画结束，生成紧凑的Stroke；结束命令由调用方在提交历史记录之后写入
+     */
+    public Stroke finish() {
+        filter.reset();
+        return builder.build();
+    }
+
+    /*
+    放弃正在记录的笔画(例如第二根手指按下转为缩放手势)，通知渲染线程丢弃已经画出的部分
+     */
+    public void cancel() {
+        batch.clear();
+        filter.reset();
+        builder.reset();
+        commandQueue.offerCommand(StrokeCommandQueue.OP_CANCEL, slot, 0, 0, 0, 0);
+    }
+
+    /*
+    笔画已经提交到历史记录，通知渲染线程把它画进已提交的栅格：committedCount为提交之后有效行为的数量
+     */
+    public void end(int committedCount) {
+        commandQueue.offerCommand(StrokeCommandQueue.OP_END, committedCount, 0, 0, slot, 0);
+    }
+
+    public long getLastTime() {
+        return filter.getLastTime();
+    }
+}
@@ -0,0 +1,195 @@
+package com.tongfangpc.board.whiteboard.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+白板的运行指标，供现场的遥测按周期采集p50、p99、p999：
+1、输入到渲染的延迟：每帧中最早的一个采样点从事件发生到这一帧提交到surface的时间
+2、render()的耗时
+3、每次渲染开始时命令队列中积压的命令数
+4、undo、redo和surface重建后恢复画面时重建栅格的耗时，分开统计
+5、缓冲区、关键帧和方块等Bitmap占用的内存，记录最新值和周期内的最大值
+时间都以纳秒记录；记录的方法不分配内存，可以在任意线程上调用
+ */
+public class BoardMetrics {
+
+    /*
+    定期收到的指标快照，在UI线程上回调
+     */
+    public interface Listener {
+        void onMetrics(Snapshot snapshot);
+    }
+
+    /*
+    某一时刻所有指标的副本，periodStartNanos到takenNanos是它覆盖的时间段
+     */
+    public static final class Snapshot {
+        final long periodStartNanos;
+        final long takenNanos;
+        final HistogramSnapshot inputLatency;
+        final HistogramSnapshot renderDuration;
+        final HistogramSnapshot queueDepth;
+        final HistogramSnapshot undoReplay;
+        final HistogramSnapshot redoReplay;
+        final HistogramSnapshot resumeReplay;
+        final long bitmapBytes;
+        final long maxBitmapBytes;
+
+        Snapshot(long periodStartNanos, long takenNanos, HistogramSnapshot inputLatency,
+                 HistogramSnapshot renderDuration, HistogramSnapshot queueDepth, HistogramSnapshot undoReplay,
+                 HistogramSnapshot redoReplay, HistogramSnapshot resumeReplay, long bitmapBytes, long maxBitmapBytes) {
+            this.periodStartNanos = periodStartNanos;
+            this.takenNanos = takenNanos;
+            this.inputLatency = inputLatency;
+            this.renderDuration = renderDuration;
+            this.queueDepth = queueDepth;
+            this.undoReplay = undoReplay;
+            this.redoReplay = redoReplay;
+            this.resumeReplay = resumeReplay;
+            this.bitmapBytes = bitmapBytes;
+            this.maxBitmapBytes = maxBitmapBytes;
+        }
+
+        public long getPeriodNanos() {
+            return takenNanos - periodStartNanos;
+        }
+
+        public HistogramSnapshot getInputLatency() {
+            return inputLatency;
+        }
+
+        public HistogramSnapshot getRenderDuration() {
+            return renderDuration;
+        }
+
+        public HistogramSnapshot getQueueDepth() {
+            return queueDepth;
+        }
+
+        public HistogramSnapshot getUndoReplay() {
+            return undoReplay;
+        }
+
+        public HistogramSnapshot getRedoReplay() {
+            return redoReplay;
+        }
+
+        public HistogramSnapshot getResumeReplay() {
+            return resumeReplay;
+        }
+
+        public long getBitmapBytes() {
+            return bitmapBytes;
+        }
+
+        public long getMaxBitmapBytes() {
+            return maxBitmapBytes;
+        }
+
+        /*
+        一行文本的摘要，时间以毫秒输出，用于日志
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("period=").append(formatMillis(getPeriodNanos())).append("ms");
+            appendNanos(builder, "inputLatency", inputLatency);
+            appendNanos(builder, "render", renderDuration);
+            builder.append(" queueDepth{p50=").append(queueDepth.getP50())
+                    .append(" p99=").append(queueDepth.getP99())
+                    .append(" max=").append(queueDepth.getMax()).append('}');
+            appendNanos(builder, "undo", undoReplay);
+            appendNanos(builder, "redo", redoReplay);
+            appendNanos(builder, "resume", resumeReplay);
+            builder.append(" bitmapBytes=").append(bitmapBytes).append(" maxBitmapBytes=").append(maxBitmapBytes);
+            return builder.toString();
+        }
+
+        static void appendNanos(StringBuilder builder, String name, HistogramSnapshot histogram) {
+            builder.append(' ').append(name).append("{n=").append(histogram.getCount());
+            if (histogram.getCount() > 0) {
+                builder.append(" p50=").append(formatMillis(histogram.getP50()))
+                        .append(" p99=").append(formatMillis(histogram.getP99()))
+                        .append(" p999=").append(formatMillis(histogram.getP999()))
+                        .append(" max=").append(formatMillis(histogram.getMax()));
+            }
+            builder.append('}');
+        }
+
+        static String formatMillis(long nanos) {
+            return String.valueOf(Math.round(nanos / 1e4) / 100.0);
+        }
+    }
+
+    final Histogram inputLatency = new Histogram();
+    final Histogram renderDuration = new Histogram();
+    final Histogram queueDepth = new Histogram();
+    final Histogram undoReplay = new Histogram();
+    final Histogram redoReplay = new Histogram();
+    final Histogram resumeReplay = new Histogram();
+
+    volatile long bitmapBytes;
+
+    final AtomicLong maxBitmapBytes = new AtomicLong();
+
+    volatile long periodStartNanos = System.nanoTime();
+
+    public void recordInputLatency(long nanos) {
+        inputLatency.record(nanos);
+    }
+
+    public void recordRenderDuration(long nanos) {
+        renderDuration.record(nanos);
+    }
+
+    public void recordQueueDepth(int depth) {
+        queueDepth.record(depth);
+    }
+
+    public void recordUndoReplay(long nanos) {
+        undoReplay.record(nanos);
+    }
+
+    public void recordRedoReplay(long nanos) {
+        redoReplay.record(nanos);
+    }
+
+    public void recordResumeReplay(long nanos) {
+        resumeReplay.record(nanos);
+    }
+
+    /*
+    更新当前Bitmap占用的内存
+     */
+    public void recordBitmapBytes(long bytes) {
+        bitmapBytes = bytes;
+        long current = maxBitmapBytes.get();
+        while (bytes > current && !maxBitmapBytes.compareAndSet(current, bytes)) {
+            current = maxBitmapBytes.get();
+        }
+    }
+
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /*
+    复制所有指标，reset为true时同时开始新的统计周期；Bitmap内存的最新值不清零
+     */
+    public Snapshot snapshot(boolean reset) {
+        long now = System.nanoTime();
+        long start = periodStartNanos;
+        long bytes = bitmapBytes;
+        long maxBytes = reset ? maxBitmapBytes.getAndSet(bytes) : maxBitmapBytes.get();
+        if (reset) {
+            periodStartNanos = now;
+        }
+        return new Snapshot(start, now, inputLatency.snapshot(reset), renderDuration.snapshot(reset),
+                queueDepth.snapshot(reset), undoReplay.snapshot(reset), redoReplay.snapshot(reset),
+                resumeReplay.snapshot(reset), bytes, maxBytes);
+    }
+
+    public void reset() {
+        snapshot(true);
+    }
+}
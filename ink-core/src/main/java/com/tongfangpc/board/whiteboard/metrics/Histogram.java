@@ -0,0 +1,97 @@
+package com.tongfangpc.board.whiteboard.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+对数分桶的直方图：小于SUB_BUCKETS的值每个值一个桶，更大的值每个2的幂次区间均分为SUB_BUCKETS / 2个桶，
+桶内的相对误差不超过1 / (SUB_BUCKETS / 2)，覆盖整个long的范围只需要固定的一块数组。
+record只做原子的自增，不分配内存，可以在书写和渲染的热路径上调用，也可以多个线程同时调用；
+快照复制各个桶的计数，可以选择同时清零，用于按周期统计，快照期间并发记录的值计入本次或者下一次
+ */
+public class Histogram {
+
+    /*
+    每个2的幂次区间的精度位数
+     */
+    static final int SUB_BITS = 5;
+
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    static final int HALF_BUCKETS = SUB_BUCKETS / 2;
+
+    /*
+    最大的long值落在最后一个桶
+     */
+    static final int BUCKET_COUNT = indexOf(Long.MAX_VALUE) + 1;
+
+    final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    final AtomicLong sum = new AtomicLong();
+
+    final AtomicLong max = new AtomicLong();
+
+    /*
+    记录一个值，负数按0记录
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public HistogramSnapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /*
+    复制当前的统计，reset为true时同时清零，下一次快照只包含这之后记录的值
+     */
+    public HistogramSnapshot snapshot(boolean reset) {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+            count += copy[i];
+        }
+        long total = reset ? sum.getAndSet(0) : sum.get();
+        long maxValue = reset ? max.getAndSet(0) : max.get();
+        return new HistogramSnapshot(copy, count, total, maxValue);
+    }
+
+    public void reset() {
+        snapshot(true);
+    }
+
+    /*
+    值所在的桶
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        //右移shift位之后落在[HALF_BUCKETS, SUB_BUCKETS)
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF_BUCKETS + (int) (value >>> shift) - HALF_BUCKETS;
+    }
+
+    /*
+    桶内的最大值，百分位按它报告，不会低估
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_BUCKETS + 1;
+        long sub = (index - SUB_BUCKETS) % HALF_BUCKETS + HALF_BUCKETS;
+        long highest = ((sub + 1) << shift) - 1;
+        //最后一个桶的上界超出了long的范围
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+}
@@ -0,0 +1,74 @@
+package com.tongfangpc.board.whiteboard.metrics;
+
+/*
+直方图在某一时刻的不可变副本，计算百分位等统计量
+ */
+public final class HistogramSnapshot {
+
+    final long[] counts;
+    final long count;
+    final long sum;
+    final long max;
+
+    HistogramSnapshot(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /*
+    百分位的值，percentile取[0, 100]，例如99.9；没有记录时返回0。
+    返回的是所在桶的上界，不超过记录到的最大值
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("percentile must be in [0, 100]: " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(Histogram.highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getP50() {
+        return getValueAtPercentile(50);
+    }
+
+    public long getP99() {
+        return getValueAtPercentile(99);
+    }
+
+    public long getP999() {
+        return getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", p50=" + getP50() + ", p99=" + getP99() + ", p999=" + getP999() + ", max=" + max;
+    }
+}
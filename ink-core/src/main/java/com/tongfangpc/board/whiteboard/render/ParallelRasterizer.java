@@ -0,0 +1,293 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import com.tongfangpc.board.whiteboard.index.IntArray;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/*
+并行重建栅格：把画布按水平方向切成若干条带，每个行为按范围分配给与它相交的条带，
+各条带在固定大小的线程池上各自画到独立的画布上，最后在调用线程上依次合成到目标。
+行为按历史顺序加入，每个条带内部的绘制顺序与历史记录一致，相互覆盖的笔画结果不变；
+跨越多个条带的行为在每个条带上各画一次，由条带的画布裁掉范围之外的部分。
+条带数量是线程数的BANDS_PER_THREAD倍，笔画集中在局部时其余线程也能分到工作。
+条带的画布在多次重建之间保留，目标的尺寸变化时才重新创建，不再需要时由release回收。
+该类不依赖具体的画布类型，begin、add和rasterize只能在同一个线程上调用
+ */
+public class ParallelRasterizer<S> {
+
+    /*
+    每个线程对应的条带数量
+     */
+    public static final int BANDS_PER_THREAD = 2;
+
+    /*
+    默认线程数，超过它之后合成和分配的开销抵消了收益
+     */
+    public static final int MAX_DEFAULT_THREADS = 8;
+
+    /*
+    条带的画布操作，由调用方提供
+     */
+    public interface Painter<S> {
+        /*
+        在调用线程上创建一个条带的画布，之后的重建会继续使用
+         */
+        S createBand(int width, int height);
+
+        /*
+        在工作线程上把条带填充为背景(条带上可能留有上一次重建的内容)，再按顺序画出items中的行为，
+        条带的顶端位于目标的top处；不同的条带会同时调用，items中的同一个行为也可能同时画在多个条带上
+         */
+        void paint(S band, int top, IntArray items);
+
+        /*
+        在调用线程上把画好的条带合成到目标的top处
+         */
+        void compose(S band, int top);
+
+        /*
+        目标的尺寸变化或者调用release之后，在调用线程上回收不再使用的条带
+         */
+        void recycle(S band);
+    }
+
+    final int threadCount;
+
+    final int bandCount;
+
+    /*
+    线程数为1时为null，直接在调用线程上绘制
+     */
+    final ExecutorService executor;
+
+    /*
+    每个条带分配到的行为
+     */
+    final ArrayList<IntArray> bandItems = new ArrayList<>();
+
+    int width;
+    int height;
+    int bandHeight;
+
+    /*
+    保留的条带画布，没有创建过的为null；bandsWidth和bandsHeight是创建它们时目标的尺寸
+     */
+    final ArrayList<S> bands = new ArrayList<>();
+    int bandsWidth;
+    int bandsHeight;
+
+    /*
+    本次重建中各条带的任务，没有绘制的为null
+     */
+    final ArrayList<Future<?>> futures = new ArrayList<>();
+
+    /*
+    默认线程数：处理器数量，最多MAX_DEFAULT_THREADS
+     */
+    public static int defaultThreadCount() {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_DEFAULT_THREADS));
+    }
+
+    public ParallelRasterizer(int threadCount) {
+        this(threadCount, threadCount * BANDS_PER_THREAD);
+    }
+
+    public ParallelRasterizer(int threadCount, int bandCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        if (bandCount <= 0) {
+            throw new IllegalArgumentException("bandCount must be positive: " + bandCount);
+        }
+        this.threadCount = threadCount;
+        this.bandCount = bandCount;
+        for (int i = 0; i < bandCount; i++) {
+            bandItems.add(new IntArray());
+            bands.add(null);
+            futures.add(null);
+        }
+        executor = threadCount > 1 ? Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            int created;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "RebuildWorker-" + created++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    /*
+    开始一次重建，目标的尺寸为width * height，之前分配的行为被清空
+     */
+    public void begin(int width, int height) {
+        this.width = width;
+        this.height = height;
+        bandHeight = Math.max(1, (height + bandCount - 1) / bandCount);
+        for (int i = 0; i < bandCount; i++) {
+            bandItems.get(i).clear();
+        }
+    }
+
+    /*
+    按历史顺序加入一个行为，top和bottom是它在目标上的纵向范围，完全在目标之外的行为被忽略
+     */
+    public void add(int item, float top, float bottom) {
+        if (bottom < 0 || top >= height || bottom < top) {
+            return;
+        }
+        int first = Math.max(0, (int) (top / bandHeight));
+        int last = Math.min(bandCount - 1, (int) (bottom / bandHeight));
+        for (int i = first; i <= last; i++) {
+            bandItems.get(i).add(item);
+        }
+    }
+
+    /*
+    按历史顺序加入一个范围未知的行为，每个条带都要画
+     */
+    public void addToAll(int item) {
+        for (int i = 0; i < bandCount; i++) {
+            bandItems.get(i).add(item);
+        }
+    }
+
+    public int getBandTop(int band) {
+        return Math.min(height, band * bandHeight);
+    }
+
+    public int getBandHeight(int band) {
+        return Math.min(height, (band + 1) * bandHeight) - getBandTop(band);
+    }
+
+    public IntArray getBandItems(int band) {
+        return bandItems.get(band);
+    }
+
+    /*
+    绘制并合成所有分配到行为的条带，返回参与绘制的条带数量；
+    没有行为的条带不绘制也不合成，调用方应当事先把目标填充为背景。
+    绘制中抛出的异常在所有条带结束之后重新抛出，此时目标上只合成了部分条带
+     */
+    public int rasterize(final Painter<S> painter) {
+        if (width != bandsWidth || height != bandsHeight) {
+            release(painter);
+            bandsWidth = width;
+            bandsHeight = height;
+        }
+        int painted = 0;
+        try {
+            for (int i = 0; i < bandCount; i++) {
+                final IntArray items = bandItems.get(i);
+                int rows = getBandHeight(i);
+                if (items.isEmpty() || rows <= 0) {
+                    futures.set(i, null);
+                    continue;
+                }
+                S created = bands.get(i);
+                if (created == null) {
+                    created = painter.createBand(width, rows);
+                    bands.set(i, created);
+                }
+                final S band = created;
+                final int top = getBandTop(i);
+                painted++;
+                if (executor == null) {
+                    futures.set(i, null);
+                    painter.paint(band, top, items);
+                } else {
+                    futures.set(i, executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            painter.paint(band, top, items);
+                        }
+                    }));
+                }
+            }
+            RuntimeException failure = awaitAll(futures);
+            if (failure != null) {
+                throw failure;
+            }
+            for (int i = 0; i < bandCount; i++) {
+                if (!bandItems.get(i).isEmpty() && getBandHeight(i) > 0) {
+                    painter.compose(bands.get(i), getBandTop(i));
+                }
+            }
+        } finally {
+            //工作线程结束之前条带不能被下一次重建或者release使用
+            awaitAll(futures);
+            for (int i = 0; i < bandCount; i++) {
+                futures.set(i, null);
+            }
+        }
+        return painted;
+    }
+
+    /*
+    回收保留的条带画布，只能在调用rasterize的线程上调用；之后的重建会重新创建
+     */
+    public void release(Painter<S> painter) {
+        for (int i = 0; i < bandCount; i++) {
+            S band = bands.get(i);
+            if (band != null) {
+                bands.set(i, null);
+                painter.recycle(band);
+            }
+        }
+    }
+
+    /*
+    等待所有条带完成，中断不会打断等待，只在结束后恢复中断状态；返回第一个失败的原因
+     */
+    static RuntimeException awaitAll(ArrayList<Future<?>> futures) {
+        RuntimeException failure = null;
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<?> future = futures.get(i);
+            if (future == null) {
+                continue;
+            }
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return failure;
+    }
+
+    /*
+    结束工作线程，之后不能再使用
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
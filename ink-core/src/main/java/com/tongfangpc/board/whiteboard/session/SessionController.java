@@ -0,0 +1,485 @@
+package com.tongfangpc.board.whiteboard.session;
+
+import com.tongfangpc.board.whiteboard.config.PenStyle;
+import com.tongfangpc.board.whiteboard.config.PenStyleRegistry;
+import com.tongfangpc.board.whiteboard.history.ActionHistory;
+import com.tongfangpc.board.whiteboard.index.IntArray;
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+历史记录与会话文件、自动保存日志之间的换算：保存时拍快照，打开时由快照创建行为，
+开启自动保存之后把提交的行为和undo/redo追加到日志，启动时回放快照和日志。
+快照和日志使用同一套序号：历史记录[base, size)中的每个行为都占一条记录，
+不能保存的行为(例如没有采样点的笔画)写成没有目标的擦除作为占位，
+所以快照中的第i个行为、日志中的索引i和回放之后历史记录中的索引i总是同一个行为。
+行为的具体类型与平台相关，由Host描述和创建。
+历史记录对象本身就是锁，除了load和自动保存的开启、等待、关闭之外，调用方需要持有它
+ */
+public class SessionController<A> {
+
+    /*
+    行为的描述和创建，由视图实现
+     */
+    public interface Host<A> {
+        /*
+        描述一个已经提交的行为：笔画调用record.setStroke，橡皮擦调用record.setErase和addTarget，
+        不能保存的行为什么也不做；在持有历史记录的锁时调用
+         */
+        void describe(A action, ActionRecord record);
+
+        /*
+        创建一笔已经解码的笔画
+         */
+        A createStroke(Stroke stroke, PenStyle style);
+
+        /*
+        创建一笔延迟解码的笔画，采样点在第一次使用时才从source中读取
+         */
+        A createStroke(SessionReader source, int recordIndex, PenStyle style);
+
+        /*
+        创建一次还没有目标的擦除，index是它在历史记录中的索引
+         */
+        A createErase(int index);
+
+        /*
+        让erase擦掉历史记录中targetIndex位置的target，target不是可以擦除的笔画时返回false
+         */
+        boolean addEraseTarget(A erase, A target, int targetIndex);
+
+        /*
+        把行为提交到历史记录的游标处；在持有历史记录的锁时调用
+         */
+        void commit(A action);
+
+        /*
+        用actions和snapshot中的底层栅格替换整个历史记录，snapshot为null时清空；
+        解码底层栅格比较耗时，不持有历史记录的锁调用
+         */
+        void restore(List<A> actions, SessionReader snapshot) throws IOException;
+
+        /*
+        把底层栅格的方块登记到快照中；在持有历史记录的锁时调用
+         */
+        void captureBase(SessionSnapshot snapshot);
+    }
+
+    /*
+    Host对一个行为的描述，只在持有历史记录的锁时使用，每次描述之前清空
+     */
+    public static final class ActionRecord {
+        int type;
+        Stroke stroke;
+        SessionReader source;
+        int recordIndex;
+        PenStyle style;
+        float left;
+        float top;
+        float right;
+        float bottom;
+
+        /*
+        被擦掉的笔画在历史记录中的索引
+         */
+        final IntArray targets = new IntArray();
+
+        /*
+        已经解码的一笔，stroke不能为null
+         */
+        public void setStroke(Stroke stroke, PenStyle style, float left, float top, float right, float bottom) {
+            type = SessionFormat.TYPE_STROKE;
+            this.stroke = stroke;
+            this.style = style;
+            setBounds(left, top, right, bottom);
+        }
+
+        /*
+        还没有解码的一笔，采样点在source的recordIndex位置
+         */
+        public void setStroke(SessionReader source, int recordIndex, PenStyle style,
+                              float left, float top, float right, float bottom) {
+            type = SessionFormat.TYPE_STROKE;
+            this.source = source;
+            this.recordIndex = recordIndex;
+            this.style = style;
+            setBounds(left, top, right, bottom);
+        }
+
+        /*
+        一次擦除，之后用addTarget添加被擦掉的笔画
+         */
+        public void setErase(float left, float top, float right, float bottom) {
+            type = SessionFormat.TYPE_ERASE;
+            setBounds(left, top, right, bottom);
+        }
+
+        public void addTarget(int index) {
+            targets.add(index);
+        }
+
+        void setBounds(float left, float top, float right, float bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        void clear() {
+            type = 0;
+            stroke = null;
+            source = null;
+            style = null;
+            setBounds(0, 0, 0, 0);
+            targets.clear();
+        }
+    }
+
+    final ActionHistory<A> history;
+
+    final PenStyleRegistry styleRegistry;
+
+    final Host<A> host;
+
+    /*
+    以下只在持有历史记录的锁时访问
+     */
+    final ActionRecord record = new ActionRecord();
+
+    /*
+    换算之后的擦除目标
+     */
+    int[] targetBuffer = new int[16];
+
+    /*
+    自动保存的日志，没有开启时为null
+     */
+    SessionJournal journal;
+
+    /*
+    上一份快照或者日志记录没有写到磁盘上，下一次追加时重新拍快照；由写线程设置
+     */
+    volatile boolean compactionFailed;
+
+    /*
+    转发写线程的结果，例如记录写盘失败的日志
+     */
+    volatile SessionJournal.WriteListener writeListener;
+
+    final SessionJournal.WriteListener journalListener = new SessionJournal.WriteListener() {
+        @Override
+        public void onSnapshotWritten(long generation) {
+            SessionJournal.WriteListener listener = writeListener;
+            if (listener != null) {
+                listener.onSnapshotWritten(generation);
+            }
+        }
+
+        @Override
+        public void onWriteFailed(IOException e) {
+            compactionFailed = true;
+            SessionJournal.WriteListener listener = writeListener;
+            if (listener != null) {
+                listener.onWriteFailed(e);
+            }
+        }
+    };
+
+    public SessionController(ActionHistory<A> history, PenStyleRegistry styleRegistry, Host<A> host) {
+        this.history = history;
+        this.styleRegistry = styleRegistry;
+        this.host = host;
+    }
+
+    public void setWriteListener(SessionJournal.WriteListener listener) {
+        writeListener = listener;
+    }
+
+    static int styleFlags(PenStyle style) {
+        return style.isVariableWidth() ? SessionFormat.STYLE_VARIABLE_WIDTH : 0;
+    }
+
+    /*
+    描述历史记录中index位置的行为，返回的record在下一次描述之前有效
+     */
+    ActionRecord describe(int index) {
+        record.clear();
+        host.describe(history.get(index), record);
+        return record;
+    }
+
+    /*
+    把record中不早于base的擦除目标减去origin之后升序写入targetBuffer，返回数量；
+    base之前的目标已经合成到底层栅格，不再单独记录
+     */
+    int selectTargets(ActionRecord record, int base, int origin) {
+        IntArray targets = record.targets;
+        if (targetBuffer.length < targets.size()) {
+            targetBuffer = new int[targets.size()];
+        }
+        int count = 0;
+        for (int i = 0, size = targets.size(); i < size; i++) {
+            int target = targets.get(i);
+            if (target >= base) {
+                targetBuffer[count++] = target - origin;
+            }
+        }
+        Arrays.sort(targetBuffer, 0, count);
+        return count;
+    }
+
+    /*
+    拍下当前生效的历史记录[base, nextDoIndex)和底层栅格，用于保存会话文件
+     */
+    public SessionSnapshot capture() {
+        return capture(history.getNextDoIndex());
+    }
+
+    /*
+    拍下历史记录[base, end)和底层栅格：只登记不可变的笔画数据、擦除关系和方块，编码在writeTo时进行；
+    每个行为占一条记录，快照中的序号i对应历史记录中的索引base + i
+     */
+    SessionSnapshot capture(int end) {
+        int base = history.getBase();
+        SessionSnapshot snapshot = new SessionSnapshot(end - base);
+        host.captureBase(snapshot);
+        for (int i = base; i < end; i++) {
+            ActionRecord record = describe(i);
+            if (record.type == SessionFormat.TYPE_STROKE) {
+                PenStyle style = record.style;
+                if (record.source != null) {
+                    snapshot.addStroke(record.source, record.recordIndex, style.getColor(), style.getWidth(), styleFlags(style),
+                            record.left, record.top, record.right, record.bottom);
+                } else {
+                    snapshot.addStroke(record.stroke, style.getColor(), style.getWidth(), styleFlags(style),
+                            record.left, record.top, record.right, record.bottom);
+                }
+            } else {
+                //不能保存的行为没有目标，作为占位保持序号
+                int count = selectTargets(record, base, base);
+                snapshot.addErase(targetBuffer, count, record.left, record.top, record.right, record.bottom);
+            }
+        }
+        return snapshot;
+    }
+
+    /*
+    由会话文件的索引表创建行为，笔画延迟解码；可以在任意线程上调用，不需要持有锁
+     */
+    public List<A> load(SessionReader reader) throws IOException {
+        PenStyle[] styles = new PenStyle[reader.getStyleCount()];
+        for (int i = 0; i < styles.length; i++) {
+            styles[i] = styleRegistry.intern(reader.getStyleColor(i), reader.getStyleWidth(i),
+                    (reader.getStyleFlags(i) & SessionFormat.STYLE_VARIABLE_WIDTH) != 0);
+        }
+        int count = reader.getActionCount();
+        ArrayList<A> actions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int type = reader.getType(i);
+            if (type == SessionFormat.TYPE_STROKE) {
+                actions.add(host.createStroke(reader, i, styles[reader.getStyle(i)]));
+            } else if (type == SessionFormat.TYPE_ERASE) {
+                A erase = host.createErase(i);
+                for (int target : reader.readEraseTargets(i)) {
+                    if (!host.addEraseTarget(erase, actions.get(target), target)) {
+                        throw new IOException("erase " + i + " refers to non-stroke action " + target);
+                    }
+                }
+                actions.add(erase);
+            } else {
+                throw new IOException("unknown action type " + type + " at " + i);
+            }
+        }
+        return actions;
+    }
+
+    /*
+    把index位置刚提交的行为追加到自动保存的日志，日志中的索引由写线程按磁盘上的快照换算
+     */
+    public void onCommitted(int index) {
+        if (journal == null || retryFailedCompaction()) {
+            return;
+        }
+        ActionRecord record = describe(index);
+        if (record.type == SessionFormat.TYPE_STROKE && record.stroke != null) {
+            PenStyle style = record.style;
+            journal.appendStroke(record.stroke, style.getColor(), style.getWidth(), styleFlags(style),
+                    record.left, record.top, record.right, record.bottom);
+        } else {
+            //刚提交的笔画总是已经解码的，其它不能保存的行为同样写成占位
+            int count = record.type == SessionFormat.TYPE_ERASE ? selectTargets(record, history.getBase(), 0) : 0;
+            journal.appendErase(targetBuffer, count, record.left, record.top, record.right, record.bottom);
+        }
+        compactJournalIfNeeded();
+    }
+
+    /*
+    把undo/redo之后的游标追加到自动保存的日志
+     */
+    public void onCursorMoved() {
+        if (journal == null || retryFailedCompaction()) {
+            return;
+        }
+        journal.appendCursor(history.getNextDoIndex());
+        compactJournalIfNeeded();
+    }
+
+    /*
+    整个历史记录被替换之后调用：日志中的索引都指向被替换掉的历史记录，立即以新的历史记录开始新一代的日志
+     */
+    public void onHistoryReplaced() {
+        if (journal != null) {
+            compactJournal(true);
+        }
+    }
+
+    /*
+    之前的快照或者记录没有写到磁盘上时重新拍一份快照，它已经包含刚刚的修改，返回true时不再追加记录
+     */
+    boolean retryFailedCompaction() {
+        if (!compactionFailed) {
+            return false;
+        }
+        compactJournal(false);
+        return true;
+    }
+
+    /*
+    日志增长到与快照相当时拍一份快照交给写线程，持锁期间只登记引用，不做编码
+     */
+    void compactJournalIfNeeded() {
+        if (journal.needsCompaction()) {
+            compactJournal(false);
+        }
+    }
+
+    /*
+    把整个历史记录[base, size)写成日志的新快照，包括redo的尾部，游标不在末尾时紧跟着记录游标；
+    historyReplaced表示旧日志描述的是被替换掉的历史记录
+     */
+    void compactJournal(boolean historyReplaced) {
+        compactionFailed = false;
+        int size = history.size();
+        journal.compact(capture(size), history.getBase(), historyReplaced);
+        if (history.getNextDoIndex() < size) {
+            journal.appendCursor(history.getNextDoIndex());
+        }
+    }
+
+    /*
+    开启崩溃安全的自动保存：directory中已经有自动保存的快照和日志时，先用它们替换当前的历史记录；
+    打开和回放日志涉及文件读写，不持有锁调用
+     */
+    public void enableAutosave(File directory) throws IOException {
+        synchronized (history) {
+            if (this.journal != null) {
+                throw new IllegalStateException("autosave is already enabled");
+            }
+        }
+        SessionJournal journal = new SessionJournal(directory);
+        journal.setWriteListener(journalListener);
+        Replayer replayer = new Replayer();
+        journal.open(replayer);
+        synchronized (history) {
+            this.journal = journal;
+            //没有可恢复的内容时从当前的历史记录开始；回放了很长的日志或者旧版本的日志时尽早压缩
+            if (!replayer.recovered && history.size() > 0) {
+                compactJournal(true);
+            } else if (journal.needsCompaction()) {
+                compactJournal(false);
+            }
+        }
+    }
+
+    /*
+    等待已经追加的日志全部写入磁盘；后台写盘失败过时抛出
+     */
+    public void flushAutosave() throws IOException {
+        SessionJournal journal;
+        synchronized (history) {
+            journal = this.journal;
+        }
+        if (journal != null) {
+            journal.flush();
+        }
+    }
+
+    /*
+    写完剩余的日志之后关闭自动保存
+     */
+    public void disableAutosave() throws IOException {
+        SessionJournal journal;
+        synchronized (history) {
+            journal = this.journal;
+            this.journal = null;
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /*
+    在调用enableAutosave的线程上回放自动保存的快照和日志：第一条内容到来时替换当前的历史记录，
+    之后按记录的顺序提交行为、移动游标
+     */
+    class Replayer implements SessionJournal.Listener {
+
+        boolean recovered;
+
+        void begin() throws IOException {
+            if (!recovered) {
+                host.restore(Collections.<A>emptyList(), null);
+                recovered = true;
+            }
+        }
+
+        @Override
+        public void onSnapshot(SessionReader snapshot) throws IOException {
+            host.restore(load(snapshot), snapshot);
+            recovered = true;
+        }
+
+        @Override
+        public void onStroke(Stroke stroke, int color, float width, int styleFlags,
+                             float left, float top, float right, float bottom) throws IOException {
+            begin();
+            PenStyle style = styleRegistry.intern(color, width, (styleFlags & SessionFormat.STYLE_VARIABLE_WIDTH) != 0);
+            synchronized (history) {
+                host.commit(host.createStroke(stroke, style));
+            }
+        }
+
+        @Override
+        public void onErase(int[] targets, float left, float top, float right, float bottom) throws IOException {
+            begin();
+            synchronized (history) {
+                int index = history.getNextDoIndex();
+                A erase = host.createErase(index);
+                for (int target : targets) {
+                    if (target < history.getBase() || target >= index
+                            || !host.addEraseTarget(erase, history.get(target), target)) {
+                        throw new IOException("erase at " + index + " refers to invalid action " + target);
+                    }
+                }
+                host.commit(erase);
+            }
+        }
+
+        /*
+        游标受undo深度上限的限制，移动不到时停在最近的位置
+         */
+        @Override
+        public void onCursor(int nextDoIndex) throws IOException {
+            begin();
+            synchronized (history) {
+                history.moveTo(nextDoIndex);
+            }
+        }
+    }
+}
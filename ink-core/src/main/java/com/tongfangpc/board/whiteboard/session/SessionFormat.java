@@ -0,0 +1,230 @@
+package com.tongfangpc.board.whiteboard.session;
+
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*
+画板会话文件的二进制格式(版本3，可以读取版本1和2)，所有多字节数值都是大端序：
+
+文件头，HEADER_BYTES字节：
+    int     MAGIC
+    short   VERSION
+    short   保留，写0
+    int     样式数量styleCount
+    int     行为数量actionCount
+    long    索引表的偏移indexOffset
+    long    自动保存的代数generation，与之配对的SessionJournal日志才能在它之上回放；单独保存的文件为0
+样式表，紧接文件头，每个样式STYLE_BYTES字节：
+    int     颜色
+    float   笔宽
+    int     样式标志，例如STYLE_VARIABLE_WIDTH(版本2新增，版本1的样式只有前8个字节)
+行为记录，紧接样式表，长度可变：
+    笔画：varint点数，之后每个点依次是x、y、time、pressure，
+         x、y按1/COORDINATE_SCALE像素量化，time按毫秒，pressure按1/PRESSURE_SCALE量化，
+         第一个点保存量化后的值，之后的点保存与上一个点的差，全部是zigzag varint
+    橡皮擦：varint被擦掉的笔画数量，之后是升序的笔画索引与上一个索引的差(第一个是索引本身)，varint
+索引表，位于indexOffset，每个行为INDEX_ENTRY_BYTES字节：
+    long    行为记录的偏移
+    int     高8位是行为类型，低24位是样式在样式表中的序号(橡皮擦为0)
+    float   范围的left、top、right、bottom(世界坐标，含笔宽)
+底层栅格，紧接索引表(版本3新增)：历史记录被压缩之后，超出undo范围的行为合成为按方块划分的栅格，
+行为记录只包含之后的行为，擦除的目标也不会指向被压缩的行为：
+    int     方块的边长tileSize(世界坐标，1倍)
+    int     方块数量baseTileCount
+    每个方块：int tx、int ty，int 图像的字节数，之后是PNG编码的图像，覆盖世界坐标[tx * tileSize, (tx + 1) * tileSize)
+
+读取时只需要文件头、样式表和索引表就能建立历史记录和空间索引，
+行为记录在第一次绘制时才解码
+ */
+public final class SessionFormat {
+
+    public static final int MAGIC = 0x57425331;
+
+    public static final short VERSION = 3;
+
+    static final short VERSION_1 = 1;
+
+    static final short VERSION_2 = 2;
+
+    public static final int HEADER_BYTES = 32;
+
+    public static final int STYLE_BYTES = 12;
+
+    static final int STYLE_BYTES_V1 = 8;
+
+    /*
+    样式标志：可变笔宽的墨水笔
+     */
+    public static final int STYLE_VARIABLE_WIDTH = 1;
+
+    public static final int INDEX_ENTRY_BYTES = 28;
+
+    /*
+    底层栅格中每个方块在图像之前的字节数：tx、ty和图像的长度
+     */
+    static final int BASE_TILE_HEADER_BYTES = 12;
+
+    public static final int TYPE_STROKE = 1;
+
+    public static final int TYPE_ERASE = 2;
+
+    /*
+    坐标的量化精度：1/16像素
+     */
+    public static final float COORDINATE_SCALE = 16;
+
+    /*
+    压力的量化精度
+     */
+    public static final float PRESSURE_SCALE = 1024;
+
+    static final int STYLE_MASK = 0xffffff;
+
+    private SessionFormat() {
+    }
+
+    /*
+    按笔画记录的格式写出采样点，会话文件和自动保存日志共用
+     */
+    static void writeStrokePoints(ByteArrayOutputStream out, Stroke stroke) {
+        int pointCount = stroke.getPointCount();
+        writeVarInt(out, pointCount);
+        int lastX = 0;
+        int lastY = 0;
+        int lastTime = 0;
+        int lastPressure = 0;
+        for (int i = 0; i < pointCount; i++) {
+            int x = Math.round(stroke.getX(i) * COORDINATE_SCALE);
+            int y = Math.round(stroke.getY(i) * COORDINATE_SCALE);
+            int time = Math.round(stroke.getTime(i));
+            int pressure = Math.round(stroke.getPressure(i) * PRESSURE_SCALE);
+            writeVarInt(out, zigzag(x - lastX));
+            writeVarInt(out, zigzag(y - lastY));
+            writeVarInt(out, zigzag(time - lastTime));
+            writeVarInt(out, zigzag(pressure - lastPressure));
+            lastX = x;
+            lastY = y;
+            lastTime = time;
+            lastPressure = pressure;
+        }
+    }
+
+    /*
+    从in的当前位置解码一笔的采样点
+     */
+    static Stroke readStrokePoints(ByteBuffer in) throws IOException {
+        int pointCount = readVarInt(in);
+        //每个采样点至少有4个varint，每个至少1字节，先按剩余的字节数拒绝，避免损坏的数量分配巨大的数组
+        if (pointCount < 0 || pointCount > in.remaining() / 4) {
+            throw new IOException("corrupted stroke: points=" + pointCount);
+        }
+        float[] samples = new float[pointCount * Stroke.STRIDE];
+        int x = 0;
+        int y = 0;
+        int time = 0;
+        int pressure = 0;
+        for (int i = 0, offset = 0; i < pointCount; i++, offset += Stroke.STRIDE) {
+            x += unzigzag(readVarInt(in));
+            y += unzigzag(readVarInt(in));
+            time += unzigzag(readVarInt(in));
+            pressure += unzigzag(readVarInt(in));
+            samples[offset + Stroke.X] = x / COORDINATE_SCALE;
+            samples[offset + Stroke.Y] = y / COORDINATE_SCALE;
+            samples[offset + Stroke.TIME] = time;
+            samples[offset + Stroke.PRESSURE] = pressure / PRESSURE_SCALE;
+        }
+        return Stroke.of(samples, pointCount);
+    }
+
+    /*
+    写出升序的索引列表：varint数量，之后是与上一个索引的差
+     */
+    static void writeIndices(ByteArrayOutputStream out, int[] indices, int count, int limit) {
+        writeVarInt(out, count);
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            if (indices[i] < last || indices[i] >= limit) {
+                throw new IllegalArgumentException("index " + indices[i] + " out of order or not less than " + limit);
+            }
+            writeVarInt(out, indices[i] - last);
+            last = indices[i];
+        }
+    }
+
+    /*
+    读取升序的索引列表，每个索引都必须小于limit
+     */
+    static int[] readIndices(ByteBuffer in, int limit) throws IOException {
+        int count = readVarInt(in);
+        if (count < 0 || count > in.remaining()) {
+            throw new IOException("corrupted index list: count=" + count);
+        }
+        int[] indices = new int[count];
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            last += readVarInt(in);
+            if (last < 0 || last >= limit) {
+                throw new IOException("index " + last + " is not less than " + limit);
+            }
+            indices[i] = last;
+        }
+        return indices;
+    }
+
+    static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IOException("truncated varint");
+            }
+            int b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    static boolean isSupported(int version) {
+        return version == VERSION_1 || version == VERSION_2 || version == VERSION;
+    }
+
+    /*
+    版本3之前的文件没有底层栅格
+     */
+    static boolean hasBaseTiles(int version) {
+        return version == VERSION;
+    }
+
+    static int styleBytes(int version) {
+        return version == VERSION_1 ? STYLE_BYTES_V1 : STYLE_BYTES;
+    }
+
+    /*
+    (颜色, 笔宽, 标志)去重使用的键：笔宽非负，符号位用来区分可变笔宽
+     */
+    static long styleKey(int color, float width, int flags) {
+        int widthBits = Float.floatToIntBits(width + 0.0f) | ((flags & STYLE_VARIABLE_WIDTH) != 0 ? 0x80000000 : 0);
+        return ((long) color << 32) | (widthBits & 0xffffffffL);
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
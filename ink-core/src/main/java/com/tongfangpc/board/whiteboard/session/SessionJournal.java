@@ -0,0 +1,689 @@
+package com.tongfangpc.board.whiteboard.session;
+
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/*
+崩溃安全的自动保存：一个SessionFormat格式的快照文件，加上一个只追加的日志文件。
+每次提交行为、每次undo/redo移动游标都追加一条日志记录，记录在调用线程上编码之后交给后台写线程，
+写线程把一段时间内的记录合并成一批写入并fsync，调用线程不等待磁盘。
+日志增长到与快照相当的大小时，由调用方拍一份历史记录的快照交给compact，写线程把它写成新的快照
+(临时文件改名，保证原子性)，再以新的代数重新开始日志；写新快照的开销按日志的增长摊还。
+启动时先打开快照，再在它之上回放代数相同的日志，代数不同的日志已经包含在快照中，直接丢弃。
+
+日志文件格式，所有多字节数值都是大端序：
+文件头，JOURNAL_HEADER_BYTES字节：
+    int     JOURNAL_MAGIC
+    short   SessionFormat.VERSION，也可以读取版本1的日志
+    short   保留，写0
+    long    代数generation，与快照文件头中的代数相同
+之后是连续的记录：
+    int     payload的长度
+    int     payload的CRC32
+    payload：byte记录类型，之后
+        笔画：int颜色，float笔宽，int样式标志(版本2新增)，float范围的left、top、right、bottom，采样点(与会话文件的笔画记录相同)
+        橡皮擦：float范围的left、top、right、bottom，被擦掉的笔画在历史记录中的索引(与会话文件的橡皮擦记录相同)
+        游标：varint nextDoIndex
+记录中的索引都以快照中的第一个行为为0。调用方追加的是历史记录中的索引，compact同时给出快照中第一个行为
+在历史记录中的索引base；写线程在快照真正写到磁盘上之后才改用新的base，之前和写失败时都按旧快照的base换算，
+所以快照写失败时之后的记录仍然可以正确地追加到旧日志中。
+写入失败的条目不影响同一批中的其它条目，由WriteListener在写线程上报告，flush、close时也会抛出。
+崩溃时最后一批记录可能只写了一部分，长度或者校验不符的记录及其之后的内容在打开时被截掉。
+append、compact只能在同一个线程上调用(例如持有历史记录的锁的UI线程)
+ */
+public class SessionJournal {
+
+    public static final int JOURNAL_MAGIC = 0x57424a31;
+
+    static final int JOURNAL_HEADER_BYTES = 16;
+
+    static final int RECORD_HEADER_BYTES = 8;
+
+    static final int RECORD_STROKE = 1;
+
+    static final int RECORD_ERASE = 2;
+
+    static final int RECORD_CURSOR = 3;
+
+    static final String SNAPSHOT_NAME = "autosave.wb";
+
+    static final String JOURNAL_NAME = "autosave.journal";
+
+    public static final long DEFAULT_BATCH_DELAY_MILLIS = 200;
+
+    /*
+    日志至少增长到这个大小才建议压缩，避免小会话频繁重写快照
+     */
+    static final long MIN_COMPACTION_BYTES = 256 * 1024;
+
+    /*
+    回放历史记录的回调，在open的调用线程上依次调用
+     */
+    public interface Listener {
+        /*
+        用快照替换当前的历史记录
+         */
+        void onSnapshot(SessionReader snapshot) throws IOException;
+
+        /*
+        在游标处提交一笔
+         */
+        void onStroke(Stroke stroke, int color, float width, int styleFlags,
+                      float left, float top, float right, float bottom) throws IOException;
+
+        /*
+        在游标处提交一次擦除，targets是被擦掉的笔画在历史记录中的索引(升序)
+         */
+        void onErase(int[] targets, float left, float top, float right, float bottom) throws IOException;
+
+        /*
+        undo/redo把游标移动到了nextDoIndex
+         */
+        void onCursor(int nextDoIndex) throws IOException;
+    }
+
+    /*
+    写线程的结果，在写线程上调用
+     */
+    public interface WriteListener {
+        /*
+        新快照已经写到磁盘上，之后的记录写入generation代的日志
+         */
+        void onSnapshotWritten(long generation);
+
+        /*
+        快照或者记录没有写到磁盘上；调用方应当再拍一份快照，恢复的内容才能包含之后的修改
+         */
+        void onWriteFailed(IOException e);
+    }
+
+    /*
+    等待写线程换算索引之后编码的橡皮擦或者游标记录，indices是历史记录中的索引
+     */
+    static final class IndexRecord {
+        final int type;
+        final int[] indices;
+        final float left;
+        final float top;
+        final float right;
+        final float bottom;
+
+        IndexRecord(int type, int[] indices, float left, float top, float right, float bottom) {
+            this.type = type;
+            this.indices = indices;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+    }
+
+    /*
+    等待写出的快照，base是它的第一个行为在历史记录中的索引
+     */
+    static final class Compaction {
+        final SessionSnapshot snapshot;
+        final int base;
+        final boolean historyReplaced;
+
+        Compaction(SessionSnapshot snapshot, int base, boolean historyReplaced) {
+            this.snapshot = snapshot;
+            this.base = base;
+            this.historyReplaced = historyReplaced;
+        }
+    }
+
+    final File snapshotFile;
+
+    final File journalFile;
+
+    final long batchDelayMillis;
+
+    final Object lock = new Object();
+
+    /*
+    等待写入的条目：编码好的笔画记录byte[]、IndexRecord或者Compaction，由lock保护
+     */
+    ArrayList<Object> pending = new ArrayList<>();
+
+    long enqueuedSequence;
+
+    long writtenSequence;
+
+    boolean flushRequested;
+
+    boolean closing;
+
+    /*
+    写线程遇到的错误，由flush抛出给调用方
+     */
+    IOException failure;
+
+    Thread writerThread;
+
+    volatile WriteListener writeListener;
+
+    /*
+    以下只由写线程访问(open期间由调用线程访问)
+     */
+    long generation;
+    FileOutputStream journalOut;
+    OutputStream bufferedOut;
+
+    /*
+    打开的是旧版本的日志，第一份快照写出之前journalOut为null
+     */
+    boolean legacyJournal;
+
+    /*
+    磁盘上的快照中第一个行为在历史记录中的索引，记录中的索引以它为0
+     */
+    int base;
+
+    /*
+    磁盘上的日志不能再追加记录：旧版本的日志、替换历史记录的快照没有写成、或者写日志失败过，
+    下一份快照写出之前到来的记录都被丢弃
+     */
+    boolean detached;
+
+    /*
+    写线程编码记录使用的缓冲区
+     */
+    final ByteArrayOutputStream writerBuffer = new ByteArrayOutputStream(256);
+    final CRC32 writerCrc = new CRC32();
+
+    /*
+    最近一次快照文件的大小，由写线程更新
+     */
+    volatile long snapshotBytes;
+
+    /*
+    以下只由调用线程访问：上次请求压缩之后追加的字节数，以及编码记录使用的缓冲区
+     */
+    long appendedBytes;
+    final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    final CRC32 crc = new CRC32();
+
+    public SessionJournal(File directory) {
+        this(directory, DEFAULT_BATCH_DELAY_MILLIS);
+    }
+
+    public SessionJournal(File directory, long batchDelayMillis) {
+        snapshotFile = new File(directory, SNAPSHOT_NAME);
+        journalFile = new File(directory, JOURNAL_NAME);
+        this.batchDelayMillis = batchDelayMillis;
+    }
+
+    /*
+    恢复并开始记录：依次把快照和日志回放给listener，截掉日志末尾不完整的记录，然后启动写线程
+     */
+    public void open(Listener listener) throws IOException {
+        File directory = snapshotFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create autosave directory " + directory);
+        }
+        generation = 0;
+        if (snapshotFile.exists()) {
+            SessionReader snapshot = SessionReader.open(snapshotFile);
+            generation = snapshot.getGeneration();
+            snapshotBytes = snapshotFile.length();
+            listener.onSnapshot(snapshot);
+        }
+        base = 0;
+        long validLength = replay(listener);
+        if (legacyJournal) {
+            //旧版本的日志不能追加新格式的记录：保持原样，要求调用方立即压缩，写出新快照时才开始新的日志
+            detached = true;
+            appendedBytes = Long.MAX_VALUE / 2;
+        } else if (validLength < 0) {
+            journalOut = createJournal();
+            bufferedOut = new BufferedOutputStream(journalOut);
+        } else {
+            RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+            journalOut = new FileOutputStream(journalFile, true);
+            appendedBytes = validLength - JOURNAL_HEADER_BYTES;
+            bufferedOut = new BufferedOutputStream(journalOut);
+        }
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, "SessionJournal");
+        writerThread.start();
+    }
+
+    /*
+    回放日志，返回有效内容的长度；日志不存在或者与快照的代数不同时返回-1
+     */
+    long replay(Listener listener) throws IOException {
+        if (!journalFile.exists()) {
+            return -1;
+        }
+        byte[] bytes;
+        RandomAccessFile file = new RandomAccessFile(journalFile, "r");
+        try {
+            if (file.length() > Integer.MAX_VALUE) {
+                throw new IOException("journal too large: " + file.length());
+            }
+            bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < JOURNAL_HEADER_BYTES || buffer.getInt(0) != JOURNAL_MAGIC
+                || !SessionFormat.isSupported(buffer.getShort(4)) || buffer.getLong(8) != generation) {
+            return -1;
+        }
+        int version = buffer.getShort(4);
+        //版本3只在快照中增加了底层栅格，日志记录与版本2相同，可以继续追加
+        legacyJournal = version == SessionFormat.VERSION_1;
+        int position = JOURNAL_HEADER_BYTES;
+        while (bytes.length - position >= RECORD_HEADER_BYTES) {
+            int length = buffer.getInt(position);
+            int checksum = buffer.getInt(position + 4);
+            int payload = position + RECORD_HEADER_BYTES;
+            if (length <= 0 || length > bytes.length - payload) {
+                break;
+            }
+            crc.reset();
+            crc.update(bytes, payload, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            ByteBuffer in = ByteBuffer.wrap(bytes, payload, length);
+            try {
+                replayRecord(in, version, listener);
+            } catch (IOException | RuntimeException e) {
+                throw new IOException("corrupted journal record at " + position, e);
+            }
+            position = payload + length;
+        }
+        return position;
+    }
+
+    static void replayRecord(ByteBuffer in, int version, Listener listener) throws IOException {
+        int type = in.get();
+        switch (type) {
+            case RECORD_STROKE: {
+                int color = in.getInt();
+                float width = in.getFloat();
+                int styleFlags = version == SessionFormat.VERSION_1 ? 0 : in.getInt();
+                float left = in.getFloat();
+                float top = in.getFloat();
+                float right = in.getFloat();
+                float bottom = in.getFloat();
+                listener.onStroke(SessionFormat.readStrokePoints(in), color, width, styleFlags, left, top, right, bottom);
+                break;
+            }
+            case RECORD_ERASE: {
+                float left = in.getFloat();
+                float top = in.getFloat();
+                float right = in.getFloat();
+                float bottom = in.getFloat();
+                listener.onErase(SessionFormat.readIndices(in, Integer.MAX_VALUE), left, top, right, bottom);
+                break;
+            }
+            case RECORD_CURSOR:
+                listener.onCursor(SessionFormat.readVarInt(in));
+                break;
+            default:
+                throw new IOException("unknown journal record type " + type);
+        }
+    }
+
+    /*
+    记录在游标处提交了一笔
+     */
+    public void appendStroke(Stroke stroke, int color, float width, int styleFlags,
+                             float left, float top, float right, float bottom) {
+        recordBuffer.reset();
+        recordBuffer.write(RECORD_STROKE);
+        writeInt(recordBuffer, color);
+        writeInt(recordBuffer, Float.floatToIntBits(width));
+        writeInt(recordBuffer, styleFlags);
+        writeBounds(recordBuffer, left, top, right, bottom);
+        SessionFormat.writeStrokePoints(recordBuffer, stroke);
+        byte[] record = frame(recordBuffer, crc);
+        enqueue(record, record.length);
+    }
+
+    /*
+    记录在游标处提交了一次擦除，targets[0, count)是被擦掉的笔画在历史记录中的索引(升序)，会被拷贝
+     */
+    public void appendErase(int[] targets, int count, float left, float top, float right, float bottom) {
+        int[] copy = new int[count];
+        System.arraycopy(targets, 0, copy, 0, count);
+        //索引由写线程换算之后才编码，按varint的最大长度估算大小
+        enqueue(new IndexRecord(RECORD_ERASE, copy, left, top, right, bottom), RECORD_HEADER_BYTES + 17 + 5 * (count + 1));
+    }
+
+    /*
+    记录undo/redo之后的游标，nextDoIndex是历史记录中的索引
+     */
+    public void appendCursor(int nextDoIndex) {
+        enqueue(new IndexRecord(RECORD_CURSOR, new int[]{nextDoIndex}, 0, 0, 0, 0), RECORD_HEADER_BYTES + 6);
+    }
+
+    /*
+    上次压缩之后日志的增长是否已经超过快照的大小，此时调用方应当拍一份快照交给compact
+     */
+    public boolean needsCompaction() {
+        return appendedBytes >= Math.max(MIN_COMPACTION_BYTES, snapshotBytes);
+    }
+
+    /*
+    snapshot必须是在之前追加的所有记录生效之后拍下的，base是它的第一个行为在历史记录中的索引，
+    写线程写出新快照之后开始新一代的日志。
+    historyReplaced表示历史记录被整个替换过，之后的记录与旧日志无关：这份快照没有写成时，
+    下一份快照写出之前的记录都被丢弃，而不是追加到旧日志
+     */
+    public void compact(SessionSnapshot snapshot, int base, boolean historyReplaced) {
+        enqueue(new Compaction(snapshot, base, historyReplaced), 0);
+        appendedBytes = 0;
+    }
+
+    /*
+    设置写线程的结果的回调，可以在任意线程上调用
+     */
+    public void setWriteListener(WriteListener listener) {
+        writeListener = listener;
+    }
+
+    /*
+    等待目前为止追加的记录全部写入磁盘，写线程遇到过错误时抛出
+     */
+    public void flush() throws IOException {
+        synchronized (lock) {
+            long target = enqueuedSequence;
+            flushRequested = true;
+            lock.notifyAll();
+            boolean interrupted = false;
+            while (writtenSequence < target && writerThread != null && writerThread.isAlive()) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            IOException error = failure;
+            failure = null;
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /*
+    写完剩余的记录之后结束写线程并关闭文件
+     */
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (lock) {
+            closing = true;
+            lock.notifyAll();
+            thread = writerThread;
+        }
+        if (thread != null) {
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (journalOut != null) {
+            journalOut.close();
+            journalOut = null;
+        }
+        IOException error;
+        synchronized (lock) {
+            error = failure;
+            failure = null;
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /*
+    给buffer中的payload加上长度和校验，返回完整的记录
+     */
+    static byte[] frame(ByteArrayOutputStream buffer, CRC32 crc) {
+        int length = buffer.size();
+        byte[] record = new byte[RECORD_HEADER_BYTES + length];
+        byte[] payload = buffer.toByteArray();
+        System.arraycopy(payload, 0, record, RECORD_HEADER_BYTES, length);
+        crc.reset();
+        crc.update(payload, 0, length);
+        ByteBuffer.wrap(record).putInt(length).putInt((int) crc.getValue());
+        return record;
+    }
+
+    void enqueue(Object item, int bytes) {
+        synchronized (lock) {
+            if (closing || writerThread == null) {
+                throw new IllegalStateException("journal is not open");
+            }
+            pending.add(item);
+            enqueuedSequence++;
+            if (pending.size() == 1) {
+                lock.notifyAll();
+            }
+        }
+        appendedBytes += bytes;
+    }
+
+    static void writeBounds(ByteArrayOutputStream out, float left, float top, float right, float bottom) {
+        writeInt(out, Float.floatToIntBits(left));
+        writeInt(out, Float.floatToIntBits(top));
+        writeInt(out, Float.floatToIntBits(right));
+        writeInt(out, Float.floatToIntBits(bottom));
+    }
+
+    static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /*
+    写线程：等到有记录之后再等待batchDelayMillis收集更多的记录(flush、close时不等)，一批只fsync一次
+     */
+    void runWriter() {
+        ArrayList<Object> batch = new ArrayList<>();
+        while (true) {
+            long sequence;
+            synchronized (lock) {
+                try {
+                    while (pending.isEmpty() && !closing) {
+                        lock.wait();
+                    }
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    long deadline = System.nanoTime() + batchDelayMillis * 1000000L;
+                    while (!closing && !flushRequested) {
+                        long remaining = (deadline - System.nanoTime()) / 1000000L;
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        lock.wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    closing = true;
+                }
+                flushRequested = false;
+                ArrayList<Object> swap = pending;
+                pending = batch;
+                batch = swap;
+                sequence = enqueuedSequence;
+            }
+            writeBatch(batch);
+            batch.clear();
+            synchronized (lock) {
+                writtenSequence = sequence;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /*
+    逐个写入一批条目，一个条目失败不影响其它条目，最后只fsync一次
+     */
+    void writeBatch(ArrayList<Object> batch) {
+        for (int i = 0, count = batch.size(); i < count; i++) {
+            Object item = batch.get(i);
+            try {
+                if (item instanceof Compaction) {
+                    writeSnapshot((Compaction) item);
+                } else {
+                    writeRecord(item);
+                }
+            } catch (IOException e) {
+                reportFailure(e);
+            } catch (RuntimeException e) {
+                reportFailure(new IOException("autosave failed", e));
+            }
+        }
+        if (bufferedOut != null && !detached) {
+            try {
+                bufferedOut.flush();
+                journalOut.getFD().sync();
+            } catch (IOException e) {
+                //不知道哪些记录已经写到磁盘上，之后的记录可能接在不完整的记录后面，等下一份快照
+                detached = true;
+                reportFailure(e);
+            }
+        }
+    }
+
+    void writeRecord(Object item) throws IOException {
+        if (detached) {
+            throw new IOException("journal record dropped: waiting for a new snapshot");
+        }
+        byte[] record = item instanceof byte[] ? (byte[]) item : encode((IndexRecord) item);
+        try {
+            bufferedOut.write(record);
+        } catch (IOException e) {
+            detached = true;
+            throw e;
+        }
+    }
+
+    /*
+    按磁盘上的快照的base换算索引之后编码，base之前的擦除目标已经包含在快照的底层栅格中，不再记录
+     */
+    byte[] encode(IndexRecord item) {
+        writerBuffer.reset();
+        writerBuffer.write(item.type);
+        if (item.type == RECORD_CURSOR) {
+            SessionFormat.writeVarInt(writerBuffer, Math.max(0, item.indices[0] - base));
+        } else {
+            int[] indices = item.indices;
+            int count = 0;
+            for (int index : indices) {
+                if (index >= base) {
+                    indices[count++] = index - base;
+                }
+            }
+            writeBounds(writerBuffer, item.left, item.top, item.right, item.bottom);
+            SessionFormat.writeIndices(writerBuffer, indices, count, Integer.MAX_VALUE);
+        }
+        return frame(writerBuffer, writerCrc);
+    }
+
+    void reportFailure(IOException error) {
+        synchronized (lock) {
+            failure = error;
+        }
+        WriteListener listener = writeListener;
+        if (listener != null) {
+            listener.onWriteFailed(error);
+        }
+    }
+
+    /*
+    先写出新代数的快照，再截断日志；两步之间崩溃时，旧日志的代数与新快照不同，打开时被丢弃。
+    快照写失败时旧的快照、日志和base都保持不变，之后的记录继续按旧的base追加到旧日志；
+    被替换的历史记录的快照写失败时，之后的记录丢弃，直到下一份快照写成
+     */
+    void writeSnapshot(Compaction compaction) throws IOException {
+        if (bufferedOut != null && !detached) {
+            try {
+                bufferedOut.flush();
+            } catch (IOException e) {
+                //旧日志写不进去不影响新快照，快照写成之后旧日志就不再需要了
+                detached = true;
+                reportFailure(e);
+            }
+        }
+        try {
+            SessionWriter writer = new SessionWriter();
+            compaction.snapshot.writeTo(writer);
+            writer.setGeneration(generation + 1);
+            writer.writeTo(snapshotFile);
+        } catch (IOException | RuntimeException e) {
+            if (compaction.historyReplaced) {
+                detached = true;
+            }
+            throw e;
+        }
+        generation++;
+        base = compaction.base;
+        snapshotBytes = snapshotFile.length();
+        //新快照已经生效，新的日志创建之前不能再写旧日志
+        detached = true;
+        OutputStream previous = journalOut;
+        journalOut = null;
+        bufferedOut = null;
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                //旧日志的内容已经包含在新快照中
+            }
+        }
+        journalOut = createJournal();
+        bufferedOut = new BufferedOutputStream(journalOut);
+        detached = false;
+        WriteListener listener = writeListener;
+        if (listener != null) {
+            listener.onSnapshotWritten(generation);
+        }
+    }
+
+    FileOutputStream createJournal() throws IOException {
+        FileOutputStream out = new FileOutputStream(journalFile, false);
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_BYTES);
+        header.putInt(JOURNAL_MAGIC).putShort(SessionFormat.VERSION).putShort((short) 0).putLong(generation);
+        out.write(header.array());
+        out.getFD().sync();
+        return out;
+    }
+}
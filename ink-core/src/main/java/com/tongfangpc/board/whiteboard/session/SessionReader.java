@@ -0,0 +1,264 @@
+package com.tongfangpc.board.whiteboard.session;
+
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+读取SessionFormat格式的会话文件：open时把整个文件映射到内存，只校验文件头和索引表的位置，
+样式表和索引表按需直接从映射中读取，笔画的采样点在readStroke时才解码，
+底层栅格的方块只在open时记录位置，图像由调用方解码。
+所有读取都使用绝对位置或者独立的duplicate，可以在多个线程上同时调用
+ */
+public class SessionReader {
+
+    final ByteBuffer buffer;
+
+    final int styleCount;
+
+    final int actionCount;
+
+    final int indexOffset;
+
+    final int styleBytes;
+
+    final long generation;
+
+    final int baseTileSize;
+
+    /*
+    每个底层栅格方块在文件中的偏移，没有底层栅格时为空
+     */
+    final int[] baseTileOffsets;
+
+    /*
+    映射文件并校验格式；文件映射在FileChannel关闭之后仍然有效，由GC释放
+     */
+    public static SessionReader open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("session file too large: " + size);
+            }
+            return new SessionReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /*
+    从已经读入内存的数据创建，buffer的position应当是文件的开头
+     */
+    public SessionReader(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.slice();
+        if (this.buffer.capacity() < SessionFormat.HEADER_BYTES || this.buffer.getInt(0) != SessionFormat.MAGIC) {
+            throw new IOException("not a whiteboard session file");
+        }
+        short version = this.buffer.getShort(4);
+        if (!SessionFormat.isSupported(version)) {
+            throw new IOException("unsupported session version: " + version);
+        }
+        styleBytes = SessionFormat.styleBytes(version);
+        styleCount = this.buffer.getInt(8);
+        actionCount = this.buffer.getInt(12);
+        long index = this.buffer.getLong(16);
+        if (styleCount < 0 || actionCount < 0
+                || SessionFormat.HEADER_BYTES + (long) styleCount * styleBytes > index
+                || index + (long) actionCount * SessionFormat.INDEX_ENTRY_BYTES > this.buffer.capacity()) {
+            throw new IOException("corrupted session header: styles=" + styleCount + ", actions=" + actionCount
+                    + ", index=" + index + ", size=" + this.buffer.capacity());
+        }
+        indexOffset = (int) index;
+        for (int i = 0; i < styleCount; i++) {
+            float width = getStyleWidth(i);
+            if (!(width >= 0) || Float.isInfinite(width)) {
+                throw new IOException("corrupted style " + i + ": width=" + width);
+            }
+        }
+        generation = this.buffer.getLong(24);
+        if (SessionFormat.hasBaseTiles(version)) {
+            int position = indexOffset + actionCount * SessionFormat.INDEX_ENTRY_BYTES;
+            if (this.buffer.capacity() - position < 8) {
+                throw new IOException("truncated base tiles at " + position);
+            }
+            baseTileSize = this.buffer.getInt(position);
+            int count = this.buffer.getInt(position + 4);
+            position += 8;
+            if (count < 0 || (count > 0 && baseTileSize <= 0)
+                    || count > (this.buffer.capacity() - position) / SessionFormat.BASE_TILE_HEADER_BYTES) {
+                throw new IOException("corrupted base tiles: size=" + baseTileSize + ", count=" + count);
+            }
+            baseTileOffsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                if (this.buffer.capacity() - position < SessionFormat.BASE_TILE_HEADER_BYTES) {
+                    throw new IOException("truncated base tile " + i);
+                }
+                int length = this.buffer.getInt(position + 8);
+                if (length < 0 || length > this.buffer.capacity() - position - SessionFormat.BASE_TILE_HEADER_BYTES) {
+                    throw new IOException("corrupted base tile " + i + ": length=" + length);
+                }
+                baseTileOffsets[i] = position;
+                position += SessionFormat.BASE_TILE_HEADER_BYTES + length;
+            }
+        } else {
+            baseTileSize = 0;
+            baseTileOffsets = new int[0];
+        }
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int getStyleCount() {
+        return styleCount;
+    }
+
+    public int getStyleColor(int style) {
+        return buffer.getInt(styleOffset(style));
+    }
+
+    public float getStyleWidth(int style) {
+        return buffer.getFloat(styleOffset(style) + 4);
+    }
+
+    /*
+    样式标志，版本1的文件总是0
+     */
+    public int getStyleFlags(int style) {
+        int offset = styleOffset(style);
+        return styleBytes > SessionFormat.STYLE_BYTES_V1 ? buffer.getInt(offset + 8) : 0;
+    }
+
+    public int getActionCount() {
+        return actionCount;
+    }
+
+    /*
+    底层栅格方块的边长(世界坐标)，没有底层栅格时为0
+     */
+    public int getBaseTileSize() {
+        return baseTileSize;
+    }
+
+    public int getBaseTileCount() {
+        return baseTileOffsets.length;
+    }
+
+    public int getBaseTileX(int tile) {
+        return buffer.getInt(baseTileOffset(tile));
+    }
+
+    public int getBaseTileY(int tile) {
+        return buffer.getInt(baseTileOffset(tile) + 4);
+    }
+
+    /*
+    读出一个底层栅格方块的PNG图像
+     */
+    public byte[] readBaseTileImage(int tile) {
+        int offset = baseTileOffset(tile);
+        byte[] image = new byte[buffer.getInt(offset + 8)];
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset + SessionFormat.BASE_TILE_HEADER_BYTES);
+        in.get(image);
+        return image;
+    }
+
+    public int getType(int action) {
+        return buffer.getInt(entryOffset(action) + 8) >>> 24;
+    }
+
+    /*
+    行为使用的样式在样式表中的序号，超出样式表时抛出IOException
+     */
+    public int getStyle(int action) throws IOException {
+        int style = buffer.getInt(entryOffset(action) + 8) & SessionFormat.STYLE_MASK;
+        if (style >= styleCount) {
+            throw new IOException("action " + action + " refers to style " + style + ", styleCount=" + styleCount);
+        }
+        return style;
+    }
+
+    public float getLeft(int action) {
+        return buffer.getFloat(entryOffset(action) + 12);
+    }
+
+    public float getTop(int action) {
+        return buffer.getFloat(entryOffset(action) + 16);
+    }
+
+    public float getRight(int action) {
+        return buffer.getFloat(entryOffset(action) + 20);
+    }
+
+    public float getBottom(int action) {
+        return buffer.getFloat(entryOffset(action) + 24);
+    }
+
+    /*
+    解码一笔的采样点
+     */
+    public Stroke readStroke(int action) throws IOException {
+        ByteBuffer in = record(action, SessionFormat.TYPE_STROKE);
+        try {
+            return SessionFormat.readStrokePoints(in);
+        } catch (IOException e) {
+            throw new IOException("corrupted stroke " + action, e);
+        }
+    }
+
+    /*
+    解码一次擦除的目标，返回升序的笔画索引
+     */
+    public int[] readEraseTargets(int action) throws IOException {
+        ByteBuffer in = record(action, SessionFormat.TYPE_ERASE);
+        try {
+            return SessionFormat.readIndices(in, action);
+        } catch (IOException e) {
+            throw new IOException("corrupted erase " + action, e);
+        }
+    }
+
+    ByteBuffer record(int action, int expectedType) throws IOException {
+        int type = getType(action);
+        if (type != expectedType) {
+            throw new IOException("action " + action + " has type " + type + ", expected " + expectedType);
+        }
+        long offset = buffer.getLong(entryOffset(action));
+        if (offset < SessionFormat.HEADER_BYTES || offset >= indexOffset) {
+            throw new IOException("corrupted offset for action " + action + ": " + offset);
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.limit(indexOffset);
+        in.position((int) offset);
+        return in;
+    }
+
+    int baseTileOffset(int tile) {
+        if (tile < 0 || tile >= baseTileOffsets.length) {
+            throw new IndexOutOfBoundsException("tile=" + tile + ", baseTileCount=" + baseTileOffsets.length);
+        }
+        return baseTileOffsets[tile];
+    }
+
+    int styleOffset(int style) {
+        if (style < 0 || style >= styleCount) {
+            throw new IndexOutOfBoundsException("style=" + style + ", styleCount=" + styleCount);
+        }
+        return SessionFormat.HEADER_BYTES + style * styleBytes;
+    }
+
+    int entryOffset(int action) {
+        if (action < 0 || action >= actionCount) {
+            throw new IndexOutOfBoundsException("action=" + action + ", actionCount=" + actionCount);
+        }
+        return indexOffset + action * SessionFormat.INDEX_ENTRY_BYTES;
+    }
+}
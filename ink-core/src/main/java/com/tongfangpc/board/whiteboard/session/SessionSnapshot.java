@@ -0,0 +1,146 @@
+package com.tongfangpc.board.whiteboard.session;
+
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/*
+历史记录在某一时刻的快照：持有历史记录的锁时只登记不可变的Stroke、延迟加载笔画所在的会话文件
+和擦除关系，不做任何编码；之后可以在任意线程上通过writeTo编码写出，
+这期间历史记录继续被修改、行为被截断都不会影响快照。
+历史记录被压缩过时，快照还登记底层栅格的方块，图像同样在writeTo时才编码
+ */
+public class SessionSnapshot {
+
+    /*
+    底层栅格的一个方块的图像，由调用方实现编码，必须是不会再被修改的图像
+     */
+    public interface TileImage {
+        byte[] encode() throws IOException;
+    }
+
+    static final class BaseTile {
+        final int tileX;
+        final int tileY;
+        final TileImage image;
+
+        BaseTile(int tileX, int tileY, TileImage image) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.image = image;
+        }
+    }
+
+    static final class Entry {
+        final int type;
+        final Stroke stroke;
+        final SessionReader source;
+        final int recordIndex;
+        final int color;
+        final float width;
+        final int styleFlags;
+        final int[] targets;
+        final float left;
+        final float top;
+        final float right;
+        final float bottom;
+
+        Entry(int type, Stroke stroke, SessionReader source, int recordIndex, int color, float width, int styleFlags, int[] targets,
+              float left, float top, float right, float bottom) {
+            this.type = type;
+            this.stroke = stroke;
+            this.source = source;
+            this.recordIndex = recordIndex;
+            this.color = color;
+            this.width = width;
+            this.styleFlags = styleFlags;
+            this.targets = targets;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+    }
+
+    final ArrayList<Entry> entries;
+
+    final ArrayList<BaseTile> baseTiles = new ArrayList<>();
+
+    int baseTileSize;
+
+    public SessionSnapshot() {
+        this(16);
+    }
+
+    public SessionSnapshot(int expectedSize) {
+        entries = new ArrayList<>(expectedSize);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /*
+    登记一笔已经解码的笔画
+     */
+    public void addStroke(Stroke stroke, int color, float width, int styleFlags, float left, float top, float right, float bottom) {
+        entries.add(new Entry(SessionFormat.TYPE_STROKE, stroke, null, 0, color, width, styleFlags, null, left, top, right, bottom));
+    }
+
+    /*
+    登记一笔还没有解码的笔画，写出时才从source中读取
+     */
+    public void addStroke(SessionReader source, int recordIndex, int color, float width, int styleFlags,
+                          float left, float top, float right, float bottom) {
+        entries.add(new Entry(SessionFormat.TYPE_STROKE, null, source, recordIndex, color, width, styleFlags, null,
+                left, top, right, bottom));
+    }
+
+    /*
+    登记一次擦除，targets[0, count)是快照中被擦掉的笔画的序号，会被拷贝
+     */
+    public void addErase(int[] targets, int count, float left, float top, float right, float bottom) {
+        int[] copy = new int[count];
+        System.arraycopy(targets, 0, copy, 0, count);
+        entries.add(new Entry(SessionFormat.TYPE_ERASE, null, null, 0, 0, 0, 0, copy, left, top, right, bottom));
+    }
+
+    /*
+    登记底层栅格中(tileX, tileY)位置的方块，tileSize为方块的边长(世界坐标)
+     */
+    public void addBaseTile(int tileSize, int tileX, int tileY, TileImage image) {
+        if (!baseTiles.isEmpty() && tileSize != baseTileSize) {
+            throw new IllegalArgumentException("tileSize " + tileSize + " differs from " + baseTileSize);
+        }
+        baseTileSize = tileSize;
+        baseTiles.add(new BaseTile(tileX, tileY, image));
+    }
+
+    public int getBaseTileCount() {
+        return baseTiles.size();
+    }
+
+    /*
+    按登记的顺序编码写入writer
+     */
+    public void writeTo(SessionWriter writer) throws IOException {
+        for (int i = 0, count = entries.size(); i < count; i++) {
+            Entry entry = entries.get(i);
+            if (entry.type == SessionFormat.TYPE_STROKE) {
+                Stroke stroke = entry.stroke != null ? entry.stroke : entry.source.readStroke(entry.recordIndex);
+                writer.writeStroke(stroke, entry.color, entry.width, entry.styleFlags,
+                        entry.left, entry.top, entry.right, entry.bottom);
+            } else {
+                writer.writeErase(entry.targets, entry.targets.length, entry.left, entry.top, entry.right, entry.bottom);
+            }
+        }
+        if (!baseTiles.isEmpty()) {
+            writer.setBaseTileSize(baseTileSize);
+            for (int i = 0, count = baseTiles.size(); i < count; i++) {
+                BaseTile tile = baseTiles.get(i);
+                writer.writeBaseTile(tile.tileX, tile.tileY, tile.image.encode());
+            }
+        }
+    }
+}
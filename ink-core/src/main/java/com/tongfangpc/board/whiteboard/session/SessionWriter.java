@@ -0,0 +1,200 @@
+package com.tongfangpc.board.whiteboard.session;
+
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+按SessionFormat写出会话文件：行为按历史记录的顺序依次写入，样式表在写入过程中自动收集，
+全部写完之后由writeTo一次性输出文件头、样式表、行为记录、索引表和底层栅格。
+行为记录先缓存在内存中，因为文件头需要知道样式数量和索引表的位置
+ */
+public class SessionWriter {
+
+    final ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+    final ByteArrayOutputStream index = new ByteArrayOutputStream();
+
+    final DataOutputStream indexOut = new DataOutputStream(index);
+
+    /*
+    (颜色, 笔宽, 标志)到样式表序号的映射
+     */
+    final Map<Long, Integer> styleIndices = new HashMap<>();
+
+    final ByteArrayOutputStream styles = new ByteArrayOutputStream();
+
+    final DataOutputStream stylesOut = new DataOutputStream(styles);
+
+    /*
+    底层栅格的方块，按tx、ty、图像长度、图像依次存放
+     */
+    final ByteArrayOutputStream baseTiles = new ByteArrayOutputStream();
+
+    final DataOutputStream baseTilesOut = new DataOutputStream(baseTiles);
+
+    int baseTileCount;
+
+    int baseTileSize;
+
+    int actionCount;
+
+    long generation;
+
+    public int getActionCount() {
+        return actionCount;
+    }
+
+    public int getStyleCount() {
+        return styleIndices.size();
+    }
+
+    /*
+    自动保存的快照记录与之配对的日志的代数
+     */
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    public int getBaseTileCount() {
+        return baseTileCount;
+    }
+
+    /*
+    底层栅格方块的边长(世界坐标)，写入方块之前设置
+     */
+    public void setBaseTileSize(int baseTileSize) {
+        if (baseTileSize <= 0) {
+            throw new IllegalArgumentException("baseTileSize must be positive: " + baseTileSize);
+        }
+        this.baseTileSize = baseTileSize;
+    }
+
+    /*
+    写入底层栅格中(tileX, tileY)位置的方块，image是编码好的PNG
+     */
+    public void writeBaseTile(int tileX, int tileY, byte[] image) throws IOException {
+        if (baseTileSize <= 0) {
+            throw new IllegalStateException("base tile size is not set");
+        }
+        baseTilesOut.writeInt(tileX);
+        baseTilesOut.writeInt(tileY);
+        baseTilesOut.writeInt(image.length);
+        baseTilesOut.write(image);
+        baseTileCount++;
+    }
+
+    /*
+    写入一笔固定笔宽的笔画，bounds为含笔宽的范围(left, top, right, bottom)
+     */
+    public void writeStroke(Stroke stroke, int color, float width, float left, float top, float right, float bottom) throws IOException {
+        writeStroke(stroke, color, width, 0, left, top, right, bottom);
+    }
+
+    /*
+    写入一笔，styleFlags为SessionFormat中的样式标志
+     */
+    public void writeStroke(Stroke stroke, int color, float width, int styleFlags,
+                            float left, float top, float right, float bottom) throws IOException {
+        int style = styleIndex(color, width, styleFlags);
+        int offset = records.size();
+        SessionFormat.writeStrokePoints(records, stroke);
+        writeIndexEntry(offset, SessionFormat.TYPE_STROKE, style, left, top, right, bottom);
+    }
+
+    /*
+    写入一次擦除，targets[0, count)是被擦掉的笔画的索引(升序)，必须是之前已经写入的行为
+     */
+    public void writeErase(int[] targets, int count, float left, float top, float right, float bottom) throws IOException {
+        int offset = records.size();
+        SessionFormat.writeIndices(records, targets, count, actionCount);
+        writeIndexEntry(offset, SessionFormat.TYPE_ERASE, 0, left, top, right, bottom);
+    }
+
+    /*
+    输出完整的文件，可以重复调用
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        int styleCount = styleIndices.size();
+        long recordsOffset = SessionFormat.HEADER_BYTES + (long) styleCount * SessionFormat.STYLE_BYTES;
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(SessionFormat.MAGIC);
+        data.writeShort(SessionFormat.VERSION);
+        data.writeShort(0);
+        data.writeInt(styleCount);
+        data.writeInt(actionCount);
+        data.writeLong(recordsOffset + records.size());
+        data.writeLong(generation);
+        styles.writeTo(data);
+        records.writeTo(data);
+        //索引表中的偏移是相对于行为记录的开头写入的，这里换算成文件内的绝对偏移
+        byte[] entries = index.toByteArray();
+        for (int i = 0; i < actionCount; i++) {
+            int base = i * SessionFormat.INDEX_ENTRY_BYTES;
+            long offset = readLong(entries, base) + recordsOffset;
+            data.writeLong(offset);
+            data.write(entries, base + 8, SessionFormat.INDEX_ENTRY_BYTES - 8);
+        }
+        data.writeInt(baseTileSize);
+        data.writeInt(baseTileCount);
+        baseTiles.writeTo(data);
+        data.flush();
+    }
+
+    /*
+    先写入同一目录下的临时文件并同步到磁盘，再改名为file，失败时不会破坏已有的文件
+     */
+    public void writeTo(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            writeTo(new BufferedOutputStream(out));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("failed to rename " + temp + " to " + file);
+        }
+    }
+
+    int styleIndex(int color, float width, int flags) throws IOException {
+        Long key = SessionFormat.styleKey(color, width, flags);
+        Integer style = styleIndices.get(key);
+        if (style == null) {
+            style = styleIndices.size();
+            styleIndices.put(key, style);
+            stylesOut.writeInt(color);
+            stylesOut.writeFloat(width);
+            stylesOut.writeInt(flags);
+        }
+        return style;
+    }
+
+    void writeIndexEntry(long offset, int type, int style, float left, float top, float right, float bottom) throws IOException {
+        indexOut.writeLong(offset);
+        indexOut.writeInt((type << 24) | (style & SessionFormat.STYLE_MASK));
+        indexOut.writeFloat(left);
+        indexOut.writeFloat(top);
+        indexOut.writeFloat(right);
+        indexOut.writeFloat(bottom);
+        actionCount++;
+    }
+
+    static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
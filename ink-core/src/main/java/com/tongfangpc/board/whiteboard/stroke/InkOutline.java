@@ -0,0 +1,237 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+import java.util.Arrays;
+
+/*
+可变笔宽的墨水笔轮廓：每个采样点的半径由压力和书写速度决定，压力越大越粗，写得越快越细，
+速度做指数平滑，避免笔宽随采样间隔抖动。
+轮廓是一组同向的闭合多边形的并集：每个采样点一个圆(8段二次曲线近似)，
+相邻两点之间一个按法线偏移半径得到的四边形，用非零环绕规则填充时不会出现空洞，带透明度的颜色也只混合一次。
+几何数据随采样点增量计算并保存下来：书写时每来一个点只输出新增的部分，
+之后重放时直接按保存的顶点输出，不再计算速度、法线和开方
+ */
+public class InkOutline {
+
+    /*
+    压力为0和1时半径相对于半个笔宽的比例，超出[0, 1]的压力被截断
+     */
+    static final float MIN_PRESSURE_FACTOR = 0.4f;
+    static final float MAX_PRESSURE_FACTOR = 1.2f;
+
+    /*
+    速度(像素/毫秒)每增加1，半径除以(1 + VELOCITY_THINNING)，最细到MIN_VELOCITY_FACTOR
+     */
+    static final float VELOCITY_THINNING = 0.35f;
+    static final float MIN_VELOCITY_FACTOR = 0.4f;
+
+    /*
+    新的瞬时速度在平滑速度中所占的权重
+     */
+    static final float VELOCITY_SMOOTHING = 0.4f;
+
+    /*
+    每个采样点保存x、y、半径
+     */
+    static final int POINT_STRIDE = 3;
+
+    /*
+    每一段保存四边形的4个顶点
+     */
+    static final int SEGMENT_STRIDE = 8;
+
+    static final int CIRCLE_SEGMENTS = 8;
+
+    /*
+    圆的8段二次曲线：端点和控制点的单位向量，角度递减，与四边形的方向一致
+     */
+    static final float[] CIRCLE_COS = new float[CIRCLE_SEGMENTS + 1];
+    static final float[] CIRCLE_SIN = new float[CIRCLE_SEGMENTS + 1];
+    static final float[] CONTROL_COS = new float[CIRCLE_SEGMENTS];
+    static final float[] CONTROL_SIN = new float[CIRCLE_SEGMENTS];
+
+    static {
+        double step = -2 * Math.PI / CIRCLE_SEGMENTS;
+        double controlDistance = 1 / Math.cos(step / 2);
+        for (int i = 0; i <= CIRCLE_SEGMENTS; i++) {
+            CIRCLE_COS[i] = (float) Math.cos(step * i);
+            CIRCLE_SIN[i] = (float) Math.sin(step * i);
+        }
+        for (int i = 0; i < CIRCLE_SEGMENTS; i++) {
+            CONTROL_COS[i] = (float) (Math.cos(step * (i + 0.5)) * controlDistance);
+            CONTROL_SIN[i] = (float) (Math.sin(step * (i + 0.5)) * controlDistance);
+        }
+    }
+
+    float halfWidth;
+
+    float[] points;
+
+    /*
+    第i段连接第i-1和第i个点，第0段不使用；两点重合时该段为NaN，只由圆覆盖
+     */
+    float[] segments;
+
+    int pointCount;
+
+    float lastTime;
+
+    float velocity;
+
+    public InkOutline() {
+        this(64);
+    }
+
+    public InkOutline(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        points = new float[capacity * POINT_STRIDE];
+        segments = new float[capacity * SEGMENT_STRIDE];
+    }
+
+    /*
+    由整条笔画一次性计算，结果与书写时逐点增量计算的相同
+     */
+    public static InkOutline of(Stroke stroke, float width) {
+        InkOutline outline = new InkOutline(stroke.getPointCount());
+        outline.begin(width);
+        for (int i = 0, count = stroke.getPointCount(); i < count; i++) {
+            outline.add(stroke.getX(i), stroke.getY(i), stroke.getTime(i), stroke.getPressure(i));
+        }
+        return outline;
+    }
+
+    /*
+    笔宽为width时轮廓到采样点折线的最大距离
+     */
+    public static float maxRadius(float width) {
+        return width / 2 * MAX_PRESSURE_FACTOR;
+    }
+
+    /*
+    开始新的一笔，已有的几何数据被丢弃，数组复用
+     */
+    public void begin(float width) {
+        halfWidth = width / 2;
+        pointCount = 0;
+        velocity = 0;
+    }
+
+    public void reset() {
+        pointCount = 0;
+        velocity = 0;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public float getRadius(int index) {
+        return points[index * POINT_STRIDE + 2];
+    }
+
+    /*
+    追加一个采样点，time为毫秒，只使用与上一个点的差
+     */
+    public void add(float x, float y, float time, float pressure) {
+        if ((pointCount + 1) * POINT_STRIDE > points.length) {
+            int capacity = Math.max(pointCount + 1, pointCount * 2);
+            points = Arrays.copyOf(points, capacity * POINT_STRIDE);
+            segments = Arrays.copyOf(segments, capacity * SEGMENT_STRIDE);
+        }
+        int offset = pointCount * POINT_STRIDE;
+        if (pointCount > 0) {
+            float previousX = points[offset - POINT_STRIDE];
+            float previousY = points[offset - POINT_STRIDE + 1];
+            float distance = (float) Math.hypot(x - previousX, y - previousY);
+            float elapsed = Math.max(time - lastTime, 1);
+            velocity += (distance / elapsed - velocity) * VELOCITY_SMOOTHING;
+        }
+        lastTime = time;
+        float pressureFactor = MIN_PRESSURE_FACTOR
+                + (MAX_PRESSURE_FACTOR - MIN_PRESSURE_FACTOR) * Math.max(0, Math.min(1, pressure));
+        float velocityFactor = Math.max(MIN_VELOCITY_FACTOR, 1 / (1 + VELOCITY_THINNING * velocity));
+        float radius = halfWidth * pressureFactor * velocityFactor;
+        points[offset] = x;
+        points[offset + 1] = y;
+        points[offset + 2] = radius;
+        if (pointCount > 0) {
+            computeSegment(pointCount);
+        }
+        pointCount++;
+    }
+
+    /*
+    第index段的四边形：两个端点沿法线两侧各偏移自己的半径
+     */
+    void computeSegment(int index) {
+        int a = (index - 1) * POINT_STRIDE;
+        int b = index * POINT_STRIDE;
+        int s = index * SEGMENT_STRIDE;
+        float dx = points[b] - points[a];
+        float dy = points[b + 1] - points[a + 1];
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length < 1e-3f) {
+            segments[s] = Float.NaN;
+            return;
+        }
+        float nx = -dy / length;
+        float ny = dx / length;
+        float ra = points[a + 2];
+        float rb = points[b + 2];
+        segments[s] = points[a] + nx * ra;
+        segments[s + 1] = points[a + 1] + ny * ra;
+        segments[s + 2] = points[b] + nx * rb;
+        segments[s + 3] = points[b + 1] + ny * rb;
+        segments[s + 4] = points[b] - nx * rb;
+        segments[s + 5] = points[b + 1] - ny * rb;
+        segments[s + 6] = points[a] - nx * ra;
+        segments[s + 7] = points[a + 1] - ny * ra;
+    }
+
+    /*
+    输出完整的轮廓
+     */
+    public void emit(PathSink sink) {
+        for (int i = 0; i < pointCount; i++) {
+            emitPoint(i, sink);
+        }
+    }
+
+    /*
+    只输出最后一个点新增的部分(连接上一个点的四边形和这个点的圆)，用于增量更新正在书写的路径
+     */
+    public void emitLast(PathSink sink) {
+        if (pointCount > 0) {
+            emitPoint(pointCount - 1, sink);
+        }
+    }
+
+    void emitPoint(int index, PathSink sink) {
+        if (index > 0) {
+            int s = index * SEGMENT_STRIDE;
+            if (!Float.isNaN(segments[s])) {
+                sink.moveTo(segments[s], segments[s + 1]);
+                sink.lineTo(segments[s + 2], segments[s + 3]);
+                sink.lineTo(segments[s + 4], segments[s + 5]);
+                sink.lineTo(segments[s + 6], segments[s + 7]);
+                sink.close();
+            }
+        }
+        int offset = index * POINT_STRIDE;
+        float x = points[offset];
+        float y = points[offset + 1];
+        float radius = points[offset + 2];
+        sink.moveTo(x + radius * CIRCLE_COS[0], y + radius * CIRCLE_SIN[0]);
+        for (int i = 0; i < CIRCLE_SEGMENTS; i++) {
+            sink.quadTo(x + radius * CONTROL_COS[i], y + radius * CONTROL_SIN[i],
+                    x + radius * CIRCLE_COS[i + 1], y + radius * CIRCLE_SIN[i + 1]);
+        }
+        sink.close();
+    }
+
+    /*
+    估算保存的几何数据占用的内存字节数
+     */
+    public long getByteSize() {
+        return 64 + (long) (points.length + segments.length) * 4;
+    }
+}
@@ -0,0 +1,141 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+/*
+默认的运动预测：对最近window毫秒内的采样点按时间做最小二乘直线拟合得到速度，
+从最后一个采样点沿速度方向匀速外推；拟合多个点可以压住采样的抖动，窗口不宜过长，否则转弯时滞后明显。
+停笔时窗口内的点重合，速度趋于0，预测的尾巴自然消失
+ */
+public class LinearStrokePredictor implements StrokePredictor {
+
+    public static final float DEFAULT_WINDOW = 40;
+
+    public static final StrokePredictor.Factory FACTORY = new StrokePredictor.Factory() {
+        @Override
+        public StrokePredictor create() {
+            return new LinearStrokePredictor();
+        }
+    };
+
+    /*
+    环形保存的最近采样点数量
+     */
+    static final int HISTORY = 8;
+
+    /*
+    外推的距离小于它时不输出预测
+     */
+    static final float MIN_DISTANCE = 0.5f;
+
+    /*
+    预测的轨迹均分为几段
+     */
+    static final int STEPS = 4;
+
+    final float[] xs = new float[HISTORY];
+    final float[] ys = new float[HISTORY];
+    final float[] times = new float[HISTORY];
+    final float[] pressures = new float[HISTORY];
+
+    /*
+    已保存的点数和下一个写入的位置
+     */
+    int count;
+    int next;
+
+    float window = DEFAULT_WINDOW;
+
+    public float getWindow() {
+        return window;
+    }
+
+    /*
+    设置拟合速度使用的时间窗口(毫秒)
+     */
+    public void setWindow(float window) {
+        if (!(window > 0)) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        this.window = window;
+    }
+
+    @Override
+    public void reset() {
+        count = 0;
+        next = 0;
+    }
+
+    @Override
+    public void add(float x, float y, float time, float pressure) {
+        xs[next] = x;
+        ys[next] = y;
+        times[next] = time;
+        pressures[next] = pressure;
+        next = (next + 1) % HISTORY;
+        count = Math.min(count + 1, HISTORY);
+    }
+
+    @Override
+    public int predict(float horizon, float maxDistance, float[] out) {
+        if (count < 2 || !(horizon > 0)) {
+            return 0;
+        }
+        int last = (next + HISTORY - 1) % HISTORY;
+        float lastTime = times[last];
+        //窗口内的点相对于最后一个点的均值
+        int used = 0;
+        float meanT = 0;
+        float meanX = 0;
+        float meanY = 0;
+        for (int i = 0; i < count; i++) {
+            int index = (last + HISTORY - i) % HISTORY;
+            float t = times[index] - lastTime;
+            if (i >= 2 && t < -window) {
+                break;
+            }
+            meanT += t;
+            meanX += xs[index];
+            meanY += ys[index];
+            used++;
+        }
+        meanT /= used;
+        meanX /= used;
+        meanY /= used;
+        float stt = 0;
+        float stx = 0;
+        float sty = 0;
+        for (int i = 0; i < used; i++) {
+            int index = (last + HISTORY - i) % HISTORY;
+            float t = times[index] - lastTime - meanT;
+            stt += t * t;
+            stx += t * (xs[index] - meanX);
+            sty += t * (ys[index] - meanY);
+        }
+        if (stt <= 0) {
+            return 0;
+        }
+        float dx = stx / stt * horizon;
+        float dy = sty / stt * horizon;
+        float distance = (float) Math.sqrt(dx * dx + dy * dy);
+        if (distance < MIN_DISTANCE) {
+            return 0;
+        }
+        if (distance > maxDistance) {
+            float ratio = maxDistance / distance;
+            dx *= ratio;
+            dy *= ratio;
+        }
+        int steps = Math.min(STEPS, out.length / Stroke.STRIDE);
+        float lastX = xs[last];
+        float lastY = ys[last];
+        float lastPressure = pressures[last];
+        for (int i = 1; i <= steps; i++) {
+            float fraction = (float) i / steps;
+            int offset = (i - 1) * Stroke.STRIDE;
+            out[offset + Stroke.X] = lastX + dx * fraction;
+            out[offset + Stroke.Y] = lastY + dy * fraction;
+            out[offset + Stroke.TIME] = lastTime + horizon * fraction;
+            out[offset + Stroke.PRESSURE] = lastPressure;
+        }
+        return steps;
+    }
+}
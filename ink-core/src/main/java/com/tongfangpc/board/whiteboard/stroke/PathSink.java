@@ -0,0 +1,18 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+/*
+路径输出的接口，Stroke通过它把采样点转换为平滑曲线，
+由具体的平台实现(例如android.graphics.Path)接收
+ */
+public interface PathSink {
+    void moveTo(float x, float y);
+
+    void quadTo(float x1, float y1, float x2, float y2);
+
+    void lineTo(float x, float y);
+
+    /*
+    闭合当前的子路径，可变笔宽的轮廓由多个闭合的多边形组成
+     */
+    void close();
+}
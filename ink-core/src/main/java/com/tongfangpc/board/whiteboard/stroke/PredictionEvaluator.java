@@ -0,0 +1,95 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+/*
+在记录下来的笔迹上评估运动预测的效果：按时间顺序把采样点逐个交给predictor，
+每一步预测horizon毫秒之后的位置，与笔迹中那个时刻的实际位置(相邻采样点线性插值)比较；
+同时统计不做预测(直接显示最后一个采样点)时的误差作为基准，即延迟本身造成的滞后距离。
+笔迹可以来自会话文件(SessionReader.readStroke)，用于针对真实的书写数据调整预测的参数
+ */
+public final class PredictionEvaluator {
+
+    public static final class Result {
+        final int sampleCount;
+        final float meanError;
+        final float maxError;
+        final float baselineMeanError;
+
+        Result(int sampleCount, float meanError, float maxError, float baselineMeanError) {
+            this.sampleCount = sampleCount;
+            this.meanError = meanError;
+            this.maxError = maxError;
+            this.baselineMeanError = baselineMeanError;
+        }
+
+        /*
+        参与评估的采样点数量，笔迹最后horizon毫秒内的点没有对照的实际位置，不计入
+         */
+        public int getSampleCount() {
+            return sampleCount;
+        }
+
+        public float getMeanError() {
+            return meanError;
+        }
+
+        public float getMaxError() {
+            return maxError;
+        }
+
+        public float getBaselineMeanError() {
+            return baselineMeanError;
+        }
+
+        @Override
+        public String toString() {
+            return "samples=" + sampleCount + ", meanError=" + meanError + ", maxError=" + maxError
+                    + ", baselineMeanError=" + baselineMeanError;
+        }
+    }
+
+    private PredictionEvaluator() {
+    }
+
+    public static Result evaluate(Stroke trace, StrokePredictor predictor, float horizon, float maxDistance) {
+        predictor.reset();
+        float[] out = new float[StrokePredictor.MAX_POINTS * Stroke.STRIDE];
+        int pointCount = trace.getPointCount();
+        float endTime = pointCount > 0 ? trace.getTime(pointCount - 1) : 0;
+        int sampleCount = 0;
+        double errorSum = 0;
+        double baselineSum = 0;
+        float maxError = 0;
+        int segment = 0;
+        for (int i = 0; i < pointCount; i++) {
+            float x = trace.getX(i);
+            float y = trace.getY(i);
+            predictor.add(x, y, trace.getTime(i), trace.getPressure(i));
+            float target = trace.getTime(i) + horizon;
+            if (target > endTime) {
+                break;
+            }
+            //找到target所在的一段[segment, segment + 1]
+            while (segment + 1 < pointCount - 1 && trace.getTime(segment + 1) < target) {
+                segment++;
+            }
+            float t0 = trace.getTime(segment);
+            float t1 = trace.getTime(segment + 1);
+            float fraction = t1 > t0 ? Math.max(0, Math.min(1, (target - t0) / (t1 - t0))) : 1;
+            float actualX = trace.getX(segment) + (trace.getX(segment + 1) - trace.getX(segment)) * fraction;
+            float actualY = trace.getY(segment) + (trace.getY(segment + 1) - trace.getY(segment)) * fraction;
+
+            int count = predictor.predict(horizon, maxDistance, out);
+            float predictedX = count > 0 ? out[(count - 1) * Stroke.STRIDE + Stroke.X] : x;
+            float predictedY = count > 0 ? out[(count - 1) * Stroke.STRIDE + Stroke.Y] : y;
+            float error = (float) Math.hypot(predictedX - actualX, predictedY - actualY);
+            errorSum += error;
+            baselineSum += Math.hypot(x - actualX, y - actualY);
+            maxError = Math.max(maxError, error);
+            sampleCount++;
+        }
+        if (sampleCount == 0) {
+            return new Result(0, 0, 0, 0);
+        }
+        return new Result(sampleCount, (float) (errorSum / sampleCount), maxError, (float) (baselineSum / sampleCount));
+    }
+}
@@ -0,0 +1,231 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+/*
+紧凑的笔画数据模型：所有输入采样点按(x, y, time, pressure)依次打包在一个float[]中，
+time为相对于笔画起点的毫秒数。相比保存一份android.graphics.Path的拷贝，
+原始采样点可以序列化，占用的内存也只有每个点16个字节。
+绘制所需的曲线通过emitPath按需生成：
+第一个点moveTo并画一个原地的quadTo(保证单击也能画出一个点)，
+之后的每个点以上一个点为控制点，quadTo到两点的中点。
+ */
+public final class Stroke {
+
+    /*
+    每个采样点占用的float数量
+     */
+    public static final int STRIDE = 4;
+
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int TIME = 2;
+    public static final int PRESSURE = 3;
+
+    /*
+    数组对象头和字段的估算开销
+     */
+    static final int OVERHEAD_BYTES = 64;
+
+    final float[] samples;
+
+    final int pointCount;
+
+    final float left;
+    final float top;
+    final float right;
+    final float bottom;
+
+    /*
+    samples的长度必须刚好是pointCount * STRIDE，由StrokeBuilder保证
+     */
+    Stroke(float[] samples, int pointCount) {
+        this.samples = samples;
+        this.pointCount = pointCount;
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0, j = pointCount * STRIDE; i < j; i += STRIDE) {
+            minX = Math.min(minX, samples[i + X]);
+            minY = Math.min(minY, samples[i + Y]);
+            maxX = Math.max(maxX, samples[i + X]);
+            maxY = Math.max(maxY, samples[i + Y]);
+        }
+        if (pointCount == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        left = minX;
+        top = minY;
+        right = maxX;
+        bottom = maxY;
+    }
+
+    /*
+    由打包好的采样数组直接创建笔画，数组会被拷贝
+     */
+    public static Stroke of(float[] samples, int pointCount) {
+        if (pointCount < 0 || pointCount * STRIDE > samples.length) {
+            throw new IllegalArgumentException("pointCount=" + pointCount + ", samples=" + samples.length);
+        }
+        float[] packed = new float[pointCount * STRIDE];
+        System.arraycopy(samples, 0, packed, 0, packed.length);
+        return new Stroke(packed, pointCount);
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public float getX(int index) {
+        return samples[index * STRIDE + X];
+    }
+
+    public float getY(int index) {
+        return samples[index * STRIDE + Y];
+    }
+
+    public float getTime(int index) {
+        return samples[index * STRIDE + TIME];
+    }
+
+    public float getPressure(int index) {
+        return samples[index * STRIDE + PRESSURE];
+    }
+
+    /*
+    将所有采样点拷贝到dest中，返回拷贝的float数量
+     */
+    public int copySamples(float[] dest) {
+        int length = pointCount * STRIDE;
+        System.arraycopy(samples, 0, dest, 0, length);
+        return length;
+    }
+
+    /*
+    采样点的包围盒，不含笔宽
+     */
+    public float getLeft() {
+        return left;
+    }
+
+    public float getTop() {
+        return top;
+    }
+
+    public float getRight() {
+        return right;
+    }
+
+    public float getBottom() {
+        return bottom;
+    }
+
+    /*
+    圆心(x, y)、半径radius的圆是否碰到笔画：先用包围盒排除，再逐段计算到采样点折线的距离；
+    平滑曲线与折线的偏差很小，由调用方在radius中留出余量(例如半个笔宽)
+     */
+    public boolean intersectsCircle(float x, float y, float radius) {
+        if (pointCount == 0 || x < left - radius || x > right + radius || y < top - radius || y > bottom + radius) {
+            return false;
+        }
+        float radiusSquared = radius * radius;
+        float previousX = samples[X];
+        float previousY = samples[Y];
+        if (pointCount == 1) {
+            return distanceSquared(x, y, previousX, previousY) <= radiusSquared;
+        }
+        for (int i = 1; i < pointCount; i++) {
+            int offset = i * STRIDE;
+            float currentX = samples[offset + X];
+            float currentY = samples[offset + Y];
+            if (segmentDistanceSquared(x, y, previousX, previousY, currentX, currentY) <= radiusSquared) {
+                return true;
+            }
+            previousX = currentX;
+            previousY = currentY;
+        }
+        return false;
+    }
+
+    static float distanceSquared(float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        return dx * dx + dy * dy;
+    }
+
+    /*
+    点(x, y)到线段(x0, y0)-(x1, y1)的距离的平方
+     */
+    static float segmentDistanceSquared(float x, float y, float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return distanceSquared(x, y, x0, y0);
+        }
+        float t = ((x - x0) * dx + (y - y0) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return distanceSquared(x, y, x0 + t * dx, y0 + t * dy);
+    }
+
+    /*
+    估算该笔画占用的内存字节数
+     */
+    public long getByteSize() {
+        return OVERHEAD_BYTES + (long) samples.length * 4;
+    }
+
+    /*
+    将整条笔画的平滑曲线输出到sink
+     */
+    public void emitPath(PathSink sink) {
+        for (int i = 0; i < pointCount; i++) {
+            emitSegment(samples, i, sink);
+        }
+    }
+
+    /*
+    输出简化后的曲线，用于缩小显示时：与上一个输出点的距离小于minDistance的采样点被跳过，
+    起点和终点总是保留，曲线的生成规则与emitPath相同
+     */
+    public void emitPath(PathSink sink, float minDistance) {
+        if (minDistance <= 0 || pointCount <= 2) {
+            emitPath(sink);
+            return;
+        }
+        float minDistanceSquared = minDistance * minDistance;
+        float previousX = samples[X];
+        float previousY = samples[Y];
+        sink.moveTo(previousX, previousY);
+        sink.quadTo(previousX, previousY, previousX, previousY);
+        int last = pointCount - 1;
+        for (int i = 1; i <= last; i++) {
+            int offset = i * STRIDE;
+            float x = samples[offset + X];
+            float y = samples[offset + Y];
+            float dx = x - previousX;
+            float dy = y - previousY;
+            if (i < last && dx * dx + dy * dy < minDistanceSquared) {
+                continue;
+            }
+            sink.quadTo(previousX, previousY, (x + previousX) / 2, (y + previousY) / 2);
+            previousX = x;
+            previousY = y;
+        }
+    }
+
+    /*
+    输出第index个采样点对应的曲线段，StrokeBuilder在增量绘制时复用同一规则
+     */
+    static void emitSegment(float[] samples, int index, PathSink sink) {
+        int offset = index * STRIDE;
+        float x = samples[offset + X];
+        float y = samples[offset + Y];
+        if (index == 0) {
+            sink.moveTo(x, y);
+            sink.quadTo(x, y, x, y);
+        }
+        else {
+            float previousX = samples[offset - STRIDE + X];
+            float previousY = samples[offset - STRIDE + Y];
+            sink.quadTo(previousX, previousY, (x + previousX) / 2, (y + previousY) / 2);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+import java.util.Arrays;
+
+/*
+在书写过程中收集采样点，笔画结束时通过build生成紧凑的Stroke；
+内部数组可以复用，reset之后开始下一笔不需要重新分配内存
+ */
+public class StrokeBuilder {
+
+    static final int DEFAULT_CAPACITY = 256;
+
+    float[] samples;
+
+    int pointCount;
+
+    /*
+    笔画起点的时间，采样点的时间保存为相对于它的毫秒数
+     */
+    long startTime;
+
+    public StrokeBuilder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public StrokeBuilder(int initialCapacity) {
+        samples = new float[Math.max(initialCapacity, 1) * Stroke.STRIDE];
+    }
+
+    public void reset() {
+        pointCount = 0;
+        startTime = 0;
+    }
+
+    /*
+    开始一个新的笔画，之前收集的采样点被丢弃
+     */
+    public void begin(float x, float y, long eventTime, float pressure) {
+        reset();
+        startTime = eventTime;
+        add(x, y, eventTime, pressure);
+    }
+
+    /*
+    追加一个采样点
+     */
+    public void add(float x, float y, long eventTime, float pressure) {
+        int offset = pointCount * Stroke.STRIDE;
+        if (offset + Stroke.STRIDE > samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[offset + Stroke.X] = x;
+        samples[offset + Stroke.Y] = y;
+        samples[offset + Stroke.TIME] = eventTime - startTime;
+        samples[offset + Stroke.PRESSURE] = pressure;
+        pointCount++;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public boolean isEmpty() {
+        return pointCount == 0;
+    }
+
+    public float getX(int index) {
+        return samples[index * Stroke.STRIDE + Stroke.X];
+    }
+
+    public float getY(int index) {
+        return samples[index * Stroke.STRIDE + Stroke.Y];
+    }
+
+    public float getLastX() {
+        return samples[(pointCount - 1) * Stroke.STRIDE + Stroke.X];
+    }
+
+    public float getLastY() {
+        return samples[(pointCount - 1) * Stroke.STRIDE + Stroke.Y];
+    }
+
+    /*
+    最后一个采样点相对于笔画起点的毫秒数
+     */
+    public float getLastTime() {
+        return samples[(pointCount - 1) * Stroke.STRIDE + Stroke.TIME];
+    }
+
+    /*
+    将最后一个采样点对应的曲线段输出到sink，用于增量更新正在书写的路径
+     */
+    public void emitLastSegment(PathSink sink) {
+        if (pointCount > 0) {
+            Stroke.emitSegment(samples, pointCount - 1, sink);
+        }
+    }
+
+    /*
+    将当前已收集的全部曲线输出到sink
+     */
+    public void emitPath(PathSink sink) {
+        for (int i = 0; i < pointCount; i++) {
+            Stroke.emitSegment(samples, i, sink);
+        }
+    }
+
+    /*
+    生成一个紧凑的Stroke，采样数组按实际长度拷贝，builder本身可以继续复用
+     */
+    public Stroke build() {
+        return new Stroke(Arrays.copyOf(samples, pointCount * Stroke.STRIDE), pointCount);
+    }
+}
@@ -0,0 +1,38 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+/*
+书写时的运动预测：根据最近的采样点外推笔尖在不久之后的位置，
+低延迟模式下在真实笔迹的末端画出一小段预测的尾巴，抵消输入到上屏的延迟；
+预测的点只用于显示，不会进入笔画。
+实现可以替换，只在渲染线程上使用，可以用PredictionEvaluator在记录下来的笔迹上比较效果
+ */
+public interface StrokePredictor {
+
+    /*
+    每次预测最多输出的点数
+     */
+    int MAX_POINTS = 8;
+
+    /*
+    多指书写时每一笔需要独立的状态，渲染线程通过工厂为每个槽位创建一个实例
+     */
+    interface Factory {
+        StrokePredictor create();
+    }
+
+    /*
+    开始新的一笔，之前的采样点被丢弃
+     */
+    void reset();
+
+    /*
+    追加一个真实的采样点，time为相对于笔画起点的毫秒数
+     */
+    void add(float x, float y, float time, float pressure);
+
+    /*
+    预测最后一个采样点之后horizon毫秒内的轨迹，按(x, y, time, pressure)即Stroke.STRIDE的格式写入out，
+    最远不超过maxDistance，返回写入的点数，最后一个点是horizon时刻的位置；无法预测时返回0
+     */
+    int predict(float horizon, float maxDistance, float[] out);
+}
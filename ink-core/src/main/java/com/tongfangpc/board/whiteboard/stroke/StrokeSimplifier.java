@@ -0,0 +1,168 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+import java.util.Arrays;
+
+/*
+笔画提交时的简化：对采样点折线做迭代的Ramer–Douglas–Peucker抽稀，
+到保留下来的折线的距离不超过tolerance(屏幕像素)、并且压力与线性插值之差不超过pressureTolerance的采样点被去掉。
+Stroke的曲线总是由采样点按emitPath的规则生成，去掉冗余的采样点就等于用更少的二次曲线段重新拟合，
+存储、重放、序列化的开销都随之下降。
+只在UI线程上使用，内部的数组可以复用
+ */
+public class StrokeSimplifier {
+
+    public static final float DEFAULT_TOLERANCE = 0.5f;
+
+    /*
+    压力的允许误差，保证按压力变化的笔宽不会走样
+     */
+    public static final float DEFAULT_PRESSURE_TOLERANCE = 0.05f;
+
+    /*
+    每一笔简化之后的回调，可以统计点数的压缩比和耗时
+     */
+    public interface Listener {
+        void onStrokeSimplified(int inputPoints, int outputPoints, long nanos);
+    }
+
+    float tolerance = DEFAULT_TOLERANCE;
+
+    float pressureTolerance = DEFAULT_PRESSURE_TOLERANCE;
+
+    boolean enabled = true;
+
+    Listener listener;
+
+    boolean[] keep = new boolean[256];
+
+    /*
+    待处理的区间(起点, 终点)，代替递归
+     */
+    int[] stack = new int[64];
+
+    public float getTolerance() {
+        return tolerance;
+    }
+
+    /*
+    设置允许的误差，单位是书写时的屏幕像素
+     */
+    public void setTolerance(float tolerance) {
+        if (!(tolerance >= 0)) {
+            throw new IllegalArgumentException("tolerance must not be negative: " + tolerance);
+        }
+        this.tolerance = tolerance;
+    }
+
+    public float getPressureTolerance() {
+        return pressureTolerance;
+    }
+
+    public void setPressureTolerance(float pressureTolerance) {
+        if (!(pressureTolerance >= 0)) {
+            throw new IllegalArgumentException("pressureTolerance must not be negative: " + pressureTolerance);
+        }
+        this.pressureTolerance = pressureTolerance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /*
+    简化书写时缩放比例为scale的笔画(世界坐标)，没有可以去掉的点时返回原来的对象
+     */
+    public Stroke simplify(Stroke stroke, float scale) {
+        long start = System.nanoTime();
+        Stroke result = stroke;
+        if (enabled && tolerance > 0 && stroke.pointCount > 2) {
+            result = decimate(stroke, tolerance / scale);
+        }
+        Listener current = listener;
+        if (current != null) {
+            current.onStrokeSimplified(stroke.pointCount, result.pointCount, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    Stroke decimate(Stroke stroke, float worldTolerance) {
+        float[] samples = stroke.samples;
+        int count = stroke.pointCount;
+        if (keep.length < count) {
+            keep = new boolean[Math.max(count, keep.length * 2)];
+        }
+        Arrays.fill(keep, 0, count, false);
+        keep[0] = true;
+        keep[count - 1] = true;
+        float toleranceSquared = worldTolerance * worldTolerance;
+        float pressureToleranceSquared = pressureTolerance * pressureTolerance;
+        int top = push(0, 0, count - 1);
+        int kept = 2;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            float x0 = samples[first * Stroke.STRIDE + Stroke.X];
+            float y0 = samples[first * Stroke.STRIDE + Stroke.Y];
+            float p0 = samples[first * Stroke.STRIDE + Stroke.PRESSURE];
+            float x1 = samples[last * Stroke.STRIDE + Stroke.X];
+            float y1 = samples[last * Stroke.STRIDE + Stroke.Y];
+            float p1 = samples[last * Stroke.STRIDE + Stroke.PRESSURE];
+            //误差按各自的允许值归一化，超过1的点必须保留，取误差最大的点分割
+            float maxError = 1;
+            int split = -1;
+            for (int i = first + 1; i < last; i++) {
+                int offset = i * Stroke.STRIDE;
+                float error = Stroke.segmentDistanceSquared(samples[offset + Stroke.X], samples[offset + Stroke.Y], x0, y0, x1, y1)
+                        / toleranceSquared;
+                float expectedPressure = p0 + (p1 - p0) * (i - first) / (last - first);
+                float pressureError = samples[offset + Stroke.PRESSURE] - expectedPressure;
+                pressureError *= pressureError;
+                if (pressureError > pressureToleranceSquared) {
+                    error = Math.max(error, pressureToleranceSquared > 0 ? pressureError / pressureToleranceSquared : Float.MAX_VALUE);
+                }
+                if (error > maxError) {
+                    maxError = error;
+                    split = i;
+                }
+            }
+            if (split < 0) {
+                continue;
+            }
+            keep[split] = true;
+            kept++;
+            top = push(top, first, split);
+            top = push(top, split, last);
+        }
+        if (kept == count) {
+            return stroke;
+        }
+        float[] packed = new float[kept * Stroke.STRIDE];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (keep[i]) {
+                System.arraycopy(samples, i * Stroke.STRIDE, packed, j, Stroke.STRIDE);
+                j += Stroke.STRIDE;
+            }
+        }
+        return new Stroke(packed, kept);
+    }
+
+    int push(int top, int first, int last) {
+        if (last - first < 2) {
+            return top;
+        }
+        if (top + 2 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[top] = first;
+        stack[top + 1] = last;
+        return top + 2;
+    }
+}
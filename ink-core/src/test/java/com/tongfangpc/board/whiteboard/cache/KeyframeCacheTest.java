@@ -0,0 +1,198 @@
+package com.tongfangpc.board.whiteboard.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * KeyframeCache的本地单元测试，用int[]模拟栅格帧，帧内容为"已绘制的行为数量"。
+ */
+public class KeyframeCacheTest {
+
+    static class IntFrameCache extends KeyframeCache<int[]> {
+        int removedCount;
+
+        IntFrameCache(int interval, long maxBytes) {
+            super(interval, maxBytes);
+        }
+
+        @Override
+        protected int sizeOf(int[] frame) {
+            return 100;
+        }
+
+        @Override
+        protected void onRemoved(int[] frame) {
+            removedCount++;
+        }
+    }
+
+    /*
+    模拟缓冲区：state记录当前已经绘制到第几个行为，replayCount统计重绘次数
+     */
+    static class CountingReplayer implements KeyframeCache.Replayer<int[]> {
+        int state;
+        int replayCount;
+        int captureCount;
+
+        /*
+        底层栅格中已经合成的行为数量
+         */
+        int base;
+
+        @Override
+        public void clear() {
+            state = base;
+        }
+
+        @Override
+        public void restore(int[] frame) {
+            state = frame[0];
+        }
+
+        @Override
+        public void replay(int index) {
+            assertEquals("actions must be replayed in order", state, index);
+            state = index + 1;
+            replayCount++;
+        }
+
+        @Override
+        public int[] capture() {
+            captureCount++;
+            return new int[]{state};
+        }
+
+        @Override
+        public long frameBytes() {
+            return 100;
+        }
+    }
+
+    /*
+    模拟连续画出actionCount笔，并在每一笔提交后通知缓存
+     */
+    static CountingReplayer draw(KeyframeCache<int[]> cache, int actionCount) {
+        CountingReplayer replayer = new CountingReplayer();
+        for (int i = 0; i < actionCount; i++) {
+            replayer.replay(i);
+            cache.onCommitted(i + 1, replayer);
+        }
+        replayer.replayCount = 0;
+        return replayer;
+    }
+
+    @Test
+    public void rebuild_restoresNearestKeyframe() {
+        IntFrameCache cache = new IntFrameCache(10, Long.MAX_VALUE);
+        CountingReplayer replayer = draw(cache, 45);
+        assertEquals(4, cache.size());
+
+        assertEquals(4, cache.rebuild(44, replayer));
+        assertEquals(44, replayer.state);
+        assertEquals(0, cache.rebuild(40, replayer));
+        assertEquals(40, replayer.state);
+        assertEquals(9, cache.rebuild(39, replayer));
+        assertEquals(39, replayer.state);
+        assertEquals(5, cache.rebuild(5, replayer));
+        assertEquals(5, replayer.state);
+    }
+
+    @Test
+    public void undoCost_staysFlatAsHistoryGrows() {
+        int interval = 20;
+        int[] historySizes = {100, 1000, 10000, 100000};
+        for (int historySize : historySizes) {
+            //预算只够保存8个关键帧
+            IntFrameCache cache = new IntFrameCache(interval, 800);
+            CountingReplayer replayer = draw(cache, historySize);
+            int maxReplayed = 0;
+            //连续undo 50步，再全部redo回来
+            int index = historySize;
+            for (int i = 0; i < 50; i++) {
+                maxReplayed = Math.max(maxReplayed, cache.rebuild(--index, replayer));
+                assertEquals(index, replayer.state);
+            }
+            for (int i = 0; i < 50; i++) {
+                maxReplayed = Math.max(maxReplayed, cache.rebuild(++index, replayer));
+                assertEquals(index, replayer.state);
+            }
+            assertTrue("history=" + historySize + " replayed " + maxReplayed, maxReplayed < interval);
+            assertTrue(cache.getCurrentBytes() <= cache.getMaxBytes());
+        }
+    }
+
+    @Test
+    public void commitAfterUndo_invalidatesLaterKeyframes() {
+        IntFrameCache cache = new IntFrameCache(10, Long.MAX_VALUE);
+        CountingReplayer replayer = draw(cache, 30);
+        cache.rebuild(15, replayer);
+        //undo到15之后画了新的一笔，20和30的关键帧都不再有效
+        replayer.replay(15);
+        cache.onCommitted(16, replayer);
+        assertTrue(cache.contains(10));
+        assertFalse(cache.contains(20));
+        assertFalse(cache.contains(30));
+        assertEquals(10, cache.floorIndex(29));
+    }
+
+    @Test
+    public void baseIndex_rebuildStartsFromBaseRaster() {
+        IntFrameCache cache = new IntFrameCache(10, Long.MAX_VALUE);
+        CountingReplayer replayer = draw(cache, 100);
+        cache.setBaseIndex(55);
+        replayer.base = 55;
+        assertEquals(5, cache.size());
+        assertFalse(cache.contains(50));
+        assertEquals(55, cache.floorIndex(58));
+
+        assertEquals(3, cache.rebuild(58, replayer));
+        assertEquals(58, replayer.state);
+        assertEquals(5, cache.rebuild(75, replayer));
+        assertEquals(75, replayer.state);
+
+        //没有关键帧时从底层栅格开始，途经的间隔点补拍关键帧
+        cache.remove(60);
+        assertEquals(10, cache.rebuild(65, replayer));
+        assertTrue(cache.contains(60));
+        assertFalse(cache.isKeyframeIndex(50));
+    }
+
+    @Test
+    public void eviction_keepsWithinBudgetAndDropsLeastRecentlyUsed() {
+        IntFrameCache cache = new IntFrameCache(10, 300);
+        draw(cache, 50);
+        assertEquals(3, cache.size());
+        assertEquals(300, cache.getCurrentBytes());
+        assertEquals(2, cache.removedCount);
+        assertTrue(cache.contains(30));
+        assertTrue(cache.contains(40));
+        assertTrue(cache.contains(50));
+
+        //访问30之后再放入新帧，被淘汰的应当是40
+        cache.get(30);
+        cache.put(60, new int[]{60});
+        assertTrue(cache.contains(30));
+        assertFalse(cache.contains(40));
+    }
+
+    @Test
+    public void frameLargerThanBudget_isDropped() {
+        IntFrameCache cache = new IntFrameCache(10, 50);
+        cache.put(10, new int[]{10});
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.removedCount);
+        assertEquals(0, cache.floorIndex(100));
+    }
+
+    @Test
+    public void frameLargerThanBudget_isNotCaptured() {
+        IntFrameCache cache = new IntFrameCache(10, 50);
+        CountingReplayer replayer = draw(cache, 30);
+        assertEquals(0, replayer.captureCount);
+        assertEquals(30, cache.rebuild(30, replayer));
+        assertEquals(0, replayer.captureCount);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.removedCount);
+    }
+}
@@ -0,0 +1,64 @@
+package com.tongfangpc.board.whiteboard.config;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * PenStyleRegistry的本地单元测试
+ */
+public class PenStyleRegistryTest {
+
+    @Test
+    public void intern_returnsSameInstanceForSameValues() {
+        PenStyleRegistry registry = new PenStyleRegistry();
+        PenStyle red = registry.intern(0xffff0000, 12);
+        assertSame(red, registry.intern(0xffff0000, 12));
+        assertSame(red, registry.intern(0xffff0000, 12f));
+        assertNotSame(red, registry.intern(0xffff0000, 10));
+        assertNotSame(red, registry.intern(0xff000000, 12));
+        assertEquals(3, registry.size());
+    }
+
+    @Test
+    public void ids_areDenseAndResolvable() {
+        PenStyleRegistry registry = new PenStyleRegistry();
+        for (int i = 0; i < 100; i++) {
+            PenStyle style = registry.intern(i, i % 7);
+            assertEquals(i, style.getId());
+            assertSame(style, registry.get(i));
+            assertEquals(i, style.getColor());
+            assertEquals(i % 7, style.getWidth(), 0);
+        }
+    }
+
+    @Test
+    public void variableWidth_isDistinctStyle() {
+        PenStyleRegistry registry = new PenStyleRegistry();
+        PenStyle fixed = registry.intern(0xff000000, 8);
+        PenStyle ink = registry.intern(0xff000000, 8, true);
+        assertNotSame(fixed, ink);
+        assertTrue(ink.isVariableWidth());
+        assertFalse(fixed.isVariableWidth());
+        assertSame(fixed, registry.intern(0xff000000, 8, false));
+        assertSame(ink, registry.intern(0xff000000, 8f, true));
+    }
+
+    @Test
+    public void negativeZeroWidth_isSameStyle() {
+        PenStyleRegistry registry = new PenStyleRegistry();
+        assertSame(registry.intern(1, 0f), registry.intern(1, -0f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void intern_rejectsNaNWidth() {
+        new PenStyleRegistry().intern(1, Float.NaN);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_unknownId() {
+        PenStyleRegistry registry = new PenStyleRegistry();
+        registry.intern(1, 1);
+        registry.get(1);
+    }
+}
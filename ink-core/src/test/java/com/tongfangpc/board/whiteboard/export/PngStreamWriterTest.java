@@ -0,0 +1,108 @@
+package com.tongfangpc.board.whiteboard.export;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * PngStreamWriter的本地单元测试，用ImageIO解码写出的图片并逐个像素比较
+ */
+public class PngStreamWriterTest {
+
+    static int[] randomImage(int width, int height, boolean alpha, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            //一半是平滑的渐变，一半是噪声，覆盖三种过滤方式
+            int x = i % width;
+            int y = i / width;
+            int color = y < height / 2 ? (x * 3) << 16 | (y * 5) << 8 | (x + y) : random.nextInt();
+            pixels[i] = alpha ? color : color | 0xff000000;
+        }
+        return pixels;
+    }
+
+    static byte[] encode(int[] pixels, int width, int height, boolean alpha) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngStreamWriter writer = new PngStreamWriter(out, width, height, alpha);
+        for (int y = 0; y < height; y++) {
+            writer.writeRow(pixels, y * width);
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    static void assertDecodesTo(byte[] png, int[] pixels, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertNotNull(image);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(x + "," + y, Integer.toHexString(pixels[y * width + x]), Integer.toHexString(image.getRGB(x, y)));
+            }
+        }
+    }
+
+    @Test
+    public void opaque_roundTrips() throws IOException {
+        int[] pixels = randomImage(97, 61, false, 1);
+        assertDecodesTo(encode(pixels, 97, 61, false), pixels, 97, 61);
+    }
+
+    @Test
+    public void alpha_roundTrips() throws IOException {
+        int[] pixels = randomImage(64, 40, true, 2);
+        //完全透明的像素ImageIO返回的颜色与写入的一致，不做预乘
+        assertDecodesTo(encode(pixels, 64, 40, true), pixels, 64, 40);
+    }
+
+    @Test
+    public void largeImage_spansManyChunks() throws IOException {
+        int width = 600;
+        int height = 300;
+        int[] pixels = randomImage(width, height, false, 3);
+        byte[] png = encode(pixels, width, height, false);
+        assertTrue(png.length > 2 * PngStreamWriter.CHUNK_SIZE);
+        assertDecodesTo(png, pixels, width, height);
+    }
+
+    @Test
+    public void rowsFromOffset() throws IOException {
+        int[] band = new int[3 * 4];
+        for (int i = 0; i < band.length; i++) {
+            band[i] = 0xff000000 | i * 0x111111;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngStreamWriter writer = new PngStreamWriter(out, 3, 2, false);
+        //只写出条带的后两行
+        writer.writeRow(band, 6);
+        writer.writeRow(band, 9);
+        writer.finish();
+        int[] expected = new int[6];
+        System.arraycopy(band, 6, expected, 0, 6);
+        assertDecodesTo(out.toByteArray(), expected, 3, 2);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void finish_beforeAllRows_throws() throws IOException {
+        PngStreamWriter writer = new PngStreamWriter(new ByteArrayOutputStream(), 4, 4, false);
+        writer.writeRow(new int[4], 0);
+        writer.finish();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeRow_pastHeight_throws() throws IOException {
+        PngStreamWriter writer = new PngStreamWriter(new ByteArrayOutputStream(), 4, 1, false);
+        writer.writeRow(new int[4], 0);
+        writer.writeRow(new int[4], 0);
+    }
+}
@@ -0,0 +1,102 @@
+package com.tongfangpc.board.whiteboard.export;
+
+import com.tongfangpc.board.whiteboard.stroke.PathSink;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * SvgWriter的本地单元测试
+ */
+public class SvgWriterTest {
+
+    static String number(float value) {
+        StringBuilder builder = new StringBuilder();
+        SvgWriter.appendNumber(builder, value);
+        return builder.toString();
+    }
+
+    @Test
+    public void numbers_keepTwoDecimals() {
+        assertEquals("0", number(0));
+        assertEquals("12", number(12));
+        assertEquals("1.5", number(1.5f));
+        assertEquals("1.25", number(1.25f));
+        assertEquals("1.05", number(1.05f));
+        assertEquals("-3.14", number(-3.14159f));
+        assertEquals("0", number(-0.001f));
+        assertEquals("100000.5", number(100000.5f));
+    }
+
+    @Test
+    public void path_omitsRepeatedCommands() throws IOException {
+        StringWriter out = new StringWriter();
+        SvgWriter writer = new SvgWriter(out);
+        PathSink sink = writer.getPathSink();
+        sink.moveTo(1, 2);
+        sink.quadTo(3, 4, 5, 6);
+        sink.quadTo(7, 8, 9, 10.5f);
+        sink.lineTo(11, 12);
+        sink.close();
+        sink.moveTo(0, 0);
+        sink.lineTo(1, 1);
+        writer.fillPath(0x80ff0000);
+        assertEquals("<path fill=\"#ff0000\" fill-opacity=\"0.5\" d=\"M1 2Q3 4 5 6 7 8 9 10.5L11 12ZM0 0L1 1\"/>\n",
+                out.toString());
+
+        out.getBuffer().setLength(0);
+        sink.moveTo(0, 0);
+        sink.lineTo(-1, -2);
+        writer.strokePath(0xff000000, 4);
+        assertEquals("<path fill=\"none\" stroke-linecap=\"round\" stroke-linejoin=\"round\" stroke-width=\"4\""
+                + " stroke=\"#000000\" d=\"M0 0L-1 -2\"/>\n", out.toString());
+    }
+
+    @Test
+    public void emptyPath_isSkipped() throws IOException {
+        StringWriter out = new StringWriter();
+        SvgWriter writer = new SvgWriter(out);
+        writer.strokePath(0xff000000, 1);
+        writer.fillPath(0xff000000);
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    public void embeddedImage_isBase64() throws IOException {
+        StringWriter out = new StringWriter();
+        SvgWriter writer = new SvgWriter(out);
+        writer.image(0, 0, 2, 2, "Man".getBytes("US-ASCII"));
+        writer.image(0, 0, 2, 2, "Ma".getBytes("US-ASCII"));
+        writer.image(0, 0, 2, 2, "M".getBytes("US-ASCII"));
+        String text = out.toString();
+        assertTrue(text, text.contains("base64,TWFu\""));
+        assertTrue(text, text.contains("base64,TWE=\""));
+        assertTrue(text, text.contains("base64,TQ==\""));
+    }
+
+    @Test
+    public void longBase64_wrapsLines() throws IOException {
+        StringWriter out = new StringWriter();
+        SvgWriter writer = new SvgWriter(out);
+        byte[] data = new byte[200];
+        writer.image(0, 0, 1, 1, data);
+        String text = out.toString();
+        String encoded = text.substring(text.indexOf("base64,") + 7, text.lastIndexOf('"'));
+        String[] lines = encoded.split("\n");
+        assertEquals(4, lines.length);
+        assertEquals(SvgWriter.BASE64_LINE, lines[0].length());
+        assertEquals((200 + 2) / 3 * 4, encoded.replace("\n", "").length());
+    }
+
+    @Test
+    public void href_isEscaped() throws IOException {
+        StringWriter out = new StringWriter();
+        SvgWriter writer = new SvgWriter(out);
+        writer.image(0, 0, 1, 1, "file:/a&b<\"c\".png");
+        assertTrue(out.toString(), out.toString().contains("xlink:href=\"file:/a&amp;b&lt;&quot;c&quot;.png\""));
+    }
+}
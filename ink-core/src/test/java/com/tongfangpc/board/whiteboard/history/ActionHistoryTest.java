@@ -0,0 +1,185 @@
+package com.tongfangpc.board.whiteboard.history;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ActionHistory的本地单元测试
+ */
+public class ActionHistoryTest {
+
+    @Test
+    public void commitUndoRedo_movesCursor() {
+        ActionHistory<String> history = new ActionHistory<>(2);
+        assertFalse(history.canUndo());
+        assertFalse(history.canRedo());
+
+        assertEquals(0, history.commit("a"));
+        assertEquals(1, history.commit("b"));
+        assertEquals(2, history.commit("c"));
+        assertEquals(3, history.size());
+        assertEquals(3, history.getNextDoIndex());
+        assertEquals("b", history.get(1));
+
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertEquals(1, history.getNextDoIndex());
+        assertTrue(history.canRedo());
+        assertTrue(history.redo());
+        assertEquals(2, history.getNextDoIndex());
+        assertEquals(3, history.size());
+    }
+
+    @Test
+    public void commitAfterUndo_truncatesRedoTail() {
+        ActionHistory<String> history = new ActionHistory<>();
+        for (int i = 0; i < 10; i++) {
+            history.commit("a" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue(history.undo());
+        }
+        assertFalse(history.undo());
+        //全部undo之后再提交，之前的记录应当全部被截断
+        assertEquals(0, history.commit("b"));
+        assertEquals(1, history.size());
+        assertEquals("b", history.get(0));
+        assertFalse(history.canRedo());
+    }
+
+    @Test
+    public void truncate_releasesReferences() {
+        ActionHistory<Object> history = new ActionHistory<>();
+        for (int i = 0; i < 100; i++) {
+            history.commit(new Object());
+        }
+        history.truncate(40);
+        assertEquals(40, history.size());
+        assertEquals(40, history.getNextDoIndex());
+        for (int i = 40; i < 100; i++) {
+            assertNull(history.actions[i]);
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_outOfRange() {
+        ActionHistory<String> history = new ActionHistory<>();
+        history.commit("a");
+        history.truncate(0);
+        history.get(0);
+    }
+
+    @Test
+    public void maxUndoDepth_limitsUndo() {
+        ActionHistory<String> history = new ActionHistory<>();
+        history.setMaxUndoDepth(3);
+        for (int i = 0; i < 10; i++) {
+            history.commit("a" + i);
+        }
+        assertEquals(7, history.getUndoFloor());
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertFalse(history.undo());
+        assertEquals(7, history.getNextDoIndex());
+        //超出上限的行为仍然保留用于重绘
+        assertEquals(10, history.size());
+        assertEquals("a0", history.get(0));
+    }
+
+    @Test
+    public void moveTo_clampsToUndoFloorAndSize() {
+        ActionHistory<String> history = new ActionHistory<>();
+        history.setMaxUndoDepth(3);
+        for (int i = 0; i < 6; i++) {
+            history.commit("a" + i);
+        }
+        assertTrue(history.moveTo(4));
+        assertEquals(4, history.getNextDoIndex());
+        assertTrue(history.moveTo(0));
+        assertEquals(3, history.getNextDoIndex());
+        assertFalse(history.moveTo(1));
+        assertTrue(history.moveTo(100));
+        assertEquals(6, history.getNextDoIndex());
+        assertFalse(history.moveTo(6));
+    }
+
+    @Test
+    public void truncate_notifiesRemovalListener() {
+        ActionHistory<String> history = new ActionHistory<>();
+        final List<String> removed = new ArrayList<>();
+        history.setRemovalListener(new ActionHistory.RemovalListener<String>() {
+            @Override
+            public void onRemoved(String action) {
+                removed.add(action);
+            }
+        });
+        history.commit("a");
+        history.commit("b");
+        history.commit("c");
+        history.undo();
+        history.undo();
+        //undo之后提交新行为，被截断的redo尾部按顺序通知
+        history.commit("d");
+        assertEquals(2, removed.size());
+        assertEquals("b", removed.get(0));
+        assertEquals("c", removed.get(1));
+        history.clear();
+        assertEquals(4, removed.size());
+    }
+
+    @Test
+    public void compact_releasesOldActionsAndKeepsIndices() {
+        ActionHistory<String> history = new ActionHistory<>();
+        history.setMaxUndoDepth(3);
+        final List<String> removed = new ArrayList<>();
+        history.setRemovalListener(new ActionHistory.RemovalListener<String>() {
+            @Override
+            public void onRemoved(String action) {
+                removed.add(action);
+            }
+        });
+        for (int i = 0; i < 200; i++) {
+            history.commit("a" + i);
+        }
+        assertEquals(197, history.getUndoFloor());
+        history.compact(190);
+        assertEquals(190, history.getBase());
+        assertEquals(200, history.size());
+        assertEquals("a190", history.get(190));
+        assertEquals("a199", history.get(199));
+        //被压缩的行为不通知removalListener，存储也随之收缩
+        assertTrue(removed.isEmpty());
+        assertTrue(history.actions.length < 200);
+        try {
+            history.get(189);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertEquals(198, history.getNextDoIndex());
+        assertEquals(198, history.commit("b"));
+        assertEquals(199, history.size());
+        assertEquals(Arrays.asList("a198", "a199"), removed);
+        history.clear();
+        assertEquals(0, history.getBase());
+        assertEquals(0, history.commit("c"));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void compact_cannotPassUndoFloor() {
+        ActionHistory<String> history = new ActionHistory<>();
+        history.setMaxUndoDepth(5);
+        for (int i = 0; i < 10; i++) {
+            history.commit("a" + i);
+        }
+        history.compact(6);
+    }
+}
@@ -0,0 +1,145 @@
+package com.tongfangpc.board.whiteboard.index;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * SpatialIndex的本地单元测试，查询结果与逐个比较范围的线性扫描对照
+ */
+public class SpatialIndexTest {
+
+    static int[] toArray(IntArray values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    static int[] linearQuery(float[][] bounds, int size, float l, float t, float r, float b) {
+        IntArray out = new IntArray();
+        for (int i = 0; i < size; i++) {
+            float[] rect = bounds[i];
+            if (rect != null && rect[0] <= r && l <= rect[2] && rect[1] <= b && t <= rect[3]) {
+                out.add(i);
+            }
+        }
+        return toArray(out);
+    }
+
+    @Test
+    public void query_returnsSortedDistinctIntersections() {
+        SpatialIndex index = new SpatialIndex(100);
+        index.add(0, 10, 10, 20, 20);
+        //跨越多个单元格，只返回一次
+        index.add(1, 50, 50, 350, 150);
+        index.add(2, -220, -220, -210, -210);
+        IntArray out = new IntArray();
+        assertEquals(2, index.query(0, 0, 200, 200, out));
+        assertArrayEquals(new int[]{0, 1}, toArray(out));
+        out.clear();
+        index.query(-215, -215, -215, -215, out);
+        assertArrayEquals(new int[]{2}, toArray(out));
+        out.clear();
+        assertEquals(0, index.query(500, 500, 600, 600, out));
+    }
+
+    @Test
+    public void oversizedAndUnbounded_alwaysChecked() {
+        SpatialIndex index = new SpatialIndex(10);
+        index.add(0, 0, 0, 5, 5);
+        index.add(1, -1000, -1000, 1000, 1000);
+        index.addUnbounded(2);
+        assertEquals(1, index.getCellCount());
+        IntArray out = new IntArray();
+        index.query(500, 500, 501, 501, out);
+        assertArrayEquals(new int[]{1, 2}, toArray(out));
+    }
+
+    @Test
+    public void truncate_removesTailEntries() {
+        SpatialIndex index = new SpatialIndex(100);
+        index.add(0, 0, 0, 10, 10);
+        index.add(2, 0, 0, 250, 10);
+        index.addUnbounded(3);
+        index.add(4, 5, 5, 6, 6);
+        index.truncate(2);
+        assertEquals(2, index.size());
+        assertEquals(1, index.getCellCount());
+        IntArray out = new IntArray();
+        index.query(-1000, -1000, 1000, 1000, out);
+        assertArrayEquals(new int[]{0}, toArray(out));
+        //截断之后可以在同样的索引上重新登记
+        index.add(2, 300, 300, 310, 310);
+        out.clear();
+        index.query(0, 0, 1000, 1000, out);
+        assertArrayEquals(new int[]{0, 2}, toArray(out));
+    }
+
+    @Test
+    public void compact_dropsReleasedIndicesAndKeepsTheRest() {
+        SpatialIndex index = new SpatialIndex(100);
+        index.add(0, 0, 0, 10, 10);
+        index.add(1, 0, 0, 250, 10);
+        index.addUnbounded(2);
+        index.add(3, 5, 5, 6, 6);
+        index.add(4, 150, 0, 160, 10);
+        index.compact(3);
+        assertEquals(3, index.getBase());
+        assertEquals(5, index.size());
+        assertEquals(2, index.getCellCount());
+        IntArray out = new IntArray();
+        index.query(-1000, -1000, 1000, 1000, out);
+        assertArrayEquals(new int[]{3, 4}, toArray(out));
+        //压缩之后仍然可以追加和截断
+        index.add(5, 0, 0, 10, 10);
+        index.truncate(4);
+        out.clear();
+        index.query(0, 0, 10, 10, out);
+        assertArrayEquals(new int[]{3}, toArray(out));
+        index.clear();
+        index.add(0, 0, 0, 1, 1);
+        assertEquals(0, index.getBase());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void add_rejectsIndexBeforeTail() {
+        SpatialIndex index = new SpatialIndex();
+        index.add(3, 0, 0, 1, 1);
+        index.add(2, 0, 0, 1, 1);
+    }
+
+    @Test
+    public void randomized_matchesLinearScan() {
+        Random random = new Random(13);
+        SpatialIndex index = new SpatialIndex(64);
+        float[][] bounds = new float[3000][];
+        int size = 0;
+        IntArray out = new IntArray();
+        for (int round = 0; round < 2000; round++) {
+            int op = random.nextInt(10);
+            if (op < 6 && size < bounds.length) {
+                float x = random.nextFloat() * 4000 - 2000;
+                float y = random.nextFloat() * 4000 - 2000;
+                float w = random.nextInt(20) == 0 ? random.nextFloat() * 3000 : random.nextFloat() * 80;
+                float h = random.nextFloat() * 80;
+                bounds[size] = new float[]{x, y, x + w, y + h};
+                index.add(size, x, y, x + w, y + h);
+                size++;
+            } else if (op < 7) {
+                size = random.nextInt(size + 1);
+                index.truncate(size);
+            } else {
+                float x = random.nextFloat() * 4400 - 2200;
+                float y = random.nextFloat() * 4400 - 2200;
+                float extent = random.nextInt(5) == 0 ? 5000 : 50;
+                out.clear();
+                index.query(x, y, x + extent, y + extent, out);
+                assertArrayEquals(linearQuery(bounds, size, x, y, x + extent, y + extent), toArray(out));
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.tongfangpc.board.whiteboard.input;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * SampleFilter与SampleBatch的本地单元测试
+ */
+public class SampleFilterTest {
+
+    @Test
+    public void accept_requiresMinDistance() {
+        SampleFilter filter = new SampleFilter(5, 1000);
+        filter.begin(0, 0, 0);
+        assertFalse(filter.accept(3, 3, 1));
+        assertTrue(filter.accept(4, 3, 2));
+        //参照点已经更新为(4, 3)
+        assertFalse(filter.accept(6, 3, 3));
+        assertTrue(filter.accept(9, 3, 4));
+    }
+
+    @Test
+    public void accept_slowMovementAfterIdle() {
+        SampleFilter filter = new SampleFilter(5, 20);
+        filter.begin(0, 0, 100);
+        assertFalse(filter.accept(1, 0, 110));
+        assertTrue(filter.accept(1, 0, 120));
+        //停顿但没有移动的点仍然丢弃
+        assertFalse(filter.accept(1, 0, 200));
+    }
+
+    @Test
+    public void acceptFinal_keepsAnyMovement() {
+        SampleFilter filter = new SampleFilter(5, 20);
+        filter.begin(0, 0, 0);
+        assertFalse(filter.acceptFinal(0, 0, 5));
+        assertTrue(filter.acceptFinal(0.5f, 0, 5));
+    }
+
+    @Test
+    public void accept_withoutBeginStartsStroke() {
+        SampleFilter filter = new SampleFilter();
+        assertTrue(filter.accept(10, 10, 0));
+        assertEquals(10, filter.getLastX(), 0);
+    }
+
+    @Test
+    public void filterRecordedTrace_keepsSpacingAndEndpoints() {
+        //模拟120Hz的慢速直线，每个采样移动0.5像素
+        SampleFilter filter = new SampleFilter(3, 50);
+        SampleBatch batch = new SampleBatch(2);
+        filter.begin(0, 0, 0);
+        batch.add(0, 0, 0, 1);
+        for (int i = 1; i <= 100; i++) {
+            if (filter.accept(i * 0.5f, 0, i * 8)) {
+                batch.add(i * 0.5f, 0, i * 8, 1);
+            }
+        }
+        if (filter.acceptFinal(50, 0, 808)) {
+            batch.add(50, 0, 808, 1);
+        }
+        assertEquals(18, batch.size());
+        assertEquals(50, batch.getX(batch.size() - 1), 0);
+        for (int i = 1; i < batch.size() - 1; i++) {
+            assertTrue(batch.getX(i) - batch.getX(i - 1) >= 3);
+        }
+    }
+}
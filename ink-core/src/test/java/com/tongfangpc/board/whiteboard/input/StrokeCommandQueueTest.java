@@ -0,0 +1,240 @@
+package com.tongfangpc.board.whiteboard.input;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * StrokeCommandQueue的本地单元测试，包括生产者和消费者在两个线程上高速交替的压力测试
+ */
+public class StrokeCommandQueueTest {
+
+    /*
+    模拟录制的输入：strokeCount笔，每笔pointsPerStroke个采样点，坐标按固定步长递增，
+    便于消费者校验顺序和内容
+     */
+    static class RecordedTrace {
+        final int strokeCount;
+        final int pointsPerStroke;
+
+        RecordedTrace(int strokeCount, int pointsPerStroke) {
+            this.strokeCount = strokeCount;
+            this.pointsPerStroke = pointsPerStroke;
+        }
+
+        float x(int stroke, int point) {
+            return stroke + point * 0.5f;
+        }
+
+        float y(int stroke, int point) {
+            return point;
+        }
+    }
+
+    /*
+    渲染线程一侧的校验器：按命令重建笔画，检查顺序与内容
+     */
+    static class VerifyingConsumer implements StrokeCommandQueue.Consumer {
+        final RecordedTrace trace;
+        int stroke = -1;
+        int point;
+        int endCount;
+        boolean lossless;
+        String error;
+
+        VerifyingConsumer(RecordedTrace trace, boolean lossless) {
+            this.trace = trace;
+            this.lossless = lossless;
+        }
+
+        @Override
+        public void onCommand(int op, int arg, float x, float y, long time, float pressure) {
+            if (error != null) {
+                return;
+            }
+            switch (op) {
+                case StrokeCommandQueue.OP_BEGIN:
+                    if (arg != stroke + 1) {
+                        error = "stroke " + arg + " began after " + stroke;
+                    }
+                    stroke = arg;
+                    point = 0;
+                    check(x, y, time);
+                    break;
+                case StrokeCommandQueue.OP_POINT:
+                    int expected = point + 1;
+                    if (!lossless) {
+                        //允许丢点，但顺序不能乱
+                        while (expected < trace.pointsPerStroke && trace.x(stroke, expected) != x) {
+                            expected++;
+                        }
+                    }
+                    point = expected;
+                    check(x, y, time);
+                    break;
+                case StrokeCommandQueue.OP_END:
+                    if (arg != stroke) {
+                        error = "end of " + arg + " inside stroke " + stroke;
+                    }
+                    if (lossless && point != trace.pointsPerStroke - 1) {
+                        error = "stroke " + stroke + " ended at point " + point;
+                    }
+                    endCount++;
+                    break;
+                default:
+                    error = "unknown op " + op;
+            }
+        }
+
+        void check(float x, float y, long time) {
+            if (point >= trace.pointsPerStroke || x != trace.x(stroke, point) || y != trace.y(stroke, point)
+                    || time != (long) stroke * trace.pointsPerStroke + point) {
+                error = "stroke " + stroke + " point " + point + " got (" + x + ", " + y + ", " + time + ")";
+            }
+        }
+    }
+
+    /*
+    生产者线程以最快速度回放录制的输入；lossless为true时，队列满了就自旋重试
+     */
+    static Thread startProducer(final StrokeCommandQueue queue, final RecordedTrace trace, final boolean lossless,
+                                final AtomicReference<Throwable> failure) {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int s = 0; s < trace.strokeCount; s++) {
+                        long time = (long) s * trace.pointsPerStroke;
+                        while (!queue.offerCommand(StrokeCommandQueue.OP_BEGIN, s, trace.x(s, 0), trace.y(s, 0), time, 1)) {
+                            queue.clearOverflow();
+                            Thread.yield();
+                        }
+                        for (int p = 1; p < trace.pointsPerStroke; p++) {
+                            boolean offered = queue.offerPoint(trace.x(s, p), trace.y(s, p), time + p, 1);
+                            while (lossless && !offered) {
+                                Thread.yield();
+                                offered = queue.offerPoint(trace.x(s, p), trace.y(s, p), time + p, 1);
+                            }
+                        }
+                        while (!queue.offerCommand(StrokeCommandQueue.OP_END, s, 0, 0, 0, 0)) {
+                            queue.clearOverflow();
+                            Thread.yield();
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "producer");
+        producer.start();
+        return producer;
+    }
+
+    @Test
+    public void capacity_roundsUpToPowerOfTwo() {
+        assertEquals(8192, new StrokeCommandQueue(5000).getCapacity());
+        assertEquals(8192, new StrokeCommandQueue(8192).getCapacity());
+        assertEquals(128, new StrokeCommandQueue(1).getCapacity());
+    }
+
+    @Test
+    public void fullQueue_dropsPointsButKeepsControlCommands() {
+        StrokeCommandQueue queue = new StrokeCommandQueue(128);
+        int accepted = 0;
+        for (int i = 0; i < 200; i++) {
+            if (queue.offerPoint(i, i, i, 1)) {
+                accepted++;
+            }
+        }
+        assertEquals(128 - StrokeCommandQueue.CONTROL_RESERVE, accepted);
+        assertEquals(200 - accepted, queue.getDroppedPointCount());
+        for (int i = 0; i < StrokeCommandQueue.CONTROL_RESERVE; i++) {
+            assertTrue(queue.offerCommand(StrokeCommandQueue.OP_END, i, 0, 0, 0, 0));
+        }
+        assertFalse(queue.clearOverflow());
+        assertFalse(queue.offerCommand(StrokeCommandQueue.OP_END, 0, 0, 0, 0, 0));
+        assertTrue(queue.clearOverflow());
+        assertFalse(queue.clearOverflow());
+
+        final int[] counts = new int[6];
+        assertEquals(128, queue.drain(new StrokeCommandQueue.Consumer() {
+            @Override
+            public void onCommand(int op, int arg, float x, float y, long time, float pressure) {
+                counts[op]++;
+            }
+        }));
+        assertEquals(accepted, counts[StrokeCommandQueue.OP_POINT]);
+        assertEquals(StrokeCommandQueue.CONTROL_RESERVE, counts[StrokeCommandQueue.OP_END]);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void recorders_tagCommandsWithTheirSlot() {
+        StrokeCommandQueue queue = new StrokeCommandQueue(128);
+        StrokeRecorder first = new StrokeRecorder(new SampleFilter(), queue);
+        StrokeRecorder second = new StrokeRecorder(new SampleFilter(), queue, 3);
+        first.begin(0, 0, 100, 1, 1);
+        second.begin(500, 0, 101, 1, 2);
+        first.offer(10, 0, 110, 1);
+        second.offer(510, 0, 111, 1);
+        first.flush();
+        second.flush();
+        second.end(1);
+        first.cancel();
+
+        final StringBuilder log = new StringBuilder();
+        queue.drain(new StrokeCommandQueue.Consumer() {
+            @Override
+            public void onCommand(int op, int arg, float x, float y, long time, float pressure) {
+                if (op == StrokeCommandQueue.OP_END) {
+                    log.append(op).append(':').append(arg).append('@').append(time).append(' ');
+                } else {
+                    log.append(op).append(':').append(arg).append(' ');
+                }
+            }
+        });
+        assertEquals("1:1 2:0 1:2 2:3 3:0 3:3 4:1@3 7:0 ", log.toString());
+        assertEquals(3, second.getSlot());
+        assertEquals(2, second.getStyleId());
+    }
+
+    @Test(timeout = 60000)
+    public void stress_losslessReplayAtFullRate() throws Exception {
+        RecordedTrace trace = new RecordedTrace(2000, 500);
+        StrokeCommandQueue queue = new StrokeCommandQueue(256);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        VerifyingConsumer consumer = new VerifyingConsumer(trace, true);
+        Thread producer = startProducer(queue, trace, true, failure);
+        while (producer.isAlive() || !queue.isEmpty()) {
+            queue.drain(consumer);
+        }
+        producer.join();
+        assertNull(failure.get());
+        assertNull(consumer.error, consumer.error);
+        assertEquals(trace.strokeCount, consumer.endCount);
+    }
+
+    @Test(timeout = 60000)
+    public void stress_slowConsumerDropsOnlyPoints() throws Exception {
+        RecordedTrace trace = new RecordedTrace(500, 400);
+        StrokeCommandQueue queue = new StrokeCommandQueue(256);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        VerifyingConsumer consumer = new VerifyingConsumer(trace, false);
+        Random random = new Random(7);
+        Thread producer = startProducer(queue, trace, false, failure);
+        while (producer.isAlive() || !queue.isEmpty()) {
+            queue.drain(consumer);
+            //模拟渲染线程每帧的耗时抖动
+            if (random.nextInt(4) == 0) {
+                Thread.sleep(0, 200000);
+            }
+        }
+        producer.join();
+        assertNull(failure.get());
+        assertNull(consumer.error, consumer.error);
+        assertEquals(trace.strokeCount, consumer.endCount);
+    }
+}
@@ -0,0 +1,128 @@
+package com.tongfangpc.board.whiteboard.metrics;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Histogram和BoardMetrics的本地单元测试
+ */
+public class HistogramTest {
+
+    @Test
+    public void buckets_areContiguousAndBounded() {
+        assertEquals(0, Histogram.indexOf(0));
+        long previousHighest = -1;
+        for (int i = 0; i < Histogram.BUCKET_COUNT; i++) {
+            long highest = Histogram.highestValueOf(i);
+            assertTrue(highest > previousHighest);
+            assertEquals(i, Histogram.indexOf(previousHighest + 1));
+            assertEquals(i, Histogram.indexOf(highest));
+            if (previousHighest >= Histogram.SUB_BUCKETS) {
+                //桶的宽度不超过下界的1/16
+                assertTrue(highest - previousHighest <= (previousHighest + 1) / Histogram.HALF_BUCKETS);
+            }
+            previousHighest = highest;
+        }
+        assertEquals(Long.MAX_VALUE, previousHighest);
+    }
+
+    @Test
+    public void percentiles_matchExactValuesWithinBucketError() {
+        Histogram histogram = new Histogram();
+        Random random = new Random(5);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            //长尾的分布：大部分在1~4ms，少量到100ms
+            values[i] = (long) (1_000_000 * Math.exp(random.nextGaussian() * 0.8 + 0.7));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        double[] percentiles = {50, 90, 99, 99.9, 100};
+        for (double percentile : percentiles) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = snapshot.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + reported + " < " + exact, reported >= exact);
+            assertTrue(percentile + ": " + reported + " vs " + exact, reported <= exact + exact / Histogram.HALF_BUCKETS);
+        }
+    }
+
+    @Test
+    public void snapshot_resetStartsNewPeriod() {
+        Histogram histogram = new Histogram();
+        histogram.record(5);
+        histogram.record(-3);
+        histogram.record(1000);
+        HistogramSnapshot first = histogram.snapshot(true);
+        assertEquals(3, first.getCount());
+        assertEquals(0, first.getValueAtPercentile(0));
+        assertEquals(5, first.getP50());
+        assertEquals(1000, first.getP999());
+        assertEquals(1005, first.getSum());
+
+        HistogramSnapshot empty = histogram.snapshot();
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getP99());
+        assertEquals(0, empty.getMax());
+
+        histogram.record(7);
+        assertEquals(7, histogram.snapshot().getP50());
+    }
+
+    @Test
+    public void boardMetrics_keepsLatestBitmapBytesAcrossPeriods() {
+        BoardMetrics metrics = new BoardMetrics();
+        metrics.recordBitmapBytes(800);
+        metrics.recordBitmapBytes(300);
+        metrics.recordUndoReplay(2_000_000);
+        metrics.recordQueueDepth(12);
+        BoardMetrics.Snapshot first = metrics.snapshot(true);
+        assertEquals(300, first.getBitmapBytes());
+        assertEquals(800, first.getMaxBitmapBytes());
+        assertEquals(1, first.getUndoReplay().getCount());
+        assertEquals(0, first.getRedoReplay().getCount());
+        assertEquals(12, first.getQueueDepth().getMax());
+        assertTrue(first.toString(), first.toString().contains("undo{n=1 p50=2.0"));
+
+        BoardMetrics.Snapshot second = metrics.snapshot(true);
+        assertEquals(300, second.getBitmapBytes());
+        assertEquals(300, second.getMaxBitmapBytes());
+        assertEquals(0, second.getUndoReplay().getCount());
+    }
+
+    @Test
+    public void record_doesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        BoardMetrics metrics = new BoardMetrics();
+        for (int i = 0; i < 100_000; i++) {
+            recordFrame(metrics, i);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            recordFrame(metrics, i);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        assertEquals(0, allocated);
+    }
+
+    static void recordFrame(BoardMetrics metrics, int i) {
+        metrics.recordQueueDepth(i & 31);
+        metrics.recordInputLatency(8_000_000L + i);
+        metrics.recordRenderDuration(1_000_000L * (i & 7));
+        metrics.recordBitmapBytes(i);
+    }
+}
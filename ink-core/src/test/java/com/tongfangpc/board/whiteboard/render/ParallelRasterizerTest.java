@@ -0,0 +1,273 @@
+package com.tongfangpc.board.whiteboard.render;
+
+import com.tongfangpc.board.whiteboard.index.IntArray;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ParallelRasterizer的本地单元测试，用int数组上的软件栅格化代替Bitmap和Canvas
+ */
+public class ParallelRasterizerTest {
+
+    /*
+    一组带半径的线段，按索引顺序绘制，后画的覆盖先画的；每条线段的颜色不同，顺序错了结果就会不同
+     */
+    static final class Shapes {
+        final float[] x0;
+        final float[] y0;
+        final float[] x1;
+        final float[] y1;
+        final float[] radius;
+
+        Shapes(int count) {
+            x0 = new float[count];
+            y0 = new float[count];
+            x1 = new float[count];
+            y1 = new float[count];
+            radius = new float[count];
+        }
+
+        static Shapes random(int count, int width, int height, float maxLength, float maxRadius, long seed) {
+            Random random = new Random(seed);
+            Shapes shapes = new Shapes(count);
+            for (int i = 0; i < count; i++) {
+                shapes.x0[i] = random.nextFloat() * width;
+                shapes.y0[i] = random.nextFloat() * height;
+                shapes.x1[i] = shapes.x0[i] + (random.nextFloat() * 2 - 1) * maxLength;
+                shapes.y1[i] = shapes.y0[i] + (random.nextFloat() * 2 - 1) * maxLength;
+                shapes.radius[i] = 1 + random.nextFloat() * maxRadius;
+            }
+            return shapes;
+        }
+
+        int size() {
+            return x0.length;
+        }
+
+        float top(int i) {
+            return Math.min(y0[i], y1[i]) - radius[i];
+        }
+
+        float bottom(int i) {
+            return Math.max(y0[i], y1[i]) + radius[i];
+        }
+
+        /*
+        把第i条线段画到rows行、顶端位于top的画布上
+         */
+        void draw(int i, int[] pixels, int width, int top, int rows) {
+            float r = radius[i];
+            int left = Math.max(0, (int) Math.floor(Math.min(x0[i], x1[i]) - r));
+            int right = Math.min(width - 1, (int) Math.ceil(Math.max(x0[i], x1[i]) + r));
+            int first = Math.max(top, (int) Math.floor(top(i)));
+            int last = Math.min(top + rows - 1, (int) Math.ceil(bottom(i)));
+            float dx = x1[i] - x0[i];
+            float dy = y1[i] - y0[i];
+            float lengthSquared = dx * dx + dy * dy;
+            int color = i + 1;
+            for (int y = first; y <= last; y++) {
+                for (int x = left; x <= right; x++) {
+                    float px = x + 0.5f - x0[i];
+                    float py = y + 0.5f - y0[i];
+                    float t = lengthSquared > 0 ? Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared)) : 0;
+                    float ex = px - t * dx;
+                    float ey = py - t * dy;
+                    if (ex * ex + ey * ey <= r * r) {
+                        pixels[(y - top) * width + x] = color;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+    条带是width * rows的int数组，合成时拷贝到target
+     */
+    static class SoftwarePainter implements ParallelRasterizer.Painter<int[]> {
+        final Shapes shapes;
+        final int[] target;
+        final int width;
+        int created;
+        int recycled;
+
+        SoftwarePainter(Shapes shapes, int width, int height) {
+            this.shapes = shapes;
+            this.width = width;
+            target = new int[width * height];
+        }
+
+        @Override
+        public int[] createBand(int width, int height) {
+            created++;
+            return new int[width * height];
+        }
+
+        @Override
+        public void paint(int[] band, int top, IntArray items) {
+            int rows = band.length / width;
+            Arrays.fill(band, 0);
+            for (int i = 0; i < items.size(); i++) {
+                shapes.draw(items.get(i), band, width, top, rows);
+            }
+        }
+
+        @Override
+        public void compose(int[] band, int top) {
+            System.arraycopy(band, 0, target, top * width, band.length);
+        }
+
+        @Override
+        public void recycle(int[] band) {
+            recycled++;
+        }
+    }
+
+    static int[] renderSequentially(Shapes shapes, int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < shapes.size(); i++) {
+            shapes.draw(i, pixels, width, 0, height);
+        }
+        return pixels;
+    }
+
+    static SoftwarePainter renderInParallel(ParallelRasterizer<int[]> rasterizer, Shapes shapes, int width, int height) {
+        SoftwarePainter painter = new SoftwarePainter(shapes, width, height);
+        rasterizer.begin(width, height);
+        for (int i = 0; i < shapes.size(); i++) {
+            rasterizer.add(i, shapes.top(i), shapes.bottom(i));
+        }
+        rasterizer.rasterize(painter);
+        return painter;
+    }
+
+    @Test
+    public void add_assignsItemsToIntersectingBandsInOrder() {
+        ParallelRasterizer<int[]> rasterizer = new ParallelRasterizer<>(1, 4);
+        rasterizer.begin(100, 100);
+        rasterizer.add(0, 10, 20);
+        rasterizer.add(1, 20, 60);
+        rasterizer.add(2, -30, -1);
+        rasterizer.add(3, 99, 150);
+        rasterizer.addToAll(4);
+        rasterizer.add(5, 0, 24.5f);
+        assertEquals(25, rasterizer.getBandHeight(0));
+        assertEquals(75, rasterizer.getBandTop(3));
+        assertArrayEquals(new int[]{0, 1, 4, 5}, toArray(rasterizer.getBandItems(0)));
+        assertArrayEquals(new int[]{1, 4}, toArray(rasterizer.getBandItems(1)));
+        assertArrayEquals(new int[]{1, 4}, toArray(rasterizer.getBandItems(2)));
+        assertArrayEquals(new int[]{3, 4}, toArray(rasterizer.getBandItems(3)));
+
+        rasterizer.begin(100, 100);
+        assertTrue(rasterizer.getBandItems(0).isEmpty());
+    }
+
+    @Test
+    public void bands_coverUnevenHeight() {
+        ParallelRasterizer<int[]> rasterizer = new ParallelRasterizer<>(1, 4);
+        rasterizer.begin(10, 10);
+        int rows = 0;
+        for (int i = 0; i < rasterizer.getBandCount(); i++) {
+            assertEquals(rows, rasterizer.getBandTop(i));
+            rows += rasterizer.getBandHeight(i);
+        }
+        assertEquals(10, rows);
+    }
+
+    @Test
+    public void rasterize_matchesSequentialReplay() {
+        int width = 320;
+        int height = 240;
+        Shapes shapes = Shapes.random(400, width, height, 80, 6, 3);
+        int[] expected = renderSequentially(shapes, width, height);
+        ParallelRasterizer<int[]> rasterizer = new ParallelRasterizer<>(4);
+        try {
+            SoftwarePainter painter = renderInParallel(rasterizer, shapes, width, height);
+            assertArrayEquals(expected, painter.target);
+            assertEquals(rasterizer.getBandCount(), painter.created);
+            assertEquals(0, painter.recycled);
+            rasterizer.release(painter);
+            assertEquals(painter.created, painter.recycled);
+        } finally {
+            rasterizer.shutdown();
+        }
+    }
+
+    @Test
+    public void rasterize_skipsEmptyBands() {
+        Shapes shapes = new Shapes(1);
+        shapes.x0[0] = 5;
+        shapes.y0[0] = 5;
+        shapes.x1[0] = 15;
+        shapes.y1[0] = 5;
+        shapes.radius[0] = 2;
+        ParallelRasterizer<int[]> rasterizer = new ParallelRasterizer<>(1, 8);
+        SoftwarePainter painter = renderInParallel(rasterizer, shapes, 20, 80);
+        assertEquals(1, painter.created);
+        assertArrayEquals(renderSequentially(shapes, 20, 80), painter.target);
+    }
+
+    @Test
+    public void rasterize_reusesBandsUntilSizeChanges() {
+        int width = 64;
+        int height = 48;
+        Shapes shapes = Shapes.random(50, width, height, 20, 4, 7);
+        ParallelRasterizer<int[]> rasterizer = new ParallelRasterizer<>(2);
+        try {
+            SoftwarePainter painter = renderInParallel(rasterizer, shapes, width, height);
+            int created = painter.created;
+            //条带上留有上一次的内容，重建的结果仍然只有这一次的行为
+            Shapes others = Shapes.random(50, width, height, 20, 4, 8);
+            SoftwarePainter again = renderInParallel(rasterizer, others, width, height);
+            assertEquals(0, again.created);
+            assertEquals(0, again.recycled);
+            assertArrayEquals(renderSequentially(others, width, height), again.target);
+
+            SoftwarePainter resized = renderInParallel(rasterizer, shapes, width, height * 2);
+            assertEquals(created, resized.recycled);
+            assertTrue(resized.created > 0);
+            assertArrayEquals(renderSequentially(shapes, width, height * 2), resized.target);
+        } finally {
+            rasterizer.shutdown();
+        }
+    }
+
+    @Test
+    public void rasterize_rethrowsWorkerFailureAfterAllBandsFinish() {
+        ParallelRasterizer<int[]> rasterizer = new ParallelRasterizer<>(2);
+        try {
+            SoftwarePainter painter = new SoftwarePainter(new Shapes(0), 10, 40) {
+                @Override
+                public void paint(int[] band, int top, IntArray items) {
+                    throw new IllegalStateException("broken");
+                }
+            };
+            rasterizer.begin(10, 40);
+            rasterizer.addToAll(0);
+            try {
+                rasterizer.rasterize(painter);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("broken", e.getMessage());
+            }
+            //失败的重建不回收条带，release之后才回收
+            assertEquals(0, painter.recycled);
+            rasterizer.release(painter);
+            assertEquals(rasterizer.getBandCount(), painter.recycled);
+        } finally {
+            rasterizer.shutdown();
+        }
+    }
+
+    static int[] toArray(IntArray values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+}
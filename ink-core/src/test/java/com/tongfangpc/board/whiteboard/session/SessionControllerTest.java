@@ -0,0 +1,274 @@
+package com.tongfangpc.board.whiteboard.session;
+
+import com.tongfangpc.board.whiteboard.config.PenStyle;
+import com.tongfangpc.board.whiteboard.config.PenStyleRegistry;
+import com.tongfangpc.board.whiteboard.history.ActionHistory;
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * SessionController的本地单元测试：快照、日志和回放之后的历史记录必须使用同一套序号
+ */
+public class SessionControllerTest {
+
+    /*
+    测试用的行为：笔画、擦除，或者stroke为null的不能保存的行为
+     */
+    static final class TestAction {
+        final Stroke stroke;
+        final boolean erase;
+        final List<Integer> targets = new ArrayList<>();
+
+        TestAction(Stroke stroke, boolean erase) {
+            this.stroke = stroke;
+            this.erase = erase;
+        }
+
+        int pointCount() {
+            return stroke.getPointCount();
+        }
+    }
+
+    static class TestHost implements SessionController.Host<TestAction> {
+        final ActionHistory<TestAction> history;
+
+        /*
+        为true时快照的底层栅格编码失败，模拟写不成的快照
+         */
+        boolean failBase;
+
+        TestHost(ActionHistory<TestAction> history) {
+            this.history = history;
+        }
+
+        @Override
+        public void describe(TestAction action, SessionController.ActionRecord record) {
+            if (action.erase) {
+                record.setErase(0, 0, 1, 1);
+                for (int target : action.targets) {
+                    record.addTarget(target);
+                }
+            } else if (action.stroke != null) {
+                record.setStroke(action.stroke, STYLE, 0, 0, 1, 1);
+            }
+        }
+
+        @Override
+        public TestAction createStroke(Stroke stroke, PenStyle style) {
+            return new TestAction(stroke, false);
+        }
+
+        @Override
+        public TestAction createStroke(SessionReader source, int recordIndex, PenStyle style) {
+            try {
+                return new TestAction(source.readStroke(recordIndex), false);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public TestAction createErase(int index) {
+            return new TestAction(null, true);
+        }
+
+        @Override
+        public boolean addEraseTarget(TestAction erase, TestAction target, int targetIndex) {
+            if (target.erase || target.stroke == null) {
+                return false;
+            }
+            erase.targets.add(targetIndex);
+            return true;
+        }
+
+        @Override
+        public void commit(TestAction action) {
+            history.commit(action);
+        }
+
+        @Override
+        public void restore(List<TestAction> actions, SessionReader snapshot) {
+            synchronized (history) {
+                history.clear();
+                for (TestAction action : actions) {
+                    history.commit(action);
+                }
+            }
+        }
+
+        @Override
+        public void captureBase(SessionSnapshot snapshot) {
+            if (failBase) {
+                snapshot.addBaseTile(256, 0, 0, new SessionSnapshot.TileImage() {
+                    @Override
+                    public byte[] encode() throws IOException {
+                        throw new IOException("disk full");
+                    }
+                });
+            }
+        }
+    }
+
+    static final PenStyle STYLE = new PenStyleRegistry().intern(0xff000000, 2f);
+
+    File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("session", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    static SessionController<TestAction> controller(ActionHistory<TestAction> history) {
+        return new SessionController<>(history, new PenStyleRegistry(), new TestHost(history));
+    }
+
+    static TestAction erase(int... targets) {
+        TestAction erase = new TestAction(null, true);
+        for (int target : targets) {
+            erase.targets.add(target);
+        }
+        return erase;
+    }
+
+    static SessionReader write(SessionSnapshot snapshot) throws IOException {
+        SessionWriter writer = new SessionWriter();
+        snapshot.writeTo(writer);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        return new SessionReader(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    @Test
+    public void unsavedAction_keepsSnapshotIndicesAligned() throws IOException {
+        ActionHistory<TestAction> history = new ActionHistory<>();
+        SessionController<TestAction> controller = controller(history);
+        history.commit(new TestAction(SessionJournalTest.stroke(3), false));
+        history.commit(new TestAction(null, false));
+        history.commit(new TestAction(SessionJournalTest.stroke(5), false));
+        history.commit(erase(2));
+
+        SessionReader reader = write(controller.capture());
+        assertEquals(4, reader.getActionCount());
+        List<TestAction> loaded = controller(new ActionHistory<TestAction>()).load(reader);
+        assertEquals(4, loaded.size());
+        assertEquals(1, loaded.get(3).targets.size());
+        assertEquals(5, loaded.get(loaded.get(3).targets.get(0)).pointCount());
+    }
+
+    @Test
+    public void journalAfterUnsavedAction_erasesTheRightStroke() throws IOException {
+        ActionHistory<TestAction> history = new ActionHistory<>();
+        SessionController<TestAction> controller = controller(history);
+        controller.enableAutosave(directory);
+        synchronized (history) {
+            controller.onCommitted(history.commit(new TestAction(SessionJournalTest.stroke(3), false)));
+            controller.onCommitted(history.commit(new TestAction(null, false)));
+            controller.onCommitted(history.commit(new TestAction(SessionJournalTest.stroke(5), false)));
+            controller.onCommitted(history.commit(erase(2)));
+        }
+        controller.disableAutosave();
+
+        ActionHistory<TestAction> recovered = new ActionHistory<>();
+        SessionController<TestAction> reopened = controller(recovered);
+        reopened.enableAutosave(directory);
+        reopened.disableAutosave();
+        assertEquals(4, recovered.size());
+        TestAction erase = recovered.get(3);
+        assertTrue(erase.erase);
+        assertEquals(5, recovered.get(erase.targets.get(0)).pointCount());
+    }
+
+    @Test
+    public void compactedTargets_areDroppedFromSnapshot() throws IOException {
+        ActionHistory<TestAction> history = new ActionHistory<>();
+        history.setMaxUndoDepth(1);
+        SessionController<TestAction> controller = controller(history);
+        for (int i = 0; i < 3; i++) {
+            history.commit(new TestAction(SessionJournalTest.stroke(3 + i), false));
+        }
+        history.commit(erase(1, 2));
+        history.compact(2);
+
+        SessionReader reader = write(controller.capture());
+        assertEquals(2, reader.getActionCount());
+        assertArrayEquals(new int[]{0}, reader.readEraseTargets(1));
+    }
+
+    @Test
+    public void redoTail_survivesCompaction() throws IOException {
+        ActionHistory<TestAction> history = new ActionHistory<>();
+        SessionController<TestAction> controller = controller(history);
+        for (int i = 0; i < 3; i++) {
+            history.commit(new TestAction(SessionJournalTest.stroke(3 + i), false));
+        }
+        history.undo();
+        //没有可恢复的内容时以当前的历史记录写出快照
+        controller.enableAutosave(directory);
+        synchronized (history) {
+            history.redo();
+            controller.onCursorMoved();
+        }
+        controller.disableAutosave();
+
+        ActionHistory<TestAction> recovered = new ActionHistory<>();
+        SessionController<TestAction> reopened = controller(recovered);
+        reopened.enableAutosave(directory);
+        reopened.disableAutosave();
+        assertEquals(3, recovered.size());
+        assertEquals(3, recovered.getNextDoIndex());
+        assertEquals(5, recovered.get(2).pointCount());
+    }
+
+    @Test
+    public void failedSnapshot_isRetriedOnNextCommit() throws IOException {
+        ActionHistory<TestAction> history = new ActionHistory<>();
+        TestHost host = new TestHost(history);
+        SessionController<TestAction> controller = new SessionController<>(history, new PenStyleRegistry(), host);
+        history.commit(new TestAction(SessionJournalTest.stroke(3), false));
+        host.failBase = true;
+        controller.enableAutosave(directory);
+        try {
+            controller.flushAutosave();
+            fail("snapshot failure should be reported");
+        } catch (IOException expected) {
+        }
+        host.failBase = false;
+        synchronized (history) {
+            controller.onCommitted(history.commit(new TestAction(SessionJournalTest.stroke(5), false)));
+        }
+        controller.disableAutosave();
+
+        ActionHistory<TestAction> recovered = new ActionHistory<>();
+        SessionController<TestAction> reopened = controller(recovered);
+        reopened.enableAutosave(directory);
+        reopened.disableAutosave();
+        assertEquals(2, recovered.size());
+        assertEquals(3, recovered.get(0).pointCount());
+        assertEquals(5, recovered.get(1).pointCount());
+    }
+}
@@ -0,0 +1,256 @@
+package com.tongfangpc.board.whiteboard.session;
+
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+import com.tongfangpc.board.whiteboard.stroke.StrokeBuilder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SessionFormatTest {
+
+    static Stroke stroke(float x, float y, int points) {
+        StrokeBuilder builder = new StrokeBuilder();
+        builder.begin(x, y, 0, 0.5f);
+        for (int i = 1; i < points; i++) {
+            builder.add(x + i * 3.3f, y - i * 1.7f, i * 8, 0.5f + i * 0.01f);
+        }
+        return builder.build();
+    }
+
+    static SessionReader roundTrip(SessionWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        return new SessionReader(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    @Test
+    public void zigzag_roundTrip() {
+        int[] values = {0, 1, -1, 63, -64, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int value : values) {
+            assertEquals(value, SessionFormat.unzigzag(SessionFormat.zigzag(value)));
+        }
+        assertEquals(1, SessionFormat.zigzag(-1));
+        assertEquals(2, SessionFormat.zigzag(1));
+    }
+
+    @Test
+    public void stroke_roundTripWithinQuantization() throws IOException {
+        Stroke original = stroke(100.123f, -20.456f, 50);
+        SessionWriter writer = new SessionWriter();
+        writer.writeStroke(original, 0xff112233, 4f, 1, 2, 3, 4);
+        SessionReader reader = roundTrip(writer);
+
+        assertEquals(1, reader.getActionCount());
+        assertEquals(SessionFormat.TYPE_STROKE, reader.getType(0));
+        assertEquals(0xff112233, reader.getStyleColor(reader.getStyle(0)));
+        assertEquals(4f, reader.getStyleWidth(reader.getStyle(0)), 0);
+        assertEquals(1f, reader.getLeft(0), 0);
+        assertEquals(4f, reader.getBottom(0), 0);
+
+        Stroke decoded = reader.readStroke(0);
+        assertEquals(original.getPointCount(), decoded.getPointCount());
+        float tolerance = 0.5f / SessionFormat.COORDINATE_SCALE + 1e-4f;
+        for (int i = 0; i < original.getPointCount(); i++) {
+            assertEquals(original.getX(i), decoded.getX(i), tolerance);
+            assertEquals(original.getY(i), decoded.getY(i), tolerance);
+            assertEquals(original.getTime(i), decoded.getTime(i), 0.5f);
+            assertEquals(original.getPressure(i), decoded.getPressure(i), 1f / SessionFormat.PRESSURE_SCALE);
+        }
+    }
+
+    @Test
+    public void styles_areDeduplicated() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        writer.writeStroke(stroke(0, 0, 3), 0xff000000, 2f, 0, 0, 1, 1);
+        writer.writeStroke(stroke(5, 5, 3), 0xffff0000, 2f, 0, 0, 1, 1);
+        writer.writeStroke(stroke(9, 9, 3), 0xff000000, 2f, 0, 0, 1, 1);
+        assertEquals(2, writer.getStyleCount());
+        SessionReader reader = roundTrip(writer);
+        assertEquals(2, reader.getStyleCount());
+        assertEquals(reader.getStyle(0), reader.getStyle(2));
+        assertTrue(reader.getStyle(0) != reader.getStyle(1));
+    }
+
+    @Test
+    public void styleFlags_roundTrip() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        writer.writeStroke(stroke(0, 0, 3), 0xff000000, 2f, 0, 0, 1, 1);
+        writer.writeStroke(stroke(5, 5, 3), 0xff000000, 2f, SessionFormat.STYLE_VARIABLE_WIDTH, 0, 0, 1, 1);
+        assertEquals(2, writer.getStyleCount());
+        SessionReader reader = roundTrip(writer);
+        assertEquals(0, reader.getStyleFlags(reader.getStyle(0)));
+        assertEquals(SessionFormat.STYLE_VARIABLE_WIDTH, reader.getStyleFlags(reader.getStyle(1)));
+        assertEquals(2f, reader.getStyleWidth(reader.getStyle(1)), 0);
+    }
+
+    @Test
+    public void erase_roundTrip() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        for (int i = 0; i < 4; i++) {
+            writer.writeStroke(stroke(i * 10, 0, 4), 0xff000000, 2f, 0, 0, 1, 1);
+        }
+        writer.writeErase(new int[]{0, 2, 3}, 3, -5, -5, 50, 50);
+        SessionReader reader = roundTrip(writer);
+
+        assertEquals(SessionFormat.TYPE_ERASE, reader.getType(4));
+        assertArrayEquals(new int[]{0, 2, 3}, reader.readEraseTargets(4));
+        assertEquals(-5f, reader.getTop(4), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void erase_rejectsUnwrittenTarget() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        writer.writeStroke(stroke(0, 0, 2), 0xff000000, 2f, 0, 0, 1, 1);
+        writer.writeErase(new int[]{1}, 1, 0, 0, 1, 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void readStroke_rejectsWrongType() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        writer.writeStroke(stroke(0, 0, 2), 0xff000000, 2f, 0, 0, 1, 1);
+        writer.writeErase(new int[]{0}, 1, 0, 0, 1, 1);
+        roundTrip(writer).readStroke(1);
+    }
+
+    @Test
+    public void open_rejectsCorruptedHeader() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        writer.writeStroke(stroke(0, 0, 2), 0xff000000, 2f, 0, 0, 1, 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+
+        byte[] badMagic = out.toByteArray();
+        badMagic[0] ^= 0x7f;
+        assertRejected(badMagic);
+
+        byte[] badCount = out.toByteArray();
+        badCount[12] = 0x7f;
+        assertRejected(badCount);
+
+        assertRejected(new byte[4]);
+    }
+
+    @Test
+    public void open_rejectsInvalidStyleWidth() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        writer.writeStroke(stroke(0, 0, 2), 0xff000000, 2f, 0, 0, 1, 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+
+        byte[] nan = out.toByteArray();
+        ByteBuffer.wrap(nan).putFloat(SessionFormat.HEADER_BYTES + 4, Float.NaN);
+        assertRejected(nan);
+
+        byte[] negative = out.toByteArray();
+        ByteBuffer.wrap(negative).putFloat(SessionFormat.HEADER_BYTES + 4, -1f);
+        assertRejected(negative);
+    }
+
+    @Test(expected = IOException.class)
+    public void getStyle_rejectsStyleOutsideTable() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        writer.writeStroke(stroke(0, 0, 2), 0xff000000, 2f, 0, 0, 1, 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+        int index = (int) buffer.getLong(16);
+        buffer.putInt(index + 8, (SessionFormat.TYPE_STROKE << 24) | 5);
+        new SessionReader(buffer).getStyle(0);
+    }
+
+    static void assertRejected(byte[] bytes) {
+        try {
+            new SessionReader(ByteBuffer.wrap(bytes));
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void baseTiles_roundTripThroughSnapshot() throws IOException {
+        SessionSnapshot snapshot = new SessionSnapshot();
+        snapshot.addStroke(stroke(0, 0, 3), 0xff000000, 2f, 0, 0, 0, 10, 10);
+        snapshot.addBaseTile(512, -1, 2, image(new byte[]{1, 2, 3}));
+        snapshot.addBaseTile(512, 0, 0, image(new byte[0]));
+        SessionWriter writer = new SessionWriter();
+        snapshot.writeTo(writer);
+        SessionReader reader = roundTrip(writer);
+        assertEquals(1, reader.getActionCount());
+        assertEquals(512, reader.getBaseTileSize());
+        assertEquals(2, reader.getBaseTileCount());
+        assertEquals(-1, reader.getBaseTileX(0));
+        assertEquals(2, reader.getBaseTileY(0));
+        assertArrayEquals(new byte[]{1, 2, 3}, reader.readBaseTileImage(0));
+        assertEquals(0, reader.readBaseTileImage(1).length);
+        assertEquals(3, reader.readStroke(0).getPointCount());
+    }
+
+    @Test
+    public void version2File_hasNoBaseTiles() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        writer.writeStroke(stroke(0, 0, 2), 0xff000000, 2f, 0, 0, 1, 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        //版本2的文件在索引表之后结束
+        byte[] bytes = out.toByteArray();
+        ByteBuffer v2 = ByteBuffer.wrap(bytes, 0, bytes.length - 8).slice();
+        v2.putShort(4, SessionFormat.VERSION_2);
+        SessionReader reader = new SessionReader(v2);
+        assertEquals(0, reader.getBaseTileCount());
+        assertEquals(2, reader.readStroke(0).getPointCount());
+    }
+
+    @Test
+    public void baseTiles_rejectTruncatedImage() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        writer.setBaseTileSize(256);
+        writer.writeBaseTile(0, 0, new byte[100]);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        byte[] bytes = out.toByteArray();
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertRejected(truncated);
+    }
+
+    static SessionSnapshot.TileImage image(final byte[] bytes) {
+        return new SessionSnapshot.TileImage() {
+            @Override
+            public byte[] encode() {
+                return bytes;
+            }
+        };
+    }
+
+    @Test
+    public void open_mapsFile() throws IOException {
+        SessionWriter writer = new SessionWriter();
+        for (int i = 0; i < 100; i++) {
+            writer.writeStroke(stroke(i, i, 10), 0xff000000 | i, 3f, i, i, i + 40, i + 20);
+        }
+        File file = File.createTempFile("session", ".wb");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                writer.writeTo(out);
+            } finally {
+                out.close();
+            }
+            SessionReader reader = SessionReader.open(file);
+            assertEquals(100, reader.getActionCount());
+            assertEquals(100, reader.getStyleCount());
+            assertEquals(99f, reader.getLeft(99), 0);
+            assertEquals(10, reader.readStroke(57).getPointCount());
+            assertEquals(57f, reader.readStroke(57).getX(0), 0.05f);
+        } finally {
+            file.delete();
+        }
+    }
+}
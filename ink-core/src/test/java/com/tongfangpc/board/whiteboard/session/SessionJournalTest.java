@@ -0,0 +1,313 @@
+package com.tongfangpc.board.whiteboard.session;
+
+import com.tongfangpc.board.whiteboard.stroke.Stroke;
+import com.tongfangpc.board.whiteboard.stroke.StrokeBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SessionJournalTest {
+
+    /*
+    把回放的内容记录成字符串，便于比较顺序
+     */
+    static class RecordingListener implements SessionJournal.Listener {
+        final List<String> events = new ArrayList<>();
+        SessionReader snapshot;
+
+        @Override
+        public void onSnapshot(SessionReader snapshot) {
+            this.snapshot = snapshot;
+            events.add("snapshot:" + snapshot.getActionCount());
+        }
+
+        @Override
+        public void onStroke(Stroke stroke, int color, float width, int styleFlags, float left, float top, float right, float bottom) {
+            events.add("stroke:" + stroke.getPointCount() + ":" + Integer.toHexString(color) + ":" + width + ":" + left);
+        }
+
+        @Override
+        public void onErase(int[] targets, float left, float top, float right, float bottom) {
+            events.add("erase:" + Arrays.toString(targets));
+        }
+
+        @Override
+        public void onCursor(int nextDoIndex) {
+            events.add("cursor:" + nextDoIndex);
+        }
+    }
+
+    File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("journal", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    static Stroke stroke(int points) {
+        StrokeBuilder builder = new StrokeBuilder();
+        builder.begin(10, 20, 0, 1);
+        for (int i = 1; i < points; i++) {
+            builder.add(10 + i * 2, 20 + i, i * 8, 1);
+        }
+        return builder.build();
+    }
+
+    SessionJournal open(RecordingListener listener) throws IOException {
+        SessionJournal journal = new SessionJournal(directory, 5);
+        journal.open(listener);
+        return journal;
+    }
+
+    @Test
+    public void appendedRecords_replayInOrder() throws IOException {
+        SessionJournal journal = open(new RecordingListener());
+        journal.appendStroke(stroke(5), 0xff0000ff, 3f, 0, 1, 2, 3, 4);
+        journal.appendStroke(stroke(7), 0xff00ff00, 6f, 0, 5, 6, 7, 8);
+        journal.appendErase(new int[]{0, 1}, 2, 0, 0, 10, 10);
+        journal.appendCursor(2);
+        journal.appendCursor(3);
+        journal.close();
+
+        RecordingListener listener = new RecordingListener();
+        open(listener).close();
+        assertEquals(Arrays.asList("stroke:5:ff0000ff:3.0:1.0", "stroke:7:ff00ff00:6.0:5.0",
+                "erase:[0, 1]", "cursor:2", "cursor:3"), listener.events);
+    }
+
+    @Test
+    public void flush_waitsForDisk() throws IOException {
+        SessionJournal journal = new SessionJournal(directory, 60000);
+        journal.open(new RecordingListener());
+        journal.appendStroke(stroke(3), 0xff000000, 2f, 0, 0, 0, 1, 1);
+        long start = System.nanoTime();
+        journal.flush();
+        assertTrue(System.nanoTime() - start < 10000000000L);
+        assertTrue(new File(directory, SessionJournal.JOURNAL_NAME).length() > SessionJournal.JOURNAL_HEADER_BYTES);
+        journal.close();
+    }
+
+    @Test
+    public void tornTail_isDiscardedAndAppendingContinues() throws IOException {
+        SessionJournal journal = open(new RecordingListener());
+        journal.appendStroke(stroke(4), 0xff000000, 2f, 0, 0, 0, 1, 1);
+        journal.appendCursor(0);
+        journal.close();
+
+        //模拟最后一条记录只写了一半
+        File file = new File(directory, SessionJournal.JOURNAL_NAME);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        RecordingListener listener = new RecordingListener();
+        journal = open(listener);
+        assertEquals(Arrays.asList("stroke:4:ff000000:2.0:0.0"), listener.events);
+        journal.appendCursor(1);
+        journal.close();
+
+        listener = new RecordingListener();
+        open(listener).close();
+        assertEquals(Arrays.asList("stroke:4:ff000000:2.0:0.0", "cursor:1"), listener.events);
+    }
+
+    @Test
+    public void corruptedRecord_stopsReplay() throws IOException {
+        SessionJournal journal = open(new RecordingListener());
+        journal.appendStroke(stroke(4), 0xff000000, 2f, 0, 0, 0, 1, 1);
+        journal.appendStroke(stroke(4), 0xff000000, 2f, 0, 0, 0, 1, 1);
+        journal.close();
+
+        File file = new File(directory, SessionJournal.JOURNAL_NAME);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 2);
+        int b = raf.read();
+        raf.seek(raf.length() - 2);
+        raf.write(b ^ 0x55);
+        raf.close();
+
+        RecordingListener listener = new RecordingListener();
+        open(listener).close();
+        assertEquals(1, listener.events.size());
+    }
+
+    @Test
+    public void compaction_replacesJournalWithSnapshot() throws IOException {
+        SessionJournal journal = open(new RecordingListener());
+        Stroke first = stroke(5);
+        Stroke second = stroke(9);
+        journal.appendStroke(first, 0xff000000, 2f, 0, 0, 0, 1, 1);
+        journal.appendStroke(second, 0xff000000, 2f, 0, 0, 0, 1, 1);
+        SessionSnapshot snapshot = new SessionSnapshot();
+        snapshot.addStroke(first, 0xff000000, 2f, 0, 0, 0, 1, 1);
+        snapshot.addStroke(second, 0xff000000, 2f, 0, 0, 0, 1, 1);
+        snapshot.addErase(new int[]{1}, 1, 0, 0, 1, 1);
+        journal.compact(snapshot, 0, false);
+        journal.appendCursor(2);
+        journal.close();
+
+        RecordingListener listener = new RecordingListener();
+        open(listener).close();
+        assertEquals(Arrays.asList("snapshot:3", "cursor:2"), listener.events);
+        assertEquals(1, listener.snapshot.getGeneration());
+        assertEquals(9, listener.snapshot.readStroke(1).getPointCount());
+        assertArrayEquals(new int[]{1}, listener.snapshot.readEraseTargets(2));
+    }
+
+    /*
+    底层栅格的图像编码失败，快照写不成
+     */
+    static SessionSnapshot failingSnapshot() {
+        SessionSnapshot snapshot = new SessionSnapshot();
+        snapshot.addBaseTile(256, 0, 0, new SessionSnapshot.TileImage() {
+            @Override
+            public byte[] encode() throws IOException {
+                throw new IOException("disk full");
+            }
+        });
+        return snapshot;
+    }
+
+    static class RecordingWriteListener implements SessionJournal.WriteListener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public synchronized void onSnapshotWritten(long generation) {
+            events.add("snapshot:" + generation);
+        }
+
+        @Override
+        public synchronized void onWriteFailed(IOException e) {
+            events.add("failed");
+        }
+    }
+
+    @Test
+    public void recordsAfterCompaction_areRebasedOnceSnapshotIsWritten() throws IOException {
+        SessionJournal journal = open(new RecordingListener());
+        RecordingWriteListener writes = new RecordingWriteListener();
+        journal.setWriteListener(writes);
+        SessionSnapshot snapshot = new SessionSnapshot();
+        snapshot.addStroke(stroke(3), 0xff000000, 2f, 0, 0, 0, 1, 1);
+        snapshot.addStroke(stroke(4), 0xff000000, 2f, 0, 0, 0, 1, 1);
+        //历史记录中[0, 5)已经压缩，快照从索引5开始
+        journal.compact(snapshot, 5, false);
+        journal.appendErase(new int[]{3, 6}, 2, 0, 0, 1, 1);
+        journal.appendCursor(7);
+        journal.close();
+        assertEquals(Arrays.asList("snapshot:1"), writes.events);
+
+        RecordingListener listener = new RecordingListener();
+        open(listener).close();
+        assertEquals(Arrays.asList("snapshot:2", "erase:[1]", "cursor:2"), listener.events);
+    }
+
+    @Test
+    public void failedSnapshot_keepsAppendingToOldJournal() throws IOException {
+        SessionJournal journal = open(new RecordingListener());
+        RecordingWriteListener writes = new RecordingWriteListener();
+        journal.setWriteListener(writes);
+        journal.appendStroke(stroke(3), 0xff000000, 2f, 0, 0, 0, 1, 1);
+        journal.appendStroke(stroke(4), 0xff000000, 2f, 0, 0, 0, 1, 1);
+        journal.compact(failingSnapshot(), 1, false);
+        journal.appendErase(new int[]{1}, 1, 0, 0, 1, 1);
+        journal.appendCursor(2);
+        try {
+            journal.flush();
+            fail("snapshot failure should be reported by flush");
+        } catch (IOException expected) {
+        }
+        journal.close();
+        assertEquals(Arrays.asList("failed"), writes.events);
+
+        //记录仍然按旧快照的base写入旧日志
+        RecordingListener listener = new RecordingListener();
+        open(listener).close();
+        assertEquals(Arrays.asList("stroke:3:ff000000:2.0:0.0", "stroke:4:ff000000:2.0:0.0",
+                "erase:[1]", "cursor:2"), listener.events);
+    }
+
+    @Test
+    public void failedSnapshotOfReplacedHistory_dropsLaterRecords() throws IOException {
+        SessionJournal journal = open(new RecordingListener());
+        journal.appendStroke(stroke(3), 0xff000000, 2f, 0, 0, 0, 1, 1);
+        journal.compact(failingSnapshot(), 0, true);
+        journal.appendStroke(stroke(5), 0xff000000, 2f, 0, 0, 0, 1, 1);
+        try {
+            journal.close();
+            fail("snapshot failure should be reported by close");
+        } catch (IOException expected) {
+        }
+
+        //后一笔属于被替换之后的历史记录，不能接在旧日志后面
+        RecordingListener listener = new RecordingListener();
+        open(listener).close();
+        assertEquals(Arrays.asList("stroke:3:ff000000:2.0:0.0"), listener.events);
+    }
+
+    @Test
+    public void journalOfOlderGeneration_isIgnored() throws IOException {
+        SessionJournal journal = open(new RecordingListener());
+        journal.appendStroke(stroke(3), 0xff000000, 2f, 0, 0, 0, 1, 1);
+        journal.close();
+
+        //模拟新快照已经改名、旧日志还没有截断时崩溃
+        SessionWriter writer = new SessionWriter();
+        writer.writeStroke(stroke(3), 0xff000000, 2f, 0, 0, 1, 1);
+        writer.setGeneration(1);
+        writer.writeTo(new File(directory, SessionJournal.SNAPSHOT_NAME));
+
+        RecordingListener listener = new RecordingListener();
+        journal = open(listener);
+        assertEquals(Arrays.asList("snapshot:1"), listener.events);
+        journal.appendCursor(0);
+        journal.close();
+
+        listener = new RecordingListener();
+        open(listener).close();
+        assertEquals(Arrays.asList("snapshot:1", "cursor:0"), listener.events);
+    }
+
+    @Test
+    public void needsCompaction_afterJournalOutgrowsThreshold() throws IOException {
+        SessionJournal journal = open(new RecordingListener());
+        assertFalse(journal.needsCompaction());
+        Stroke stroke = stroke(400);
+        while (!journal.needsCompaction()) {
+            journal.appendStroke(stroke, 0xff000000, 2f, 0, 0, 0, 1, 1);
+        }
+        journal.compact(new SessionSnapshot(), 0, false);
+        assertFalse(journal.needsCompaction());
+        journal.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void append_afterCloseThrows() throws IOException {
+        SessionJournal journal = open(new RecordingListener());
+        journal.close();
+        journal.appendCursor(0);
+    }
+}
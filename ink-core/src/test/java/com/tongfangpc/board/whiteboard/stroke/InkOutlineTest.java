@@ -0,0 +1,156 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * InkOutline的本地单元测试
+ */
+public class InkOutlineTest {
+
+    /*
+    按moveTo切分子路径，记录每个子路径的顶点(二次曲线只取端点)
+     */
+    static class PolygonSink implements PathSink {
+        final List<List<float[]>> polygons = new ArrayList<>();
+        int closed;
+
+        @Override
+        public void moveTo(float x, float y) {
+            List<float[]> polygon = new ArrayList<>();
+            polygon.add(new float[]{x, y});
+            polygons.add(polygon);
+        }
+
+        @Override
+        public void quadTo(float x1, float y1, float x2, float y2) {
+            lineTo(x2, y2);
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            polygons.get(polygons.size() - 1).add(new float[]{x, y});
+        }
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
+
+    static float signedArea(List<float[]> polygon) {
+        float area = 0;
+        for (int i = 0, count = polygon.size(); i < count; i++) {
+            float[] a = polygon.get(i);
+            float[] b = polygon.get((i + 1) % count);
+            area += a[0] * b[1] - b[0] * a[1];
+        }
+        return area / 2;
+    }
+
+    @Test
+    public void radius_growsWithPressure() {
+        InkOutline outline = new InkOutline();
+        outline.begin(10);
+        outline.add(0, 0, 0, 0.1f);
+        outline.add(0, 0, 16, 0.9f);
+        assertTrue(outline.getRadius(1) > outline.getRadius(0));
+        assertTrue(outline.getRadius(1) <= InkOutline.maxRadius(10));
+    }
+
+    @Test
+    public void radius_shrinksWithVelocity() {
+        InkOutline slow = new InkOutline();
+        InkOutline fast = new InkOutline();
+        slow.begin(10);
+        fast.begin(10);
+        for (int i = 0; i < 10; i++) {
+            slow.add(i, 0, i * 16, 0.5f);
+            fast.add(i * 40, 0, i * 16, 0.5f);
+        }
+        assertTrue(fast.getRadius(9) < slow.getRadius(9));
+        //再快也不会细过下限
+        float minRadius = 5 * InkOutline.MIN_PRESSURE_FACTOR * InkOutline.MIN_VELOCITY_FACTOR;
+        assertTrue(fast.getRadius(9) >= minRadius - 1e-4f);
+    }
+
+    @Test
+    public void of_matchesIncrementalBuild() {
+        StrokeBuilder builder = new StrokeBuilder();
+        InkOutline incremental = new InkOutline(2);
+        incremental.begin(6);
+        builder.begin(0, 0, 100, 0.3f);
+        incremental.add(0, 0, 0, 0.3f);
+        StrokeBuilderTest.RecordingSink live = new StrokeBuilderTest.RecordingSink();
+        incremental.emitLast(live);
+        for (int i = 1; i < 20; i++) {
+            float x = i * 3;
+            float y = (float) Math.sin(i) * 10;
+            builder.add(x, y, 100 + i * 8, 0.3f + i * 0.03f);
+            incremental.add(x, y, i * 8, 0.3f + i * 0.03f);
+            incremental.emitLast(live);
+        }
+        InkOutline replayed = InkOutline.of(builder.build(), 6);
+
+        StrokeBuilderTest.RecordingSink full = new StrokeBuilderTest.RecordingSink();
+        replayed.emit(full);
+        assertEquals(20, replayed.getPointCount());
+        assertEquals(full.commands, live.commands);
+    }
+
+    @Test
+    public void emitLast_addsSegmentAndCircle() {
+        InkOutline outline = new InkOutline();
+        outline.begin(4);
+        PolygonSink sink = new PolygonSink();
+        outline.add(0, 0, 0, 0.5f);
+        outline.emitLast(sink);
+        assertEquals(1, sink.polygons.size());
+        outline.add(10, 0, 16, 0.5f);
+        outline.emitLast(sink);
+        assertEquals(3, sink.polygons.size());
+        //重合的点只输出圆
+        outline.add(10, 0, 32, 0.5f);
+        outline.emitLast(sink);
+        assertEquals(4, sink.polygons.size());
+        assertEquals(4, sink.closed);
+    }
+
+    @Test
+    public void polygons_shareWinding() {
+        InkOutline outline = new InkOutline();
+        outline.begin(8);
+        float[][] points = {{0, 0}, {20, 5}, {25, 30}, {-10, 20}, {-15, -5}};
+        for (int i = 0; i < points.length; i++) {
+            outline.add(points[i][0], points[i][1], i * 16, 0.5f);
+        }
+        PolygonSink sink = new PolygonSink();
+        outline.emit(sink);
+        assertEquals(points.length * 2 - 1, sink.polygons.size());
+        for (List<float[]> polygon : sink.polygons) {
+            assertTrue(signedArea(polygon) < 0);
+        }
+    }
+
+    @Test
+    public void outline_staysWithinMaxRadius() {
+        InkOutline outline = new InkOutline();
+        outline.begin(8);
+        outline.add(0, 0, 0, 1.5f);
+        outline.add(30, 0, 16, 1f);
+        float limit = InkOutline.maxRadius(8) * 1.01f;
+        PolygonSink sink = new PolygonSink();
+        outline.emit(sink);
+        for (List<float[]> polygon : sink.polygons) {
+            for (float[] vertex : polygon) {
+                float distance = Math.min(Math.abs(vertex[1]),
+                        Math.min((float) Math.hypot(vertex[0], vertex[1]), (float) Math.hypot(vertex[0] - 30, vertex[1])));
+                assertTrue(distance <= limit);
+            }
+        }
+    }
+}
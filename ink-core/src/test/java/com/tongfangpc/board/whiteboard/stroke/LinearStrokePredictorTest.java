@@ -0,0 +1,119 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * LinearStrokePredictor的本地单元测试，用合成的笔迹代替记录的书写数据
+ */
+public class LinearStrokePredictorTest {
+
+    static final float HORIZON = 16;
+
+    /*
+    每8毫秒一个采样点的笔迹，位置由trace给出
+     */
+    interface Trace {
+        float x(float time);
+
+        float y(float time);
+    }
+
+    static Stroke record(Trace trace, int pointCount, float noise, long seed) {
+        Random random = new Random(seed);
+        float[] samples = new float[pointCount * Stroke.STRIDE];
+        for (int i = 0; i < pointCount; i++) {
+            float time = i * 8;
+            samples[i * Stroke.STRIDE + Stroke.X] = trace.x(time) + (float) random.nextGaussian() * noise;
+            samples[i * Stroke.STRIDE + Stroke.Y] = trace.y(time) + (float) random.nextGaussian() * noise;
+            samples[i * Stroke.STRIDE + Stroke.TIME] = time;
+            samples[i * Stroke.STRIDE + Stroke.PRESSURE] = 0.5f;
+        }
+        return Stroke.of(samples, pointCount);
+    }
+
+    static final Trace LINE = new Trace() {
+        @Override
+        public float x(float time) {
+            return 100 + time * 0.8f;
+        }
+
+        @Override
+        public float y(float time) {
+            return 50 + time * 0.3f;
+        }
+    };
+
+    static final Trace CIRCLE = new Trace() {
+        @Override
+        public float x(float time) {
+            return 300 + 120 * (float) Math.cos(time * 0.006);
+        }
+
+        @Override
+        public float y(float time) {
+            return 300 + 120 * (float) Math.sin(time * 0.006);
+        }
+    };
+
+    @Test
+    public void line_isPredictedExactly() {
+        PredictionEvaluator.Result result = PredictionEvaluator.evaluate(record(LINE, 60, 0, 1),
+                new LinearStrokePredictor(), HORIZON, 1000);
+        assertTrue(result.getSampleCount() > 50);
+        assertTrue(result.getBaselineMeanError() > 10);
+        //只有第一个点无法预测
+        assertTrue(result.toString(), result.getMeanError() < result.getBaselineMeanError() * 0.02f);
+    }
+
+    @Test
+    public void curve_beatsNoPrediction() {
+        PredictionEvaluator.Result result = PredictionEvaluator.evaluate(record(CIRCLE, 120, 0, 1),
+                new LinearStrokePredictor(), HORIZON, 1000);
+        assertTrue(result.toString(), result.getMeanError() < result.getBaselineMeanError() * 0.25f);
+    }
+
+    @Test
+    public void noisyTrace_beatsNoPrediction() {
+        PredictionEvaluator.Result result = PredictionEvaluator.evaluate(record(CIRCLE, 120, 0.8f, 7),
+                new LinearStrokePredictor(), HORIZON, 1000);
+        assertTrue(result.toString(), result.getMeanError() < result.getBaselineMeanError() * 0.5f);
+    }
+
+    @Test
+    public void predict_isCappedAndEndsAtHorizon() {
+        LinearStrokePredictor predictor = new LinearStrokePredictor();
+        for (int i = 0; i < 5; i++) {
+            predictor.add(i * 20, 0, i * 8, 0.7f);
+        }
+        float[] out = new float[StrokePredictor.MAX_POINTS * Stroke.STRIDE];
+        int count = predictor.predict(HORIZON, 10, out);
+        assertTrue(count > 0);
+        int last = (count - 1) * Stroke.STRIDE;
+        assertEquals(90, out[last + Stroke.X], 1e-3f);
+        assertEquals(0, out[last + Stroke.Y], 1e-3f);
+        assertEquals(32 + HORIZON, out[last + Stroke.TIME], 1e-3f);
+        assertEquals(0.7f, out[last + Stroke.PRESSURE], 0);
+    }
+
+    @Test
+    public void predict_stopsWhenPenRests() {
+        LinearStrokePredictor predictor = new LinearStrokePredictor();
+        float[] out = new float[StrokePredictor.MAX_POINTS * Stroke.STRIDE];
+        predictor.add(0, 0, 0, 0.5f);
+        assertEquals(0, predictor.predict(HORIZON, 100, out));
+        for (int i = 1; i <= 3; i++) {
+            predictor.add(i * 10, 0, i * 8, 0.5f);
+        }
+        for (int i = 4; i <= 12; i++) {
+            predictor.add(30, 0, i * 8, 0.5f);
+        }
+        assertEquals(0, predictor.predict(HORIZON, 100, out));
+
+        predictor.reset();
+        assertEquals(0, predictor.predict(HORIZON, 100, out));
+    }
+}
@@ -0,0 +1,157 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stroke与StrokeBuilder的本地单元测试
+ */
+public class StrokeBuilderTest {
+
+    /*
+    把输出的曲线记录为字符串，方便比较
+     */
+    static class RecordingSink implements PathSink {
+        final List<String> commands = new ArrayList<>();
+
+        @Override
+        public void moveTo(float x, float y) {
+            commands.add("M" + x + "," + y);
+        }
+
+        @Override
+        public void quadTo(float x1, float y1, float x2, float y2) {
+            commands.add("Q" + x1 + "," + y1 + "," + x2 + "," + y2);
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            commands.add("L" + x + "," + y);
+        }
+
+        @Override
+        public void close() {
+            commands.add("Z");
+        }
+    }
+
+    @Test
+    public void build_packsSamplesRelativeToStartTime() {
+        StrokeBuilder builder = new StrokeBuilder(1);
+        builder.begin(10, 20, 1000, 0.5f);
+        builder.add(30, 40, 1016, 0.75f);
+        builder.add(50, 10, 1032, 1f);
+        Stroke stroke = builder.build();
+
+        assertEquals(3, stroke.getPointCount());
+        assertEquals(30, stroke.getX(1), 0);
+        assertEquals(40, stroke.getY(1), 0);
+        assertEquals(16, stroke.getTime(1), 0);
+        assertEquals(0.75f, stroke.getPressure(1), 0);
+        assertEquals(32, stroke.getTime(2), 0);
+
+        assertEquals(10, stroke.getLeft(), 0);
+        assertEquals(10, stroke.getTop(), 0);
+        assertEquals(50, stroke.getRight(), 0);
+        assertEquals(40, stroke.getBottom(), 0);
+    }
+
+    @Test
+    public void build_copiesExactLengthAndBuilderIsReusable() {
+        StrokeBuilder builder = new StrokeBuilder();
+        builder.begin(0, 0, 0, 1);
+        builder.add(1, 1, 1, 1);
+        Stroke first = builder.build();
+
+        builder.begin(5, 5, 100, 1);
+        Stroke second = builder.build();
+
+        assertEquals(2 * Stroke.STRIDE, first.samples.length);
+        assertEquals(1, second.getPointCount());
+        assertEquals(1, first.getX(1), 0);
+        assertEquals(5, second.getX(0), 0);
+    }
+
+    @Test
+    public void emitPath_matchesIncrementalSegments() {
+        StrokeBuilder builder = new StrokeBuilder();
+        RecordingSink incremental = new RecordingSink();
+        builder.begin(0, 0, 0, 1);
+        builder.emitLastSegment(incremental);
+        builder.add(10, 0, 10, 1);
+        builder.emitLastSegment(incremental);
+        builder.add(10, 20, 20, 1);
+        builder.emitLastSegment(incremental);
+
+        RecordingSink replay = new RecordingSink();
+        builder.build().emitPath(replay);
+
+        assertEquals(incremental.commands, replay.commands);
+        assertEquals("M0.0,0.0", replay.commands.get(0));
+        assertEquals("Q0.0,0.0,0.0,0.0", replay.commands.get(1));
+        assertEquals("Q0.0,0.0,5.0,0.0", replay.commands.get(2));
+        assertEquals("Q10.0,0.0,10.0,10.0", replay.commands.get(3));
+    }
+
+    @Test
+    public void emitPathWithMinDistance_skipsClosePointsButKeepsEnds() {
+        StrokeBuilder builder = new StrokeBuilder();
+        builder.begin(0, 0, 0, 1);
+        builder.add(1, 0, 1, 1);
+        builder.add(2, 0, 2, 1);
+        builder.add(10, 0, 3, 1);
+        builder.add(11, 0, 4, 1);
+        Stroke stroke = builder.build();
+
+        RecordingSink simplified = new RecordingSink();
+        stroke.emitPath(simplified, 5);
+        assertEquals(4, simplified.commands.size());
+        assertEquals("M0.0,0.0", simplified.commands.get(0));
+        assertEquals("Q0.0,0.0,0.0,0.0", simplified.commands.get(1));
+        assertEquals("Q0.0,0.0,5.0,0.0", simplified.commands.get(2));
+        assertEquals("Q10.0,0.0,10.5,0.0", simplified.commands.get(3));
+
+        RecordingSink full = new RecordingSink();
+        RecordingSink unsimplified = new RecordingSink();
+        stroke.emitPath(full);
+        stroke.emitPath(unsimplified, 0);
+        assertEquals(full.commands, unsimplified.commands);
+    }
+
+    @Test
+    public void intersectsCircle_measuresDistanceToSegments() {
+        StrokeBuilder builder = new StrokeBuilder();
+        builder.begin(0, 0, 0, 1);
+        builder.add(100, 0, 1, 1);
+        builder.add(100, 100, 2, 1);
+        Stroke stroke = builder.build();
+        //线段中间，包围盒内部
+        assertTrue(stroke.intersectsCircle(50, 4, 5));
+        assertFalse(stroke.intersectsCircle(50, 6, 5));
+        //包围盒内但离折线较远
+        assertFalse(stroke.intersectsCircle(40, 60, 10));
+        //端点之外
+        assertTrue(stroke.intersectsCircle(-3, -4, 5));
+        assertFalse(stroke.intersectsCircle(-4, -4, 5));
+
+        builder.begin(10, 10, 0, 1);
+        Stroke dot = builder.build();
+        assertTrue(dot.intersectsCircle(13, 14, 5));
+        assertFalse(dot.intersectsCircle(14, 14, 5));
+    }
+
+    @Test
+    public void byteSize_isSixteenBytesPerPoint() {
+        StrokeBuilder builder = new StrokeBuilder();
+        builder.begin(0, 0, 0, 1);
+        for (int i = 1; i < 1000; i++) {
+            builder.add(i, i, i, 1);
+        }
+        Stroke stroke = builder.build();
+        assertEquals(Stroke.OVERHEAD_BYTES + 1000 * 16, stroke.getByteSize());
+    }
+}
@@ -0,0 +1,120 @@
+package com.tongfangpc.board.whiteboard.stroke;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * StrokeSimplifier的本地单元测试
+ */
+public class StrokeSimplifierTest {
+
+    static Stroke line(int points, float pressure) {
+        StrokeBuilder builder = new StrokeBuilder();
+        builder.begin(0, 0, 0, pressure);
+        for (int i = 1; i < points; i++) {
+            builder.add(i * 2, i, i * 8, pressure);
+        }
+        return builder.build();
+    }
+
+    /*
+    原始的每个采样点到简化后折线的最大距离
+     */
+    static float maxDeviation(Stroke original, Stroke simplified) {
+        float max = 0;
+        for (int i = 0; i < original.getPointCount(); i++) {
+            float best = Float.MAX_VALUE;
+            for (int j = 1; j < simplified.getPointCount(); j++) {
+                best = Math.min(best, Stroke.segmentDistanceSquared(original.getX(i), original.getY(i),
+                        simplified.getX(j - 1), simplified.getY(j - 1), simplified.getX(j), simplified.getY(j)));
+            }
+            max = Math.max(max, (float) Math.sqrt(best));
+        }
+        return max;
+    }
+
+    @Test
+    public void straightLine_keepsEndpointsOnly() {
+        Stroke stroke = line(100, 1);
+        Stroke simplified = new StrokeSimplifier().simplify(stroke, 1);
+        assertEquals(2, simplified.getPointCount());
+        assertEquals(0, simplified.getX(0), 0);
+        assertEquals(198, simplified.getX(1), 0);
+        assertEquals(99 * 8, simplified.getTime(1), 0);
+    }
+
+    @Test
+    public void noisyCurve_staysWithinTolerance() {
+        Random random = new Random(7);
+        StrokeBuilder builder = new StrokeBuilder();
+        builder.begin(100, 0, 0, 1);
+        for (int i = 1; i < 500; i++) {
+            double angle = i * Math.PI * 2 / 500;
+            builder.add((float) (100 * Math.cos(angle) + random.nextFloat() * 0.2f),
+                    (float) (100 * Math.sin(angle) + random.nextFloat() * 0.2f), i * 4, 1);
+        }
+        Stroke stroke = builder.build();
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+        simplifier.setTolerance(0.5f);
+        Stroke simplified = simplifier.simplify(stroke, 1);
+
+        assertTrue(simplified.getPointCount() < stroke.getPointCount() / 4);
+        assertTrue(maxDeviation(stroke, simplified) <= 0.5f + 1e-3f);
+    }
+
+    @Test
+    public void tolerance_isInScreenPixels() {
+        StrokeBuilder builder = new StrokeBuilder();
+        builder.begin(0, 0, 0, 1);
+        builder.add(10, 0.3f, 8, 1);
+        builder.add(20, 0, 16, 1);
+        Stroke stroke = builder.build();
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+        simplifier.setTolerance(0.5f);
+        //世界坐标中0.3的偏差，放大4倍书写时是屏幕上的1.2像素，必须保留
+        assertEquals(2, simplifier.simplify(stroke, 1).getPointCount());
+        assertEquals(3, simplifier.simplify(stroke, 4).getPointCount());
+    }
+
+    @Test
+    public void pressureChanges_areKept() {
+        StrokeBuilder builder = new StrokeBuilder();
+        builder.begin(0, 0, 0, 0.2f);
+        for (int i = 1; i < 50; i++) {
+            builder.add(i, 0, i * 8, i == 25 ? 1f : 0.2f);
+        }
+        Stroke simplified = new StrokeSimplifier().simplify(builder.build(), 1);
+        assertEquals(5, simplified.getPointCount());
+        assertEquals(1f, simplified.getPressure(2), 0);
+    }
+
+    @Test
+    public void shortOrDisabled_returnsSameInstance() {
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+        Stroke shortStroke = line(2, 1);
+        assertSame(shortStroke, simplifier.simplify(shortStroke, 1));
+
+        Stroke stroke = line(20, 1);
+        simplifier.setEnabled(false);
+        assertSame(stroke, simplifier.simplify(stroke, 1));
+    }
+
+    @Test
+    public void listener_reportsReduction() {
+        final int[] counts = new int[2];
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+        simplifier.setListener(new StrokeSimplifier.Listener() {
+            @Override
+            public void onStrokeSimplified(int inputPoints, int outputPoints, long nanos) {
+                counts[0] = inputPoints;
+                counts[1] = outputPoints;
+            }
+        });
+        simplifier.simplify(line(40, 1), 1);
+        assertEquals(40, counts[0]);
+        assertEquals(2, counts[1]);
+    }
+}